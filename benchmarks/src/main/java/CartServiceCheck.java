@@ -0,0 +1,119 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Adds products to shared sessions from many threads through a
+ * {@link CartService} that holds far fewer carts than there are sessions and
+ * evicts idle carts after a few milliseconds, backed by a {@link CartStore}.
+ * Carts are evicted and loaded again all the time while other threads change
+ * them. Checks that the number of carts held never exceeds the limit and that
+ * every session ends up with every unit added to it. Exits with status 1 on
+ * any mismatch.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CartServiceCheck [threads] [sessions] [adds per thread]
+ */
+public class CartServiceCheck {
+    private static final int PRODUCTS = 20;
+    private static final int MAX_CARTS = 32;
+    private static final long IDLE_MS = 5;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int sessions = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+        int adds = args.length > 2 ? Integer.parseInt(args[2]) : 10_000;
+        Path directory = ScratchDatabase.create();
+        List<String> failures = new ArrayList<>();
+        try {
+            int[] ids = DatabaseHelper.addProducts(generate(PRODUCTS)).getIds();
+            Product[] products = new Product[ids.length];
+            for (int i = 0; i < ids.length; i++) {
+                products[i] = DatabaseHelper.getProduct(ids[i]);
+            }
+            CartStore store = new CartStore(20);
+            CartService carts = new CartService(IDLE_MS, MAX_CARTS, Integer.MAX_VALUE, store);
+            AtomicIntegerArray expected = new AtomicIntegerArray(sessions * PRODUCTS);
+            AtomicInteger mostCarts = new AtomicInteger();
+
+            Thread monitor = new Thread(() -> {
+                while (!Thread.currentThread().isInterrupted()) {
+                    mostCarts.accumulateAndGet(carts.getCartCount(), Math::max);
+                    Thread.onSpinWait();
+                }
+            });
+            monitor.start();
+            long start = System.nanoTime();
+            List<Thread> workers = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                Thread worker = new Thread(() -> {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    for (int i = 0; i < adds; i++) {
+                        int session = random.nextInt(sessions);
+                        int product = random.nextInt(PRODUCTS);
+                        carts.addProduct(session(session), products[product]);
+                        expected.incrementAndGet(session * PRODUCTS + product);
+                    }
+                });
+                workers.add(worker);
+                worker.start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            monitor.interrupt();
+            monitor.join();
+            carts.close();
+
+            if (mostCarts.get() > MAX_CARTS) {
+                failures.add(mostCarts.get() + " carts held at once, limit " + MAX_CARTS);
+            }
+            store.flush();
+            for (int session = 0; session < sessions; session++) {
+                ShoppingCart cart = carts.getCart(session(session));
+                synchronized (cart) {
+                    for (int product = 0; product < PRODUCTS; product++) {
+                        CartLine line = cart.getLine(ids[product]);
+                        int actual = line == null ? 0 : line.getQuantity();
+                        int want = expected.get(session * PRODUCTS + product);
+                        if (actual != want) {
+                            failures.add(session(session) + " has " + actual + " of product " + ids[product]
+                                    + ", expected " + want);
+                        }
+                    }
+                }
+            }
+            store.close();
+            System.out.printf("%d threads, %d sessions, %d adds in %.1f s; at most %d of %d carts held%n",
+                    threads, sessions, threads * adds, seconds, mostCarts.get(), MAX_CARTS);
+        } finally {
+            ScratchDatabase.delete(directory);
+        }
+        for (String failure : failures.subList(0, Math.min(failures.size(), 20))) {
+            System.out.println("FAIL " + failure);
+        }
+        System.out.printf("%d failures%n", failures.size());
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static String session(int i) {
+        return "session-" + i;
+    }
+
+    private static Iterator<Product> generate(int count) {
+        Random random = new Random(7);
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(ProductFactory.newProduct(ProductFactory.GENERAL, "Product " + i,
+                    (1 + random.nextInt(10_000)) / 100.0, "Description of product " + i, 1000));
+        }
+        return products.iterator();
+    }
+}
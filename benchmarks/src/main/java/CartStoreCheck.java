@@ -0,0 +1,211 @@
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fills carts of many sessions through a {@link CartService} backed by a
+ * {@link CartStore}, flushes them, and then starts a second service on the
+ * same database, as after a restart, and checks that every session gets its
+ * cart back on first access. Also checks that removed carts stay removed,
+ * that lines of deleted products are dropped, that a cart evicted before
+ * its changes were written keeps them, and that a cart changed after its
+ * eviction is not written. Prints the time taken by flushes and by
+ * the lazy loads, and exits with status 1 on any mismatch.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CartStoreCheck [sessions]
+ */
+public class CartStoreCheck {
+    private static final int PRODUCTS = 1000;
+    private static final int CHANGES_PER_SESSION = 20;
+    private static final long HOUR_MS = 60 * 60 * 1000;
+
+    public static void main(String[] args) throws Exception {
+        int sessions = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        Path directory = ScratchDatabase.create();
+        List<String> failures = new ArrayList<>();
+        try {
+            int[] ids = DatabaseHelper.addProducts(generate(PRODUCTS)).getIds();
+            Random random = new Random(42);
+
+            CartStore store = new CartStore(HOUR_MS);
+            CartService carts = new CartService(HOUR_MS, sessions, Integer.MAX_VALUE, store);
+            long start = System.nanoTime();
+            for (int i = 0; i < sessions; i++) {
+                for (int change = 0; change < CHANGES_PER_SESSION; change++) {
+                    Product product = DatabaseHelper.getProduct(ids[random.nextInt(8)]);
+                    if (random.nextInt(4) == 0) {
+                        carts.removeProduct(session(i), product);
+                    } else {
+                        carts.addProduct(session(i), product, 1 + random.nextInt(3));
+                    }
+                }
+            }
+            report("fill carts", start, sessions * CHANGES_PER_SESSION + " changes");
+
+            // for comparison: the whole cart written on every change, each in its own transaction
+            int samples = Math.min(1000, sessions);
+            start = System.nanoTime();
+            for (int i = 0; i < samples; i++) {
+                List<CartStore.LineChange> lines = new ArrayList<>();
+                for (Map.Entry<Integer, Integer> line : linesOf(carts.getCart(session(i))).entrySet()) {
+                    lines.add(new CartStore.LineChange(session(i), line.getKey(), line.getValue()));
+                }
+                DatabaseHelper.writeCartLines(List.of(), lines);
+            }
+            report("write whole cart", start, String.format("%.1f us per change, %d samples",
+                    (System.nanoTime() - start) / 1e3 / samples, samples));
+
+            start = System.nanoTime();
+            store.flush();
+            report("first flush", start, String.format("%.1f us per change",
+                    (System.nanoTime() - start) / 1e3 / (sessions * CHANGES_PER_SESSION)));
+
+            // a few more changes: only these lines are written by the next flush
+            for (int i = 0; i < sessions; i += 10) {
+                carts.addProduct(session(i), DatabaseHelper.getProduct(ids[100 + random.nextInt(100)]));
+            }
+            for (int i = 5; i < sessions; i += 50) {
+                carts.removeCart(session(i));
+            }
+            start = System.nanoTime();
+            store.flush();
+            report("second flush", start, sessions / 10 + " lines changed, " + sessions / 50 + " carts removed");
+            if (store.getDirtyCartCount() != 0) {
+                failures.add(store.getDirtyCartCount() + " carts still dirty after a flush");
+            }
+
+            int expectedLines = 0;
+            for (int i = 0; i < sessions; i++) {
+                expectedLines += linesOf(carts.getCart(session(i))).size();
+            }
+            int stored = storedLines(sessions);
+            if (stored != expectedLines) {
+                failures.add(stored + " lines stored, expected " + expectedLines);
+            }
+
+            int deleted = ids[0];
+            DatabaseHelper.deleteProduct(deleted);
+            Map<String, Map<Integer, Integer>> expected = new HashMap<>();
+            for (int i = 0; i < sessions; i++) {
+                Map<Integer, Integer> lines = linesOf(carts.getCart(session(i)));
+                lines.remove(deleted);
+                expected.put(session(i), lines);
+            }
+            carts.close();
+            store.close();
+
+            start = System.nanoTime();
+            CartStore restarted = new CartStore(HOUR_MS);
+            CartService recovered = new CartService(HOUR_MS, sessions, Integer.MAX_VALUE, restarted);
+            report("restart", start, "nothing loaded yet");
+            start = System.nanoTime();
+            for (int i = 0; i < sessions; i++) {
+                Map<Integer, Integer> actual = linesOf(recovered.getCart(session(i)));
+                if (!actual.equals(expected.get(session(i)))) {
+                    failures.add(session(i) + ": " + actual + ", expected " + expected.get(session(i)));
+                }
+            }
+            report("load every cart", start, String.format("%.1f us per cart",
+                    (System.nanoTime() - start) / 1e3 / sessions));
+            // the lines of the deleted product were marked to be removed on load
+            restarted.flush();
+            for (int i = 0; i < sessions; i++) {
+                if (DatabaseHelper.getCartLines(session(i)).containsKey(deleted)) {
+                    failures.add("the line of a deleted product was not removed from " + session(i));
+                }
+            }
+            recovered.close();
+            restarted.close();
+
+            // one cart in memory at a time: the first is evicted before its change is written
+            CartStore store3 = new CartStore(HOUR_MS);
+            CartService small = new CartService(HOUR_MS, 1, Integer.MAX_VALUE, store3);
+            small.addProduct("evicted", DatabaseHelper.getProduct(ids[1]), 2);
+            small.getCart("other");
+            if (small.getCartCount() != 1 || !linesOf(small.getCart("evicted")).equals(Map.of(ids[1], 2))) {
+                failures.add("an evicted cart lost its unwritten change");
+            }
+            small.close();
+            store3.close();
+
+            // a cart changed through a reference kept after its eviction is not written over the next one
+            CartStore store4 = new CartStore(HOUR_MS);
+            CartService one = new CartService(HOUR_MS, 1, Integer.MAX_VALUE, store4);
+            one.addProduct("held", DatabaseHelper.getProduct(ids[1]), 1);
+            store4.flush();
+            ShoppingCart held = one.getCart("held");
+            one.getCart("other");
+            held.addProduct(DatabaseHelper.getProduct(ids[2]), 5);
+            one.addProduct("held", DatabaseHelper.getProduct(ids[3]), 1);
+            store4.flush();
+            ShoppingCart current = one.getCart("held");
+            if (current == held || !DatabaseHelper.getCartLines("held").equals(linesOf(current))
+                    || !linesOf(current).equals(Map.of(ids[1], 1, ids[3], 1))) {
+                failures.add("a cart changed after its eviction was written: stored "
+                        + DatabaseHelper.getCartLines("held") + ", in memory " + linesOf(current));
+            }
+            one.close();
+            store4.close();
+        } finally {
+            ScratchDatabase.delete(directory);
+        }
+        for (String failure : failures.subList(0, Math.min(failures.size(), 20))) {
+            System.out.println("FAIL " + failure);
+        }
+        System.out.printf("%d failures%n", failures.size());
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static String session(int i) {
+        return "session-" + i;
+    }
+
+    private static Map<Integer, Integer> linesOf(ShoppingCart cart) {
+        Map<Integer, Integer> lines = new LinkedHashMap<>();
+        synchronized (cart) {
+            for (CartLine line : cart.getLines()) {
+                lines.put(line.getProduct().getId(), line.getQuantity());
+            }
+        }
+        return lines;
+    }
+
+    private static int storedLines(int sessions) throws SQLException {
+        int total = 0;
+        for (int i = 0; i < sessions; i++) {
+            total += DatabaseHelper.getCartLines(session(i)).size();
+        }
+        return total;
+    }
+
+    private static void report(String step, long start, String detail) {
+        System.out.printf("%-18s %8.1f ms  %s%n", step, (System.nanoTime() - start) / 1e6, detail);
+    }
+
+    private static Iterator<Product> generate(int count) {
+        Random random = new Random(7);
+        return new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                return ProductFactory.newProduct(ProductFactory.GENERAL, "Product " + next,
+                        (1 + random.nextInt(10_000)) / 100.0, "Description of product " + next, 1000);
+            }
+        };
+    }
+}
@@ -0,0 +1,53 @@
+import benchmarks.CartBenchmark;
+
+public class CartWorkload implements CartBenchmark.Ops {
+    private final ShoppingCart cart = new ShoppingCart();
+    private final PricingEngine engine = new PricingEngine();
+    private Product[] products;
+    private int next;
+
+    @Override
+    public void setUp(int cartSize) {
+        engine.addRule(PricingRule.percentOff(0, null, 10));
+        products = new Product[cartSize];
+        // enough units that removals never empty a line, few enough that the item count cannot overflow
+        int quantity = 1_000_000_000 / cartSize;
+        for (int i = 0; i < cartSize; i++) {
+            products[i] = new Product("Product " + i, i % 100 + 0.99, null, quantity);
+            products[i].setId(i + 1);
+            cart.addProduct(products[i], quantity);
+        }
+    }
+
+    @Override
+    public Object addProduct() {
+        Product product = nextProduct();
+        cart.addProduct(product);
+        return product;
+    }
+
+    @Override
+    public Object removeProduct() {
+        Product product = nextProduct();
+        cart.removeProduct(product);
+        return product;
+    }
+
+    @Override
+    public long total() {
+        return cart.getTotalCents();
+    }
+
+    @Override
+    public long repricedTotal() {
+        synchronized (cart) {
+            return engine.totalCents(cart.getLines());
+        }
+    }
+
+    private Product nextProduct() {
+        Product product = products[next];
+        next = next + 1 == products.length ? 0 : next + 1;
+        return product;
+    }
+}
@@ -0,0 +1,24 @@
+import org.openjdk.jol.info.GraphLayout;
+
+import java.util.List;
+
+/**
+ * Reports the retained heap per product of a {@code List<Product>} and of a
+ * ColumnarCatalog holding the same products, measured with JOL.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CatalogFootprint [products]
+ */
+public class CatalogFootprint {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        List<Product> list = ColumnarCatalogWorkload.generate(count);
+        ColumnarCatalog catalog = ColumnarCatalog.load(list.iterator());
+
+        long listBytes = GraphLayout.parseInstance(list).totalSize();
+        long catalogBytes = GraphLayout.parseInstance(catalog).totalSize();
+        System.out.printf("products: %d, distinct strings in catalog: %d%n", count, catalog.getDistinctStrings());
+        System.out.printf("List<Product>:   %,d bytes, %.1f bytes/product%n", listBytes, listBytes / (double) count);
+        System.out.printf("ColumnarCatalog: %,d bytes, %.1f bytes/product%n", catalogBytes,
+                catalogBytes / (double) count);
+    }
+}
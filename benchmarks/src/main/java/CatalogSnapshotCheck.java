@@ -0,0 +1,152 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Exports a scratch catalog to a {@link CatalogSnapshot}, reopens it, and
+ * compares every product with the database, then changes some products and
+ * checks that an incremental refresh picks up exactly those changes. Prints
+ * the time taken by each step next to loading the catalog with
+ * {@code getAllProducts()}, and exits with status 1 on any mismatch or if a
+ * corrupted snapshot is not rejected.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar CatalogSnapshotCheck [products]
+ */
+public class CatalogSnapshotCheck {
+    private static final String[] CATEGORIES = {ProductFactory.ELECTRONICS, ProductFactory.CLOTHING,
+            ProductFactory.GENERAL};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        Path directory = ScratchDatabase.create();
+        List<String> failures = new ArrayList<>();
+        try {
+            DatabaseHelper.addProducts(generate(count, 42));
+            Path file = directory.resolve("catalog.snapshot");
+
+            long start = System.nanoTime();
+            List<Product> products = DatabaseHelper.getAllProducts();
+            report("getAllProducts", start, products.size() + " products");
+
+            start = System.nanoTime();
+            CatalogSnapshot exported = CatalogSnapshot.export(file);
+            report("export", start, exported.getFileSize() / 1024 + " KiB");
+
+            start = System.nanoTime();
+            CatalogSnapshot snapshot = CatalogSnapshot.open(file);
+            Product first = snapshot.find(products.get(products.size() / 2).getId());
+            report("open and first lookup", start, first.getName());
+            compare(snapshot, products, "export", failures);
+
+            Random random = new Random(7);
+            for (int i = 0; i < 100; i++) {
+                Product product = products.get(random.nextInt(products.size()));
+                Product updated = ProductFactory.newProduct(ProductFactory.CLOTHING, product.getName() + " v2",
+                        product.getPrice() + 1, "Updated", product.getStockQuantity() + 1);
+                updated.setId(product.getId());
+                DatabaseHelper.updateProduct(updated);
+            }
+            for (int i = 0; i < 50; i++) {
+                DatabaseHelper.deleteProduct(products.get(random.nextInt(products.size())).getId());
+            }
+            DatabaseHelper.addProducts(generate(100, 43));
+            DatabaseHelper.decrementStock(Map.of(products.get(0).getId(), 1));
+
+            start = System.nanoTime();
+            CatalogSnapshot refreshed = snapshot.refresh();
+            report("refresh", start, refreshed.size() + " products");
+            compare(refreshed, DatabaseHelper.getAllProducts(), "refresh", failures);
+            if (refreshed.refresh() != refreshed) {
+                failures.add("refresh without changes rewrote the snapshot");
+            }
+
+            // enough changes that the refresh compacts the string heap
+            Map<Integer, Integer> sold = new HashMap<>();
+            for (int i = 0; i < products.size(); i += 3) {
+                sold.put(products.get(i).getId(), 1);
+            }
+            DatabaseHelper.decrementStock(sold);
+            start = System.nanoTime();
+            CatalogSnapshot compacted = refreshed.refresh();
+            report("refresh and compact", start, compacted.getFileSize() / 1024 + " KiB");
+            compare(compacted, DatabaseHelper.getAllProducts(), "compacting refresh", failures);
+
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer flipped = ByteBuffer.allocate(1);
+                channel.read(flipped, channel.size() / 2);
+                flipped.put(0, (byte) ~flipped.get(0)).rewind();
+                channel.write(flipped, channel.size() / 2);
+            }
+            try {
+                CatalogSnapshot.open(file);
+                failures.add("a corrupted snapshot was opened");
+            } catch (IOException expected) {
+                System.out.println("corrupted snapshot rejected: " + expected.getMessage());
+            }
+        } finally {
+            ScratchDatabase.delete(directory);
+        }
+        for (String failure : failures) {
+            System.out.println("FAIL " + failure);
+        }
+        System.out.printf("%d failures%n", failures.size());
+        if (!failures.isEmpty()) {
+            System.exit(1);
+        }
+    }
+
+    private static void compare(CatalogSnapshot snapshot, List<Product> products, String step,
+                                List<String> failures) {
+        products.sort((a, b) -> Integer.compare(a.getId(), b.getId()));
+        if (snapshot.size() != products.size()) {
+            failures.add(step + ": " + snapshot.size() + " products, expected " + products.size());
+            return;
+        }
+        Iterator<Product> rows = snapshot.iterator();
+        for (Product expected : products) {
+            Product actual = rows.next();
+            if (!describe(actual).equals(describe(expected))) {
+                failures.add(step + ": " + describe(actual) + ", expected " + describe(expected));
+            }
+        }
+    }
+
+    private static String describe(Product product) {
+        return product.getId() + " " + product.getClass().getSimpleName() + " " + product.getName() + " "
+                + product.getPrice() + " " + ProductFactory.discountOf(product) + " " + product.getStockQuantity()
+                + " " + ProductFactory.undecorated(product).getDescription();
+    }
+
+    private static void report(String step, long start, String detail) {
+        System.out.printf("%-22s %8.1f ms  %s%n", step, (System.nanoTime() - start) / 1e6, detail);
+    }
+
+    private static Iterator<Product> generate(int count, long seed) {
+        Random random = new Random(seed);
+        return new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                Product product = ProductFactory.newProduct(CATEGORIES[random.nextInt(CATEGORIES.length)],
+                        "Product " + next, (1 + random.nextInt(100_000)) / 100.0, "Description of product " + next,
+                        random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(100));
+                return random.nextInt(5) == 0 ? new DiscountedProduct(product, 5 + random.nextInt(40)) : product;
+            }
+        };
+    }
+}
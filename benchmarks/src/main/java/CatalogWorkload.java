@@ -0,0 +1,82 @@
+import benchmarks.CatalogBenchmark;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class CatalogWorkload implements CatalogBenchmark.Ops {
+    private Path directory;
+    private int catalogSize;
+
+    @Override
+    public void setUp(int catalogSize) throws Exception {
+        this.catalogSize = catalogSize;
+        directory = ScratchDatabase.create();
+        // a new database holds the four seed products, so ids 1..catalogSize all exist
+        DatabaseHelper.addProducts(new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < catalogSize;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                return new Product("Product " + next, next % 1000 + 0.99, "Description of product " + next, 100);
+            }
+        });
+    }
+
+    @Override
+    public Object getProduct() throws Exception {
+        return DatabaseHelper.getProduct(randomId());
+    }
+
+    @Override
+    public Object getAllProducts() throws Exception {
+        return DatabaseHelper.getAllProducts();
+    }
+
+    @Override
+    public Object updateProduct() throws Exception {
+        int id = randomId();
+        Product product = new Product("Product " + id, id % 1000 + 0.99, "Description of product " + id,
+                ThreadLocalRandom.current().nextInt(100));
+        product.setId(id);
+        DatabaseHelper.updateProduct(product);
+        return product;
+    }
+
+    @Override
+    public Object updateHotProduct() throws Exception {
+        int id = 1 + ThreadLocalRandom.current().nextInt(10);
+        Product product = new Product("Product " + id, id % 1000 + 0.99, "Description of product " + id,
+                ThreadLocalRandom.current().nextInt(100));
+        product.setId(id);
+        DatabaseHelper.updateProduct(product);
+        return product;
+    }
+
+    @Override
+    public Object addAndDeleteProduct() throws Exception {
+        Product product = new Product("Temporary", 1.99, "Added and deleted again", 1);
+        DatabaseHelper.addProduct(product);
+        DatabaseHelper.deleteProduct(product.getId());
+        return product;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        WriteBehindBuffer buffer = DatabaseHelper.getWriteBehindBuffer();
+        if (buffer != null) {
+            buffer.close();
+        }
+        ScratchDatabase.delete(directory);
+    }
+
+    private int randomId() {
+        return 1 + ThreadLocalRandom.current().nextInt(catalogSize);
+    }
+}
@@ -0,0 +1,87 @@
+import benchmarks.ColumnarCatalogBenchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ColumnarCatalogWorkload implements ColumnarCatalogBenchmark.Ops {
+    private static final long MIN_CENTS = 100_00;
+    private static final long MAX_CENTS = 500_00;
+
+    private List<Product> list;
+    private ColumnarCatalog catalog;
+    private Product[] productMatches;
+    private int[] rowMatches;
+
+    @Override
+    public void setUp(int catalogSize) {
+        list = generate(catalogSize);
+        catalog = ColumnarCatalog.load(list.iterator());
+        productMatches = new Product[catalogSize];
+        rowMatches = new int[catalogSize];
+    }
+
+    /**
+     * Generates products with unique names, descriptions shared by all products
+     * of a category and about one in ten out of stock.
+     */
+    static List<Product> generate(int count) {
+        Random random = new Random(42);
+        String[] descriptions = new String[200];
+        for (int i = 0; i < descriptions.length; i++) {
+            descriptions[i] = "Category " + i + " item with standard warranty and free returns";
+        }
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 1; i <= count; i++) {
+            double price = (1 + random.nextInt(100_000)) / 100.0;
+            int stock = random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(100);
+            // a new String per product, as when products are read from the database
+            Product product = new Product("Product " + i, price,
+                    new String(descriptions[random.nextInt(descriptions.length)]), stock);
+            product.setId(i);
+            products.add(product);
+        }
+        return products;
+    }
+
+    @Override
+    public int listCount() {
+        int matches = 0;
+        for (Product product : list) {
+            long cents = Math.round(product.getPrice() * 100);
+            if (cents >= MIN_CENTS && cents <= MAX_CENTS && product.getStockQuantity() >= 1) {
+                matches++;
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public int columnarCount() {
+        return catalog.count(MIN_CENTS, MAX_CENTS, 1);
+    }
+
+    @Override
+    public int listFilter() {
+        int matches = 0;
+        for (Product product : list) {
+            long cents = Math.round(product.getPrice() * 100);
+            if (cents >= MIN_CENTS && cents <= MAX_CENTS && product.getStockQuantity() >= 1) {
+                productMatches[matches++] = product;
+            }
+        }
+        return matches;
+    }
+
+    @Override
+    public int columnarFilter() {
+        return catalog.filter(MIN_CENTS, MAX_CENTS, 1, rowMatches);
+    }
+
+    @Override
+    public Object columnarLookup() {
+        Product product = catalog.get(catalog.rowOf(1 + ThreadLocalRandom.current().nextInt(catalog.size())));
+        return product.getName().length() + product.getPrice();
+    }
+}
@@ -0,0 +1,76 @@
+import benchmarks.ConnectionPoolBenchmark;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class ConnectionPoolWorkload implements ConnectionPoolBenchmark.Ops {
+    private static final int PRODUCTS = 1000;
+    private static final int POOL_SIZE = 8;
+    private static final String SQL = "SELECT name, price FROM products WHERE id = ?";
+
+    // the one connection every caller shared before the pool existed
+    private static Connection shared;
+
+    private Path directory;
+    private String url;
+    private ConnectionPool pool;
+    private int[] ids;
+
+    @Override
+    public void setUp() throws Exception {
+        directory = ScratchDatabase.create();
+        url = System.getProperty("ecommerce.db.url");
+        ids = DatabaseHelper.addProducts(new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < PRODUCTS;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                return new Product("Product " + next, next / 100.0, "Description of product " + next, 10);
+            }
+        }).getIds();
+        pool = new ConnectionPool(url, POOL_SIZE, 16);
+        shared = DriverManager.getConnection(url);
+    }
+
+    @Override
+    public Object pooled() throws Exception {
+        try (PooledConnection connection = pool.borrow()) {
+            return query(connection.prepare(SQL));
+        }
+    }
+
+    @Override
+    public Object sharedConnection() throws Exception {
+        // as before the pool: one query at a time on the shared connection, prepared on every call
+        synchronized (ConnectionPoolWorkload.class) {
+            try (PreparedStatement stmt = shared.prepareStatement(SQL)) {
+                return query(stmt);
+            }
+        }
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        pool.close();
+        shared.close();
+        ScratchDatabase.delete(directory);
+    }
+
+    private String query(PreparedStatement stmt) throws Exception {
+        stmt.setInt(1, ids[ThreadLocalRandom.current().nextInt(ids.length)]);
+        try (ResultSet rs = stmt.executeQuery()) {
+            return rs.next() ? rs.getString(1) : null;
+        }
+    }
+}
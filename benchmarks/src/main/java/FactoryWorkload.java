@@ -0,0 +1,29 @@
+import benchmarks.FactoryBenchmark;
+
+import java.nio.file.Path;
+
+public class FactoryWorkload implements FactoryBenchmark.Ops {
+    private Path directory;
+    private String type;
+
+    @Override
+    public void setUp(String type) throws Exception {
+        this.type = type;
+        directory = ScratchDatabase.create();
+    }
+
+    @Override
+    public Object newProduct() {
+        return ProductFactory.newProduct(type, "Benchmark product", 19.99, "Created by the factory benchmark", 5);
+    }
+
+    @Override
+    public Object createProduct() {
+        return ProductFactory.createProduct(type, "Benchmark product", 19.99, "Created by the factory benchmark", 5);
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        ScratchDatabase.delete(directory);
+    }
+}
@@ -0,0 +1,71 @@
+import benchmarks.InventoryBenchmark;
+
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class InventoryWorkload implements InventoryBenchmark.Ops {
+    // enough that no run sells out
+    private static final int STOCK = 1_000_000_000;
+
+    private Path directory;
+    private InventoryService inventory;
+    private int hotProducts;
+
+    @Override
+    public void setUp(int hotProducts) throws Exception {
+        this.hotProducts = hotProducts;
+        directory = ScratchDatabase.create();
+        // a new database holds the four seed products, so ids 1..hotProducts all exist
+        DatabaseHelper.addProducts(new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < hotProducts;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                return new Product("Product " + next, 9.99, "Description of product " + next, STOCK);
+            }
+        });
+        inventory = new InventoryService(15 * 60 * 1000, 1000);
+        // the seed products have little stock
+        for (int id = 1; id <= hotProducts; id++) {
+            inventory.setStock(id, STOCK);
+        }
+    }
+
+    @Override
+    public Object reserveAndCommit() throws Exception {
+        InventoryService.Reservation reservation = inventory.reserve(randomId(), 1);
+        inventory.commit(reservation);
+        return reservation;
+    }
+
+    @Override
+    public Object reserveAndRelease() throws Exception {
+        InventoryService.Reservation reservation = inventory.reserve(randomId(), 1);
+        inventory.release(reservation);
+        return reservation;
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        inventory.close();
+        for (int id = 1; id <= hotProducts; id++) {
+            int stored = DatabaseHelper.getProduct(id).getStockQuantity();
+            if (stored != inventory.getAvailable(id)) {
+                throw new IllegalStateException("Product " + id + " has " + stored + " in stock in the database, "
+                        + inventory.getAvailable(id) + " in memory");
+            }
+        }
+        ScratchDatabase.delete(directory);
+    }
+
+    private int randomId() {
+        return 1 + ThreadLocalRandom.current().nextInt(hotProducts);
+    }
+}
@@ -0,0 +1,28 @@
+import benchmarks.PricingBenchmark;
+
+public class PricingWorkload implements PricingBenchmark.Ops {
+    private final PricingEngine engine = new PricingEngine();
+    private Product product;
+    private Product decorated;
+
+    @Override
+    public void setUp(int discounts) {
+        product = new Electronics("Laptop", 999.99, "High-performance laptop", 10);
+        product.setId(1);
+        decorated = product;
+        for (int i = 0; i < discounts; i++) {
+            decorated = new DiscountedProduct(decorated, 5);
+            engine.addRule(PricingRule.percentOff(1, null, 5));
+        }
+    }
+
+    @Override
+    public double decoratorPrice() {
+        return decorated.getPrice();
+    }
+
+    @Override
+    public long enginePrice() {
+        return engine.unitPriceCents(product);
+    }
+}
@@ -0,0 +1,152 @@
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for every combination of ProductQuery filters, sort
+ * orders and directions, on a first page and a continued page, against a
+ * scratch catalog. Fails if any plan reads the whole products table: a scan
+ * that has to be sorted afterwards. A scan in primary key or index order is
+ * fine, as it stops once {@code limit} rows match. Also checks that the results
+ * are in order and match their filters.
+ *
+ * Usage: java -cp benchmarks/target/benchmarks.jar QueryPlanCheck [products] [-v]
+ */
+public class QueryPlanCheck {
+    private static final String[] CATEGORIES = {ProductFactory.ELECTRONICS, ProductFactory.CLOTHING,
+            ProductFactory.GENERAL};
+
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        boolean verbose = args.length > 1 && args[1].equals("-v");
+        Path directory = ScratchDatabase.create();
+        try {
+            DatabaseHelper.addProducts(generate(count));
+            int queries = 0;
+            List<String> failures = new ArrayList<>();
+            for (int filters = 0; filters < 32; filters++) {
+                for (ProductQuery.Sort sort : ProductQuery.Sort.values()) {
+                    for (boolean descending : new boolean[] {false, true}) {
+                        ProductQuery query = query(filters, sort, descending);
+                        List<Product> first = DatabaseHelper.findProducts(query, false);
+                        for (boolean continued : new boolean[] {false, true}) {
+                            if (continued) {
+                                if (first.isEmpty()) {
+                                    continue;
+                                }
+                                query.after(first.get(first.size() - 1));
+                            }
+                            queries++;
+                            List<String> plan = DatabaseHelper.explainProducts(query);
+                            String description = describe(filters, sort, descending, continued);
+                            if (verbose) {
+                                System.out.println(description + ": " + plan);
+                            }
+                            // a scan in the requested order stops at the limit; a scan that is sorted reads every row
+                            boolean scan = plan.stream().anyMatch(step -> step.startsWith("SCAN products"));
+                            boolean sorted = plan.stream().anyMatch(step -> step.startsWith("USE TEMP B-TREE"));
+                            if (scan && sorted) {
+                                failures.add(description + ": " + plan);
+                            }
+                            checkResults(DatabaseHelper.findProducts(query, false), filters, sort, descending,
+                                    continued ? first.get(first.size() - 1) : null, description, failures);
+                        }
+                    }
+                }
+            }
+            for (String failure : failures) {
+                System.out.println("FAIL " + failure);
+            }
+            System.out.printf("%d queries, %d failures%n", queries, failures.size());
+            if (!failures.isEmpty()) {
+                System.exit(1);
+            }
+        } finally {
+            ScratchDatabase.delete(directory);
+        }
+    }
+
+    private static ProductQuery query(int filters, ProductQuery.Sort sort, boolean descending) {
+        ProductQuery query = new ProductQuery().orderBy(sort, descending).limit(20);
+        if ((filters & 1) != 0) {
+            query.category(ProductFactory.CLOTHING);
+        }
+        if ((filters & 2) != 0) {
+            query.priceBetween(100.0, null);
+        }
+        if ((filters & 4) != 0) {
+            query.priceBetween((filters & 2) != 0 ? 100.0 : null, 500.0);
+        }
+        if ((filters & 8) != 0) {
+            query.nameStartsWith("Product 12");
+        }
+        if ((filters & 16) != 0) {
+            query.inStock();
+        }
+        return query;
+    }
+
+    private static void checkResults(List<Product> products, int filters, ProductQuery.Sort sort, boolean descending,
+                                     Product after, String description, List<String> failures) {
+        Product previous = after;
+        for (Product product : products) {
+            boolean matches = ((filters & 1) == 0 || ProductFactory.categoryOf(product).equals(ProductFactory.CLOTHING))
+                    && ((filters & 2) == 0 || product.getPrice() >= 100)
+                    && ((filters & 4) == 0 || product.getPrice() <= 500)
+                    && ((filters & 8) == 0 || product.getName().startsWith("Product 12"))
+                    && ((filters & 16) == 0 || product.getStockQuantity() > 0);
+            if (!matches) {
+                failures.add(description + ": " + product.getId() + " does not match");
+            }
+            if (previous != null && compare(previous, product, sort) * (descending ? -1 : 1) >= 0) {
+                failures.add(description + ": " + product.getId() + " out of order after " + previous.getId());
+            }
+            previous = product;
+        }
+    }
+
+    private static int compare(Product a, Product b, ProductQuery.Sort sort) {
+        int result = 0;
+        if (sort == ProductQuery.Sort.PRICE) {
+            result = Double.compare(a.getPrice(), b.getPrice());
+        } else if (sort == ProductQuery.Sort.NAME) {
+            result = a.getName().compareTo(b.getName());
+        }
+        return result != 0 ? result : Integer.compare(a.getId(), b.getId());
+    }
+
+    private static String describe(int filters, ProductQuery.Sort sort, boolean descending, boolean continued) {
+        StringBuilder description = new StringBuilder();
+        String[] names = {"category", "minPrice", "maxPrice", "namePrefix", "inStock"};
+        for (int i = 0; i < names.length; i++) {
+            if ((filters & (1 << i)) != 0) {
+                description.append(names[i]).append(' ');
+            }
+        }
+        return description.append("sort ").append(sort).append(descending ? " desc" : "")
+                .append(continued ? " page 2" : "").toString();
+    }
+
+    private static Iterator<Product> generate(int count) {
+        Random random = new Random(42);
+        return new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < count;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                Product product = ProductFactory.newProduct(CATEGORIES[random.nextInt(CATEGORIES.length)],
+                        "Product " + next, (1 + random.nextInt(100_000)) / 100.0, "Description of product " + next,
+                        random.nextInt(10) == 0 ? 0 : 1 + random.nextInt(100));
+                return random.nextInt(5) == 0 ? new DiscountedProduct(product, 5 + random.nextInt(40)) : product;
+            }
+        };
+    }
+}
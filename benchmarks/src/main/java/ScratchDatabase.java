@@ -0,0 +1,30 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Points DatabaseHelper at a database in a temporary directory, so benchmarks
+ * never touch ecommerce.db. Must run before DatabaseHelper is first used;
+ * JMH runs every parameter combination in a fresh JVM, so each one gets its own.
+ */
+public final class ScratchDatabase {
+    private ScratchDatabase() {
+    }
+
+    public static Path create() throws IOException {
+        Path directory = Files.createTempDirectory("ecommerce-bench");
+        System.setProperty("ecommerce.db.url", "jdbc:sqlite:" + directory.resolve("bench.db"));
+        System.setProperty("ecommerce.db.writeBehind.dir", directory.resolve("write-behind").toString());
+        return directory;
+    }
+
+    public static void delete(Path directory) throws IOException {
+        try (Stream<Path> files = Files.walk(directory)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+}
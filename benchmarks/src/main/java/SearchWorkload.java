@@ -0,0 +1,135 @@
+import benchmarks.SearchBenchmark;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class SearchWorkload implements SearchBenchmark.Ops {
+    private static final int VOCABULARY = 5000;
+    private static final int LIMIT = 24;
+    private static final double MIN_PRICE = 10.0;
+    private static final double MAX_PRICE = 200.0;
+    // like the index: either term matches, name matches rank above description matches, best first
+    private static final String LIKE_SQL = "SELECT id FROM products"
+            + " WHERE (name LIKE ?1 OR description LIKE ?1 OR name LIKE ?2 OR description LIKE ?2)"
+            + " AND price BETWEEN ?3 AND ?4"
+            + " ORDER BY (name LIKE ?1) * 3 + (description LIKE ?1) + (name LIKE ?2) * 3 + (description LIKE ?2) DESC"
+            + " LIMIT " + LIMIT;
+
+    private final String[] words = new String[VOCABULARY];
+    private Path directory;
+    private ProductSearchIndex index;
+    private Connection connection;
+    private PreparedStatement like;
+
+    @Override
+    public void setUp(int catalogSize) throws Exception {
+        Random random = new Random(7);
+        for (int i = 0; i < words.length; i++) {
+            words[i] = word(random);
+        }
+        directory = ScratchDatabase.create();
+        DatabaseHelper.addProducts(new Iterator<Product>() {
+            private int next;
+
+            @Override
+            public boolean hasNext() {
+                return next < catalogSize;
+            }
+
+            @Override
+            public Product next() {
+                next++;
+                return new Product(text(random, 3), (100 + random.nextInt(50_000)) / 100.0, text(random, 8), 10);
+            }
+        });
+        index = DatabaseHelper.getSearchIndex();
+        connection = DriverManager.getConnection(System.getProperty("ecommerce.db.url"));
+        like = connection.prepareStatement(LIKE_SQL);
+    }
+
+    @Override
+    public Object searchIndex() {
+        return index.search(query(), MIN_PRICE, MAX_PRICE, LIMIT);
+    }
+
+    @Override
+    public Object likeQuery() throws Exception {
+        String[] terms = query().split(" ");
+        like.setString(1, "%" + terms[0] + "%");
+        like.setString(2, "%" + terms[1] + "%");
+        like.setDouble(3, MIN_PRICE);
+        like.setDouble(4, MAX_PRICE);
+        List<Integer> ids = new ArrayList<>();
+        try (ResultSet rs = like.executeQuery()) {
+            while (rs.next()) {
+                ids.add(rs.getInt(1));
+            }
+        }
+        return ids;
+    }
+
+    @Override
+    public Object scanAllProducts() throws Exception {
+        String[] terms = query().split(" ");
+        List<Map.Entry<Integer, Product>> matches = new ArrayList<>();
+        for (Product product : DatabaseHelper.getAllProducts()) {
+            if (product.getPrice() < MIN_PRICE || product.getPrice() > MAX_PRICE) {
+                continue;
+            }
+            String name = product.getName().toLowerCase(Locale.ROOT);
+            String description = product.getDescription().toLowerCase(Locale.ROOT);
+            int score = 0;
+            for (String term : terms) {
+                score += (name.contains(term) ? 3 : 0) + (description.contains(term) ? 1 : 0);
+            }
+            if (score > 0) {
+                matches.add(Map.entry(score, product));
+            }
+        }
+        matches.sort(Map.Entry.<Integer, Product>comparingByKey().reversed());
+        return matches.subList(0, Math.min(LIMIT, matches.size()));
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        connection.close();
+        ScratchDatabase.delete(directory);
+    }
+
+    // one whole word and the first three letters of another, as typed into a search box
+    private String query() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        return words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)].substring(0, 3);
+    }
+
+    private String text(Random random, int length) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i++) {
+            if (i > 0) {
+                text.append(' ');
+            }
+            text.append(words[random.nextInt(words.length)]);
+        }
+        return text.toString();
+    }
+
+    private static String word(Random random) {
+        String letters = "abcdefghijklmnopqrstuvwxyz";
+        StringBuilder word = new StringBuilder();
+        int length = 4 + random.nextInt(6);
+        for (int i = 0; i < length; i++) {
+            word.append(letters.charAt(random.nextInt(letters.length())));
+        }
+        return word.toString();
+    }
+}
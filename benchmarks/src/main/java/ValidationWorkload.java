@@ -0,0 +1,71 @@
+import benchmarks.ValidationBenchmark;
+
+import java.util.Calendar;
+
+public class ValidationWorkload implements ValidationBenchmark.Ops {
+    private static final String[] CARD_NUMBERS = {
+            "4111 1111 1111 1111", "4111-1111-1111-1112", "378282246310005", "12345", "5555555555554444"};
+    private static final String[] CVVS = {"123", "1234", "12", "12a", "999"};
+    private static final String[] EXPIRY_DATES = {"12/99", "01/20", "13/30", "1/30", "06/35"};
+    private static final String[] EMAILS = {
+            "jane.doe@example.com", "@example.com", "jane@", "john+shop@mail.example.org", "no at sign"};
+
+    private int next;
+
+    @Override
+    public boolean cardNumber() {
+        return FormValidator.isValidCardNumber(CARD_NUMBERS[nextIndex()]);
+    }
+
+    @Override
+    public boolean cvv() {
+        return FormValidator.isValidCVV(CVVS[nextIndex()]);
+    }
+
+    @Override
+    public boolean expiryDate() {
+        return FormValidator.isValidExpiryDate(EXPIRY_DATES[nextIndex()]);
+    }
+
+    @Override
+    public boolean email() {
+        return FormValidator.isValidEmail(EMAILS[nextIndex()]);
+    }
+
+    @Override
+    public Object paymentForm() {
+        return new CreditCardPayment(CARD_NUMBERS[0], CVVS[0], EXPIRY_DATES[4]);
+    }
+
+    // the regular-expression checks FormValidator used before its scanners, kept as the baseline
+
+    @Override
+    public boolean regexCvv() {
+        return CVVS[nextIndex()].matches("\\d{3,4}");
+    }
+
+    @Override
+    public boolean regexExpiryDate() {
+        String expiryDate = EXPIRY_DATES[nextIndex()];
+        if (!expiryDate.matches("(0[1-9]|1[0-2])/\\d{2}")) {
+            return false;
+        }
+        String[] parts = expiryDate.split("/");
+        int month = Integer.parseInt(parts[0]);
+        int year = Integer.parseInt("20" + parts[1]);
+        Calendar now = Calendar.getInstance();
+        int currentMonth = now.get(Calendar.MONTH) + 1;
+        int currentYear = now.get(Calendar.YEAR);
+        return (year > currentYear) || (year == currentYear && month >= currentMonth);
+    }
+
+    @Override
+    public boolean regexEmail() {
+        return EMAILS[nextIndex()].matches("^[A-Za-z0-9+_.-]+@(.+)$");
+    }
+
+    private int nextIndex() {
+        next = next + 1 == 5 ? 0 : next + 1;
+        return next;
+    }
+}
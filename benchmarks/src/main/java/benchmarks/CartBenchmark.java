@@ -0,0 +1,90 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShoppingCart updates and totals on a cart holding {@code cartSize} distinct products.
+ * The {@code WithMetrics} variants fork with {@code -Decommerce.metrics=true},
+ * so the cost of the sampled mutation timers shows next to the same call without them.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CartBenchmark {
+    /**
+     * Implemented by {@code CartWorkload}.
+     */
+    public interface Ops {
+        void setUp(int cartSize);
+
+        /** Adds one unit of a product already in the cart. */
+        Object addProduct();
+
+        /** Removes one unit of a product, leaving its line in the cart. */
+        Object removeProduct();
+
+        /** The running total maintained by the cart. */
+        long total();
+
+        /** The total recomputed over every line through a pricing engine. */
+        long repricedTotal();
+    }
+
+    @Param({"1", "10", "100", "1000"})
+    int cartSize;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("CartWorkload", Ops.class);
+        ops.setUp(cartSize);
+    }
+
+    @Benchmark
+    public Object addProduct() {
+        return ops.addProduct();
+    }
+
+    @Benchmark
+    public Object removeProduct() {
+        return ops.removeProduct();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Decommerce.metrics=true")
+    public Object addProductWithMetrics() {
+        return ops.addProduct();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Decommerce.metrics=true")
+    public Object removeProductWithMetrics() {
+        return ops.removeProduct();
+    }
+
+    @Benchmark
+    public long total() {
+        return ops.total();
+    }
+
+    @Benchmark
+    public long repricedTotal() {
+        return ops.repricedTotal();
+    }
+}
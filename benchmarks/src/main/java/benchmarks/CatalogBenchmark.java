@@ -0,0 +1,99 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * DatabaseHelper reads and writes against a scratch database seeded with
+ * {@code catalogSize} products. {@code getProductWithMetrics} forks with
+ * {@code -Decommerce.metrics=true} to show what the sampled timer costs a cache hit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatalogBenchmark {
+    /**
+     * Implemented by {@code CatalogWorkload}.
+     */
+    public interface Ops {
+        void setUp(int catalogSize) throws Exception;
+
+        Object getProduct() throws Exception;
+
+        Object getAllProducts() throws Exception;
+
+        Object updateProduct() throws Exception;
+
+        Object updateHotProduct() throws Exception;
+
+        Object addAndDeleteProduct() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"1000", "10000", "100000"})
+    int catalogSize;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("CatalogWorkload", Ops.class);
+        ops.setUp(catalogSize);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ops.tearDown();
+    }
+
+    @Benchmark
+    public Object getProduct() throws Exception {
+        return ops.getProduct();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Decommerce.metrics=true")
+    public Object getProductWithMetrics() throws Exception {
+        return ops.getProduct();
+    }
+
+    @Benchmark
+    public Object getAllProducts() throws Exception {
+        return ops.getAllProducts();
+    }
+
+    @Benchmark
+    public Object updateProduct() throws Exception {
+        return ops.updateProduct();
+    }
+
+    /**
+     * Updates one of ten products, like a flash sale. Compare with
+     * {@code -jvmArgsAppend -Decommerce.db.writeBehind=true}.
+     */
+    @Benchmark
+    public Object updateHotProduct() throws Exception {
+        return ops.updateHotProduct();
+    }
+
+    @Benchmark
+    public Object addAndDeleteProduct() throws Exception {
+        return ops.addAndDeleteProduct();
+    }
+}
@@ -0,0 +1,86 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Price-range and stock filters over {@code catalogSize} products held as a
+ * {@code List<Product>} and as a ColumnarCatalog. Both hold the same products.
+ * Memory per product is reported by {@code CatalogFootprint}, as JMH measures time only.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ColumnarCatalogBenchmark {
+    /**
+     * Implemented by {@code ColumnarCatalogWorkload}.
+     */
+    public interface Ops {
+        void setUp(int catalogSize);
+
+        /** Counts products priced $100 to $500 with stock, iterating the list. */
+        int listCount();
+
+        /** The same count over the catalog's price and stock columns. */
+        int columnarCount();
+
+        /** Collects the matching products of the list into an array. */
+        int listFilter();
+
+        /** Collects the rows of the matching products into an array. */
+        int columnarFilter();
+
+        /** Looks up a random product by id and reads its name and price through a view. */
+        Object columnarLookup();
+    }
+
+    @Param({"100000", "1000000"})
+    int catalogSize;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("ColumnarCatalogWorkload", Ops.class);
+        ops.setUp(catalogSize);
+    }
+
+    @Benchmark
+    public int listCount() {
+        return ops.listCount();
+    }
+
+    @Benchmark
+    public int columnarCount() {
+        return ops.columnarCount();
+    }
+
+    @Benchmark
+    public int listFilter() {
+        return ops.listFilter();
+    }
+
+    @Benchmark
+    public int columnarFilter() {
+        return ops.columnarFilter();
+    }
+
+    @Benchmark
+    public Object columnarLookup() {
+        return ops.columnarLookup();
+    }
+}
@@ -0,0 +1,92 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A lookup of one product by id on a scratch database, from 1, 4 and 16
+ * threads: through a ConnectionPool with its cached prepared statements, and
+ * through the one synchronized connection shared by every caller that
+ * DatabaseHelper used before the pool existed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ConnectionPoolBenchmark {
+    /**
+     * Implemented by {@code ConnectionPoolWorkload}.
+     */
+    public interface Ops {
+        void setUp() throws Exception;
+
+        Object pooled() throws Exception;
+
+        Object sharedConnection() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("ConnectionPoolWorkload", Ops.class);
+        ops.setUp();
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ops.tearDown();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object pooled1Thread() throws Exception {
+        return ops.pooled();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object pooled4Threads() throws Exception {
+        return ops.pooled();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object pooled16Threads() throws Exception {
+        return ops.pooled();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Object sharedConnection1Thread() throws Exception {
+        return ops.sharedConnection();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Object sharedConnection4Threads() throws Exception {
+        return ops.sharedConnection();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Object sharedConnection16Threads() throws Exception {
+        return ops.sharedConnection();
+    }
+}
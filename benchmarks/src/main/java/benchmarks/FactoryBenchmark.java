@@ -0,0 +1,67 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProductFactory: building a product alone, and creating one, which also
+ * inserts it into a scratch database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FactoryBenchmark {
+    /**
+     * Implemented by {@code FactoryWorkload}.
+     */
+    public interface Ops {
+        void setUp(String type) throws Exception;
+
+        Object newProduct();
+
+        Object createProduct();
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"electronics", "clothing", "other"})
+    String type;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("FactoryWorkload", Ops.class);
+        ops.setUp(type);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ops.tearDown();
+    }
+
+    @Benchmark
+    public Object newProduct() {
+        return ops.newProduct();
+    }
+
+    @Benchmark
+    public Object createProduct() {
+        return ops.createProduct();
+    }
+}
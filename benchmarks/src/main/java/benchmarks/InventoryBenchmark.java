@@ -0,0 +1,74 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * InventoryService reservations from many threads on {@code hotProducts}
+ * products, with committed stock flushed to a scratch database in the
+ * background. Run with {@code -t 1} and {@code -t 32} to compare contention
+ * levels. The tear-down checks that the database ends up with the stock the
+ * service holds in memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class InventoryBenchmark {
+    /**
+     * Implemented by {@code InventoryWorkload}.
+     */
+    public interface Ops {
+        void setUp(int hotProducts) throws Exception;
+
+        /** Reserves one unit of a hot product and commits it, as a successful checkout. */
+        Object reserveAndCommit() throws Exception;
+
+        /** Reserves one unit of a hot product and releases it, as a failed payment. */
+        Object reserveAndRelease() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"1", "4", "16"})
+    int hotProducts;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("InventoryWorkload", Ops.class);
+        ops.setUp(hotProducts);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ops.tearDown();
+    }
+
+    @Benchmark
+    public Object reserveAndCommit() throws Exception {
+        return ops.reserveAndCommit();
+    }
+
+    @Benchmark
+    public Object reserveAndRelease() throws Exception {
+        return ops.reserveAndRelease();
+    }
+}
@@ -0,0 +1,59 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Price of a product with {@code discounts} stacked discounts, as a chain of
+ * DiscountedProduct decorators and as PricingEngine rules.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PricingBenchmark {
+    /**
+     * Implemented by {@code PricingWorkload}.
+     */
+    public interface Ops {
+        void setUp(int discounts);
+
+        double decoratorPrice();
+
+        long enginePrice();
+    }
+
+    @Param({"1", "2", "4", "8"})
+    int discounts;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("PricingWorkload", Ops.class);
+        ops.setUp(discounts);
+    }
+
+    @Benchmark
+    public double decoratorPrice() {
+        return ops.decoratorPrice();
+    }
+
+    @Benchmark
+    public long enginePrice() {
+        return ops.enginePrice();
+    }
+}
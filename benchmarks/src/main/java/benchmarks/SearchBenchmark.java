@@ -0,0 +1,77 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A two-term query, the last term a three-letter prefix, with a price filter,
+ * over a scratch catalog of {@code catalogSize} products: answered by the
+ * ProductSearchIndex, by a LIKE query on the products table, and by scanning
+ * getAllProducts() as before the index existed. All three return the best
+ * matches of either term, name matches first.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    /**
+     * Implemented by {@code SearchWorkload}.
+     */
+    public interface Ops {
+        void setUp(int catalogSize) throws Exception;
+
+        Object searchIndex() throws Exception;
+
+        Object likeQuery() throws Exception;
+
+        Object scanAllProducts() throws Exception;
+
+        void tearDown() throws Exception;
+    }
+
+    @Param({"10000", "100000", "1000000"})
+    int catalogSize;
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("SearchWorkload", Ops.class);
+        ops.setUp(catalogSize);
+    }
+
+    @TearDown
+    public void tearDown() throws Exception {
+        ops.tearDown();
+    }
+
+    @Benchmark
+    public Object searchIndex() throws Exception {
+        return ops.searchIndex();
+    }
+
+    @Benchmark
+    public Object likeQuery() throws Exception {
+        return ops.likeQuery();
+    }
+
+    @Benchmark
+    public Object scanAllProducts() throws Exception {
+        return ops.scanAllProducts();
+    }
+}
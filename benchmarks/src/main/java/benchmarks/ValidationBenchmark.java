@@ -0,0 +1,95 @@
+package benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FormValidator checks, next to the regular-expression versions they replaced.
+ * Each call validates the next value of a fixed mix of valid and invalid inputs.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+    /**
+     * Implemented by {@code ValidationWorkload}.
+     */
+    public interface Ops {
+        boolean cardNumber();
+
+        boolean cvv();
+
+        boolean expiryDate();
+
+        boolean email();
+
+        /** Validates a complete, valid credit card form the way checkout does. */
+        Object paymentForm();
+
+        boolean regexCvv();
+
+        boolean regexExpiryDate();
+
+        boolean regexEmail();
+    }
+
+    private Ops ops;
+
+    @Setup
+    public void setUp() throws Exception {
+        ops = Workloads.create("ValidationWorkload", Ops.class);
+    }
+
+    @Benchmark
+    public boolean cardNumber() {
+        return ops.cardNumber();
+    }
+
+    @Benchmark
+    public boolean cvv() {
+        return ops.cvv();
+    }
+
+    @Benchmark
+    public boolean expiryDate() {
+        return ops.expiryDate();
+    }
+
+    @Benchmark
+    public boolean email() {
+        return ops.email();
+    }
+
+    @Benchmark
+    public Object paymentForm() {
+        return ops.paymentForm();
+    }
+
+    @Benchmark
+    public boolean regexCvv() {
+        return ops.regexCvv();
+    }
+
+    @Benchmark
+    public boolean regexExpiryDate() {
+        return ops.regexExpiryDate();
+    }
+
+    @Benchmark
+    public boolean regexEmail() {
+        return ops.regexEmail();
+    }
+}
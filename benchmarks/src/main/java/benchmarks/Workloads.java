@@ -0,0 +1,20 @@
+package benchmarks;
+
+/**
+ * Loads the code a benchmark measures.
+ *
+ * JMH only accepts benchmark classes in a named package, while the application
+ * classes live in the unnamed package, which named packages cannot import. Each
+ * benchmark therefore declares the operations it measures as a nested
+ * interface, implemented by a class in the unnamed package that calls the
+ * application directly. The benchmark calls it through the interface, which
+ * the JIT inlines like a direct call.
+ */
+final class Workloads {
+    private Workloads() {
+    }
+
+    static <T> T create(String className, Class<T> type) throws ReflectiveOperationException {
+        return type.cast(Class.forName(className).getDeclaredConstructor().newInstance());
+    }
+}
@@ -0,0 +1,361 @@
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs {@link PaymentStrategy} payments off the caller's thread.
+ * Each payment runs on its own virtual thread where the JDK supports them
+ * (a cached thread pool otherwise), limited to a fixed number of concurrent
+ * gateway calls. An attempt that throws is retried with exponential backoff;
+ * a declined payment is final. An attempt that exceeds the timeout is not
+ * retried: the gateway may still charge it, and {@link PaymentStrategy#pay}
+ * carries no key the gateway could recognize a retry by, so the payment fails
+ * with an unknown outcome instead of risking a second charge. Submitting the
+ * same idempotency key twice returns the first payment instead of paying again.
+ *
+ * Payments through a {@link BatchPaymentStrategy} can be grouped into
+ * micro-batches: payments submitted within a short window share one gateway call.
+ */
+public class AsyncPaymentProcessor implements AutoCloseable {
+    private static final int MAX_REMEMBERED_KEYS = 100_000;
+    private static final String TIMED_OUT = "Payment gateway timed out; the payment may still go through";
+    private static final String CLOSED = "Payment processor closed; the payment was not taken";
+    private static final LatencyHistogram PAY_TIME = Metrics.histogram("payment_gateway_seconds",
+            "Latency of payment gateway calls", "call", "pay");
+    private static final LatencyHistogram PAY_ALL_TIME = Metrics.histogram("payment_gateway_seconds",
+            "Latency of payment gateway calls", "call", "payAll");
+    private static final Counter PAID = Metrics.counter("payments_total", "Completed payments by outcome",
+            "outcome", "paid");
+    private static final Counter DECLINED = Metrics.counter("payments_total", "Completed payments by outcome",
+            "outcome", "declined");
+    private static final Counter FAILED = Metrics.counter("payments_total", "Completed payments by outcome",
+            "outcome", "failed");
+    private static final Counter RETRIES = Metrics.counter("payment_retries_total",
+            "Gateway calls retried after an error or timeout");
+
+    private final ExecutorService executor = VirtualThreads.newPerTaskExecutor("payment");
+    private final ScheduledExecutorService batchTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "payment-batches");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Semaphore permits;
+    private final long timeoutMillis;
+    private final int maxAttempts;
+    private final long backoffMillis;
+    private final int maxBatchSize;
+    private final long batchWindowMillis;
+    private final Map<String, CompletableFuture<PaymentResult>> payments =
+            new LinkedHashMap<String, CompletableFuture<PaymentResult>>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<PaymentResult>> eldest) {
+                    return size() > MAX_REMEMBERED_KEYS && eldest.getValue().isDone();
+                }
+            };
+    private final ConcurrentHashMap<BatchPaymentStrategy, Batch> openBatches = new ConcurrentHashMap<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates a processor that never batches.
+     * @param maxConcurrent Maximum number of gateway calls in flight
+     * @param timeoutMillis Time limit of one attempt
+     * @param maxAttempts Attempts per payment, including the first; timed out attempts are not retried
+     * @param backoffMillis Delay before the first retry; doubled for each further retry
+     */
+    public AsyncPaymentProcessor(int maxConcurrent, long timeoutMillis, int maxAttempts, long backoffMillis) {
+        this(maxConcurrent, timeoutMillis, maxAttempts, backoffMillis, 1, 0);
+    }
+
+    /**
+     * Creates a processor.
+     * @param maxConcurrent Maximum number of gateway calls in flight
+     * @param timeoutMillis Time limit of one attempt
+     * @param maxAttempts Attempts per payment, including the first
+     * @param backoffMillis Delay before the first retry; doubled for each further retry
+     * @param maxBatchSize Maximum payments per batch; 1 disables batching
+     * @param batchWindowMillis How long a batch waits for more payments before it is sent
+     */
+    public AsyncPaymentProcessor(int maxConcurrent, long timeoutMillis, int maxAttempts, long backoffMillis,
+                                 int maxBatchSize, long batchWindowMillis) {
+        if (maxConcurrent < 1 || maxAttempts < 1 || maxBatchSize < 1) {
+            throw new IllegalArgumentException("Concurrency, attempts and batch size must be positive");
+        }
+        this.permits = new Semaphore(maxConcurrent);
+        this.timeoutMillis = timeoutMillis;
+        this.maxAttempts = maxAttempts;
+        this.backoffMillis = backoffMillis;
+        this.maxBatchSize = maxBatchSize;
+        this.batchWindowMillis = batchWindowMillis;
+    }
+
+    /**
+     * Submits a payment under a fresh idempotency key.
+     */
+    public CompletableFuture<PaymentResult> submit(PaymentStrategy strategy, double amount) {
+        return submit(strategy, amount, UUID.randomUUID().toString());
+    }
+
+    /**
+     * Submits a payment.
+     * @param strategy The payment method
+     * @param amount The amount to be paid
+     * @param idempotencyKey Identifies the payment; resubmitting it returns the original result
+     * @return A future completed with the payment's result; it never completes exceptionally
+     */
+    public CompletableFuture<PaymentResult> submit(PaymentStrategy strategy, double amount, String idempotencyKey) {
+        CompletableFuture<PaymentResult> result = new CompletableFuture<>();
+        synchronized (payments) {
+            CompletableFuture<PaymentResult> existing = payments.putIfAbsent(idempotencyKey, result);
+            if (existing != null) {
+                return existing;
+            }
+        }
+        if (strategy instanceof BatchPaymentStrategy && maxBatchSize > 1) {
+            enqueue((BatchPaymentStrategy) strategy, amount, idempotencyKey, result);
+        } else {
+            try {
+                executor.execute(() -> result.complete(paySingle(strategy, amount, idempotencyKey)));
+            } catch (RejectedExecutionException e) {
+                abandon(new Pending(amount, idempotencyKey, result));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Stops accepting payments. Payments waiting in a batch that was not sent
+     * yet fail without reaching the gateway; payments already sent complete.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        batchTimer.shutdown();
+        for (Batch batch : openBatches.values()) {
+            synchronized (batch) {
+                if (batch.sent) {
+                    continue;
+                }
+                batch.sent = true;
+            }
+            openBatches.remove(batch.strategy, batch);
+            for (Pending pending : batch.payments) {
+                abandon(pending);
+            }
+        }
+        executor.shutdown();
+    }
+
+    // fails a payment that never reached the gateway; its key is forgotten, so it can be submitted again
+    private void abandon(Pending pending) {
+        synchronized (payments) {
+            payments.remove(pending.key, pending.result);
+        }
+        FAILED.increment();
+        pending.result.complete(new PaymentResult(pending.key, false, 0, CLOSED));
+    }
+
+    private PaymentResult paySingle(PaymentStrategy strategy, double amount, String key) {
+        String error = null;
+        int attempts = 0;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            attempts = attempt;
+            try {
+                boolean paid = callWithPermit(PAY_TIME, () -> strategy.pay(amount));
+                (paid ? PAID : DECLINED).increment();
+                return new PaymentResult(key, paid, attempt, paid ? null : PaymentResult.DECLINED);
+            } catch (TimeoutException e) {
+                error = TIMED_OUT;
+                break;
+            } catch (Exception e) {
+                error = describe(e);
+                if (!backOff(attempt)) {
+                    break;
+                }
+            }
+        }
+        FAILED.increment();
+        return new PaymentResult(key, false, attempts, error);
+    }
+
+    private void payBatch(BatchPaymentStrategy strategy, List<Pending> batch) {
+        double[] amounts = new double[batch.size()];
+        for (int i = 0; i < amounts.length; i++) {
+            amounts[i] = batch.get(i).amount;
+        }
+        String error = null;
+        int attempts = 0;
+        for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+            attempts = attempt;
+            try {
+                boolean[] paid = callWithPermit(PAY_ALL_TIME, () -> strategy.payAll(amounts));
+                for (int i = 0; i < batch.size(); i++) {
+                    Pending pending = batch.get(i);
+                    (paid[i] ? PAID : DECLINED).increment();
+                    pending.result.complete(new PaymentResult(pending.key, paid[i], attempt,
+                            paid[i] ? null : PaymentResult.DECLINED));
+                }
+                return;
+            } catch (TimeoutException e) {
+                error = TIMED_OUT;
+                break;
+            } catch (Exception e) {
+                error = describe(e);
+                if (!backOff(attempt)) {
+                    break;
+                }
+            }
+        }
+        for (Pending pending : batch) {
+            FAILED.increment();
+            pending.result.complete(new PaymentResult(pending.key, false, attempts, error));
+        }
+    }
+
+    // the permit is held until the gateway call returns, also after the caller gave up on it, so a
+    // call that ignores the interrupt still counts against maxConcurrent
+    private <T> T callWithPermit(LatencyHistogram timer, Callable<T> call) throws Exception {
+        permits.acquire();
+        // set by whichever comes first: the call starting, or the caller giving up before it did
+        AtomicBoolean claimed = new AtomicBoolean();
+        try {
+            Future<T> attempt = executor.submit(() -> {
+                if (!claimed.compareAndSet(false, true)) {
+                    return null;
+                }
+                long start = timer.start();
+                try {
+                    return call.call();
+                } finally {
+                    timer.stop(start);
+                    permits.release();
+                }
+            });
+            try {
+                return attempt.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                attempt.cancel(true);
+                throw e;
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                throw cause instanceof Exception ? (Exception) cause : e;
+            }
+        } finally {
+            if (claimed.compareAndSet(false, true)) {
+                permits.release();
+            }
+        }
+    }
+
+    // sleeps before the next attempt; returns false if there is none or the thread was interrupted
+    private boolean backOff(int attempt) {
+        if (attempt >= maxAttempts) {
+            return false;
+        }
+        long delay = backoffMillis << Math.min(attempt - 1, 20);
+        // jitter keeps retries of many failed payments from arriving together
+        delay += ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        RETRIES.increment();
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private void enqueue(BatchPaymentStrategy strategy, double amount, String key,
+                         CompletableFuture<PaymentResult> result) {
+        Pending pending = new Pending(amount, key, result);
+        while (true) {
+            if (closed) {
+                abandon(pending);
+                return;
+            }
+            Batch batch;
+            try {
+                batch = openBatches.computeIfAbsent(strategy, s -> {
+                    Batch created = new Batch(s);
+                    batchTimer.schedule(() -> send(created), batchWindowMillis, TimeUnit.MILLISECONDS);
+                    return created;
+                });
+            } catch (RejectedExecutionException e) {
+                abandon(pending);
+                return;
+            }
+            synchronized (batch) {
+                if (batch.sent) {
+                    continue;
+                }
+                batch.payments.add(pending);
+                if (batch.payments.size() < maxBatchSize) {
+                    return;
+                }
+            }
+            send(batch);
+            return;
+        }
+    }
+
+    private void send(Batch batch) {
+        synchronized (batch) {
+            if (batch.sent) {
+                return;
+            }
+            batch.sent = true;
+        }
+        openBatches.remove(batch.strategy, batch);
+        try {
+            executor.execute(() -> payBatch(batch.strategy, batch.payments));
+        } catch (RejectedExecutionException e) {
+            for (Pending pending : batch.payments) {
+                abandon(pending);
+            }
+        }
+    }
+
+    private static String describe(Exception e) {
+        if (e instanceof TimeoutException) {
+            return "Payment gateway timed out";
+        }
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private static class Pending {
+        final double amount;
+        final String key;
+        final CompletableFuture<PaymentResult> result;
+
+        Pending(double amount, String key, CompletableFuture<PaymentResult> result) {
+            this.amount = amount;
+            this.key = key;
+            this.result = result;
+        }
+    }
+
+    private static class Batch {
+        final BatchPaymentStrategy strategy;
+        final List<Pending> payments = new ArrayList<>();
+        boolean sent;
+
+        Batch(BatchPaymentStrategy strategy) {
+            this.strategy = strategy;
+        }
+    }
+}
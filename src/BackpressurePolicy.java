@@ -0,0 +1,21 @@
+/**
+ * What a {@link CartEventBus} does when a subscriber's queue is full.
+ */
+public enum BackpressurePolicy {
+    /** Discard the new event. */
+    DROP,
+    /**
+     * Make the publisher wait until the subscriber has room. Carts publish
+     * while holding their lock, so only for listeners that never lock the cart.
+     */
+    BLOCK,
+    /** Discard the oldest queued event to make room for the new one. */
+    DROP_OLDEST,
+    /**
+     * Keep every Nth event that finds the queue full, making room by
+     * discarding the oldest queued event, and discard the others. A flood
+     * still reaches the subscriber, thinned out, instead of stopping at the
+     * last event before the queue filled up.
+     */
+    SAMPLE
+}
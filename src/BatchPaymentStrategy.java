@@ -0,0 +1,14 @@
+/**
+ * A payment method whose gateway can authorize several payments in one call.
+ * {@link AsyncPaymentProcessor} groups concurrent payments into micro-batches
+ * for strategies implementing this interface.
+ */
+public interface BatchPaymentStrategy extends PaymentStrategy {
+    /**
+     * Processes several payments at once.
+     *
+     * @param amounts The amounts to be paid
+     * @return For each amount, true if that payment was successful
+     */
+    boolean[] payAll(double[] amounts);
+}
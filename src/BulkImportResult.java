@@ -0,0 +1,46 @@
+/**
+ * Outcome of a bulk product import.
+ * Holds the generated ids in insertion order and the import throughput.
+ */
+public class BulkImportResult {
+    private final int[] ids;
+    private final long elapsedNanos;
+
+    public BulkImportResult(int[] ids, long elapsedNanos) {
+        this.ids = ids;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Gets the generated product ids, in the order the products were supplied.
+     * @return The generated ids
+     */
+    public int[] getIds() {
+        return ids;
+    }
+
+    public int getRowCount() {
+        return ids.length;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Gets the import throughput.
+     * @return Rows inserted per second
+     */
+    public double getRowsPerSecond() {
+        if (elapsedNanos == 0) {
+            return 0.0;
+        }
+        return ids.length * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Imported %d products in %d ms (%.0f rows/s)",
+                ids.length, elapsedNanos / 1_000_000, getRowsPerSecond());
+    }
+}
@@ -0,0 +1,115 @@
+/**
+ * Describes one change to a shopping cart.
+ * Events carry the state after the change (line quantity and total, item
+ * count and cart total), so a subscriber that only sees the latest event is still up to date.
+ */
+public class CartEvent {
+    public enum Type {
+        ADDED,
+        REMOVED,
+        CLEARED,
+        /** A line's price changed with the pricing rules; its quantity did not. */
+        REPRICED
+    }
+
+    private final Type type;
+    private final long sequence;
+    private final int productId;
+    private final String productName;
+    private final int quantity;
+    private final int lineQuantity;
+    private final long unitPriceCents;
+    private final long lineTotalCents;
+    private final int itemCount;
+    private final long totalCents;
+
+    public CartEvent(Type type, long sequence, int productId, String productName, int quantity,
+                     int lineQuantity, long unitPriceCents, long lineTotalCents, int itemCount,
+                     long totalCents) {
+        this.type = type;
+        this.sequence = sequence;
+        this.productId = productId;
+        this.productName = productName;
+        this.quantity = quantity;
+        this.lineQuantity = lineQuantity;
+        this.unitPriceCents = unitPriceCents;
+        this.lineTotalCents = lineTotalCents;
+        this.itemCount = itemCount;
+        this.totalCents = totalCents;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Gets the position of this event in its cart's history, starting at 1.
+     * @return The sequence number
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Gets the id of the product that changed, or 0 for {@link Type#CLEARED}.
+     * @return The product id
+     */
+    public int getProductId() {
+        return productId;
+    }
+
+    public String getProductName() {
+        return productName;
+    }
+
+    /**
+     * Gets the number of units added or removed by this change.
+     * @return The changed quantity
+     */
+    public int getQuantity() {
+        return quantity;
+    }
+
+    /**
+     * Gets the quantity left on the product's line after the change; 0 if the line is gone.
+     * @return The line quantity
+     */
+    public int getLineQuantity() {
+        return lineQuantity;
+    }
+
+    public long getUnitPriceCents() {
+        return unitPriceCents;
+    }
+
+    /**
+     * Gets the total of the product's line after the change, as priced by the
+     * cart, e.g. with quantity discounts; 0 if the line is gone.
+     * @return The line total in cents
+     */
+    public long getLineTotalCents() {
+        return lineTotalCents;
+    }
+
+    public int getItemCount() {
+        return itemCount;
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    @Override
+    public String toString() {
+        switch (type) {
+            case ADDED:
+                return "Product added: " + productName;
+            case REMOVED:
+                return "Product removed: " + productName;
+            case REPRICED:
+                return "Price changed: " + productName;
+            default:
+                return "Cart cleared";
+        }
+    }
+}
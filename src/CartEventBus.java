@@ -0,0 +1,236 @@
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Delivers cart events to subscribers asynchronously.
+ * Publishing only enqueues the event; each subscriber has its own bounded
+ * queue drained on a delivery thread, so a slow subscriber never sits on the
+ * cart mutation path. Subscribers that only care about the current state can
+ * ask for the latest event only, which coalesces bursts into one delivery.
+ *
+ * Design Pattern:
+ * - Observer: Notifies subscribers of cart changes
+ */
+public class CartEventBus {
+    static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    static final int DEFAULT_SAMPLE_EVERY = 10;
+    private static final LatencyHistogram DELIVERY_TIME = Metrics.histogram("cart_event_delivery_seconds",
+            "Time subscribers spend handling one cart event");
+    private static final Counter DROPPED = Metrics.counter("cart_events_dropped_total",
+            "Cart events dropped or coalesced by backpressure");
+
+    private static final ExecutorService DELIVERY = Executors.newCachedThreadPool(r -> {
+        Thread thread = new Thread(r, "cart-events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final List<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * Subscribes with a bounded queue that drops new events when full. The
+     * publisher never waits, so a listener may call back into the cart.
+     * @param listener The event handler
+     * @return The subscription; close it to unsubscribe
+     */
+    public Subscription subscribe(CartEventListener listener) {
+        return subscribe(listener, DEFAULT_QUEUE_CAPACITY, false, BackpressurePolicy.DROP);
+    }
+
+    /**
+     * Subscribes to cart events.
+     * @param listener The event handler
+     * @param queueCapacity Maximum number of undelivered events
+     * @param latestOnly true to receive only the most recent event of a burst
+     * @param policy What to do when the queue is full; ignored when latestOnly is set
+     * @return The subscription; close it to unsubscribe
+     */
+    public Subscription subscribe(CartEventListener listener, int queueCapacity, boolean latestOnly,
+                                  BackpressurePolicy policy) {
+        return subscribe(listener, queueCapacity, latestOnly, policy, DEFAULT_SAMPLE_EVERY);
+    }
+
+    /**
+     * Subscribes to cart events.
+     * @param listener The event handler
+     * @param queueCapacity Maximum number of undelivered events
+     * @param latestOnly true to receive only the most recent event of a burst
+     * @param policy What to do when the queue is full; ignored when latestOnly is set
+     * @param sampleEvery With the SAMPLE policy, keep one in this many events that find the queue full
+     * @return The subscription; close it to unsubscribe
+     */
+    public Subscription subscribe(CartEventListener listener, int queueCapacity, boolean latestOnly,
+                                  BackpressurePolicy policy, int sampleEvery) {
+        Subscription subscription = new Subscription(listener, queueCapacity, latestOnly, policy, sampleEvery,
+                DELIVERY);
+        subscriptions.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Hands an event to every subscriber. Returns once it is queued, unless a
+     * subscriber with the BLOCK policy is full.
+     * @param event The event to publish
+     */
+    public void publish(CartEvent event) {
+        for (Subscription subscription : subscriptions) {
+            subscription.offer(event);
+        }
+    }
+
+    public boolean hasSubscribers() {
+        return !subscriptions.isEmpty();
+    }
+
+    /**
+     * A subscriber's queue and delivery state.
+     * Deliveries for one subscription run one at a time, in publish order.
+     */
+    public class Subscription implements AutoCloseable {
+        private final CartEventListener listener;
+        private final ArrayBlockingQueue<CartEvent> queue;
+        private final boolean latestOnly;
+        private final BackpressurePolicy policy;
+        private final int sampleEvery;
+        private final Executor executor;
+        private final AtomicReference<CartEvent> latest = new AtomicReference<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final LongAdder delivered = new LongAdder();
+        private final LongAdder dropped = new LongAdder();
+        // events that found the queue full, for SAMPLE
+        private final AtomicLong overflowed = new AtomicLong();
+        private volatile boolean active = true;
+
+        Subscription(CartEventListener listener, int queueCapacity, boolean latestOnly,
+                     BackpressurePolicy policy, int sampleEvery, Executor executor) {
+            if (queueCapacity < 1) {
+                throw new IllegalArgumentException("Queue capacity must be at least 1");
+            }
+            if (sampleEvery < 1) {
+                throw new IllegalArgumentException("Sample interval must be at least 1");
+            }
+            this.listener = listener;
+            this.queue = new ArrayBlockingQueue<>(queueCapacity);
+            this.latestOnly = latestOnly;
+            this.policy = policy;
+            this.sampleEvery = sampleEvery;
+            this.executor = executor;
+        }
+
+        void offer(CartEvent event) {
+            if (!active) {
+                return;
+            }
+            if (latestOnly) {
+                if (latest.getAndSet(event) != null) {
+                    dropped.increment();
+                    DROPPED.increment();
+                }
+            } else {
+                switch (policy) {
+                    case DROP:
+                        if (!queue.offer(event)) {
+                            dropped.increment();
+                            DROPPED.increment();
+                        }
+                        break;
+                    case BLOCK:
+                        try {
+                            queue.put(event);
+                        } catch (InterruptedException e) {
+                            dropped.increment();
+                            DROPPED.increment();
+                            Thread.currentThread().interrupt();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        offerDroppingOldest(event);
+                        break;
+                    case SAMPLE:
+                        if (!queue.offer(event)) {
+                            if (overflowed.incrementAndGet() % sampleEvery == 0) {
+                                offerDroppingOldest(event);
+                            } else {
+                                dropped.increment();
+                                DROPPED.increment();
+                            }
+                        }
+                        break;
+                }
+            }
+            schedule();
+        }
+
+        private void offerDroppingOldest(CartEvent event) {
+            while (!queue.offer(event)) {
+                if (queue.poll() != null) {
+                    dropped.increment();
+                    DROPPED.increment();
+                }
+            }
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                executor.execute(this::drain);
+            }
+        }
+
+        private void drain() {
+            try {
+                CartEvent event;
+                while (active && (event = next()) != null) {
+                    long start = DELIVERY_TIME.start();
+                    try {
+                        listener.onCartEvent(event);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        DELIVERY_TIME.stop(start);
+                    }
+                    delivered.increment();
+                }
+            } finally {
+                scheduled.set(false);
+                // an event may have arrived after the last poll but before the flag was cleared
+                if (active && (latest.get() != null || !queue.isEmpty())) {
+                    schedule();
+                }
+            }
+        }
+
+        private CartEvent next() {
+            return latestOnly ? latest.getAndSet(null) : queue.poll();
+        }
+
+        public long getDeliveredCount() {
+            return delivered.sum();
+        }
+
+        /**
+         * Gets the number of events discarded by back-pressure or coalescing.
+         * @return The dropped count
+         */
+        public long getDroppedCount() {
+            return dropped.sum();
+        }
+
+        /**
+         * Unsubscribes. Queued events that were not delivered yet are discarded.
+         */
+        @Override
+        public void close() {
+            active = false;
+            subscriptions.remove(this);
+            queue.clear();
+        }
+    }
+}
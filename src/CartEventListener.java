@@ -0,0 +1,12 @@
+/**
+ * Receives cart change events from a {@link CartEventBus}.
+ */
+public interface CartEventListener {
+    /**
+     * Handles a cart change. Called on the subscription's delivery thread, never
+     * concurrently for the same subscription.
+     *
+     * @param event The cart change
+     */
+    void onCartEvent(CartEvent event);
+}
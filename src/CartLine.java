@@ -0,0 +1,48 @@
+/**
+ * One line of a shopping cart: a product and how many units of it were added.
+ * The price is captured in cents when the line is created so totals are exact.
+ */
+public class CartLine {
+    private final Product product;
+    private final PricingEngine.Quote quote;
+    private int quantity;
+
+    CartLine(Product product, int quantity, PricingEngine.Quote quote) {
+        this.product = product;
+        this.quote = quote;
+        this.quantity = quantity;
+    }
+
+    public Product getProduct() {
+        return product;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    void setQuantity(int quantity) {
+        this.quantity = quantity;
+    }
+
+    CartLine copy() {
+        return new CartLine(product, quantity, quote);
+    }
+
+    public long getUnitPriceCents() {
+        return quote.getUnitPriceCents();
+    }
+
+    /**
+     * Gets the price of the whole line, after any quantity offer.
+     * @return The line total in cents
+     */
+    public long getLineTotalCents() {
+        return quote.lineTotalCents(quantity);
+    }
+
+    @Override
+    public String toString() {
+        return product.getName() + " x" + quantity + " - $" + String.format("%.2f", getLineTotalCents() / 100.0);
+    }
+}
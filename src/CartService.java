@@ -0,0 +1,386 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Holds one {@link ShoppingCart} per shopper session.
+ * Carts live in a concurrent map and each cart synchronizes on itself, so
+ * concurrent shoppers only contend when they share a session. Carts that stay
+ * idle longer than the timeout are evicted by a background sweeper, and the
+ * number of carts and items per cart are capped to bound memory use.
+ * A cart is marked evicted under its lock before it leaves the map, so a
+ * change made through this service either completes before the eviction or
+ * goes to the session's next cart.
+ *
+ * With a {@link CartStore}, carts are also kept in the database: a session's
+ * cart is loaded from the store on its first access, also after it was
+ * evicted, and removing a cart deletes it from the store. An evicted cart is
+ * no longer persisted, so only the session's cart in memory writes its lines.
+ *
+ * Every cart is priced by the service's {@link PricingEngine}, by default the
+ * shop's; {@link #repriceCarts()} applies changed rules to the carts held.
+ */
+public class CartService implements AutoCloseable {
+    private static final int EVICTION_SAMPLE_SIZE = 16;
+
+    private final ConcurrentHashMap<String, Session> sessions = new ConcurrentHashMap<>();
+    // sessions in the map plus those being added, so that the limit holds under concurrent first accesses
+    private final AtomicInteger cartCount = new AtomicInteger();
+    private final long idleTimeoutNanos;
+    private final int maxCarts;
+    private final int maxItemsPerCart;
+    private final ScheduledExecutorService sweeper;
+    private final CartStore store;
+    private final PricingEngine pricingEngine;
+
+    /**
+     * Creates a cart service.
+     * @param idleTimeoutMillis Time after the last access before a cart is evicted
+     * @param maxCarts Maximum number of carts held at once
+     * @param maxItemsPerCart Maximum number of items in a single cart
+     */
+    public CartService(long idleTimeoutMillis, int maxCarts, int maxItemsPerCart) {
+        this(idleTimeoutMillis, maxCarts, maxItemsPerCart, null);
+    }
+
+    /**
+     * Creates a cart service that persists carts.
+     * @param idleTimeoutMillis Time after the last access before a cart is evicted from memory
+     * @param maxCarts Maximum number of carts held in memory at once
+     * @param maxItemsPerCart Maximum number of items in a single cart
+     * @param store The store carts are kept in, or null to keep them in memory only
+     */
+    public CartService(long idleTimeoutMillis, int maxCarts, int maxItemsPerCart, CartStore store) {
+        this(idleTimeoutMillis, maxCarts, maxItemsPerCart, store, PricingEngine.getInstance());
+    }
+
+    /**
+     * Creates a cart service that persists carts and prices them with the given engine.
+     * @param idleTimeoutMillis Time after the last access before a cart is evicted from memory
+     * @param maxCarts Maximum number of carts held in memory at once
+     * @param maxItemsPerCart Maximum number of items in a single cart
+     * @param store The store carts are kept in, or null to keep them in memory only
+     * @param pricingEngine The engine that prices every cart
+     */
+    public CartService(long idleTimeoutMillis, int maxCarts, int maxItemsPerCart, CartStore store,
+                       PricingEngine pricingEngine) {
+        if (pricingEngine == null) {
+            throw new IllegalArgumentException("Pricing engine must not be null");
+        }
+        if (idleTimeoutMillis < 1 || maxCarts < 1 || maxItemsPerCart < 1) {
+            throw new IllegalArgumentException("Timeout and limits must be positive");
+        }
+        this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMillis);
+        this.maxCarts = maxCarts;
+        this.maxItemsPerCart = maxItemsPerCart;
+        this.store = store;
+        this.pricingEngine = pricingEngine;
+        this.sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cart-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, idleTimeoutMillis / 2);
+        sweeper.scheduleAtFixedRate(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the cart of a session, creating or loading it on first access.
+     * When the cart limit is reached, the least recently used of a small
+     * sample of carts is evicted to make room.
+     * @param sessionId The shopper's session id
+     * @return The session's cart
+     */
+    public ShoppingCart getCart(String sessionId) {
+        return session(sessionId).cart;
+    }
+
+    /**
+     * Adds a product to a session's cart.
+     * @throws IllegalStateException if the cart is full
+     */
+    public void addProduct(String sessionId, Product product) {
+        addProduct(sessionId, product, 1);
+    }
+
+    /**
+     * Adds several units of a product to a session's cart.
+     * @throws IllegalStateException if the units do not fit in the cart
+     */
+    public void addProduct(String sessionId, Product product, int quantity) {
+        change(sessionId, cart -> {
+            // compared without adding, which a large quantity would overflow
+            if (quantity > maxItemsPerCart - cart.getItemCount()) {
+                throw new IllegalStateException("Cart is full (" + maxItemsPerCart + " items)");
+            }
+            cart.addProduct(product, quantity);
+        });
+    }
+
+    public void removeProduct(String sessionId, Product product) {
+        removeProduct(sessionId, product, 1);
+    }
+
+    public void removeProduct(String sessionId, Product product, int quantity) {
+        change(sessionId, cart -> cart.removeProduct(product, quantity));
+    }
+
+    /**
+     * Drops a session's cart, e.g. after checkout or logout.
+     * @param sessionId The shopper's session id
+     */
+    public void removeCart(String sessionId) {
+        Session removed = sessions.remove(sessionId);
+        if (removed != null) {
+            boolean counted;
+            // a session evicted meanwhile was already uncounted by its eviction
+            synchronized (removed.cart) {
+                counted = !removed.evicted;
+                removed.evicted = true;
+            }
+            if (counted) {
+                cartCount.decrementAndGet();
+            }
+        }
+        if (store != null) {
+            store.remove(sessionId, removed == null ? null : removed.cart);
+        }
+    }
+
+    /**
+     * Takes lines out of a session's cart, e.g. the lines just paid for, and
+     * drops the cart if nothing else is left in it. Units added meanwhile,
+     * e.g. while the payment ran, stay in the cart.
+     * @param sessionId The shopper's session id
+     * @param lines The lines to take out, with the quantities to remove
+     */
+    public void removeLines(String sessionId, Collection<CartLine> lines) {
+        change(sessionId, cart -> {
+            for (CartLine line : lines) {
+                cart.removeProduct(line.getProduct(), line.getQuantity());
+            }
+        });
+        Session[] removed = new Session[1];
+        // under the map's lock for the session and then the cart's, the order loading a session takes them in,
+        // so that no change slips in between the check and the removal
+        sessions.computeIfPresent(sessionId, (id, session) -> {
+            synchronized (session.cart) {
+                if (session.evicted || !session.cart.isEmpty()) {
+                    return session;
+                }
+                session.evicted = true;
+                removed[0] = session;
+                return null;
+            }
+        });
+        if (removed[0] != null) {
+            cartCount.decrementAndGet();
+            if (store != null) {
+                store.remove(sessionId, removed[0].cart);
+            }
+        }
+    }
+
+    /**
+     * Re-quotes the lines of every cart held at the engine's current rules,
+     * e.g. after a promotion was added or removed. Carts loaded later are
+     * priced at the rules in force then.
+     */
+    public void repriceCarts() {
+        for (Session session : sessions.values()) {
+            session.cart.reprice();
+        }
+    }
+
+    public int getCartCount() {
+        return sessions.size();
+    }
+
+    /**
+     * Stops the idle sweeper. Carts stay readable. The store, if any, is closed by its owner.
+     */
+    @Override
+    public void close() {
+        sweeper.shutdownNow();
+    }
+
+    private Session session(String sessionId) {
+        Session session = sessions.get(sessionId);
+        if (session == null || session.evicted) {
+            takeSlot();
+            session = store == null ? putSession(sessionId, newCart()) : loadSession(sessionId);
+        }
+        session.touch();
+        return session;
+    }
+
+    // applies a change under the cart's lock, to the session's next cart if this one was evicted meanwhile
+    private void change(String sessionId, Consumer<ShoppingCart> change) {
+        while (true) {
+            Session session = session(sessionId);
+            synchronized (session.cart) {
+                if (!session.evicted) {
+                    change.accept(session.cart);
+                    return;
+                }
+            }
+        }
+    }
+
+    // counts a cart about to be added, evicting others until it fits
+    private void takeSlot() {
+        while (true) {
+            int count = cartCount.get();
+            if (count < maxCarts) {
+                if (cartCount.compareAndSet(count, count + 1)) {
+                    return;
+                }
+            } else if (!evictOne()) {
+                // the carts counted are still being added by other threads
+                Thread.yield();
+            }
+        }
+    }
+
+    // gives the slot back if another thread added the session first; an evicted session is replaced
+    private Session putSession(String sessionId, ShoppingCart cart) {
+        Session created = new Session(cart);
+        Session session = sessions.compute(sessionId,
+                (id, existing) -> existing != null && !existing.evicted ? existing : created);
+        if (session != created) {
+            cartCount.decrementAndGet();
+        }
+        return session;
+    }
+
+    // read outside the map so that a slow read does not hold up other sessions; the cart is created
+    // under the map's lock for the session, so no other cart of the session is in use meanwhile
+    private Session loadSession(String sessionId) {
+        while (true) {
+            CartStore.StoredCart stored;
+            try {
+                stored = store.read(sessionId);
+            } catch (SQLException e) {
+                // the session goes on with a cart kept in memory only, which cannot overwrite the stored one
+                e.printStackTrace();
+                return putSession(sessionId, newCart());
+            }
+            Session[] created = new Session[1];
+            Session session = sessions.compute(sessionId, (id, existing) -> {
+                if (existing != null && !existing.evicted) {
+                    return existing;
+                }
+                ShoppingCart cart = store.open(id, stored);
+                if (cart == null) {
+                    return null;
+                }
+                // a cart evicted with changes not yet written comes back already priced by the engine
+                cart.setPricingEngine(pricingEngine);
+                return created[0] = new Session(cart);
+            });
+            if (session != null) {
+                if (session != created[0]) {
+                    cartCount.decrementAndGet();
+                }
+                return session;
+            }
+        }
+    }
+
+    private ShoppingCart newCart() {
+        ShoppingCart cart = new ShoppingCart();
+        cart.setPricingEngine(pricingEngine);
+        return cart;
+    }
+
+    void evictIdle() {
+        long idleSince = System.nanoTime() - idleTimeoutNanos;
+        for (Map.Entry<String, Session> entry : sessions.entrySet()) {
+            if (entry.getValue().lastAccess - idleSince < 0) {
+                evict(entry.getKey(), entry.getValue(), idleSince);
+            }
+        }
+    }
+
+    private boolean evictOne() {
+        // sampled LRU over a run of entries from a random part of the table, found by splitting it at random
+        Spliterator<Map.Entry<String, Session>> part = sessions.entrySet().spliterator();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (part.estimateSize() > EVICTION_SAMPLE_SIZE) {
+            Spliterator<Map.Entry<String, Session>> half = part.trySplit();
+            if (half == null) {
+                break;
+            }
+            if (random.nextBoolean()) {
+                part = half;
+            }
+        }
+        List<Map.Entry<String, Session>> sample = new ArrayList<>(EVICTION_SAMPLE_SIZE);
+        while (sample.size() < EVICTION_SAMPLE_SIZE) {
+            if (!part.tryAdvance(sample::add)) {
+                break;
+            }
+        }
+        if (sample.isEmpty()) {
+            // the part drawn was empty; any entry will do
+            Iterator<Map.Entry<String, Session>> it = sessions.entrySet().iterator();
+            if (!it.hasNext()) {
+                return false;
+            }
+            sample.add(it.next());
+        }
+        Map.Entry<String, Session> oldest = sample.get(0);
+        for (Map.Entry<String, Session> entry : sample) {
+            if (entry.getValue().lastAccess - oldest.getValue().lastAccess < 0) {
+                oldest = entry;
+            }
+        }
+        Session session = oldest.getValue();
+        return evict(oldest.getKey(), session, session.lastAccess + 1);
+    }
+
+    // marked under the cart's lock, so a change in progress completes first and none starts on the
+    // evicted cart; removed from the map after the lock is released, as loading a session takes the
+    // map's lock and then the lock of the cart it reuses. A session accessed again since it was chosen is kept
+    private boolean evict(String sessionId, Session session, long accessedBefore) {
+        synchronized (session.cart) {
+            if (session.evicted || session.lastAccess - accessedBefore >= 0) {
+                return false;
+            }
+            session.evicted = true;
+            if (store != null) {
+                store.evict(session.cart);
+            }
+        }
+        // the session may already have been replaced by its next one
+        sessions.remove(sessionId, session);
+        cartCount.decrementAndGet();
+        return true;
+    }
+
+    private static class Session {
+        final ShoppingCart cart;
+        volatile long lastAccess = System.nanoTime();
+        // set under the cart's lock before the session leaves the map
+        volatile boolean evicted;
+
+        Session(ShoppingCart cart) {
+            this.cart = cart;
+        }
+
+        void touch() {
+            lastAccess = System.nanoTime();
+        }
+    }
+}
@@ -0,0 +1,312 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps shopping carts in the {@code cart_lines} table so that they outlive
+ * the process, e.g. for long sessions or to recover abandoned carts.
+ *
+ * Carts are not written on every change. A persisted cart records which of its
+ * lines changed, and a background flush writes only those lines, of every
+ * changed cart, in one transaction every {@code flushIntervalMillis}. A line
+ * changed a hundred times between flushes is written once; a cart that did
+ * not change is not written at all. Changes made since the last flush are
+ * lost if the process dies.
+ *
+ * Nothing is read up front on startup: a session's cart is loaded when it is
+ * first asked for, see {@link #load(String)}. A cart evicted from memory stops
+ * recording changes, and its changes not yet written are kept until the next
+ * flush; loading the session meanwhile gets that cart back. Carts are stored by product id
+ * and quantity and priced again when they are loaded, so a recovered cart
+ * shows current prices, and products deleted meanwhile are dropped from it.
+ *
+ * Design Pattern:
+ * - Write-Behind: Cart changes are kept in memory and stored in batches
+ */
+public class CartStore implements AutoCloseable {
+    private static final LatencyHistogram FLUSH_TIME = Metrics.histogram("cart_store_flush_seconds",
+            "Latency of writing changed cart lines");
+    private static final Counter LINES_WRITTEN = Metrics.counter("cart_store_lines_written_total",
+            "Cart lines written or deleted by cart store flushes");
+    private static final Counter CARTS_LOADED = Metrics.counter("cart_store_carts_loaded_total",
+            "Carts read back from the database on first access");
+    private static final Counter FLUSH_FAILURES = Metrics.counter("cart_store_flush_failures_total",
+            "Cart store flushes that failed and will be retried");
+
+    /**
+     * A session's stored lines, read before its cart is created.
+     */
+    static final class StoredCart {
+        final Map<Product, Integer> lines = new LinkedHashMap<>();
+        // lines of products deleted since; the next flush removes them from the table
+        final List<Integer> deleted = new ArrayList<>();
+        // flushes completed before the read began
+        final long flushes;
+
+        StoredCart(long flushes) {
+            this.flushes = flushes;
+        }
+    }
+
+    /**
+     * The new quantity of one cart line; 0 if the line was removed.
+     */
+    public static final class LineChange {
+        final String sessionId;
+        final int productId;
+        final int quantity;
+
+        LineChange(String sessionId, int productId, int quantity) {
+            this.sessionId = sessionId;
+            this.productId = productId;
+            this.quantity = quantity;
+        }
+    }
+
+    private static final boolean PERSIST_CARTS = Boolean.getBoolean("ecommerce.cart.persist");
+    private static final long FLUSH_MS = Long.getLong("ecommerce.cart.flushMillis", 1000);
+
+    private final ConcurrentHashMap<String, ShoppingCart> dirtyCarts = new ConcurrentHashMap<>();
+    // sessions whose stored lines are to be deleted, with the stamp of their latest removal
+    private final ConcurrentHashMap<String, Long> removedSessions = new ConcurrentHashMap<>();
+    private final AtomicLong removals = new AtomicLong();
+    // successful flushes; a read older than the last one may have missed lines it wrote
+    private final AtomicLong flushes = new AtomicLong();
+    // one flush at a time
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService flusher;
+
+    /**
+     * Creates a store that writes changed carts in the background.
+     * @param flushIntervalMillis How often changed cart lines are written
+     */
+    public CartStore(long flushIntervalMillis) {
+        if (flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("Flush interval must be positive");
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cart-store");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        Metrics.gauge("cart_store_dirty_carts", "Carts with changes not yet written", dirtyCarts::size);
+    }
+
+    /**
+     * Creates the store configured with {@code -Decommerce.cart.persist=true}
+     * and {@code -Decommerce.cart.flushMillis=1000}.
+     * @return The store, or null if carts are kept in memory only
+     */
+    public static CartStore fromSystemProperties() {
+        return PERSIST_CARTS ? new CartStore(FLUSH_MS) : null;
+    }
+
+    /**
+     * Gets a session's cart as last stored, and persists its changes from now
+     * on. A cart with changes not yet written is returned as it is, so a cart
+     * evicted from memory and asked for again loses nothing.
+     * @param sessionId The shopper's session id
+     * @return The session's cart; empty if nothing is stored for the session
+     */
+    public ShoppingCart load(String sessionId) throws SQLException {
+        while (true) {
+            ShoppingCart cart = open(sessionId, read(sessionId));
+            if (cart != null) {
+                return cart;
+            }
+        }
+    }
+
+    /**
+     * Reads a session's stored lines and their products. Takes no lock, so
+     * that the database round trips hold up nothing else.
+     */
+    StoredCart read(String sessionId) throws SQLException {
+        StoredCart stored = new StoredCart(flushes.get());
+        // the stored lines of a removed session are about to be deleted, so it starts empty
+        if (!removedSessions.containsKey(sessionId)) {
+            for (Map.Entry<Integer, Integer> line : DatabaseHelper.getCartLines(sessionId).entrySet()) {
+                Product product = DatabaseHelper.getProduct(line.getKey());
+                if (product != null) {
+                    stored.lines.put(product, line.getValue());
+                } else {
+                    stored.deleted.add(line.getKey());
+                }
+            }
+            CARTS_LOADED.increment();
+        }
+        return stored;
+    }
+
+    /**
+     * Creates a session's cart from its stored lines and persists its changes
+     * from now on. Must only be called while no cart of the session is in
+     * use. A cart evicted with changes not yet written is returned instead.
+     * @param sessionId The shopper's session id
+     * @param stored The lines read by {@link #read(String)}
+     * @return The cart, or null if a flush wrote lines after they were read; read them again
+     */
+    ShoppingCart open(String sessionId, StoredCart stored) {
+        // an evicted cart leaves the map only after its lines are written and counted as flushed
+        ShoppingCart pending = dirtyCarts.get(sessionId);
+        if (pending != null) {
+            pending.persistTo(this, sessionId);
+            return pending;
+        }
+        if (flushes.get() != stored.flushes) {
+            return null;
+        }
+        ShoppingCart cart = new ShoppingCart();
+        merge(sessionId, cart, stored);
+        return cart;
+    }
+
+    /**
+     * Adds a session's stored lines to a cart and persists its changes from
+     * now on, e.g. for the desktop application's cart. Lines already in the
+     * cart are kept and written by the next flush.
+     * @param sessionId The session the cart is stored under
+     * @param cart The cart
+     * @return The cart
+     */
+    public ShoppingCart attach(String sessionId, ShoppingCart cart) throws SQLException {
+        merge(sessionId, cart, read(sessionId));
+        return cart;
+    }
+
+    // the cart is locked only to merge, so that no change slips in before it is persisted
+    private void merge(String sessionId, ShoppingCart cart, StoredCart stored) {
+        synchronized (cart) {
+            List<Integer> changed = new ArrayList<>(stored.deleted);
+            for (CartLine line : cart.getLines()) {
+                changed.add(line.getProduct().getId());
+            }
+            for (Map.Entry<Product, Integer> line : stored.lines.entrySet()) {
+                cart.addProduct(line.getKey(), line.getValue());
+            }
+            cart.persistTo(this, sessionId);
+            cart.markDirty(changed);
+        }
+    }
+
+    /**
+     * Deletes a session's stored cart, e.g. after checkout, and stops
+     * persisting the cart.
+     * @param sessionId The shopper's session id
+     * @param cart The session's cart, or null if it is not in memory
+     */
+    public void remove(String sessionId, ShoppingCart cart) {
+        if (cart != null) {
+            cart.persistTo(null, null);
+        }
+        ShoppingCart pending = dirtyCarts.remove(sessionId);
+        if (pending != null) {
+            pending.persistTo(null, null);
+        }
+        removedSessions.put(sessionId, removals.incrementAndGet());
+    }
+
+    /**
+     * Stops persisting an evicted cart, so that a change made through a
+     * reference still held elsewhere cannot be written over the session's next
+     * cart. Its changes not yet written stay queued for the next flush.
+     */
+    void evict(ShoppingCart cart) {
+        cart.stopRecording();
+    }
+
+    // called by a cart, under its lock, on its first change since it was last written
+    void markDirty(String sessionId, ShoppingCart cart) {
+        dirtyCarts.put(sessionId, cart);
+    }
+
+    /**
+     * Gets the number of carts with changes not yet written.
+     */
+    public int getDirtyCartCount() {
+        return dirtyCarts.size();
+    }
+
+    /**
+     * Writes the changed lines of all carts, and deletes the lines of removed
+     * sessions, in one transaction. On failure the changes are kept for the
+     * next flush.
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            Map<String, Long> removed = new HashMap<>(removedSessions);
+            List<ShoppingCart> carts = new ArrayList<>();
+            List<String> sessionIds = new ArrayList<>();
+            List<Map<Integer, Integer>> taken = new ArrayList<>();
+            List<LineChange> changes = new ArrayList<>();
+            // carts stay in the map until written, so a cart loaded meanwhile is the one in memory
+            for (Map.Entry<String, ShoppingCart> entry : dirtyCarts.entrySet()) {
+                Map<Integer, Integer> lines = entry.getValue().takeDirtyLines();
+                carts.add(entry.getValue());
+                sessionIds.add(entry.getKey());
+                taken.add(lines);
+                for (Map.Entry<Integer, Integer> line : lines.entrySet()) {
+                    changes.add(new LineChange(entry.getKey(), line.getKey(), line.getValue()));
+                }
+            }
+            if (!removed.isEmpty() || !changes.isEmpty()) {
+                long start = FLUSH_TIME.start();
+                try {
+                    DatabaseHelper.writeCartLines(removed.keySet(), changes);
+                } catch (SQLException e) {
+                    FLUSH_FAILURES.increment();
+                    for (int i = 0; i < carts.size(); i++) {
+                        carts.get(i).restoreDirtyLines(taken.get(i).keySet());
+                    }
+                    throw e;
+                } finally {
+                    FLUSH_TIME.stop(start);
+                }
+                LINES_WRITTEN.add(changes.size());
+                // before the carts leave the map, see open()
+                flushes.incrementAndGet();
+            }
+            for (Map.Entry<String, Long> entry : removed.entrySet()) {
+                // a session removed again meanwhile is deleted again by the next flush
+                removedSessions.remove(entry.getKey(), entry.getValue());
+            }
+            for (int i = 0; i < carts.size(); i++) {
+                ShoppingCart cart = carts.get(i);
+                // a cart changed after its lines were taken stays for the next flush; under its lock,
+                // so that it is never out of the map while it holds lines a load would not read
+                synchronized (cart) {
+                    if (!cart.hasDirtyLines()) {
+                        dirtyCarts.remove(sessionIds.get(i), cart);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flush after a final flush.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+}
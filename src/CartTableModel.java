@@ -0,0 +1,166 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Table model of the cart lines, kept in sync by cart events.
+ * Each event changes only the affected row. Events arriving from the bus are
+ * batched and applied in a single EDT task, so a burst of changes causes one
+ * round of row updates instead of one per event.
+ */
+public class CartTableModel extends AbstractTableModel implements CartEventListener {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Product", "Qty", "Price"};
+
+    private final List<Row> rows = new ArrayList<>();
+    private final Map<Integer, Integer> rowIndex = new HashMap<>();
+    private final ConcurrentLinkedQueue<CartEvent> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final long initialSequence;
+    private long totalCents;
+
+    /**
+     * Creates a model showing the cart's current lines and subscribes it to the
+     * cart's changes. Must be called on the EDT.
+     * @param cart The cart to show
+     */
+    public CartTableModel(ShoppingCart cart) {
+        // subscribe before the snapshot so no change falls in between; the
+        // snapshot's sequence number filters out events it already reflects.
+        // Rows are only correct if no event is lost, and onCartEvent never locks the cart, so the
+        // publisher may wait for room
+        cart.getEventBus().subscribe(this, CartEventBus.DEFAULT_QUEUE_CAPACITY, false,
+                BackpressurePolicy.BLOCK);
+        synchronized (cart) {
+            for (CartLine line : cart.getLines()) {
+                Product product = line.getProduct();
+                rowIndex.put(product.getId(), rows.size());
+                rows.add(new Row(product.getId(), product.getName(), line.getQuantity(), line.getLineTotalCents()));
+            }
+            totalCents = cart.getTotalCents();
+            initialSequence = cart.getSequence();
+        }
+    }
+
+    /**
+     * Queues an event and schedules one EDT flush for everything queued meanwhile.
+     */
+    @Override
+    public void onCartEvent(CartEvent event) {
+        pending.add(event);
+        if (flushScheduled.compareAndSet(false, true)) {
+            SwingUtilities.invokeLater(this::flush);
+        }
+    }
+
+    /**
+     * Gets the id of the product shown in a row.
+     * @param row The model row
+     * @return The product id
+     */
+    public int getProductIdAt(int row) {
+        return rows.get(row).productId;
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    @Override
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Row line = rows.get(row);
+        switch (column) {
+            case 0:
+                return line.name;
+            case 1:
+                return line.quantity;
+            default:
+                // the cart's line total, which may be less than the unit price times the quantity
+                return String.format("$%.2f", line.lineTotalCents / 100.0);
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        Set<Integer> updated = new HashSet<>();
+        CartEvent event;
+        while ((event = pending.poll()) != null) {
+            if (event.getSequence() <= initialSequence) {
+                continue;
+            }
+            totalCents = event.getTotalCents();
+            if (event.getType() == CartEvent.Type.CLEARED) {
+                rows.clear();
+                rowIndex.clear();
+                updated.clear();
+                fireTableDataChanged();
+                continue;
+            }
+            Integer index = rowIndex.get(event.getProductId());
+            if (index == null) {
+                if (event.getLineQuantity() > 0) {
+                    rowIndex.put(event.getProductId(), rows.size());
+                    rows.add(new Row(event.getProductId(), event.getProductName(),
+                            event.getLineQuantity(), event.getLineTotalCents()));
+                    fireTableRowsInserted(rows.size() - 1, rows.size() - 1);
+                }
+            } else if (event.getLineQuantity() == 0) {
+                removeRow(index);
+                updated.remove(event.getProductId());
+            } else {
+                rows.get(index).quantity = event.getLineQuantity();
+                rows.get(index).lineTotalCents = event.getLineTotalCents();
+                updated.add(event.getProductId());
+            }
+        }
+        for (int productId : updated) {
+            int index = rowIndex.get(productId);
+            fireTableRowsUpdated(index, index);
+        }
+    }
+
+    private void removeRow(int index) {
+        Row removed = rows.remove(index);
+        rowIndex.remove(removed.productId);
+        for (int i = index; i < rows.size(); i++) {
+            rowIndex.put(rows.get(i).productId, i);
+        }
+        fireTableRowsDeleted(index, index);
+    }
+
+    private static class Row {
+        final int productId;
+        final String name;
+        int quantity;
+        long lineTotalCents;
+
+        Row(int productId, String name, int quantity, long lineTotalCents) {
+            this.productId = productId;
+            this.name = name;
+            this.quantity = quantity;
+            this.lineTotalCents = lineTotalCents;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams a product catalog file into the database through
+ * {@link DatabaseHelper#addProducts}. Records are parsed one at a time, so the
+ * file never has to fit in memory.
+ *
+ * Supported formats, chosen by file extension:
+ * - .csv: type,name,price,description,stockQuantity[,discountPercentage]
+ *   with an optional header row and RFC 4180 quoting: a quoted value may hold
+ *   commas, doubled quotes and line breaks
+ * - .jsonl: one flat JSON object per line with the same field names
+ */
+public class CatalogImporter {
+    private static final String[] FIELDS = {"type", "name", "price", "description", "stockQuantity", "discountPercentage"};
+
+    /**
+     * Imports every product in the given file using the default batch sizes.
+     * @param file A .csv or .jsonl catalog file
+     * @return The generated ids and import throughput
+     */
+    public static BulkImportResult importFile(Path file) throws IOException, SQLException {
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            boolean json = file.getFileName().toString().toLowerCase().endsWith(".jsonl");
+            return DatabaseHelper.addProducts(new LineIterator(reader, json));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Imports every product read from a CSV or JSONL stream.
+     * @param reader The source of catalog lines
+     * @param json true for JSONL, false for CSV
+     * @param batchSize Number of rows per JDBC batch
+     * @param transactionSize Number of rows per transaction
+     * @return The generated ids and import throughput
+     */
+    public static BulkImportResult importLines(BufferedReader reader, boolean json, int batchSize,
+                                               int transactionSize) throws IOException, SQLException {
+        try {
+            return DatabaseHelper.addProducts(new LineIterator(reader, json), batchSize, transactionSize);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    static Product toProduct(Map<String, String> fields, int lineNumber) {
+        try {
+            String type = fields.getOrDefault("type", "");
+            String name = fields.get("name");
+            if (name == null || name.isEmpty()) {
+                throw new IllegalArgumentException("missing name");
+            }
+            double price = Double.parseDouble(fields.get("price"));
+            int stock = Integer.parseInt(fields.get("stockQuantity"));
+            Product product = ProductFactory.newProduct(type, name, price, fields.get("description"), stock);
+            String discount = fields.get("discountPercentage");
+            if (discount != null && !discount.isEmpty()) {
+                product.setDiscountPercentage(Double.parseDouble(discount));
+            }
+            return product;
+        } catch (NullPointerException | IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid product on line " + lineNumber + ": " + e.getMessage(), e);
+        }
+    }
+
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<>(FIELDS.length);
+        StringBuilder value = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        value.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    value.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(value.toString());
+                value.setLength(0);
+            } else {
+                value.append(c);
+            }
+        }
+        values.add(value.toString());
+        return values;
+    }
+
+    // a doubled quote inside a quoted value counts twice, so an odd count means a value is still open
+    static boolean insideQuotes(String text) {
+        boolean inside = false;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                inside = !inside;
+            }
+        }
+        return inside;
+    }
+
+    static Map<String, String> parseJsonLine(String line) {
+        Map<String, String> fields = new HashMap<>();
+        int i = skipWhitespace(line, 0);
+        if (i >= line.length() || line.charAt(i) != '{') {
+            throw new IllegalArgumentException("expected a JSON object");
+        }
+        i = skipWhitespace(line, i + 1);
+        StringBuilder buffer = new StringBuilder();
+        while (i < line.length() && line.charAt(i) != '}') {
+            i = readJsonString(line, i, buffer);
+            String key = buffer.toString();
+            i = skipWhitespace(line, i);
+            if (i >= line.length() || line.charAt(i) != ':') {
+                throw new IllegalArgumentException("expected ':' after \"" + key + "\"");
+            }
+            i = skipWhitespace(line, i + 1);
+            if (i < line.length() && line.charAt(i) == '"') {
+                i = readJsonString(line, i, buffer);
+                fields.put(key, buffer.toString());
+            } else {
+                int start = i;
+                while (i < line.length() && line.charAt(i) != ',' && line.charAt(i) != '}') {
+                    i++;
+                }
+                String literal = line.substring(start, i).trim();
+                if (!literal.equals("null")) {
+                    fields.put(key, literal);
+                }
+            }
+            i = skipWhitespace(line, i);
+            if (i < line.length() && line.charAt(i) == ',') {
+                i = skipWhitespace(line, i + 1);
+            }
+        }
+        return fields;
+    }
+
+    private static int readJsonString(String line, int i, StringBuilder out) {
+        if (i >= line.length() || line.charAt(i) != '"') {
+            throw new IllegalArgumentException("expected a JSON string at column " + (i + 1));
+        }
+        out.setLength(0);
+        for (i++; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                return i + 1;
+            }
+            if (c == '\\' && i + 1 < line.length()) {
+                char escaped = line.charAt(++i);
+                switch (escaped) {
+                    case 'n': out.append('\n'); break;
+                    case 't': out.append('\t'); break;
+                    case 'r': out.append('\r'); break;
+                    case 'b': out.append('\b'); break;
+                    case 'f': out.append('\f'); break;
+                    case 'u':
+                        out.append((char) Integer.parseInt(line.substring(i + 1, i + 5), 16));
+                        i += 4;
+                        break;
+                    default: out.append(escaped);
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        throw new IllegalArgumentException("unterminated JSON string");
+    }
+
+    private static int skipWhitespace(String line, int i) {
+        while (i < line.length() && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Lazily turns catalog records into products, skipping blank lines and the CSV header.
+     */
+    private static class LineIterator implements Iterator<Product> {
+        private final BufferedReader reader;
+        private final boolean json;
+        private int lineNumber;
+        private Product next;
+
+        LineIterator(BufferedReader reader, boolean json) {
+            this.reader = reader;
+            this.json = json;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (next != null) {
+                return true;
+            }
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lineNumber++;
+                    if (line.isBlank()) {
+                        continue;
+                    }
+                    int recordLine = lineNumber;
+                    Map<String, String> fields;
+                    if (json) {
+                        try {
+                            fields = parseJsonLine(line);
+                        } catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+                            throw new IllegalArgumentException("Invalid product on line " + lineNumber + ": "
+                                    + e.getMessage(), e);
+                        }
+                    } else {
+                        List<String> values = parseCsvLine(readCsvRecord(line));
+                        if (recordLine == 1 && values.get(0).trim().equalsIgnoreCase("type")) {
+                            continue;
+                        }
+                        fields = new HashMap<>();
+                        for (int i = 0; i < values.size() && i < FIELDS.length; i++) {
+                            fields.put(FIELDS[i], values.get(i));
+                        }
+                    }
+                    next = toProduct(fields, recordLine);
+                    return true;
+                }
+                return false;
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // a quoted value may span lines; the record ends on the line where its quotes balance
+        private String readCsvRecord(String line) throws IOException {
+            if (!insideQuotes(line)) {
+                return line;
+            }
+            int firstLine = lineNumber;
+            StringBuilder record = new StringBuilder(line);
+            boolean open = true;
+            while (open) {
+                String more = reader.readLine();
+                if (more == null) {
+                    throw new IllegalArgumentException("Invalid product on line " + firstLine
+                            + ": unterminated quoted value");
+                }
+                lineNumber++;
+                record.append('\n').append(more);
+                open = open != insideQuotes(more);
+            }
+            return record.toString();
+        }
+
+        @Override
+        public Product next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Product product = next;
+            next = null;
+            return product;
+        }
+    }
+}
@@ -0,0 +1,521 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32C;
+
+/**
+ * Read-only copy of the products table in a binary file that is memory-mapped
+ * rather than read. Opening a snapshot only checks its checksum; a product is
+ * decoded when it is asked for, so a new process can serve the whole catalog
+ * as soon as the file is mapped, without querying SQLite or building a
+ * Product per row.
+ *
+ * The file is a 64 byte header followed by fixed-width sections indexed by
+ * row, in ascending id order, and a heap of strings:
+ * <pre>
+ * header       magic, format version, row count, rows rewritten since the heap
+ *              was compacted, change number, creation time, heap offset and
+ *              size, file size, CRC32C of everything else
+ * prices       double per row, after discounts, as stored in the database
+ * discounts    double per row, in percent
+ * ids          int per row
+ * stock        int per row
+ * names        int per row, offset of the name in the heap
+ * descriptions int per row, offset of the description in the heap, or -1
+ * categories   byte per row: general, electronics or clothing
+ * heap         [int length][UTF-8 bytes] per distinct string
+ * </pre>
+ *
+ * A snapshot records the database's change number when it was made (see
+ * {@link DatabaseHelper#readProductChanges}). {@link #refresh()} reads only
+ * the products changed since, merges them with the rows of the snapshot and
+ * replaces the file; snapshots already open keep the file they mapped. The
+ * heap is copied as it is and the strings of changed rows are appended, so
+ * unchanged rows are copied without decoding them. Once a quarter of the rows
+ * have been rewritten, the heap is compacted instead.
+ */
+public final class CatalogSnapshot implements Iterable<Product> {
+    private static final int MAGIC = 0x45435331; // "ECS1"
+    private static final int FORMAT_VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int CRC_OFFSET = 60;
+    private static final String[] CATEGORIES = {ProductFactory.GENERAL, ProductFactory.ELECTRONICS,
+            ProductFactory.CLOTHING};
+
+    private final Path file;
+    private final ByteBuffer data;
+    private final int size;
+    private final int rewrittenRows;
+    private final long changeSeq;
+    private final long createdMillis;
+    private final int idsOffset;
+    private final int stockOffset;
+    private final int namesOffset;
+    private final int descriptionsOffset;
+    private final int discountsOffset;
+    private final int categoriesOffset;
+    private final int heapOffset;
+
+    private CatalogSnapshot(Path file, ByteBuffer data) {
+        this.file = file;
+        this.data = data;
+        this.size = data.getInt(8);
+        this.rewrittenRows = data.getInt(12);
+        this.changeSeq = data.getLong(16);
+        this.createdMillis = data.getLong(24);
+        this.heapOffset = (int) data.getLong(32);
+        this.discountsOffset = HEADER_SIZE + 8 * size;
+        this.idsOffset = discountsOffset + 8 * size;
+        this.stockOffset = idsOffset + 4 * size;
+        this.namesOffset = stockOffset + 4 * size;
+        this.descriptionsOffset = namesOffset + 4 * size;
+        this.categoriesOffset = descriptionsOffset + 4 * size;
+    }
+
+    /**
+     * Writes a snapshot of every product in the database and opens it.
+     * @param file The snapshot file; replaced atomically if it exists
+     * @return The new snapshot
+     */
+    public static CatalogSnapshot export(Path file) throws SQLException, IOException {
+        Writer writer = new Writer();
+        long changeSeq = DatabaseHelper.readProductChanges(0, (product, id) -> {
+            if (product != null) {
+                writer.add(product);
+            }
+        });
+        writer.write(file, changeSeq, 0);
+        return open(file);
+    }
+
+    /**
+     * Maps a snapshot file and verifies its checksum.
+     * @param file The snapshot file
+     * @return The snapshot
+     * @throws IOException if the file cannot be read, is not a snapshot of this
+     *         format version, or is corrupt
+     */
+    public static CatalogSnapshot open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+                throw new IOException("Not a catalog snapshot: " + file);
+            }
+            // the mapping stays valid after the channel is closed
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            if (data.getInt(0) != MAGIC) {
+                throw new IOException("Not a catalog snapshot: " + file);
+            }
+            if (data.getInt(4) != FORMAT_VERSION) {
+                throw new IOException("Catalog snapshot " + file + " has format version " + data.getInt(4)
+                        + ", expected " + FORMAT_VERSION);
+            }
+            int size = data.getInt(8);
+            long heapOffset = data.getLong(32);
+            if (data.getLong(48) != length || size < 0 || heapOffset != HEADER_SIZE + 33L * size
+                    || heapOffset + data.getLong(40) != length) {
+                throw new IOException("Catalog snapshot " + file + " is truncated or corrupt");
+            }
+            if (checksum(data) != data.getInt(CRC_OFFSET)) {
+                throw new IOException("Catalog snapshot " + file + " failed its checksum");
+            }
+            return new CatalogSnapshot(file, data);
+        }
+    }
+
+    /**
+     * Opens a snapshot and brings it up to date with the database, or exports a
+     * new one if the file is missing or unusable.
+     * @param file The snapshot file
+     * @return An up-to-date snapshot
+     */
+    public static CatalogSnapshot openOrExport(Path file) throws SQLException, IOException {
+        CatalogSnapshot snapshot;
+        try {
+            snapshot = open(file);
+        } catch (NoSuchFileException e) {
+            return export(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return export(file);
+        }
+        return snapshot.refresh();
+    }
+
+    /**
+     * Applies the products inserted, updated and deleted in the database since
+     * this snapshot was made, and replaces the snapshot file with the result.
+     * Only the changed products are read from the database; the other rows
+     * are copied from this snapshot.
+     * @return The new snapshot, or this one if nothing changed
+     */
+    public CatalogSnapshot refresh() throws SQLException, IOException {
+        Map<Integer, Product> changes = new HashMap<>();
+        long newSeq = DatabaseHelper.readProductChanges(changeSeq, (product, id) -> changes.put(id, product));
+        if (changes.isEmpty()) {
+            return this;
+        }
+        int[] changedIds = new int[changes.size()];
+        int count = 0;
+        for (int id : changes.keySet()) {
+            changedIds[count++] = id;
+        }
+        Arrays.sort(changedIds);
+        boolean compact = rewrittenRows + changedIds.length > size / 4;
+        Writer writer = compact ? new Writer() : new Writer(this);
+        int next = 0;
+        for (int row = 0; row < size; row++) {
+            int id = getId(row);
+            while (next < changedIds.length && changedIds[next] < id) {
+                writer.addIfPresent(changes.get(changedIds[next++]));
+            }
+            if (next < changedIds.length && changedIds[next] == id) {
+                writer.addIfPresent(changes.get(changedIds[next++]));
+            } else if (compact) {
+                writer.addRow(this, row);
+            } else {
+                writer.copyRow(this, row);
+            }
+        }
+        while (next < changedIds.length) {
+            writer.addIfPresent(changes.get(changedIds[next++]));
+        }
+        writer.write(file, newSeq, compact ? 0 : rewrittenRows + changedIds.length);
+        return open(file);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gets the database change number the snapshot is up to date with.
+     */
+    public long getChangeSeq() {
+        return changeSeq;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    /**
+     * Gets the size of the file, which is also the memory it maps.
+     */
+    public long getFileSize() {
+        return data.capacity();
+    }
+
+    /**
+     * Finds the row of a product by binary search over the ids section.
+     * @param id The product id
+     * @return The row, or -1 if the product is not in the snapshot
+     */
+    public int rowOf(int id) {
+        int low = 0;
+        int high = size - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int midId = getId(mid);
+            if (midId < id) {
+                low = mid + 1;
+            } else if (midId > id) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -1;
+    }
+
+    public int getId(int row) {
+        return data.getInt(idsOffset + 4 * row);
+    }
+
+    public double getPrice(int row) {
+        return data.getDouble(HEADER_SIZE + 8 * row);
+    }
+
+    public int getStock(int row) {
+        return data.getInt(stockOffset + 4 * row);
+    }
+
+    public String getName(int row) {
+        return string(data.getInt(namesOffset + 4 * row));
+    }
+
+    public String getDescription(int row) {
+        return string(data.getInt(descriptionsOffset + 4 * row));
+    }
+
+    public String getCategory(int row) {
+        return CATEGORIES[data.get(categoriesOffset + row)];
+    }
+
+    public double getDiscountPercent(int row) {
+        return data.getDouble(discountsOffset + 8 * row);
+    }
+
+    /**
+     * Decodes one row into a product of the type it was stored as, like
+     * {@link DatabaseHelper#getProduct}.
+     * @param row The row
+     * @return A new product
+     */
+    public Product get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("No row " + row);
+        }
+        return DatabaseHelper.newProduct(getId(row), getName(row), getPrice(row), getDescription(row),
+                getStock(row), getCategory(row), getDiscountPercent(row));
+    }
+
+    /**
+     * Finds a product by id.
+     * @return A new product, or null if it is not in the snapshot
+     */
+    public Product find(int id) {
+        int row = rowOf(id);
+        return row < 0 ? null : get(row);
+    }
+
+    /**
+     * Iterates over the products in id order, decoding each as it is reached.
+     */
+    @Override
+    public Iterator<Product> iterator() {
+        return new Iterator<Product>() {
+            private int row;
+
+            @Override
+            public boolean hasNext() {
+                return row < size;
+            }
+
+            @Override
+            public Product next() {
+                if (row >= size) {
+                    throw new NoSuchElementException();
+                }
+                return get(row++);
+            }
+        };
+    }
+
+    private String string(int offset) {
+        if (offset < 0) {
+            return null;
+        }
+        int position = heapOffset + offset;
+        byte[] bytes = new byte[data.getInt(position)];
+        data.get(position + 4, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // CRC32C of the header up to the checksum field, then everything after the header
+    private static int checksum(ByteBuffer data) {
+        CRC32C crc = new CRC32C();
+        crc.update(data.duplicate().position(0).limit(CRC_OFFSET));
+        crc.update(data.duplicate().position(HEADER_SIZE).limit(data.capacity()));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Collects rows, then writes them in id order as a snapshot file.
+     */
+    private static class Writer {
+        private int size;
+        private boolean sorted = true;
+        private int capacity = 1024;
+        private double[] prices = new double[capacity];
+        private double[] discounts = new double[capacity];
+        private int[] ids = new int[capacity];
+        private int[] stock = new int[capacity];
+        private int[] names = new int[capacity];
+        private int[] descriptions = new int[capacity];
+        private byte[] categories = new byte[capacity];
+        private final Map<String, Integer> strings = new HashMap<>();
+        private byte[] heap = new byte[64 * 1024];
+        private int heapSize;
+
+        Writer() {
+        }
+
+        // starts with the heap of a snapshot, so its rows can be copied with copyRow
+        Writer(CatalogSnapshot base) {
+            heapSize = base.data.capacity() - base.heapOffset;
+            heap = new byte[Math.max(heapSize + heapSize / 8, heap.length)];
+            base.data.get(base.heapOffset, heap, 0, heapSize);
+        }
+
+        void add(Product product) {
+            add(product.getId(), product.getPrice(), ProductFactory.discountOf(product), product.getStockQuantity(),
+                    product.getName(), ProductFactory.undecorated(product).getDescription(),
+                    ProductFactory.categoryOf(product));
+        }
+
+        void addIfPresent(Product product) {
+            if (product != null) {
+                add(product);
+            }
+        }
+
+        void addRow(CatalogSnapshot snapshot, int row) {
+            add(snapshot.getId(row), snapshot.getPrice(row), snapshot.getDiscountPercent(row), snapshot.getStock(row),
+                    snapshot.getName(row), snapshot.getDescription(row), snapshot.getCategory(row));
+        }
+
+        void copyRow(CatalogSnapshot base, int row) {
+            add(base.getId(row), base.getPrice(row), base.getDiscountPercent(row), base.getStock(row),
+                    base.data.getInt(base.namesOffset + 4 * row), base.data.getInt(base.descriptionsOffset + 4 * row),
+                    base.data.get(base.categoriesOffset + row));
+        }
+
+        private void add(int id, double price, double discount, int quantity, String name, String description,
+                         String category) {
+            add(id, price, discount, quantity, intern(name), description == null ? -1 : intern(description),
+                    (byte) Arrays.asList(CATEGORIES).indexOf(category));
+        }
+
+        private void add(int id, double price, double discount, int quantity, int name, int description,
+                         byte category) {
+            sorted &= size == 0 || id > ids[size - 1];
+            if (size == capacity) {
+                capacity *= 2;
+                prices = Arrays.copyOf(prices, capacity);
+                discounts = Arrays.copyOf(discounts, capacity);
+                ids = Arrays.copyOf(ids, capacity);
+                stock = Arrays.copyOf(stock, capacity);
+                names = Arrays.copyOf(names, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+                categories = Arrays.copyOf(categories, capacity);
+            }
+            prices[size] = price;
+            discounts[size] = discount;
+            ids[size] = id;
+            stock[size] = quantity;
+            names[size] = name;
+            descriptions[size] = description;
+            categories[size] = category;
+            size++;
+        }
+
+        private int intern(String value) {
+            Integer existing = strings.get(value);
+            if (existing != null) {
+                return existing;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if ((long) heapSize + 4 + bytes.length > Integer.MAX_VALUE - HEADER_SIZE - 33L * size) {
+                throw new IllegalArgumentException("Catalog is too large for a snapshot");
+            }
+            while (heap.length < heapSize + 4 + bytes.length) {
+                heap = Arrays.copyOf(heap, (int) Math.min(2L * heap.length, Integer.MAX_VALUE - 8));
+            }
+            int offset = heapSize;
+            ByteBuffer.wrap(heap, offset, 4).order(ByteOrder.LITTLE_ENDIAN).putInt(bytes.length);
+            System.arraycopy(bytes, 0, heap, offset + 4, bytes.length);
+            heapSize += 4 + bytes.length;
+            strings.put(value, offset);
+            return offset;
+        }
+
+        private void sortById() {
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (long) ids[i] << 32 | i;
+            }
+            Arrays.sort(keys);
+            double[] sortedPrices = new double[size];
+            double[] sortedDiscounts = new double[size];
+            int[] sortedIds = new int[size];
+            int[] sortedStock = new int[size];
+            int[] sortedNames = new int[size];
+            int[] sortedDescriptions = new int[size];
+            byte[] sortedCategories = new byte[size];
+            for (int i = 0; i < size; i++) {
+                int from = (int) keys[i];
+                if (i > 0 && ids[from] == sortedIds[i - 1]) {
+                    throw new IllegalArgumentException("Product " + ids[from] + " was added twice");
+                }
+                sortedPrices[i] = prices[from];
+                sortedDiscounts[i] = discounts[from];
+                sortedIds[i] = ids[from];
+                sortedStock[i] = stock[from];
+                sortedNames[i] = names[from];
+                sortedDescriptions[i] = descriptions[from];
+                sortedCategories[i] = categories[from];
+            }
+            prices = sortedPrices;
+            discounts = sortedDiscounts;
+            ids = sortedIds;
+            stock = sortedStock;
+            names = sortedNames;
+            descriptions = sortedDescriptions;
+            categories = sortedCategories;
+            capacity = size;
+            sorted = true;
+        }
+
+        // written to a temporary file and moved into place, so readers never see a partial snapshot
+        void write(Path file, long changeSeq, int rewrittenRows) throws IOException {
+            long heapOffset = HEADER_SIZE + 33L * size;
+            long length = heapOffset + heapSize;
+            if (length > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("Catalog is too large for a snapshot");
+            }
+            if (!sorted) {
+                sortById();
+            }
+            ByteBuffer buffer = ByteBuffer.allocate((int) length).order(ByteOrder.LITTLE_ENDIAN);
+            buffer.putInt(MAGIC).putInt(FORMAT_VERSION).putInt(size).putInt(rewrittenRows).putLong(changeSeq)
+                    .putLong(System.currentTimeMillis()).putLong(heapOffset).putLong(heapSize).putLong(length);
+            buffer.position(HEADER_SIZE);
+            buffer.asDoubleBuffer().put(prices, 0, size);
+            buffer.position(buffer.position() + 8 * size);
+            buffer.asDoubleBuffer().put(discounts, 0, size);
+            buffer.position(buffer.position() + 8 * size);
+            buffer.asIntBuffer().put(ids, 0, size);
+            buffer.position(buffer.position() + 4 * size);
+            buffer.asIntBuffer().put(stock, 0, size);
+            buffer.position(buffer.position() + 4 * size);
+            buffer.asIntBuffer().put(names, 0, size);
+            buffer.position(buffer.position() + 4 * size);
+            buffer.asIntBuffer().put(descriptions, 0, size);
+            buffer.position(buffer.position() + 4 * size);
+            buffer.put(categories, 0, size).put(heap, 0, heapSize);
+            buffer.putInt(CRC_OFFSET, checksum(buffer));
+            buffer.flip();
+
+            Path directory = file.toAbsolutePath().getParent();
+            Files.createDirectories(directory);
+            Path temporary = Files.createTempFile(directory, file.getFileName().toString(), ".tmp");
+            try {
+                try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+                    while (buffer.hasRemaining()) {
+                        channel.write(buffer);
+                    }
+                    channel.force(true);
+                }
+                Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temporary);
+            }
+        }
+    }
+}
@@ -0,0 +1,293 @@
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * Read-optimized in-memory copy of the catalog, stored column by column.
+ * Ids, prices in cents and stock are parallel primitive arrays indexed by row,
+ * and names and descriptions are references into a deduplicating
+ * {@link StringTable}. A product costs a few dozen bytes instead of a Product
+ * object, two Strings and their arrays, and filters over price and stock run
+ * as tight loops over contiguous arrays.
+ *
+ * Prices are held as int cents (up to $21,474,836.47) and stock as a
+ * non-negative int, so that the filters can be written as arithmetic on
+ * same-width lanes, which the JIT compiles to SIMD instructions.
+ *
+ * Rows are in ascending id order. The catalog is built once by {@link #load}.
+ * Afterwards only stock and prices change, in place; other threads see such
+ * changes eventually, which suits listing and filtering but not stock
+ * reservations, for which {@link InventoryService} remains the authority.
+ *
+ * Design Pattern:
+ * - Flyweight: {@link #get(int)} returns a lightweight Product view of a row
+ */
+public class ColumnarCatalog {
+    private final int size;
+    private final int[] ids;
+    private final int[] priceCents;
+    private final int[] stock;
+    private final int[] names;
+    private final int[] descriptions;
+    private final StringTable strings;
+
+    private ColumnarCatalog(int size, int[] ids, int[] priceCents, int[] stock, int[] names, int[] descriptions,
+                            StringTable strings) {
+        this.size = size;
+        this.ids = ids;
+        this.priceCents = priceCents;
+        this.stock = stock;
+        this.names = names;
+        this.descriptions = descriptions;
+        this.strings = strings;
+    }
+
+    /**
+     * Builds a catalog from products in ascending id order, e.g. a {@link ProductCursor}.
+     * @param products The products; consumed lazily, so they need not fit on the heap as objects
+     * @return The catalog
+     * @throws IllegalArgumentException if the ids are not ascending, or a price or stock is out of range
+     */
+    public static ColumnarCatalog load(Iterator<? extends Product> products) {
+        int capacity = 1024;
+        int[] ids = new int[capacity];
+        int[] priceCents = new int[capacity];
+        int[] stock = new int[capacity];
+        int[] names = new int[capacity];
+        int[] descriptions = new int[capacity];
+        StringTable strings = new StringTable();
+        int size = 0;
+        while (products.hasNext()) {
+            Product product = products.next();
+            if (size > 0 && product.getId() <= ids[size - 1]) {
+                throw new IllegalArgumentException("Products must be in ascending id order");
+            }
+            if (size == capacity) {
+                capacity *= 2;
+                ids = Arrays.copyOf(ids, capacity);
+                priceCents = Arrays.copyOf(priceCents, capacity);
+                stock = Arrays.copyOf(stock, capacity);
+                names = Arrays.copyOf(names, capacity);
+                descriptions = Arrays.copyOf(descriptions, capacity);
+            }
+            ids[size] = product.getId();
+            priceCents[size] = checkPrice(Math.round(product.getPrice() * 100));
+            stock[size] = checkStock(product.getStockQuantity());
+            names[size] = strings.intern(product.getName());
+            descriptions[size] = strings.intern(product.getDescription());
+            size++;
+        }
+        strings.trim();
+        return new ColumnarCatalog(size, Arrays.copyOf(ids, size), Arrays.copyOf(priceCents, size),
+                Arrays.copyOf(stock, size), Arrays.copyOf(names, size), Arrays.copyOf(descriptions, size), strings);
+    }
+
+    /**
+     * Builds a catalog of every product in the database, streamed through a cursor.
+     */
+    public static ColumnarCatalog loadFromDatabase() throws SQLException {
+        try (ProductCursor cursor = DatabaseHelper.openProductCursor(10_000, true)) {
+            return load(cursor);
+        }
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the row of a product.
+     * @param id The product id
+     * @return The row, or -1 if the product is not in the catalog
+     */
+    public int rowOf(int id) {
+        int row = Arrays.binarySearch(ids, 0, size, id);
+        return row < 0 ? -1 : row;
+    }
+
+    public int getId(int row) {
+        return ids[row];
+    }
+
+    public long getPriceCents(int row) {
+        return priceCents[row];
+    }
+
+    public int getStock(int row) {
+        return stock[row];
+    }
+
+    public String getName(int row) {
+        return strings.get(names[row]);
+    }
+
+    public String getDescription(int row) {
+        return strings.get(descriptions[row]);
+    }
+
+    public void setStock(int row, int quantity) {
+        stock[row] = checkStock(quantity);
+    }
+
+    public void setPriceCents(int row, long cents) {
+        priceCents[row] = checkPrice(cents);
+    }
+
+    /**
+     * Gets a view of a row that can be passed wherever a Product is expected.
+     * The view reads the columns on every call, so it reflects later stock and
+     * price changes; names and descriptions are decoded on each call.
+     * @param row The row
+     * @return The view
+     */
+    public Product get(int row) {
+        if (row < 0 || row >= size) {
+            throw new IndexOutOfBoundsException("No row " + row);
+        }
+        return new Row(row);
+    }
+
+    /**
+     * Counts the products with a price in a range and at least some stock.
+     * @param minCents Lowest price, inclusive
+     * @param maxCents Highest price, inclusive
+     * @param minStock Lowest stock, e.g. 1 for products in stock
+     * @return The number of matching products
+     */
+    public int count(long minCents, long maxCents, int minStock) {
+        int min = clampMin(minCents);
+        int max = clampMax(maxCents);
+        int minQuantity = Math.max(minStock, 0);
+        int[] prices = priceCents;
+        int[] stocks = stock;
+        int misses = 0;
+        for (int i = 0; i < size; i++) {
+            int price = prices[i];
+            // the sign bit is set if any bound is violated; no compares or branches, so the loop vectorizes
+            misses += ((price - min) | (max - price) | (stocks[i] - minQuantity)) >>> 31;
+        }
+        return size - misses;
+    }
+
+    /**
+     * Finds the rows of the products with a price in a range and at least some stock.
+     * @param minCents Lowest price, inclusive
+     * @param maxCents Highest price, inclusive
+     * @param minStock Lowest stock, e.g. 1 for products in stock
+     * @param rows Receives the matching rows in id order; must be at least {@link #size()} long
+     * @return The number of matching rows written
+     */
+    public int filter(long minCents, long maxCents, int minStock, int[] rows) {
+        if (rows.length < size) {
+            throw new IllegalArgumentException("Row buffer is shorter than the catalog");
+        }
+        int min = clampMin(minCents);
+        int max = clampMax(maxCents);
+        int minQuantity = Math.max(minStock, 0);
+        int[] prices = priceCents;
+        int[] stocks = stock;
+        int matches = 0;
+        for (int i = 0; i < size; i++) {
+            int price = prices[i];
+            // always write, only advance on a match, so there is nothing to mispredict
+            rows[matches] = i;
+            matches += 1 - (((price - min) | (max - price) | (stocks[i] - minQuantity)) >>> 31);
+        }
+        return matches;
+    }
+
+    /**
+     * Gets the memory used by the columns and strings, in bytes, not counting object headers.
+     */
+    public long getDataBytes() {
+        return 20L * size + strings.getDataBytes();
+    }
+
+    /**
+     * Gets the number of distinct names and descriptions stored.
+     */
+    public int getDistinctStrings() {
+        return strings.size();
+    }
+
+    // bounds are clamped to the range of stored prices so the filter arithmetic cannot overflow
+    private static int clampMin(long cents) {
+        return (int) Math.min(Math.max(cents, 0), Integer.MAX_VALUE);
+    }
+
+    private static int clampMax(long cents) {
+        return (int) Math.min(Math.max(cents, -1), Integer.MAX_VALUE);
+    }
+
+    private static int checkPrice(long cents) {
+        if (cents < 0 || cents > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Price out of range: " + cents + " cents");
+        }
+        return (int) cents;
+    }
+
+    private static int checkStock(int quantity) {
+        if (quantity < 0) {
+            throw new IllegalArgumentException("Stock must not be negative");
+        }
+        return quantity;
+    }
+
+    /**
+     * Product view of one row. Setting the stock writes through to the catalog.
+     */
+    private class Row extends Product {
+        private final int row;
+
+        Row(int row) {
+            super(null, 0, null, 0);
+            this.row = row;
+        }
+
+        @Override
+        public int getId() {
+            return ids[row];
+        }
+
+        @Override
+        public void setId(int id) {
+            throw new UnsupportedOperationException("Catalog ids cannot be changed");
+        }
+
+        @Override
+        public String getName() {
+            return ColumnarCatalog.this.getName(row);
+        }
+
+        @Override
+        public double getPrice() {
+            return priceCents[row] / 100.0;
+        }
+
+        // the catalog holds prices after discounts
+        @Override
+        public double getListPrice() {
+            return getPrice();
+        }
+
+        @Override
+        public String getDescription() {
+            return ColumnarCatalog.this.getDescription(row);
+        }
+
+        @Override
+        public int getStockQuantity() {
+            return stock[row];
+        }
+
+        @Override
+        public void setStockQuantity(int quantity) {
+            stock[row] = quantity;
+        }
+
+        @Override
+        public String toString() {
+            return getName() + " - $" + String.format("%.2f", getPrice());
+        }
+    }
+}
@@ -0,0 +1,206 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small bounded pool of SQLite connections.
+ * Connections are opened lazily up to the configured maximum and tuned for
+ * concurrent readers (WAL journal). Each pooled connection keeps its own
+ * cache of prepared statements. Every borrow hands out a new
+ * {@link PooledConnection} handle for the connection.
+ *
+ * Design Pattern:
+ * - Object Pool: Reuses expensive connections and prepared statements
+ */
+public class ConnectionPool {
+    private static final long BORROW_TIMEOUT_MS = 30_000;
+
+    private final String url;
+    private final int maxSize;
+    private final int statementCacheSize;
+    private final BlockingQueue<Entry> idle;
+    private final AtomicInteger opened = new AtomicInteger();
+    private volatile boolean closed;
+
+    /**
+     * Creates a pool for the given JDBC url.
+     * @param url The JDBC url of the database
+     * @param maxSize Maximum number of open connections
+     * @param statementCacheSize Maximum number of cached statements per connection
+     */
+    public ConnectionPool(String url, int maxSize, int statementCacheSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be at least 1");
+        }
+        this.url = url;
+        this.maxSize = maxSize;
+        this.statementCacheSize = statementCacheSize;
+        this.idle = new ArrayBlockingQueue<>(maxSize);
+    }
+
+    /**
+     * Borrows a connection, opening a new one if the pool is not yet full.
+     * The returned connection must be closed to hand it back to the pool.
+     * @return A pooled connection
+     * @throws SQLException if no connection becomes available in time
+     */
+    public PooledConnection borrow() throws SQLException {
+        if (closed) {
+            throw new SQLException("Connection pool is closed");
+        }
+        Entry entry = idle.poll();
+        if (entry != null) {
+            return new PooledConnection(this, entry);
+        }
+        while (true) {
+            int count = opened.get();
+            if (count >= maxSize) {
+                break;
+            }
+            if (opened.compareAndSet(count, count + 1)) {
+                try {
+                    return new PooledConnection(this, open());
+                } catch (SQLException | RuntimeException e) {
+                    opened.decrementAndGet();
+                    throw e;
+                }
+            }
+        }
+        try {
+            entry = idle.poll(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted while waiting for a database connection", e);
+        }
+        if (entry == null) {
+            throw new SQLException("Timed out waiting for a database connection");
+        }
+        return new PooledConnection(this, entry);
+    }
+
+    /**
+     * Returns a connection to the pool. Broken connections are discarded.
+     * @param entry The connection to return
+     */
+    void release(Entry entry) {
+        boolean reusable = !closed;
+        try {
+            if (reusable && !entry.connection.getAutoCommit()) {
+                entry.connection.rollback();
+                entry.connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            reusable = false;
+        }
+        if (!reusable || !idle.offer(entry)) {
+            discard(entry);
+        }
+    }
+
+    /**
+     * Gets the number of open connections, borrowed or idle.
+     */
+    public int getOpenCount() {
+        return opened.get();
+    }
+
+    /**
+     * Gets the number of open connections waiting to be borrowed.
+     */
+    public int getIdleCount() {
+        return idle.size();
+    }
+
+    /**
+     * Closes all idle connections. Connections still borrowed are closed when returned.
+     */
+    public void close() {
+        closed = true;
+        Entry entry;
+        while ((entry = idle.poll()) != null) {
+            discard(entry);
+        }
+    }
+
+    private Entry open() throws SQLException {
+        Connection connection = DriverManager.getConnection(url);
+        try (Statement stmt = connection.createStatement()) {
+            // WAL lets readers proceed while a writer is active; NORMAL is durable in WAL mode
+            stmt.execute("PRAGMA journal_mode=WAL");
+            stmt.execute("PRAGMA synchronous=NORMAL");
+            stmt.execute("PRAGMA cache_size=-8000");
+            stmt.execute("PRAGMA temp_store=MEMORY");
+            stmt.execute("PRAGMA busy_timeout=5000");
+        } catch (SQLException e) {
+            connection.close();
+            throw e;
+        }
+        return new Entry(connection, statementCacheSize);
+    }
+
+    private void discard(Entry entry) {
+        opened.decrementAndGet();
+        entry.close();
+    }
+
+    /**
+     * An open connection and its prepared statements, kept across borrows.
+     */
+    static final class Entry {
+        final Connection connection;
+        private final Map<String, PreparedStatement> statements;
+
+        Entry(Connection connection, int statementCacheSize) {
+            this.connection = connection;
+            this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+                    if (size() > statementCacheSize) {
+                        closeQuietly(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            PreparedStatement stmt = statements.get(sql);
+            if (stmt == null) {
+                stmt = connection.prepareStatement(sql);
+                statements.put(sql, stmt);
+            } else {
+                stmt.clearParameters();
+            }
+            return stmt;
+        }
+
+        void close() {
+            for (PreparedStatement stmt : statements.values()) {
+                closeQuietly(stmt);
+            }
+            statements.clear();
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+
+        private static void closeQuietly(PreparedStatement stmt) {
+            try {
+                stmt.close();
+            } catch (SQLException ignored) {
+                // the statement is being evicted; nothing else to do
+            }
+        }
+    }
+}
@@ -0,0 +1,34 @@
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A monotonically increasing count, e.g. of failed operations.
+ * Increments are striped across threads, so they do not contend.
+ */
+public class Counter extends Metric {
+    private final LongAdder count = new LongAdder();
+
+    Counter(String name, String labels, String help) {
+        super(name, labels, help);
+    }
+
+    public void increment() {
+        if (Metrics.ENABLED) {
+            count.increment();
+        }
+    }
+
+    public void add(long amount) {
+        if (Metrics.ENABLED) {
+            count.add(amount);
+        }
+    }
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+}
@@ -1,4 +1,8 @@
 public class CreditCardPayment implements PaymentStrategy {
+    // validating a form takes tens of nanoseconds, so only about one in 64 is timed
+    private static final LatencyHistogram VALIDATION_TIME = Metrics.sampledHistogram("validation_seconds",
+            "Time to validate a payment form", 64, "form", "creditCard");
+
     private String cardNumber;
     private String cvv;
     private String expiryDate;
@@ -11,6 +15,7 @@ public class CreditCardPayment implements PaymentStrategy {
     }
 
     private void validateFields(String cardNumber, String cvv, String expiryDate) throws IllegalArgumentException {
+        long start = VALIDATION_TIME.start();
         StringBuilder errors = new StringBuilder();
         
         String cardError = FormValidator.getErrorMessage("cardNumber", cardNumber);
@@ -20,12 +25,23 @@ public class CreditCardPayment implements PaymentStrategy {
         if (cardError != null) errors.append(cardError).append("\n");
         if (cvvError != null) errors.append(cvvError).append("\n");
         if (expiryError != null) errors.append(expiryError).append("\n");
+        VALIDATION_TIME.stop(start);
         
         if (errors.length() > 0) {
+            countFailure("cardNumber", cardError);
+            countFailure("cvv", cvvError);
+            countFailure("expiryDate", expiryError);
             throw new IllegalArgumentException(errors.toString());
         }
     }
 
+    private static void countFailure(String field, String error) {
+        if (error != null) {
+            Metrics.counter("validation_failures_total", "Form fields that failed validation", "field", field)
+                    .increment();
+        }
+    }
+
     @Override
     public boolean pay(double amount) {
         // In a real implementation, this would integrate with a payment gateway
@@ -35,7 +51,15 @@ public class CreditCardPayment implements PaymentStrategy {
     }
 
     private String maskCardNumber() {
-        String cleaned = cardNumber.replaceAll("[-\\s]", "");
-        return "****-****-****-" + cleaned.substring(cleaned.length() - 4);
+        // Copy the last four digits behind the mask, skipping spaces and dashes
+        char[] masked = "****-****-****-0000".toCharArray();
+        int out = masked.length - 1;
+        for (int i = cardNumber.length() - 1; i >= 0 && out >= masked.length - 4; i--) {
+            char c = cardNumber.charAt(i);
+            if (c != '-' && !Character.isWhitespace(c)) {
+                masked[out--] = c;
+            }
+        }
+        return new String(masked);
     }
 }
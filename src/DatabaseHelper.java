@@ -1,110 +1,942 @@
-import java.sql.Connection;
-import java.sql.DriverManager;
+import java.nio.file.Paths;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class DatabaseHelper {
-    private static final String DB_URL = "jdbc:sqlite:ecommerce.db";
-    private static Connection connection;
+    // overridable so tools such as the benchmarks can work on a scratch database
+    private static final String DB_URL = System.getProperty("ecommerce.db.url", "jdbc:sqlite:ecommerce.db");
+    private static final int POOL_SIZE = 8;
+    private static final int STATEMENT_CACHE_SIZE = 32;
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final int DEFAULT_TRANSACTION_SIZE = 50_000;
+    private static final String ALL_COLUMNS = "id, name, price, description, stockQuantity, category, discountPercent";
+    private static final String SUMMARY_COLUMNS = "id, name, price, stockQuantity, category, discountPercent";
+    private static final String INSERT_PRODUCT_SQL = "INSERT INTO products "
+            + "(name, price, description, stockQuantity, category, discountPercent) VALUES (?, ?, ?, ?, ?, ?)";
+    // stock is left out: it changes through InventoryService, see setStock and adjustStock
+    private static final String UPDATE_PRODUCT_SQL = "UPDATE products SET name = ?, price = ?, description = ?, "
+            + "category = ?, discountPercent = ? WHERE id = ?";
+    // updateProduct can be buffered and written in batches; see WriteBehindBuffer
+    private static final boolean WRITE_BEHIND = Boolean.getBoolean("ecommerce.db.writeBehind");
+    private static final String WRITE_BEHIND_DIR = System.getProperty("ecommerce.db.writeBehind.dir", "write-behind");
+    private static final int WRITE_BEHIND_MAX_PENDING = Integer.getInteger("ecommerce.db.writeBehind.maxPending", 1000);
+    private static final long WRITE_BEHIND_FLUSH_MS = Long.getLong("ecommerce.db.writeBehind.flushMillis", 500);
+    private static final int PRODUCT_CACHE_SIZE = 10_000;
+    private static final long PRODUCT_CACHE_TTL_MS = 5 * 60 * 1000;
+    private static final ConnectionPool pool = new ConnectionPool(DB_URL, POOL_SIZE, STATEMENT_CACHE_SIZE);
+    private static final ProductCache productCache = new ProductCache(PRODUCT_CACHE_SIZE, PRODUCT_CACHE_TTL_MS);
+    private static volatile ProductSearchIndex searchIndex;
+    private static volatile WriteBehindBuffer writeBehind;
+    private static CompletableFuture<Void> initialization;
+    private static volatile boolean initialized;
+
+    private static final LatencyHistogram ADD_PRODUCT_TIME = timer("addProduct");
+    private static final LatencyHistogram ADD_PRODUCTS_TIME = timer("addProducts");
+    // mostly cache hits that take well under a microsecond, so like a cart mutation only one call in 256
+    // is timed; there is no per-object sequence to sample by, so it is drawn at random
+    private static final LatencyHistogram GET_PRODUCT_TIME = Metrics.sampledHistogram(
+            "db_operation_seconds", "Latency of DatabaseHelper operations", 256, "operation", "getProduct");
+    private static final LatencyHistogram LOAD_PRODUCT_TIME = timer("loadProduct");
+    private static final LatencyHistogram GET_ALL_PRODUCTS_TIME = timer("getAllProducts");
+    private static final LatencyHistogram GET_PRODUCT_PAGE_TIME = timer("getProductPage");
+    private static final LatencyHistogram COUNT_PRODUCTS_TIME = timer("countProducts");
+    private static final LatencyHistogram GET_PRODUCT_ID_AT_TIME = timer("getProductIdAt");
+    private static final LatencyHistogram FIND_PRODUCTS_TIME = timer("findProducts");
+    private static final LatencyHistogram OPEN_PRODUCT_CURSOR_TIME = timer("openProductCursor");
+    private static final LatencyHistogram READ_PRODUCT_CHANGES_TIME = timer("readProductChanges");
+    private static final LatencyHistogram UPDATE_PRODUCT_TIME = timer("updateProduct");
+    private static final LatencyHistogram WRITE_UPDATES_TIME = timer("writeUpdates");
+    private static final LatencyHistogram DECREMENT_STOCK_TIME = timer("decrementStock");
+    private static final LatencyHistogram SET_STOCK_TIME = timer("setStock");
+    private static final LatencyHistogram ADJUST_STOCK_TIME = timer("adjustStock");
+    private static final LatencyHistogram DELETE_PRODUCT_TIME = timer("deleteProduct");
+    private static final LatencyHistogram ADD_ORDERS_TIME = timer("addOrders");
+    private static final LatencyHistogram GET_LAST_ORDER_ID_TIME = timer("getLastOrderId");
+    private static final LatencyHistogram WRITE_CART_LINES_TIME = timer("writeCartLines");
+    private static final LatencyHistogram GET_CART_LINES_TIME = timer("getCartLines");
 
     static {
-        try {
-            // Establish the database connection
-            connection = DriverManager.getConnection(DB_URL);
-            createTables();
-        } catch (SQLException e) {
-            e.printStackTrace();
+        Metrics.gauge("db_pool_open_connections", "Connections opened by the pool", pool::getOpenCount);
+        Metrics.gauge("db_pool_idle_connections", "Open connections not borrowed", pool::getIdleCount);
+        Metrics.gauge("product_cache_size", "Products in the read-through cache", productCache::size);
+        Metrics.functionCounter("product_cache_hits_total", "Product cache hits", productCache::getHitCount);
+        Metrics.functionCounter("product_cache_misses_total", "Product cache misses", productCache::getMissCount);
+        Metrics.functionCounter("product_cache_evictions_total", "Product cache evictions",
+                productCache::getEvictionCount);
+    }
+
+    /**
+     * Starts bringing the database schema up to date on a background thread,
+     * if that has not already begun. Opening the first connection loads the
+     * SQLite driver and its native library, so starting this early lets that
+     * work overlap with the rest of startup. Every operation of this class waits
+     * for it to finish, so calling this is optional. In write-behind mode this
+     * also replays product updates journaled but not written before the last
+     * shutdown.
+     * @return Completes when the database is ready; a failed attempt is retried by the next call
+     */
+    public static synchronized CompletableFuture<Void> initialize() {
+        if (initialization == null || initialization.isCompletedExceptionally()) {
+            initialization = CompletableFuture.runAsync(() -> {
+                try {
+                    try (PooledConnection conn = pool.borrow()) {
+                        SchemaMigrations.migrate(conn.getConnection());
+                    }
+                    if (WRITE_BEHIND && writeBehind == null) {
+                        WriteBehindBuffer buffer = WriteBehindBuffer.open(Paths.get(WRITE_BEHIND_DIR),
+                                WRITE_BEHIND_MAX_PENDING, WRITE_BEHIND_FLUSH_MS, DatabaseHelper::writeUpdates);
+                        Runtime.getRuntime().addShutdownHook(new Thread(buffer::close, "write-behind-shutdown"));
+                        writeBehind = buffer;
+                    }
+                    initialized = true;
+                } catch (SQLException e) {
+                    throw new CompletionException(failed("initialize", e));
+                }
+            }, task -> {
+                Thread thread = new Thread(task, "db-init");
+                thread.setDaemon(true);
+                thread.start();
+            });
         }
+        return initialization;
     }
 
-    private static void createTables() throws SQLException {
-        String createProductTable = "CREATE TABLE IF NOT EXISTS products (" +
-                "id INTEGER PRIMARY KEY AUTOINCREMENT," +
-                "name TEXT NOT NULL," +
-                "price REAL NOT NULL," +
-                "description TEXT," +
-                "stockQuantity INTEGER NOT NULL" +
-                ");";
-        Statement stmt = connection.createStatement();
-        stmt.execute(createProductTable);
+    // borrows a connection once the schema is up to date
+    private static PooledConnection borrow() throws SQLException {
+        awaitInitialized();
+        return pool.borrow();
+    }
+
+    private static void awaitInitialized() throws SQLException {
+        if (!initialized) {
+            try {
+                initialize().join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof SQLException) {
+                    throw (SQLException) e.getCause();
+                }
+                throw new SQLException("Database initialization failed", e.getCause());
+            }
+        }
     }
 
     public static void addProduct(Product product) throws SQLException {
-        String sql = "INSERT INTO products (name, price, description, stockQuantity) VALUES (?, ?, ?, ?)";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setString(1, product.getName());
-        pstmt.setDouble(2, product.getPrice());
-        pstmt.setString(3, product.getDescription());
-        pstmt.setInt(4, product.getStockQuantity());
-        pstmt.executeUpdate();
+        long start = ADD_PRODUCT_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(INSERT_PRODUCT_SQL);
+            bindInsert(pstmt, product);
+            pstmt.executeUpdate();
+            product.setId((int) lastInsertId(conn));
+        } catch (SQLException e) {
+            throw failed("addProduct", e);
+        } finally {
+            ADD_PRODUCT_TIME.stop(start);
+        }
+        ProductSearchIndex index = searchIndex;
+        if (index != null) {
+            index.put(product);
+        }
+    }
+
+    public static BulkImportResult addProducts(Iterator<? extends Product> products) throws SQLException {
+        return addProducts(products, DEFAULT_BATCH_SIZE, DEFAULT_TRANSACTION_SIZE);
+    }
+
+    /**
+     * Inserts products in JDBC batches, committing every {@code transactionSize} rows.
+     * The iterator is consumed lazily, so it may be backed by a file larger than the heap.
+     * Each product receives its generated id.
+     *
+     * @param products The products to insert
+     * @param batchSize Number of rows per JDBC batch
+     * @param transactionSize Number of rows per transaction
+     * @return The generated ids and import throughput
+     * @throws SQLException if an insert fails; the current transaction is rolled back
+     */
+    public static BulkImportResult addProducts(Iterator<? extends Product> products, int batchSize,
+                                               int transactionSize) throws SQLException {
+        if (batchSize < 1 || transactionSize < 1) {
+            throw new IllegalArgumentException("Batch and transaction sizes must be positive");
+        }
+        long start = System.nanoTime();
+        int[] ids = new int[Math.min(batchSize, 1024)];
+        int count = 0;
+        Product[] batch = new Product[batchSize];
+        // indexed once their transaction commits, so that a rolled back row never shows up in search
+        List<Product> uncommitted = new ArrayList<>();
+        try (PooledConnection conn = borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(INSERT_PRODUCT_SQL);
+            int inTransaction = 0;
+            while (products.hasNext()) {
+                int size = 0;
+                while (size < batchSize && inTransaction + size < transactionSize && products.hasNext()) {
+                    Product product = products.next();
+                    bindInsert(pstmt, product);
+                    pstmt.addBatch();
+                    batch[size++] = product;
+                }
+                pstmt.executeBatch();
+                // The transaction holds SQLite's write lock, so AUTOINCREMENT assigns this batch consecutive ids
+                int firstId = (int) lastInsertId(conn) - size + 1;
+                if (count + size > ids.length) {
+                    ids = Arrays.copyOf(ids, Math.max(ids.length * 2, count + size));
+                }
+                boolean indexed = searchIndex != null;
+                for (int i = 0; i < size; i++) {
+                    batch[i].setId(firstId + i);
+                    ids[count++] = firstId + i;
+                    if (indexed) {
+                        uncommitted.add(batch[i]);
+                    }
+                    batch[i] = null;
+                }
+                inTransaction += size;
+                if (inTransaction >= transactionSize) {
+                    conn.getConnection().commit();
+                    indexCommitted(uncommitted);
+                    inTransaction = 0;
+                }
+            }
+            conn.getConnection().commit();
+            indexCommitted(uncommitted);
+            conn.getConnection().setAutoCommit(true);
+        } catch (SQLException e) {
+            throw failed("addProducts", e);
+        } finally {
+            ADD_PRODUCTS_TIME.record(System.nanoTime() - start);
+        }
+        return new BulkImportResult(Arrays.copyOf(ids, count), System.nanoTime() - start);
     }
 
+    private static void indexCommitted(List<Product> products) {
+        ProductSearchIndex index = searchIndex;
+        if (index != null) {
+            for (Product product : products) {
+                index.put(product);
+            }
+        }
+        products.clear();
+    }
+
+    /**
+     * Gets a product by id through the read-through product cache.
+     * The returned product may be shared with other callers and must not be mutated.
+     * In write-behind mode an update not yet written is applied to it.
+     */
     public static Product getProduct(int id) throws SQLException {
-        String sql = "SELECT * FROM products WHERE id = ?";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setInt(1, id);
-        ResultSet rs = pstmt.executeQuery();
-        if (rs.next()) {
-            Product product = new Product(
-                    rs.getString("name"),
-                    rs.getDouble("price"),
-                    rs.getString("description"),
-                    rs.getInt("stockQuantity")
-            );
-            product.setId(rs.getInt("id"));
+        long start = GET_PRODUCT_TIME.start();
+        try {
+            Product product = productCache.get(id, DatabaseHelper::loadProduct);
+            if (WRITE_BEHIND && product != null) {
+                WriteBehindBuffer buffer = writeBehind;
+                if (buffer != null) {
+                    return buffer.get(product);
+                }
+            }
             return product;
+        } catch (SQLException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new SQLException("Failed to load product " + id, e);
+        } finally {
+            GET_PRODUCT_TIME.stop(start);
+        }
+    }
+
+    public static ProductCache getProductCache() {
+        return productCache;
+    }
+
+    /**
+     * Gets the buffer of product updates not yet written.
+     * @return The buffer, or null unless started with {@code -Decommerce.db.writeBehind=true}
+     */
+    public static WriteBehindBuffer getWriteBehindBuffer() throws SQLException {
+        if (!WRITE_BEHIND) {
+            return null;
+        }
+        awaitInitialized();
+        return writeBehind;
+    }
+
+    /**
+     * Gets the full-text search index, building it from the products table on first use.
+     * Afterwards it is kept up to date by every insert, update and delete made here.
+     */
+    public static ProductSearchIndex getSearchIndex() throws SQLException {
+        ProductSearchIndex index = searchIndex;
+        if (index == null) {
+            synchronized (DatabaseHelper.class) {
+                index = searchIndex;
+                if (index == null) {
+                    index = new ProductSearchIndex();
+                    // publish first so products changed during the initial scan are not missed; the
+                    // scan's rows may be older than those changes, so the index keeps the changes
+                    index.beginLoad();
+                    searchIndex = index;
+                    try (ProductCursor cursor = openProductCursor(1000, true)) {
+                        while (cursor.hasNext()) {
+                            index.load(cursor.next());
+                        }
+                    } catch (SQLException | RuntimeException e) {
+                        searchIndex = null;
+                        throw e;
+                    } finally {
+                        index.endLoad();
+                    }
+                }
+            }
+        }
+        return index;
+    }
+
+    private static Product loadProduct(int id) throws SQLException {
+        String sql = "SELECT " + ALL_COLUMNS + " FROM products WHERE id = ?";
+        long start = LOAD_PRODUCT_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    return mapProduct(rs, true);
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("loadProduct", e);
+        } finally {
+            LOAD_PRODUCT_TIME.stop(start);
         }
         return null;
     }
 
     public static List<Product> getAllProducts() throws SQLException {
         List<Product> products = new ArrayList<>();
-        String sql = "SELECT * FROM products";
-        Statement stmt = connection.createStatement();
-        ResultSet rs = stmt.executeQuery(sql);
-        while (rs.next()) {
-            Product product = new Product(
-                    rs.getString("name"),
-                    rs.getDouble("price"),
-                    rs.getString("description"),
-                    rs.getInt("stockQuantity")
-            );
-            product.setId(rs.getInt("id"));
-            products.add(product);
+        String sql = "SELECT " + ALL_COLUMNS + " FROM products";
+        long start = GET_ALL_PRODUCTS_TIME.start();
+        try (PooledConnection conn = borrow();
+             ResultSet rs = conn.prepare(sql).executeQuery()) {
+            while (rs.next()) {
+                products.add(mapProduct(rs, true));
+            }
+        } catch (SQLException e) {
+            throw failed("getAllProducts", e);
+        } finally {
+            GET_ALL_PRODUCTS_TIME.stop(start);
+        }
+        overlayPending(products);
+        return products;
+    }
+
+    /**
+     * Gets one page of products in id order using keyset pagination.
+     * Pass the id of the last product of the previous page to get the next one.
+     *
+     * @param afterId Only products with a greater id are returned; 0 for the first page
+     * @param limit Maximum number of products in the page
+     * @param withDescription false to skip loading descriptions, e.g. for list views
+     * @return The page, empty when there are no more products
+     */
+    public static List<Product> getProductPage(int afterId, int limit, boolean withDescription) throws SQLException {
+        String sql = "SELECT " + (withDescription ? ALL_COLUMNS : SUMMARY_COLUMNS)
+                + " FROM products WHERE id > ? ORDER BY id LIMIT ?";
+        List<Product> products = new ArrayList<>(Math.min(limit, 1024));
+        long start = GET_PRODUCT_PAGE_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, afterId);
+            pstmt.setInt(2, limit);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    products.add(mapProduct(rs, withDescription));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("getProductPage", e);
+        } finally {
+            GET_PRODUCT_PAGE_TIME.stop(start);
         }
+        overlayPending(products);
         return products;
     }
 
+    /**
+     * Finds products matching a query, in the query's order. Filtering, sorting
+     * and the limit are all applied by SQLite using the product indexes. In
+     * write-behind mode, products with updates not yet written are returned
+     * updated, but matched and ordered by the values last written.
+     *
+     * @param query The filter, sort order and page size
+     * @param withDescription false to skip loading descriptions, e.g. for list views
+     * @return Up to the query's limit of products, typed as they were stored
+     */
+    public static List<Product> findProducts(ProductQuery query, boolean withDescription) throws SQLException {
+        String sql = query.toSql(withDescription ? ALL_COLUMNS : SUMMARY_COLUMNS);
+        List<Product> products = new ArrayList<>(Math.min(query.getLimit(), 1024));
+        long start = FIND_PRODUCTS_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            query.bind(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    products.add(mapProduct(rs, withDescription));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("findProducts", e);
+        } finally {
+            FIND_PRODUCTS_TIME.stop(start);
+        }
+        overlayPending(products);
+        return products;
+    }
+
+    /**
+     * Gets SQLite's plan for a query, one line per step, e.g.
+     * "SEARCH products USING INDEX idx_products_category_price (category=? AND price>?)".
+     * A "SCAN products" step followed by "USE TEMP B-TREE FOR ORDER BY" reads the whole table.
+     */
+    public static List<String> explainProducts(ProductQuery query) throws SQLException {
+        List<String> plan = new ArrayList<>();
+        try (PooledConnection conn = borrow();
+             PreparedStatement pstmt = conn.getConnection().prepareStatement(
+                     "EXPLAIN QUERY PLAN " + query.toSql(ALL_COLUMNS))) {
+            query.bind(pstmt);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    plan.add(rs.getString("detail"));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("explainProducts", e);
+        }
+        return plan;
+    }
+
+    public static int countProducts() throws SQLException {
+        long start = COUNT_PRODUCTS_TIME.start();
+        try (PooledConnection conn = borrow();
+             ResultSet rs = conn.prepare("SELECT COUNT(*) FROM products").executeQuery()) {
+            return rs.next() ? rs.getInt(1) : 0;
+        } catch (SQLException e) {
+            throw failed("countProducts", e);
+        } finally {
+            COUNT_PRODUCTS_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Gets the id of the product at a position in id order, to start a keyset
+     * page at an arbitrary row. Walks the primary key index only.
+     *
+     * @param offset Zero-based position
+     * @return The id, or 0 if there is no product at that position
+     */
+    public static int getProductIdAt(int offset) throws SQLException {
+        long start = GET_PRODUCT_ID_AT_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare("SELECT id FROM products ORDER BY id LIMIT 1 OFFSET ?");
+            pstmt.setInt(1, offset);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt(1) : 0;
+            }
+        } catch (SQLException e) {
+            throw failed("getProductIdAt", e);
+        } finally {
+            GET_PRODUCT_ID_AT_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Opens a cursor over all products in id order. Rows are fetched from the
+     * database {@code fetchSize} at a time as the cursor advances. The cursor
+     * holds a pooled connection until it is closed.
+     *
+     * @param fetchSize Number of rows fetched per round trip
+     * @param withDescription false to skip loading descriptions
+     * @return An open cursor that must be closed
+     */
+    public static ProductCursor openProductCursor(int fetchSize, boolean withDescription) throws SQLException {
+        String sql = "SELECT " + (withDescription ? ALL_COLUMNS : SUMMARY_COLUMNS) + " FROM products ORDER BY id";
+        long start = OPEN_PRODUCT_CURSOR_TIME.start();
+        PooledConnection conn = null;
+        try {
+            conn = borrow();
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setFetchSize(fetchSize);
+            return new ProductCursor(conn, pstmt.executeQuery(), withDescription);
+        } catch (SQLException | RuntimeException e) {
+            if (conn != null) {
+                conn.close();
+            }
+            if (e instanceof SQLException) {
+                failed("openProductCursor", (SQLException) e);
+            }
+            throw e;
+        } finally {
+            OPEN_PRODUCT_CURSOR_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Reads the products inserted, updated or deleted since a change number, in
+     * the order they last changed, as of a single point in time. Each product
+     * is reported once, as it is now. Updates still in the write-behind buffer
+     * are not included.
+     *
+     * @param afterSeq The change number returned by the previous call; 0 for every product
+     * @param consumer Receives each product with its id; the product is null if it was deleted
+     * @return The change number to pass next time, or {@code afterSeq} if nothing changed
+     */
+    public static long readProductChanges(long afterSeq, ObjIntConsumer<Product> consumer) throws SQLException {
+        String sql = "SELECT c.productId, c.seq, p.* FROM product_changes c "
+                + "LEFT JOIN products p ON p.id = c.productId WHERE c.seq > ?";
+        long lastSeq = afterSeq;
+        long start = READ_PRODUCT_CHANGES_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setLong(1, afterSeq);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lastSeq = Math.max(lastSeq, rs.getLong("seq"));
+                    rs.getInt("id");
+                    consumer.accept(rs.wasNull() ? null : mapProduct(rs, true), rs.getInt("productId"));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("readProductChanges", e);
+        } finally {
+            READ_PRODUCT_CHANGES_TIME.stop(start);
+        }
+        return lastSeq;
+    }
+
+    /**
+     * Streams all products in id order. The stream must be closed, e.g. with
+     * try-with-resources, to release its JDBC resources.
+     *
+     * @param fetchSize Number of rows fetched per round trip
+     * @param withDescription false to skip loading descriptions
+     * @return A lazily populated stream of products
+     */
+    public static Stream<Product> streamProducts(int fetchSize, boolean withDescription) throws SQLException {
+        ProductCursor cursor = openProductCursor(fetchSize, withDescription);
+        Spliterator<Product> spliterator = Spliterators.spliteratorUnknownSize(cursor,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.DISTINCT);
+        return StreamSupport.stream(spliterator, false).onClose(cursor::close);
+    }
+
+    /**
+     * Stores a product's name, price, description, category and discount.
+     * The stock is not written, so an edit made from a product read earlier
+     * cannot overwrite units sold since; see {@link #setStock}.
+     * Started with {@code -Decommerce.db.writeBehind=true}, the update is only
+     * journaled and kept in memory, and written later in a batch together with
+     * other updates, of which only the latest per product is written. Reads
+     * through this class see it at once.
+     */
     public static void updateProduct(Product product) throws SQLException {
-        String sql = "UPDATE products SET name = ?, price = ?, description = ?, stockQuantity = ? WHERE id = ?";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setString(1, product.getName());
-        pstmt.setDouble(2, product.getPrice());
-        pstmt.setString(3, product.getDescription());
-        pstmt.setInt(4, product.getStockQuantity());
-        pstmt.setInt(5, product.getId());
-        pstmt.executeUpdate();
+        long start = UPDATE_PRODUCT_TIME.start();
+        if (WRITE_BEHIND) {
+            try {
+                awaitInitialized();
+                writeBehind.put(product);
+            } catch (SQLException e) {
+                throw failed("updateProduct", e);
+            } finally {
+                productCache.invalidate(product.getId());
+                UPDATE_PRODUCT_TIME.stop(start);
+            }
+            ProductSearchIndex index = searchIndex;
+            if (index != null) {
+                index.put(product);
+            }
+            return;
+        }
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(UPDATE_PRODUCT_SQL);
+            bindUpdate(pstmt, WriteBehindBuffer.Update.of(product));
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw failed("updateProduct", e);
+        } finally {
+            productCache.invalidate(product.getId());
+            UPDATE_PRODUCT_TIME.stop(start);
+        }
+        ProductSearchIndex index = searchIndex;
+        if (index != null) {
+            index.put(product);
+        }
+    }
+
+    /**
+     * Decrements stock for several products in one transaction. Each update only
+     * applies if the product still has at least that much stock.
+     *
+     * @param quantities Units to take off, keyed by product id
+     * @return Ids of the products whose stock was too low; their rows are unchanged
+     */
+    public static List<Integer> decrementStock(Map<Integer, Integer> quantities) throws SQLException {
+        String sql = "UPDATE products SET stockQuantity = stockQuantity - ? WHERE id = ? AND stockQuantity >= ?";
+        List<Integer> failed = new ArrayList<>();
+        List<Integer> ids = new ArrayList<>(quantities.keySet());
+        long start = DECREMENT_STOCK_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(sql);
+            for (int id : ids) {
+                int quantity = quantities.get(id);
+                pstmt.setInt(1, quantity);
+                pstmt.setInt(2, id);
+                pstmt.setInt(3, quantity);
+                pstmt.addBatch();
+            }
+            int[] counts = pstmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] == 0) {
+                    failed.add(ids.get(i));
+                }
+            }
+        } catch (SQLException e) {
+            throw failed("decrementStock", e);
+        } finally {
+            for (int id : ids) {
+                productCache.invalidate(id);
+            }
+            DECREMENT_STOCK_TIME.stop(start);
+        }
+        return failed;
+    }
+
+    /**
+     * Sets a product's stock. Call through {@link InventoryService#setStock},
+     * which keeps its counter in step with the row.
+     * @return false if there is no such product
+     */
+    public static boolean setStock(int id, int stockQuantity) throws SQLException {
+        String sql = "UPDATE products SET stockQuantity = ? WHERE id = ?";
+        long start = SET_STOCK_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, stockQuantity);
+            pstmt.setInt(2, id);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw failed("setStock", e);
+        } finally {
+            productCache.invalidate(id);
+            SET_STOCK_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Adds units to a product's stock, or takes them off for a negative delta
+     * if the stock does not drop below zero. Call through
+     * {@link InventoryService#adjust}, which keeps its counter in step with the row.
+     * @return false if there is no such product or its stock is too low
+     */
+    public static boolean adjustStock(int id, int delta) throws SQLException {
+        String sql = "UPDATE products SET stockQuantity = stockQuantity + ? WHERE id = ? AND stockQuantity + ? >= 0";
+        long start = ADJUST_STOCK_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, delta);
+            pstmt.setInt(2, id);
+            pstmt.setInt(3, delta);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            throw failed("adjustStock", e);
+        } finally {
+            productCache.invalidate(id);
+            ADJUST_STOCK_TIME.stop(start);
+        }
     }
 
     public static void deleteProduct(int id) throws SQLException {
         String sql = "DELETE FROM products WHERE id = ?";
-        PreparedStatement pstmt = connection.prepareStatement(sql);
-        pstmt.setInt(1, id);
-        pstmt.executeUpdate();
+        long start = DELETE_PRODUCT_TIME.start();
+        if (WRITE_BEHIND) {
+            awaitInitialized();
+            writeBehind.discard(id);
+        }
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setInt(1, id);
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw failed("deleteProduct", e);
+        } finally {
+            productCache.invalidate(id);
+            DELETE_PRODUCT_TIME.stop(start);
+        }
+        ProductSearchIndex index = searchIndex;
+        if (index != null) {
+            index.remove(id);
+        }
+    }
+
+    // Writes a batch of product updates from the write-behind buffer in one transaction. Borrows from
+    // the pool directly, as updates journaled by the last run are written while initialization runs.
+    private static void writeUpdates(Collection<WriteBehindBuffer.Update> updates) throws SQLException {
+        long start = WRITE_UPDATES_TIME.start();
+        try (PooledConnection conn = pool.borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement pstmt = conn.prepare(UPDATE_PRODUCT_SQL);
+            for (WriteBehindBuffer.Update update : updates) {
+                bindUpdate(pstmt, update);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+        } catch (SQLException e) {
+            throw failed("writeUpdates", e);
+        } finally {
+            for (WriteBehindBuffer.Update update : updates) {
+                productCache.invalidate(update.id);
+            }
+            WRITE_UPDATES_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Inserts orders and their lines in one transaction. Orders that are already
+     * present are skipped, so replaying the order log is safe.
+     *
+     * @param orders The orders to insert
+     */
+    public static void addOrders(List<Order> orders) throws SQLException {
+        String orderSql = "INSERT OR IGNORE INTO orders (id, createdAt, paymentReference, totalCents) VALUES (?, ?, ?, ?)";
+        String lineSql = "INSERT OR IGNORE INTO order_lines " +
+                "(orderId, productId, productName, quantity, unitPriceCents, lineTotalCents) VALUES (?, ?, ?, ?, ?, ?)";
+        long start = ADD_ORDERS_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement orderStmt = conn.prepare(orderSql);
+            PreparedStatement lineStmt = conn.prepare(lineSql);
+            for (Order order : orders) {
+                orderStmt.setLong(1, order.getId());
+                orderStmt.setLong(2, order.getCreatedMillis());
+                orderStmt.setString(3, order.getPaymentReference());
+                orderStmt.setLong(4, order.getTotalCents());
+                orderStmt.addBatch();
+                for (Order.Line line : order.getLines()) {
+                    lineStmt.setLong(1, order.getId());
+                    lineStmt.setInt(2, line.getProductId());
+                    lineStmt.setString(3, line.getProductName());
+                    lineStmt.setInt(4, line.getQuantity());
+                    lineStmt.setLong(5, line.getUnitPriceCents());
+                    lineStmt.setLong(6, line.getLineTotalCents());
+                    lineStmt.addBatch();
+                }
+            }
+            orderStmt.executeBatch();
+            lineStmt.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+        } catch (SQLException e) {
+            throw failed("addOrders", e);
+        } finally {
+            ADD_ORDERS_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Gets the id of the newest order in the orders table.
+     * @return The id, or 0 if there are no orders
+     */
+    public static long getLastOrderId() throws SQLException {
+        long start = GET_LAST_ORDER_ID_TIME.start();
+        try (PooledConnection conn = borrow();
+             ResultSet rs = conn.prepare("SELECT MAX(id) FROM orders").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        } catch (SQLException e) {
+            throw failed("getLastOrderId", e);
+        } finally {
+            GET_LAST_ORDER_ID_TIME.stop(start);
+        }
     }
 
+    /**
+     * Writes changed cart lines in one transaction. The lines of removed
+     * sessions are deleted first, so a session that was removed and then
+     * filled again keeps only its new lines.
+     *
+     * @param removedSessions Sessions whose lines are all deleted
+     * @param changes New quantities of cart lines; a quantity of 0 deletes the line
+     */
+    public static void writeCartLines(Collection<String> removedSessions, Collection<CartStore.LineChange> changes)
+            throws SQLException {
+        String deleteSessionSql = "DELETE FROM cart_lines WHERE sessionId = ?";
+        String deleteLineSql = "DELETE FROM cart_lines WHERE sessionId = ? AND productId = ?";
+        // an upsert rather than INSERT OR REPLACE keeps the row's rowid, and with it the line's place in the cart
+        String upsertSql = "INSERT INTO cart_lines (sessionId, productId, quantity, updatedAt) VALUES (?, ?, ?, ?) "
+                + "ON CONFLICT (sessionId, productId) DO UPDATE SET quantity = excluded.quantity, "
+                + "updatedAt = excluded.updatedAt";
+        long now = System.currentTimeMillis();
+        long start = WRITE_CART_LINES_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            conn.getConnection().setAutoCommit(false);
+            PreparedStatement deleteSession = conn.prepare(deleteSessionSql);
+            for (String sessionId : removedSessions) {
+                deleteSession.setString(1, sessionId);
+                deleteSession.addBatch();
+            }
+            deleteSession.executeBatch();
+            PreparedStatement deleteLine = conn.prepare(deleteLineSql);
+            PreparedStatement upsert = conn.prepare(upsertSql);
+            for (CartStore.LineChange change : changes) {
+                if (change.quantity == 0) {
+                    deleteLine.setString(1, change.sessionId);
+                    deleteLine.setInt(2, change.productId);
+                    deleteLine.addBatch();
+                } else {
+                    upsert.setString(1, change.sessionId);
+                    upsert.setInt(2, change.productId);
+                    upsert.setInt(3, change.quantity);
+                    upsert.setLong(4, now);
+                    upsert.addBatch();
+                }
+            }
+            deleteLine.executeBatch();
+            upsert.executeBatch();
+            conn.getConnection().commit();
+            conn.getConnection().setAutoCommit(true);
+        } catch (SQLException e) {
+            throw failed("writeCartLines", e);
+        } finally {
+            WRITE_CART_LINES_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Gets the stored lines of a session's cart in the order they were added.
+     * @return Quantities keyed by product id; empty if the session has no stored cart
+     */
+    public static Map<Integer, Integer> getCartLines(String sessionId) throws SQLException {
+        String sql = "SELECT productId, quantity FROM cart_lines WHERE sessionId = ? ORDER BY rowid";
+        long start = GET_CART_LINES_TIME.start();
+        try (PooledConnection conn = borrow()) {
+            PreparedStatement pstmt = conn.prepare(sql);
+            pstmt.setString(1, sessionId);
+            Map<Integer, Integer> lines = new LinkedHashMap<>();
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    lines.put(rs.getInt(1), rs.getInt(2));
+                }
+            }
+            return lines;
+        } catch (SQLException e) {
+            throw failed("getCartLines", e);
+        } finally {
+            GET_CART_LINES_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Inserts the seed products that are missing, matched by name. New databases
+     * are seeded by {@link SchemaMigrations}; this restores seed products that
+     * were deleted since. Safe to call on every launch.
+     */
     public static void addInitialProducts() {
-        try {
-            addProduct(new Product("Laptop", 999.99, "High-performance laptop", 10));
-            addProduct(new Product("Smartphone", 499.99, "Latest model smartphone", 20));
-            addProduct(new Product("Headphones", 199.99, "Noise-cancelling headphones", 15));
-            addProduct(new Product("Smartwatch", 299.99, "Feature-rich smartwatch", 25));
+        try (PooledConnection conn = borrow()) {
+            if (SchemaMigrations.addSeedProducts(conn.getConnection()) > 0) {
+                // rebuilt on next use, including the new products
+                searchIndex = null;
+            }
         } catch (SQLException e) {
-            e.printStackTrace();
+            failed("addInitialProducts", e).printStackTrace();
+        }
+    }
+
+    // updates still in the write-behind buffer replace the rows read
+    private static void overlayPending(List<Product> products) {
+        WriteBehindBuffer buffer = writeBehind;
+        if (buffer != null) {
+            buffer.overlay(products);
+        }
+    }
+
+    private static LatencyHistogram timer(String operation) {
+        return Metrics.histogram("db_operation_seconds", "Latency of DatabaseHelper operations",
+                "operation", operation);
+    }
+
+    // counts a failed operation; returns the exception for the caller to rethrow
+    private static SQLException failed(String operation, SQLException e) {
+        Metrics.counter("db_errors_total", "Failed DatabaseHelper operations", "operation", operation).increment();
+        return e;
+    }
+
+    // Stores the price after discounts, which is what price filters and sorting apply to, and the
+    // description without the discount note that DiscountedProduct adds
+    private static void bindInsert(PreparedStatement pstmt, Product product) throws SQLException {
+        pstmt.setString(1, product.getName());
+        pstmt.setDouble(2, product.getPrice());
+        pstmt.setString(3, ProductFactory.undecorated(product).getDescription());
+        pstmt.setInt(4, product.getStockQuantity());
+        pstmt.setString(5, ProductFactory.categoryOf(product));
+        pstmt.setDouble(6, ProductFactory.discountOf(product));
+    }
+
+    private static void bindUpdate(PreparedStatement pstmt, WriteBehindBuffer.Update update) throws SQLException {
+        pstmt.setString(1, update.name);
+        pstmt.setDouble(2, update.price);
+        pstmt.setString(3, update.description);
+        pstmt.setString(4, update.category);
+        pstmt.setDouble(5, update.discountPercent);
+        pstmt.setInt(6, update.id);
+    }
+
+    private static long lastInsertId(PooledConnection conn) throws SQLException {
+        try (ResultSet rs = conn.prepare("SELECT last_insert_rowid()").executeQuery()) {
+            return rs.next() ? rs.getLong(1) : 0;
+        }
+    }
+
+    /**
+     * Builds a product of the type it was stored as, with its stored discount.
+     */
+    static Product mapProduct(ResultSet rs, boolean withDescription) throws SQLException {
+        return newProduct(rs.getInt("id"), rs.getString("name"), rs.getDouble("price"),
+                withDescription ? rs.getString("description") : null, rs.getInt("stockQuantity"),
+                rs.getString("category"), rs.getDouble("discountPercent"));
+    }
+
+    /**
+     * Builds a product from the values of its row.
+     * @param price The price after the discount, as stored
+     */
+    static Product newProduct(int id, String name, double price, String description, int stockQuantity,
+                              String category, double discount) {
+        double factor = 1 - discount / 100.0;
+        double listPrice = discount > 0 ? price / factor : price;
+        // nudge the list price so that the discounted price reads back exactly as stored,
+        // as it is compared with the stored value to continue a page sorted by price
+        for (int i = 0; i < 4 && discount > 0 && listPrice * factor != price; i++) {
+            listPrice = listPrice * factor < price ? Math.nextUp(listPrice) : Math.nextDown(listPrice);
         }
+        Product product = ProductFactory.newProduct(category, name, listPrice, description, stockQuantity);
+        product.setDiscountPercentage(discount);
+        product.setId(id);
+        return product;
     }
 }
@@ -3,9 +3,16 @@ public class DiscountedProduct extends ProductDecorator {
 
     public DiscountedProduct(Product product, double discountPercentage) {
         super(product);
+        if (!(discountPercentage >= 0 && discountPercentage < 100)) {
+            throw new IllegalArgumentException("Discount must be at least 0% and below 100%");
+        }
         this.discountPercentage = discountPercentage;
     }
 
+    public double getDiscountPercentage() {
+        return discountPercentage;
+    }
+
     @Override
     public double getPrice() {
         return super.getPrice() * (1 - discountPercentage / 100.0);
@@ -13,6 +20,8 @@ public class DiscountedProduct extends ProductDecorator {
 
     @Override
     public String getDescription() {
-        return super.getDescription() + " (" + discountPercentage + "% off)";
+        String description = super.getDescription();
+        // null when loaded without descriptions, e.g. for list views
+        return description == null ? null : description + " (" + discountPercentage + "% off)";
     }
 }
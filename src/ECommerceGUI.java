@@ -1,35 +1,58 @@
 import javax.swing.*;
+import javax.swing.event.TableModelEvent;
+import javax.swing.event.TableModelListener;
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
-public class ECommerceGUI implements Observer {
+public class ECommerceGUI implements CartEventListener {
+    private static final int PRODUCT_PAGE_SIZE = 200;
+    private static final int SEARCH_DELAY_MS = 200;
+    private static final int MAX_CONCURRENT_PAYMENTS = 16;
+    private static final long PAYMENT_TIMEOUT_MS = 10_000;
+    private static final int PAYMENT_ATTEMPTS = 3;
+    private static final long PAYMENT_BACKOFF_MS = 200;
+    private static final String ORDER_LOG_DIR = "orders";
+    private static final String CART_SESSION_ID = "desktop";
+
     private JFrame frame;
     private JPanel productPanel;
+    private JTable productTable;
+    private ProductTableModel productModel;
     private JPanel cartPanel;
+    private JTable cartTable;
+    private CartTableModel cartModel;
     private JLabel totalLabel;
+    private JButton checkoutButton;
     private JTextArea messageArea;
     private ShoppingCart cart;
-    private List<Product> availableProducts;
     private PaymentStrategy paymentStrategy;
+    private final AsyncPaymentProcessor payments = new AsyncPaymentProcessor(
+            MAX_CONCURRENT_PAYMENTS, PAYMENT_TIMEOUT_MS, PAYMENT_ATTEMPTS, PAYMENT_BACKOFF_MS);
+    private OrderLog orderLog;
 
     public ECommerceGUI() {
         cart = ShoppingCart.getInstance();
-        cart.registerObserver(this);
-        initializeProducts();
+        cart.setPricingEngine(PricingEngine.getInstance());
+        openOrderLog();
         setupGUI();
-    }
-
-    private void initializeProducts() {
-        availableProducts = new ArrayList<>();
-        try {
-            // Fetch products from the database
-            availableProducts = DatabaseHelper.getAllProducts();
-        } catch (SQLException e) {
-            e.printStackTrace();
-        }
+        cart.getEventBus().subscribe(this);
+        persistCart();
+        // Products are paged in from the database in the background as rows are shown
+        productModel.addTableModelListener(new TableModelListener() {
+            @Override
+            public void tableChanged(TableModelEvent e) {
+                // the window is usable once the first page of products is on screen, or the catalog is empty
+                if (productModel.getRowCount() == 0 || productModel.getProductAt(0) != null) {
+                    productModel.removeTableModelListener(this);
+                    Startup.ready("products shown");
+                }
+            }
+        });
+        productModel.load();
     }
 
     private void setupGUI() {
@@ -39,29 +62,23 @@ public class ECommerceGUI implements Observer {
         frame.setSize(1000, 600);
 
         // Products Panel
-        productPanel = new JPanel();
-        productPanel.setLayout(new BoxLayout(productPanel, BoxLayout.Y_AXIS));
-        productPanel.setBorder(BorderFactory.createTitledBorder("Available Products"));
-        
-        for (Product product : availableProducts) {
-            JPanel productItemPanel = createProductPanel(product);
-            productPanel.add(productItemPanel);
-        }
+        productPanel = createProductPanel();
 
         // Cart Panel
-        cartPanel = new JPanel();
-        cartPanel.setLayout(new BoxLayout(cartPanel, BoxLayout.Y_AXIS));
-        cartPanel.setBorder(BorderFactory.createTitledBorder("Shopping Cart"));
+        cartPanel = createCartPanel();
         
-        // Message Area for Observer pattern updates
+        // Message Area for cart event updates
         messageArea = new JTextArea(5, 40);
         messageArea.setEditable(false);
         JScrollPane messageScroll = new JScrollPane(messageArea);
         messageScroll.setBorder(BorderFactory.createTitledBorder("System Messages"));
         
-        totalLabel = new JLabel("Total: $0.00");
+        totalLabel = new JLabel(String.format("Total: $%.2f", cartModel.getTotalCents() / 100.0));
+        // The model applies cart events in batches; refresh the total once per change it reports
+        cartModel.addTableModelListener(e ->
+                totalLabel.setText(String.format("Total: $%.2f", cartModel.getTotalCents() / 100.0)));
         
-        JButton checkoutButton = new JButton("Checkout");
+        checkoutButton = new JButton("Checkout");
         checkoutButton.addActionListener(e -> handleCheckout());
 
         JPanel southPanel = new JPanel(new BorderLayout());
@@ -70,8 +87,8 @@ public class ECommerceGUI implements Observer {
 
         // Layout
         JSplitPane splitPane = new JSplitPane(JSplitPane.HORIZONTAL_SPLIT,
-                new JScrollPane(productPanel),
-                new JScrollPane(cartPanel));
+                productPanel,
+                cartPanel);
         splitPane.setDividerLocation(400);
 
         frame.add(splitPane, BorderLayout.CENTER);
@@ -81,53 +98,97 @@ public class ECommerceGUI implements Observer {
         frame.setVisible(true);
     }
 
-    private JPanel createProductPanel(Product product) {
-        JPanel panel = new JPanel();
-        panel.setLayout(new FlowLayout(FlowLayout.LEFT));
-        panel.setBorder(BorderFactory.createEtchedBorder());
+    private JPanel createProductPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder("Available Products"));
 
-        JLabel nameLabel = new JLabel(product.getName());
-        JLabel priceLabel = new JLabel(String.format("$%.2f", product.getPrice()));
-        JLabel descLabel = new JLabel(product.getDescription());
-        JButton addButton = new JButton("Add to Cart");
+        productModel = new ProductTableModel(PRODUCT_PAGE_SIZE);
+        productTable = new JTable(productModel);
+        productTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        productTable.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) {
+                    addSelectedProduct();
+                }
+            }
+        });
 
-        addButton.addActionListener(e -> {
-            cart.addProduct(product);
-            updateCartDisplay();
+        JTextField searchField = new JTextField();
+        searchField.setToolTipText("Search products by name or description");
+        // Restart the timer on every keystroke so the search runs once typing pauses
+        Timer searchTimer = new Timer(SEARCH_DELAY_MS, e -> productModel.setFilter(searchField.getText()));
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new javax.swing.event.DocumentListener() {
+            @Override
+            public void insertUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void removeUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
+            }
+
+            @Override
+            public void changedUpdate(javax.swing.event.DocumentEvent e) {
+                searchTimer.restart();
+            }
         });
 
-        panel.add(nameLabel);
-        panel.add(priceLabel);
-        panel.add(descLabel);
-        panel.add(addButton);
+        JButton addButton = new JButton("Add to Cart");
+        addButton.addActionListener(e -> addSelectedProduct());
+
+        JPanel searchPanel = new JPanel(new BorderLayout());
+        searchPanel.add(new JLabel("Search: "), BorderLayout.WEST);
+        searchPanel.add(searchField, BorderLayout.CENTER);
 
+        panel.add(searchPanel, BorderLayout.NORTH);
+        panel.add(new JScrollPane(productTable), BorderLayout.CENTER);
+        panel.add(addButton, BorderLayout.SOUTH);
         return panel;
     }
 
-    private void updateCartDisplay() {
-        cartPanel.removeAll();
-        
-        for (Product product : cart.getProducts()) {
-            JPanel itemPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
-            itemPanel.add(new JLabel(product.toString()));
-            
-            JButton removeButton = new JButton("Remove");
-            removeButton.addActionListener(e -> {
-                cart.removeProduct(product);
-                updateCartDisplay();
-            });
-            
-            itemPanel.add(removeButton);
-            cartPanel.add(itemPanel);
+    private void addSelectedProduct() {
+        int row = productTable.getSelectedRow();
+        if (row < 0) {
+            return;
+        }
+        Product product = productModel.getProductAt(productTable.convertRowIndexToModel(row));
+        if (product != null) {
+            cart.addProduct(product);
         }
+    }
+
+    private JPanel createCartPanel() {
+        JPanel panel = new JPanel(new BorderLayout());
+        panel.setBorder(BorderFactory.createTitledBorder("Shopping Cart"));
+
+        cartModel = new CartTableModel(cart);
+        cartTable = new JTable(cartModel);
+        cartTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
 
-        totalLabel.setText(String.format("Total: $%.2f", cart.getTotal()));
-        cartPanel.revalidate();
-        cartPanel.repaint();
+        JButton removeButton = new JButton("Remove");
+        removeButton.addActionListener(e -> removeSelectedLine());
+
+        panel.add(new JScrollPane(cartTable), BorderLayout.CENTER);
+        panel.add(removeButton, BorderLayout.SOUTH);
+        return panel;
+    }
+
+    private void removeSelectedLine() {
+        int row = cartTable.getSelectedRow();
+        if (row < 0) {
+            return;
+        }
+        CartLine line = cart.getLine(cartModel.getProductIdAt(cartTable.convertRowIndexToModel(row)));
+        if (line != null) {
+            cart.removeProduct(line.getProduct());
+        }
     }
 
     private void handleCheckout() {
-        if (cart.getProducts().isEmpty()) {
+        if (cart.isEmpty()) {
             JOptionPane.showMessageDialog(frame, 
                 "Cart is empty!", 
                 "Error", 
@@ -158,7 +219,7 @@ public class ECommerceGUI implements Observer {
         JTextField expiryField = new JTextField(5);
         
         // Add input hints
-        cardNumberField.setToolTipText("Enter 13-16 digit card number");
+        cardNumberField.setToolTipText("Enter 13-19 digit card number");
         cvvField.setToolTipText("Enter 3-4 digit CVV");
         expiryField.setToolTipText("Enter expiry date (MM/YY)");
         
@@ -182,15 +243,37 @@ public class ECommerceGUI implements Observer {
                         expiryField.getText()
                     );
                     
-                    if (paymentStrategy.pay(cart.getTotal())) {
-                        JOptionPane.showMessageDialog(frame, 
-                            "Payment successful!", 
-                            "Success", 
-                            JOptionPane.INFORMATION_MESSAGE);
-                        cart.clear();
-                        updateCartDisplay();
-                        break;
+                    // Check out the cart as confirmed; it may change while the payment is pending
+                    List<CartLine> lines = cart.copyLines();
+                    long totalCents = 0;
+                    for (CartLine line : lines) {
+                        totalCents += line.getLineTotalCents();
+                    }
+                    // Hold the stock while paying so concurrent checkouts cannot oversell
+                    InventoryService inventory = InventoryService.getInstance();
+                    InventoryService.Reservation reservation = inventory.reserve(lines);
+                    // Held while paying, so a successful payment can always be committed
+                    if (!inventory.hold(reservation)) {
+                        throw new IllegalStateException("Your reservation expired. Please try again.");
                     }
+                    checkoutButton.setEnabled(false);
+                    // Pay off the EDT; the dialog reports the outcome once the gateway answers
+                    payments.submit(paymentStrategy, totalCents / 100.0).thenAccept(payment ->
+                        SwingUtilities.invokeLater(() -> completeCheckout(lines, reservation, payment)));
+                    break;
+                } catch (IllegalStateException e) {
+                    JOptionPane.showMessageDialog(frame,
+                        e.getMessage(),
+                        "Out of Stock",
+                        JOptionPane.ERROR_MESSAGE);
+                    break;
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                    JOptionPane.showMessageDialog(frame,
+                        "Could not check stock. Please try again.",
+                        "Error",
+                        JOptionPane.ERROR_MESSAGE);
+                    break;
                 } catch (IllegalArgumentException e) {
                     JOptionPane.showMessageDialog(frame,
                         e.getMessage(),
@@ -204,16 +287,108 @@ public class ECommerceGUI implements Observer {
         }
     }
 
+    private void completeCheckout(List<CartLine> lines, InventoryService.Reservation reservation,
+            PaymentResult payment) {
+        checkoutButton.setEnabled(true);
+        InventoryService inventory = InventoryService.getInstance();
+        if (payment.isSuccessful() && inventory.commit(reservation)) {
+            recordOrder(lines, payment);
+            JOptionPane.showMessageDialog(frame, 
+                "Payment successful!", 
+                "Success", 
+                JOptionPane.INFORMATION_MESSAGE);
+            // Only what was paid for leaves the cart; products added meanwhile stay
+            for (CartLine line : lines) {
+                cart.removeProduct(line.getProduct(), line.getQuantity());
+            }
+        } else if (payment.isSuccessful()) {
+            // Only if the held reservation was released elsewhere; the reference lets the payment be refunded
+            inventory.release(reservation);
+            System.err.println("Payment " + payment.getIdempotencyKey() + " was taken but its stock was released");
+            JOptionPane.showMessageDialog(frame,
+                "Your payment went through, but the items are no longer reserved.\n"
+                    + "Please contact support with payment reference " + payment.getIdempotencyKey() + ".",
+                "Checkout Failed",
+                JOptionPane.ERROR_MESSAGE);
+        } else {
+            inventory.release(reservation);
+            JOptionPane.showMessageDialog(frame,
+                payment.getError(),
+                "Payment Failed",
+                JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void openOrderLog() {
+        try {
+            orderLog = OrderLog.open(Paths.get(ORDER_LOG_DIR));
+        } catch (IOException e) {
+            e.printStackTrace();
+            return;
+        }
+        OrderLog log = orderLog;
+        // The projection reads the orders table, so start it off the EDT once the database is ready
+        DatabaseHelper.initialize().thenRun(() -> {
+            try {
+                OrderProjection.start(log);
+            } catch (IOException | SQLException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private void persistCart() {
+        CartStore store = CartStore.fromSystemProperties();
+        if (store == null) {
+            return;
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(store::close, "cart-store-shutdown"));
+        // The cart of the last run is read off the EDT; its lines reach the cart table as events
+        DatabaseHelper.initialize().thenRun(() -> {
+            try {
+                store.attach(CART_SESSION_ID, cart);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    // records the lines that were reserved and paid for, not the cart as it is now
+    private void recordOrder(List<CartLine> lines, PaymentResult payment) {
+        if (orderLog == null) {
+            return;
+        }
+        long totalCents = 0;
+        for (CartLine line : lines) {
+            totalCents += line.getLineTotalCents();
+        }
+        orderLog.append(lines, totalCents, payment.getIdempotencyKey())
+                .whenComplete((order, error) -> {
+                    if (error != null) {
+                        error.printStackTrace();
+                    }
+                });
+    }
+
     @Override
-    public void update(String message) {
-        messageArea.append(message + "\n");
-        messageArea.setCaretPosition(messageArea.getDocument().getLength());
+    public void onCartEvent(CartEvent event) {
+        // events arrive on the bus delivery thread; Swing must be touched on the EDT
+        SwingUtilities.invokeLater(() -> {
+            messageArea.append(event + "\n");
+            messageArea.setCaretPosition(messageArea.getDocument().getLength());
+        });
     }
 
     public static void main(String[] args) {
-        // Add initial products to the database
-        DatabaseHelper.addInitialProducts();
+        Startup.mark("main");
+        // Migrations and the first connection are prepared on a background thread while the window is built
+        DatabaseHelper.initialize().thenRun(() -> Startup.mark("database ready"));
+        Metrics.startExporters();
 
-        SwingUtilities.invokeLater(() -> new ECommerceGUI());
+        SwingUtilities.invokeLater(() -> {
+            new ECommerceGUI();
+            // Queued behind the window's first paint events
+            SwingUtilities.invokeLater(() -> Startup.mark("window shown"));
+        });
     }
 }
@@ -1,11 +1,65 @@
+import java.time.YearMonth;
+import java.time.ZoneId;
 
+/**
+ * Validates payment and contact form fields.
+ * Every check is a single hand-written scan over the characters of the value:
+ * no regular expressions are compiled and nothing is allocated, so the
+ * validators can be run over large batches, e.g. during imports.
+ */
 public class FormValidator {
-  
-     public static boolean isValidCVV(String cvv) {
+    private static final int MIN_CARD_DIGITS = 13;
+    private static final int MAX_CARD_DIGITS = 19;
+
+    // the current month, replaced once the month is over
+    private static volatile CurrentMonth currentMonth = CurrentMonth.now();
+
+    /**
+     * Validates a credit card number.
+     * Must have 13 to 19 digits, optionally grouped by spaces or dashes, and pass the Luhn check.
+     *
+     * @param cardNumber The card number to validate
+     * @return true if the card number is valid, false otherwise
+     */
+    public static boolean isValidCardNumber(String cardNumber) {
+        if (cardNumber == null) {
+            return false;
+        }
+        int digits = 0;
+        int sum = 0;
+        // Luhn: double every second digit counting from the right
+        for (int i = cardNumber.length() - 1; i >= 0; i--) {
+            char c = cardNumber.charAt(i);
+            if (c >= '0' && c <= '9') {
+                int digit = c - '0';
+                if ((digits & 1) == 1) {
+                    digit *= 2;
+                    if (digit > 9) {
+                        digit -= 9;
+                    }
+                }
+                sum += digit;
+                digits++;
+            } else if (c != ' ' && c != '-') {
+                return false;
+            }
+        }
+        return digits >= MIN_CARD_DIGITS && digits <= MAX_CARD_DIGITS && sum % 10 == 0;
+    }
+
+    public static boolean isValidCVV(String cvv) {
         // Check if the CVV contains only digits and has correct length (3-4 digits)
-        return cvv.matches("\\d{3,4}");
+        if (cvv == null || cvv.length() < 3 || cvv.length() > 4) {
+            return false;
+        }
+        for (int i = 0; i < cvv.length(); i++) {
+            if (!isDigit(cvv.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
-    
+
     /**
      * Validates a credit card expiry date.
      * Must be in MM/YY format and not expired.
@@ -15,20 +69,24 @@ public class FormValidator {
      */
     public static boolean isValidExpiryDate(String expiryDate) {
         // Check if the expiry date is in the format MM/YY
-        if (!expiryDate.matches("(0[1-9]|1[0-2])/\\d{2}")) {
+        if (expiryDate == null || expiryDate.length() != 5 || expiryDate.charAt(2) != '/') {
+            return false;
+        }
+        char m1 = expiryDate.charAt(0);
+        char m2 = expiryDate.charAt(1);
+        char y1 = expiryDate.charAt(3);
+        char y2 = expiryDate.charAt(4);
+        if (!isDigit(m1) || !isDigit(m2) || !isDigit(y1) || !isDigit(y2)) {
             return false;
         }
+        int month = (m1 - '0') * 10 + (m2 - '0');
+        if (month < 1 || month > 12) {
+            return false;
+        }
+        int year = 2000 + (y1 - '0') * 10 + (y2 - '0');
 
         // Check if the expiry date is not in the past
-        String[] parts = expiryDate.split("/");
-        int month = Integer.parseInt(parts[0]);
-        int year = Integer.parseInt("20" + parts[1]);
-
-        java.util.Calendar now = java.util.Calendar.getInstance();
-        int currentMonth = now.get(java.util.Calendar.MONTH) + 1; // Months are 0-based
-        int currentYear = now.get(java.util.Calendar.YEAR);
-
-        return (year > currentYear) || (year == currentYear && month >= currentMonth);
+        return year * 12 + month >= currentMonth().index;
     }
 
     /**
@@ -39,20 +97,39 @@ public class FormValidator {
      * @return true if the email address is valid, false otherwise
      */
     public static boolean isValidEmail(String email) {
-        // Basic email validation pattern
-        String emailPattern = "^[A-Za-z0-9+_.-]+@(.+)$";
-        return email.matches(emailPattern);
+        // Basic email format: local part of letters, digits and +_.- then @ and a non-empty domain
+        if (email == null) {
+            return false;
+        }
+        int at = 0;
+        while (at < email.length() && isLocalPartChar(email.charAt(at))) {
+            at++;
+        }
+        if (at == 0 || at >= email.length() - 1 || email.charAt(at) != '@') {
+            return false;
+        }
+        for (int i = at + 1; i < email.length(); i++) {
+            if (isLineTerminator(email.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
-    
+
     /**
      * Gets an appropriate error message for invalid input.
      *
-     * @param fieldName The name of the field being validated ("cardNumber", "cvv", or "expiryDate")
+     * @param fieldName The name of the field being validated ("cardNumber", "cvv", "expiryDate" or "email")
      * @param value The value to validate
      * @return An error message if validation fails, null if validation succeeds
      */
     public static String getErrorMessage(String fieldName, String value) {
         switch (fieldName) {
+            case "cardNumber":
+                if (!isValidCardNumber(value)) {
+                    return "Invalid card number. Please enter 13 to 19 digits of a valid card.";
+                }
+                break;
             case "cvv":
                 if (!isValidCVV(value)) {
                     return "Invalid CVV. Please enter 3 or 4 digits.";
@@ -63,7 +140,100 @@ public class FormValidator {
                     return "Invalid expiry date. Please use MM/YY format and ensure date is not in the past.";
                 }
                 break;
+            case "email":
+                if (!isValidEmail(value)) {
+                    return "Invalid email address.";
+                }
+                break;
         }
         return null;
     }
+
+    /**
+     * Validates many values of one field, e.g. the rows of a batch import.
+     *
+     * @param fieldName The name of the field being validated ("cardNumber", "cvv", "expiryDate" or "email")
+     * @param values The values to validate
+     * @param valid Receives, for each value, whether it is valid; must be at least as long as values
+     * @return The number of invalid values
+     * @throws IllegalArgumentException if the field name is unknown
+     */
+    public static int validateAll(String fieldName, String[] values, boolean[] valid) {
+        if (valid.length < values.length) {
+            throw new IllegalArgumentException("Result array is shorter than the values");
+        }
+        int invalid = 0;
+        switch (fieldName) {
+            case "cardNumber":
+                for (int i = 0; i < values.length; i++) {
+                    valid[i] = isValidCardNumber(values[i]);
+                }
+                break;
+            case "cvv":
+                for (int i = 0; i < values.length; i++) {
+                    valid[i] = isValidCVV(values[i]);
+                }
+                break;
+            case "expiryDate":
+                for (int i = 0; i < values.length; i++) {
+                    valid[i] = isValidExpiryDate(values[i]);
+                }
+                break;
+            case "email":
+                for (int i = 0; i < values.length; i++) {
+                    valid[i] = isValidEmail(values[i]);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown field: " + fieldName);
+        }
+        for (int i = 0; i < values.length; i++) {
+            if (!valid[i]) {
+                invalid++;
+            }
+        }
+        return invalid;
+    }
+
+    private static CurrentMonth currentMonth() {
+        CurrentMonth current = currentMonth;
+        if (System.currentTimeMillis() >= current.endMillis) {
+            current = CurrentMonth.now();
+            currentMonth = current;
+        }
+        return current;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLocalPartChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || isDigit(c)
+                || c == '+' || c == '_' || c == '.' || c == '-';
+    }
+
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+
+    /**
+     * The current calendar month and the instant it ends.
+     */
+    private static class CurrentMonth {
+        final int index;
+        final long endMillis;
+
+        CurrentMonth(YearMonth month, long endMillis) {
+            this.index = month.getYear() * 12 + month.getMonthValue();
+            this.endMillis = endMillis;
+        }
+
+        static CurrentMonth now() {
+            ZoneId zone = ZoneId.systemDefault();
+            YearMonth month = YearMonth.now(zone);
+            long end = month.plusMonths(1).atDay(1).atStartOfDay(zone).toInstant().toEpochMilli();
+            return new CurrentMonth(month, end);
+        }
+    }
 }
@@ -0,0 +1,26 @@
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value read from its source whenever the metrics are exported, e.g. the
+ * size of a cache. Counts that a component already keeps itself, such as
+ * cache hits, are exposed the same way with the counter type.
+ */
+public class Gauge extends Metric {
+    private final String type;
+    private final DoubleSupplier value;
+
+    Gauge(String name, String labels, String help, String type, DoubleSupplier value) {
+        super(name, labels, help);
+        this.type = type;
+        this.value = value;
+    }
+
+    public double getValue() {
+        return value.getAsDouble();
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+}
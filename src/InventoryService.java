@@ -0,0 +1,448 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tracks available stock per product in memory and hands it out through
+ * reservations. Counters are updated with compare-and-set, so concurrent
+ * checkouts never oversell and never take a lock. A checkout reserves its
+ * lines, holds the reservation while it takes the payment, then commits it
+ * once payment succeeds or releases it otherwise; reservations that are
+ * neither held, committed nor released in time are released automatically. Committed quantities are written back to the
+ * products table in batches with conditional updates.
+ *
+ * Counters are loaded from the database once and then kept in memory, so
+ * stock is changed through {@link #adjust} and {@link #setStock}, which
+ * update the counter and the row together, rather than by editing the product.
+ *
+ * Each product's available and reserved units share one 64-bit word, so a
+ * counter that has to be brought back in line with the database is corrected
+ * in the same compare-and-set as the reservations it must leave alone.
+ *
+ * Design Pattern:
+ * - Singleton: One inventory view shared by every checkout in the process
+ */
+public class InventoryService implements AutoCloseable {
+    private static final long DEFAULT_RESERVATION_TIMEOUT_MS = 15 * 60 * 1000;
+    private static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+    private static final Counter STOCK_CONFLICTS = Metrics.counter("inventory_stock_conflicts_total",
+            "Flushed stock decrements the database refused because its stock was too low");
+
+    private final ConcurrentHashMap<Integer, Stock> available = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Integer, AtomicInteger> unflushed = new ConcurrentHashMap<>();
+    private final AtomicLong nextReservationId = new AtomicLong();
+    private final long reservationTimeoutMillis;
+    // one flush at a time, so a resync reads the database after every decrement before it
+    private final Object flushLock = new Object();
+    private final ScheduledExecutorService scheduler;
+
+    private static class Holder {
+        static final InventoryService INSTANCE =
+                new InventoryService(DEFAULT_RESERVATION_TIMEOUT_MS, DEFAULT_FLUSH_INTERVAL_MS);
+    }
+
+    /**
+     * Gets the inventory shared by the application.
+     * @return The single instance of InventoryService
+     */
+    public static InventoryService getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    /**
+     * Creates an inventory service.
+     * @param reservationTimeoutMillis Time after which an open reservation is released
+     * @param flushIntervalMillis How often committed stock changes are written to the database
+     */
+    public InventoryService(long reservationTimeoutMillis, long flushIntervalMillis) {
+        this.reservationTimeoutMillis = reservationTimeoutMillis;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "inventory");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleAtFixedRate(this::releaseExpired, 1, 1, TimeUnit.SECONDS);
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Gets the stock that is neither reserved nor sold.
+     * @param productId The product id
+     * @return The available quantity
+     */
+    public int getAvailable(int productId) throws SQLException {
+        return counter(productId).available();
+    }
+
+    /**
+     * Reserves stock for every line of a cart. Either all lines are reserved or none.
+     * @param lines The cart lines
+     * @return The reservation
+     * @throws IllegalStateException if a product does not have enough stock
+     */
+    public Reservation reserve(Collection<CartLine> lines) throws SQLException {
+        Map<Integer, Integer> quantities = new HashMap<>();
+        Map<Integer, String> names = new HashMap<>();
+        for (CartLine line : lines) {
+            quantities.merge(line.getProduct().getId(), line.getQuantity(), Integer::sum);
+            names.put(line.getProduct().getId(), line.getProduct().getName());
+        }
+        List<Map.Entry<Integer, Integer>> taken = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> entry : quantities.entrySet()) {
+            if (!counter(entry.getKey()).tryTake(entry.getValue())) {
+                for (Map.Entry<Integer, Integer> undo : taken) {
+                    counter(undo.getKey()).giveBack(undo.getValue());
+                }
+                throw new IllegalStateException("Not enough stock for " + names.get(entry.getKey()));
+            }
+            taken.add(entry);
+        }
+        Reservation reservation = new Reservation(nextReservationId.incrementAndGet(), quantities,
+                System.currentTimeMillis() + reservationTimeoutMillis);
+        reservations.put(reservation.getId(), reservation);
+        return reservation;
+    }
+
+    /**
+     * Reserves stock for a single product.
+     * @throws IllegalArgumentException if the quantity is not positive
+     * @throws IllegalStateException if the product does not have enough stock
+     */
+    public Reservation reserve(int productId, int quantity) throws SQLException {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        if (!counter(productId).tryTake(quantity)) {
+            throw new IllegalStateException("Not enough stock for product " + productId);
+        }
+        Map<Integer, Integer> quantities = new HashMap<>();
+        quantities.put(productId, quantity);
+        Reservation reservation = new Reservation(nextReservationId.incrementAndGet(), quantities,
+                System.currentTimeMillis() + reservationTimeoutMillis);
+        reservations.put(reservation.getId(), reservation);
+        return reservation;
+    }
+
+    /**
+     * Keeps a reservation from expiring, e.g. before its payment is taken, so
+     * that a successful payment can always be committed. A held reservation
+     * is still released explicitly if the payment fails.
+     * @param reservation The reservation to hold
+     * @return false if the reservation was already released or expired; do not take the payment
+     */
+    public boolean hold(Reservation reservation) {
+        if (reservation.expiresAt <= System.currentTimeMillis()) {
+            expire(reservation);
+        }
+        return reservation.state.compareAndSet(Reservation.State.OPEN, Reservation.State.HELD)
+                || reservation.state.get() == Reservation.State.HELD;
+    }
+
+    /**
+     * Turns a reservation into a sale. The stock is written to the database on the next flush.
+     * @param reservation The reservation to commit
+     * @return false if the reservation was already released, e.g. because it expired
+     */
+    public boolean commit(Reservation reservation) {
+        if (!reservation.state.compareAndSet(Reservation.State.OPEN, Reservation.State.COMMITTED)
+                && !reservation.state.compareAndSet(Reservation.State.HELD, Reservation.State.COMMITTED)) {
+            return reservation.state.get() == Reservation.State.COMMITTED;
+        }
+        reservations.remove(reservation.getId());
+        for (Map.Entry<Integer, Integer> entry : reservation.quantities.entrySet()) {
+            // counted as sold before it stops being held, so a resync in between never sees the units as free
+            unflushed.computeIfAbsent(entry.getKey(), id -> new AtomicInteger()).addAndGet(entry.getValue());
+            available.get(entry.getKey()).sell(entry.getValue());
+        }
+        return true;
+    }
+
+    /**
+     * Returns a reservation's stock to the available pool. Does nothing if it was committed.
+     * @param reservation The reservation to release
+     */
+    public void release(Reservation reservation) {
+        if (reservation.state.compareAndSet(Reservation.State.OPEN, Reservation.State.RELEASED)
+                || reservation.state.compareAndSet(Reservation.State.HELD, Reservation.State.RELEASED)) {
+            giveBack(reservation);
+        }
+    }
+
+    // releases an open reservation whose time is up; a held one stays until committed or released
+    private void expire(Reservation reservation) {
+        if (reservation.state.compareAndSet(Reservation.State.OPEN, Reservation.State.RELEASED)) {
+            giveBack(reservation);
+        }
+    }
+
+    private void giveBack(Reservation reservation) {
+        reservations.remove(reservation.getId());
+        for (Map.Entry<Integer, Integer> entry : reservation.quantities.entrySet()) {
+            available.get(entry.getKey()).giveBack(entry.getValue());
+        }
+    }
+
+    /**
+     * Adds stock, e.g. a delivery, or takes it off, e.g. units written off as
+     * damaged. Units held by open reservations cannot be taken off.
+     * @param productId The product id
+     * @param delta Units to add; negative to take units off
+     * @throws IllegalArgumentException if there is no such product
+     * @throws IllegalStateException if fewer units than that are available
+     */
+    public void adjust(int productId, int delta) throws SQLException {
+        synchronized (flushLock) {
+            Stock counter = counter(productId);
+            // taken off first, so that no checkout reserves the units meanwhile
+            if (delta < 0 && !counter.tryRemove(-delta)) {
+                throw new IllegalStateException("Not enough stock for product " + productId);
+            }
+            boolean stored;
+            try {
+                stored = DatabaseHelper.adjustStock(productId, delta);
+            } catch (SQLException e) {
+                counter.add(Math.max(-delta, 0));
+                throw e;
+            }
+            if (!stored) {
+                counter.add(Math.max(-delta, 0));
+                if (DatabaseHelper.getProduct(productId) == null) {
+                    throw new IllegalArgumentException("No product " + productId);
+                }
+                throw new IllegalStateException("Not enough stock for product " + productId);
+            }
+            counter.add(Math.max(delta, 0));
+        }
+    }
+
+    /**
+     * Sets the stock of a product, e.g. after counting it. Units sold so far
+     * are already gone from the new stock; units held by open reservations are
+     * part of it.
+     * @param productId The product id
+     * @param stock The units in stock
+     * @throws IllegalArgumentException if the stock is negative or there is no such product
+     */
+    public void setStock(int productId, int stock) throws SQLException {
+        if (stock < 0) {
+            throw new IllegalArgumentException("Stock cannot be negative");
+        }
+        synchronized (flushLock) {
+            // the next flush takes the units sold but not written off the row
+            AtomicInteger unsold = unflushed.computeIfAbsent(productId, id -> new AtomicInteger());
+            int stored = stock + unsold.get();
+            if (!DatabaseHelper.setStock(productId, stored)) {
+                throw new IllegalArgumentException("No product " + productId);
+            }
+            counter(productId).resync(stored, unsold);
+        }
+    }
+
+    /**
+     * Writes committed stock decrements to the database in one batch.
+     * A product whose stock in the database is lower than expected (changed
+     * by another process) keeps its decrement for the next flush, and its
+     * available stock is brought back in line with the database, less the
+     * units sold but not written and the units held by open reservations.
+     * The decrements of deleted products are dropped.
+     * @return Ids of the products whose decrement the database refused
+     */
+    public List<Integer> flush() throws SQLException {
+        synchronized (flushLock) {
+            Map<Integer, Integer> batch = new HashMap<>();
+            for (Map.Entry<Integer, AtomicInteger> entry : unflushed.entrySet()) {
+                int quantity = entry.getValue().getAndSet(0);
+                if (quantity > 0) {
+                    batch.put(entry.getKey(), quantity);
+                }
+            }
+            if (batch.isEmpty()) {
+                return List.of();
+            }
+            List<Integer> refused;
+            try {
+                refused = DatabaseHelper.decrementStock(batch);
+            } catch (SQLException e) {
+                // put the decrements back so the next flush retries them
+                unflush(batch.keySet(), batch);
+                throw e;
+            }
+            // the units were sold; they stay owed to the database until it has the stock to take them
+            unflush(refused, batch);
+            STOCK_CONFLICTS.add(refused.size());
+            for (int productId : refused) {
+                Product product = DatabaseHelper.getProduct(productId);
+                if (product == null) {
+                    // deleted; there is no stock left to take the units from
+                    unflushed.get(productId).addAndGet(-batch.get(productId));
+                }
+                int stock = product == null ? 0 : product.getStockQuantity();
+                available.get(productId).resync(stock, unflushed.get(productId));
+            }
+            return refused;
+        }
+    }
+
+    /**
+     * Stops the background tasks after a final flush.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdown();
+        flushQuietly();
+    }
+
+    void releaseExpired() {
+        long now = System.currentTimeMillis();
+        for (Reservation reservation : reservations.values()) {
+            if (reservation.expiresAt <= now) {
+                expire(reservation);
+            }
+        }
+    }
+
+    private void unflush(Collection<Integer> productIds, Map<Integer, Integer> batch) {
+        for (int productId : productIds) {
+            unflushed.computeIfAbsent(productId, id -> new AtomicInteger()).addAndGet(batch.get(productId));
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private Stock counter(int productId) throws SQLException {
+        Stock counter = available.get(productId);
+        if (counter != null) {
+            return counter;
+        }
+        Product product = DatabaseHelper.getProduct(productId);
+        int stock = product == null ? 0 : product.getStockQuantity();
+        // sold units not yet written back are still in the database's count
+        AtomicInteger pending = unflushed.get(productId);
+        if (pending != null) {
+            stock -= pending.get();
+        }
+        Stock loaded = new Stock(stock);
+        Stock existing = available.putIfAbsent(productId, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    /**
+     * The available and reserved units of one product, packed into one word:
+     * available in the high half, held by open reservations in the low half.
+     */
+    private static final class Stock {
+        private final AtomicLong units;
+
+        Stock(int available) {
+            this.units = new AtomicLong(pack(available, 0));
+        }
+
+        int available() {
+            return (int) (units.get() >> 32);
+        }
+
+        boolean tryTake(int quantity) {
+            while (true) {
+                long current = units.get();
+                int free = (int) (current >> 32);
+                if (free < quantity) {
+                    return false;
+                }
+                if (units.compareAndSet(current, pack(free - quantity, (int) current + quantity))) {
+                    return true;
+                }
+            }
+        }
+
+        boolean tryRemove(int quantity) {
+            while (true) {
+                long current = units.get();
+                int free = (int) (current >> 32);
+                if (free < quantity) {
+                    return false;
+                }
+                if (units.compareAndSet(current, pack(free - quantity, (int) current))) {
+                    return true;
+                }
+            }
+        }
+
+        void add(int quantity) {
+            update(quantity, 0);
+        }
+
+        void giveBack(int quantity) {
+            update(quantity, -quantity);
+        }
+
+        void sell(int quantity) {
+            update(0, -quantity);
+        }
+
+        // the stock in the database, less the units sold but not written and those held right now;
+        // a commit counts its units as unsold before it stops holding them, and that changes the
+        // word, so both are read again until they agree
+        void resync(int stock, AtomicInteger unsold) {
+            units.updateAndGet(current -> pack(stock - unsold.get() - (int) current, (int) current));
+        }
+
+        private void update(int freeDelta, int heldDelta) {
+            units.updateAndGet(current -> pack((int) (current >> 32) + freeDelta, (int) current + heldDelta));
+        }
+
+        private static long pack(int free, int held) {
+            return ((long) free << 32) | (held & 0xFFFFFFFFL);
+        }
+    }
+
+    /**
+     * Stock held for one checkout until it is committed, released or expires.
+     */
+    public static class Reservation {
+        enum State {
+            OPEN,
+            // open and kept from expiring, see hold()
+            HELD,
+            COMMITTED,
+            RELEASED
+        }
+
+        private final long id;
+        private final Map<Integer, Integer> quantities;
+        private final long expiresAt;
+        private final AtomicReference<State> state = new AtomicReference<>(State.OPEN);
+
+        Reservation(long id, Map<Integer, Integer> quantities, long expiresAt) {
+            this.id = id;
+            this.quantities = quantities;
+            this.expiresAt = expiresAt;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public boolean isOpen() {
+            State current = state.get();
+            return current == State.OPEN || current == State.HELD;
+        }
+    }
+}
@@ -0,0 +1,98 @@
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Emits metrics as JDK Flight Recorder events, so they appear on the same
+ * timeline as GC pauses, lock contention and I/O in a recording. Once
+ * {@link #register()}ed, JFR itself asks for a snapshot of every metric at the
+ * event's period, and only while a recording that enables it is running, e.g.
+ * {@code java -XX:StartFlightRecording=filename=app.jfr ...}.
+ */
+public class JfrMetricsExporter implements MetricsExporter {
+    private static final AtomicBoolean registered = new AtomicBoolean();
+
+    /**
+     * Has JFR emit metric events periodically. Calling it again has no effect.
+     */
+    public static void register() {
+        if (registered.compareAndSet(false, true)) {
+            JfrMetricsExporter exporter = new JfrMetricsExporter();
+            FlightRecorder.addPeriodicEvent(MetricEvent.class, () -> exporter.export(Metrics.getAll()));
+        }
+    }
+
+    @Override
+    public void export(Collection<Metric> metrics) {
+        for (Metric metric : metrics) {
+            MetricEvent event = new MetricEvent();
+            if (!event.isEnabled()) {
+                return;
+            }
+            event.name = metric.getName();
+            event.labels = metric.getLabels();
+            event.type = metric.getType();
+            if (metric instanceof LatencyHistogram) {
+                LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).snapshot();
+                event.value = snapshot.getCount();
+                event.mean = snapshot.getMean();
+                event.p50 = snapshot.getQuantile(0.5);
+                event.p99 = snapshot.getQuantile(0.99);
+                event.max = snapshot.getMax();
+            } else if (metric instanceof Counter) {
+                event.value = ((Counter) metric).getCount();
+            } else if (metric instanceof Gauge) {
+                event.value = ((Gauge) metric).getValue();
+            }
+            event.commit();
+        }
+    }
+
+    /**
+     * A snapshot of one metric. For histograms the value is the number of recorded calls.
+     */
+    @Name("ecommerce.Metric")
+    @Label("Metric")
+    @Category("E-Commerce")
+    @Description("Snapshot of an application metric")
+    @Period("10 s")
+    @StackTrace(false)
+    public static class MetricEvent extends Event {
+        @Label("Name")
+        String name;
+
+        @Label("Labels")
+        String labels;
+
+        @Label("Type")
+        String type;
+
+        @Label("Value")
+        double value;
+
+        @Label("Mean")
+        @Timespan(Timespan.NANOSECONDS)
+        long mean;
+
+        @Label("50th Percentile")
+        @Timespan(Timespan.NANOSECONDS)
+        long p50;
+
+        @Label("99th Percentile")
+        @Timespan(Timespan.NANOSECONDS)
+        long p99;
+
+        @Label("Maximum")
+        @Timespan(Timespan.NANOSECONDS)
+        long max;
+    }
+}
@@ -0,0 +1,162 @@
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Minimal streaming JSON writer. Values are written straight to the underlying
+ * writer as they are produced, so large responses are never built in memory.
+ * Commas between members and elements are inserted automatically.
+ */
+public class JsonWriter {
+    private static final int MAX_DEPTH = 32;
+
+    private final Writer out;
+    // whether the current object or array already has a member
+    private final boolean[] hasMember = new boolean[MAX_DEPTH];
+    private int depth;
+    private boolean afterName;
+
+    public JsonWriter(Writer out) {
+        this.out = out;
+    }
+
+    public JsonWriter beginObject() throws IOException {
+        return open('{');
+    }
+
+    public JsonWriter endObject() throws IOException {
+        return close('}');
+    }
+
+    public JsonWriter beginArray() throws IOException {
+        return open('[');
+    }
+
+    public JsonWriter endArray() throws IOException {
+        return close(']');
+    }
+
+    public JsonWriter name(String name) throws IOException {
+        separate();
+        writeString(name);
+        out.write(':');
+        afterName = true;
+        return this;
+    }
+
+    public JsonWriter value(String value) throws IOException {
+        separate();
+        if (value == null) {
+            out.write("null");
+        } else {
+            writeString(value);
+        }
+        return this;
+    }
+
+    public JsonWriter value(long value) throws IOException {
+        separate();
+        out.write(Long.toString(value));
+        return this;
+    }
+
+    public JsonWriter value(double value) throws IOException {
+        separate();
+        out.write(Double.isFinite(value) ? Double.toString(value) : "null");
+        return this;
+    }
+
+    public JsonWriter value(boolean value) throws IOException {
+        separate();
+        out.write(value ? "true" : "false");
+        return this;
+    }
+
+    /**
+     * Writes an amount of cents as a decimal number with two fractional digits.
+     */
+    public JsonWriter cents(long cents) throws IOException {
+        separate();
+        if (cents < 0) {
+            out.write('-');
+            cents = -cents;
+        }
+        out.write(Long.toString(cents / 100));
+        out.write('.');
+        long fraction = cents % 100;
+        if (fraction < 10) {
+            out.write('0');
+        }
+        out.write(Long.toString(fraction));
+        return this;
+    }
+
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    private JsonWriter open(char bracket) throws IOException {
+        if (depth == MAX_DEPTH) {
+            throw new IllegalStateException("JSON nested too deeply");
+        }
+        separate();
+        out.write(bracket);
+        hasMember[depth++] = false;
+        return this;
+    }
+
+    private JsonWriter close(char bracket) throws IOException {
+        if (depth == 0) {
+            throw new IllegalStateException("No open object or array");
+        }
+        depth--;
+        out.write(bracket);
+        return this;
+    }
+
+    private void separate() throws IOException {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth > 0) {
+            if (hasMember[depth - 1]) {
+                out.write(',');
+            }
+            hasMember[depth - 1] = true;
+        }
+    }
+
+    private void writeString(String value) throws IOException {
+        out.write('"');
+        int start = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\') {
+                continue;
+            }
+            out.write(value, start, i - start);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    out.write(String.format("\\u%04x", (int) c));
+            }
+            start = i + 1;
+        }
+        out.write(value, start, value.length() - start);
+        out.write('"');
+    }
+}
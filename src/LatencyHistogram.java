@@ -0,0 +1,204 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with HDR-style log-linear buckets: every power of two is
+ * split into 16 linear sub-buckets, so a recorded value is known to within
+ * about 6% while the whole range of a long fits in 960 counters. Recording is
+ * lock-free and allocation-free.
+ *
+ * Operations that take only nanoseconds can be sampled: with a sample rate of
+ * n about one call in n is timed and counted n times, so counts and sums stay
+ * unbiased while the clock is read n times less often.
+ *
+ * Usage:
+ * <pre>
+ *     long start = histogram.start();
+ *     try {
+ *         ...
+ *     } finally {
+ *         histogram.stop(start);
+ *     }
+ * </pre>
+ */
+public class LatencyHistogram extends Metric {
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKETS = (64 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final int sampleMask;
+    // records even with metrics disabled; see standalone()
+    private final boolean alwaysOn;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    LatencyHistogram(String name, String labels, String help, int sampleRate) {
+        this(name, labels, help, sampleRate, false);
+    }
+
+    private LatencyHistogram(String name, String labels, String help, int sampleRate, boolean alwaysOn) {
+        super(name, labels, help);
+        if (sampleRate < 1 || Integer.bitCount(sampleRate) != 1) {
+            throw new IllegalArgumentException("Sample rate must be a power of two");
+        }
+        this.sampleMask = sampleRate - 1;
+        this.alwaysOn = alwaysOn;
+    }
+
+    /**
+     * Creates a histogram outside the registry that records whether or not
+     * metrics are enabled, e.g. for the latency report of a load test.
+     * @param name The name of what is measured
+     * @return The histogram; it is not exported
+     */
+    static LatencyHistogram standalone(String name) {
+        return new LatencyHistogram(name, "", "", 1, true);
+    }
+
+    /**
+     * Starts timing a call.
+     * @return The start time to pass to {@link #stop(long)}, or 0 if this call is not timed
+     */
+    public long start() {
+        if (!Metrics.ENABLED
+                || (sampleMask != 0 && (ThreadLocalRandom.current().nextInt() & sampleMask) != 0)) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Starts timing a call, sampling by a counter the caller already keeps
+     * instead of a random draw, e.g. a sequence number that every call advances.
+     * @param ticket The caller's counter
+     * @return The start time to pass to {@link #stop(long)}, or 0 if this call is not timed
+     */
+    public long start(long ticket) {
+        if (!Metrics.ENABLED || (ticket & sampleMask) != 0) {
+            return 0;
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the time since {@link #start()}.
+     * @param start The value start returned
+     */
+    public void stop(long start) {
+        if (Metrics.ENABLED && start != 0) {
+            record(System.nanoTime() - start, sampleMask + 1);
+        }
+    }
+
+    /**
+     * Records a latency measured by the caller.
+     * @param nanos The latency in nanoseconds
+     */
+    public void record(long nanos) {
+        record(nanos, 1);
+    }
+
+    private void record(long nanos, int weight) {
+        if (!Metrics.ENABLED && !alwaysOn) {
+            return;
+        }
+        long value = Math.max(nanos, 0);
+        counts.getAndAdd(indexOf(value), weight);
+        sum.add(value * weight);
+        max.accumulate(value);
+    }
+
+    /**
+     * Copies the current counts. Recording may continue meanwhile, so the copy
+     * is not an atomic cut, but every recorded value shows up in some snapshot.
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            copy[i] = counts.get(i);
+            total += copy[i];
+        }
+        return new Snapshot(copy, total, sum.sum(), max.get());
+    }
+
+    @Override
+    public String getType() {
+        return "summary";
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    // the largest value that falls into a bucket
+    static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int exponent = index / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = index % SUB_BUCKETS;
+        return ((long) (SUB_BUCKETS + subBucket + 1) << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * A point-in-time copy of a histogram. All values are in nanoseconds.
+     */
+    public static class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count == 0 ? 0 : sum / count;
+        }
+
+        /**
+         * Gets the value below which the given fraction of recorded values fall.
+         * @param quantile The fraction, from 0 to 1
+         * @return The value, rounded up to its bucket's upper bound; 0 if nothing was recorded
+         */
+        public long getQuantile(double quantile) {
+            if (quantile < 0 || quantile > 1) {
+                throw new IllegalArgumentException("Quantile must be between 0 and 1");
+            }
+            long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+}
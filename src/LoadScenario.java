@@ -0,0 +1,259 @@
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Shopper behaviour simulated by {@link LoadSimulator}. Each scenario plans
+ * the actions of one session up front from the session's random source, so
+ * that a seed reproduces the same traffic.
+ */
+public enum LoadScenario {
+    /**
+     * Mostly reads: category pages, product pages of popular products and
+     * searches, with the odd product added to the cart and one session in ten
+     * checking out.
+     */
+    BROWSE("browse", 1000, 50) {
+        @Override
+        void plan(LoadSimulator.Shopper shopper) {
+            Random random = shopper.random();
+            String category = CATEGORIES[random.nextInt(CATEGORIES.length)];
+            shopper.then("listCategory", () -> !DatabaseHelper.findProducts(new ProductQuery().category(category)
+                    .orderBy(ProductQuery.Sort.PRICE, false).limit(24), false).isEmpty());
+            int views = 2 + random.nextInt(6);
+            boolean added = false;
+            for (int i = 0; i < views; i++) {
+                if (random.nextInt(4) == 0) {
+                    String term = SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)];
+                    shopper.then("search", () -> DatabaseHelper.getSearchIndex().search(term, 24).length > 0);
+                }
+                int id = shopper.popularProductId();
+                shopper.then("viewProduct", () -> DatabaseHelper.getProduct(id) != null);
+                if (random.nextInt(5) == 0) {
+                    shopper.then("addToCart", () -> shopper.addToCart(id, 1));
+                    added = true;
+                }
+            }
+            if (added && random.nextInt(10) == 0) {
+                shopper.then("checkout", shopper::checkout);
+            }
+        }
+    },
+
+    /**
+     * A sale on a handful of products with little stock: sessions go straight
+     * for them and check out, most of them too late. Sold out checkouts are
+     * reported as rejected.
+     */
+    FLASH_SALE("flash-sale", 300, 200) {
+        @Override
+        void prepare(LoadSimulator simulator) throws SQLException {
+            int[] ids = simulator.getProductIdsByRank();
+            for (int rank = 0; rank < Math.min(HOT_PRODUCTS, ids.length); rank++) {
+                simulator.getInventory().setStock(ids[rank], FLASH_SALE_STOCK);
+            }
+        }
+
+        @Override
+        void plan(LoadSimulator.Shopper shopper) {
+            Random random = shopper.random();
+            int id = shopper.hotProductId(HOT_PRODUCTS);
+            shopper.then("viewProduct", () -> DatabaseHelper.getProduct(id) != null);
+            shopper.then("addToCart", () -> shopper.addToCart(id, 1 + random.nextInt(2)));
+            shopper.then("checkout", shopper::checkout);
+        }
+    },
+
+    /**
+     * Business buyers filling large carts in batches of lines with large
+     * quantities, then checking out the whole order at once.
+     */
+    B2B("b2b", 3000, 2) {
+        @Override
+        void plan(LoadSimulator.Shopper shopper) {
+            Random random = shopper.random();
+            int lines = 50 + random.nextInt(451);
+            for (int added = 0; added < lines; added += B2B_LINES_PER_STEP) {
+                int[] ids = new int[Math.min(B2B_LINES_PER_STEP, lines - added)];
+                int[] quantities = new int[ids.length];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = shopper.popularProductId();
+                    quantities[i] = 10 + random.nextInt(91);
+                }
+                shopper.then("addLines", () -> {
+                    boolean all = true;
+                    for (int i = 0; i < ids.length; i++) {
+                        all &= shopper.addToCart(ids[i], quantities[i]);
+                    }
+                    return all;
+                });
+            }
+            shopper.then("checkout", shopper::checkout);
+        }
+    },
+
+    /**
+     * Merchandisers changing prices and stock, importing batches of new
+     * products and deleting some of the products they imported, while the
+     * catalog caches and search index have to keep up.
+     */
+    CATALOG_EDITS("catalog-edits", 200, 20) {
+        @Override
+        void plan(LoadSimulator.Shopper shopper) {
+            Random random = shopper.random();
+            List<Integer> imported = new ArrayList<>();
+            boolean importPlanned = false;
+            int edits = 5 + random.nextInt(10);
+            for (int i = 0; i < edits; i++) {
+                int id = shopper.popularProductId();
+                int choice = random.nextInt(10);
+                if (choice < 5) {
+                    double factor = 0.8 + random.nextDouble() * 0.4;
+                    shopper.then("updatePrice", () -> update(id, product -> copy(product,
+                            Math.max(0.01, Math.round(listPrice(product) * factor * 100) / 100.0))));
+                } else if (choice < 8) {
+                    int stock = random.nextInt(1000);
+                    shopper.then("updateStock", () -> {
+                        try {
+                            shopper.inventory().setStock(id, stock);
+                            return true;
+                        } catch (IllegalArgumentException e) {
+                            // deleted meanwhile
+                            return false;
+                        }
+                    });
+                } else if (choice < 9 || !importPlanned) {
+                    long batchSeed = random.nextLong();
+                    shopper.then("bulkAdd", () -> {
+                        int[] ids = DatabaseHelper.addProducts(newProducts(new Random(batchSeed), BULK_ADD_SIZE))
+                                .getIds();
+                        synchronized (imported) {
+                            for (int importedId : ids) {
+                                imported.add(importedId);
+                            }
+                        }
+                        return ids.length == BULK_ADD_SIZE;
+                    });
+                    importPlanned = true;
+                } else {
+                    // deletes one of the products imported earlier in this session
+                    shopper.then("deleteProduct", () -> {
+                        Integer victim;
+                        synchronized (imported) {
+                            if (imported.isEmpty()) {
+                                return false;
+                            }
+                            victim = imported.remove(imported.size() - 1);
+                        }
+                        DatabaseHelper.deleteProduct(victim);
+                        return true;
+                    });
+                }
+            }
+        }
+    };
+
+    private static final String[] CATEGORIES = {ProductFactory.ELECTRONICS, ProductFactory.CLOTHING,
+            ProductFactory.GENERAL};
+    private static final String[] SEARCH_TERMS = {"wireless", "laptop", "jacket", "red", "camera", "portable",
+            "classic watch", "smart speaker"};
+    private static final int HOT_PRODUCTS = 10;
+    private static final int FLASH_SALE_STOCK = 50;
+    private static final int B2B_LINES_PER_STEP = 25;
+    private static final int BULK_ADD_SIZE = 50;
+
+    private final String name;
+    private final long defaultThinkMillis;
+    private final double defaultRate;
+
+    LoadScenario(String name, long defaultThinkMillis, double defaultRate) {
+        this.name = name;
+        this.defaultThinkMillis = defaultThinkMillis;
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * Finds a scenario by its name on the command line.
+     * @throws IllegalArgumentException if there is no such scenario
+     */
+    public static LoadScenario of(String name) {
+        for (LoadScenario scenario : values()) {
+            if (scenario.name.equalsIgnoreCase(name)) {
+                return scenario;
+            }
+        }
+        List<String> names = new ArrayList<>();
+        for (LoadScenario scenario : values()) {
+            names.add(scenario.name);
+        }
+        throw new IllegalArgumentException("Unknown scenario " + name + "; expected one of " + names);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the mean pause between two actions of a session.
+     */
+    public long getDefaultThinkMillis() {
+        return defaultThinkMillis;
+    }
+
+    /**
+     * Gets the sessions started per second when no rate is given.
+     */
+    public double getDefaultRate() {
+        return defaultRate;
+    }
+
+    /**
+     * Changes the catalog before the load starts.
+     */
+    void prepare(LoadSimulator simulator) throws SQLException {
+    }
+
+    /**
+     * Plans the actions of one session.
+     */
+    abstract void plan(LoadSimulator.Shopper shopper);
+
+    interface Edit {
+        Product apply(Product product);
+    }
+
+    // re-reads the product so that the edit starts from its current values
+    private static boolean update(int id, Edit edit) throws SQLException {
+        Product product = DatabaseHelper.getProduct(id);
+        if (product == null) {
+            return false;
+        }
+        DatabaseHelper.updateProduct(edit.apply(product));
+        return true;
+    }
+
+    private static double listPrice(Product product) {
+        return ProductFactory.undecorated(product).getListPrice();
+    }
+
+    // the product with another list price, keeping its category and discount
+    private static Product copy(Product product, double price) {
+        Product copy = ProductFactory.newProduct(ProductFactory.categoryOf(product), product.getName(), price,
+                ProductFactory.undecorated(product).getDescription(), product.getStockQuantity());
+        copy.setDiscountPercentage(ProductFactory.discountOf(product));
+        copy.setId(product.getId());
+        return copy;
+    }
+
+    private static Iterator<Product> newProducts(Random random, int count) {
+        List<Product> products = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            products.add(ProductFactory.newProduct(CATEGORIES[random.nextInt(CATEGORIES.length)],
+                    "Imported " + Long.toHexString(random.nextLong()), (100 + random.nextInt(50_000)) / 100.0,
+                    "imported in bulk", 1 + random.nextInt(500)));
+        }
+        return products.iterator();
+    }
+}
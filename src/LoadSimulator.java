@@ -0,0 +1,558 @@
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Headless load simulator that drives the application in process: carts
+ * through {@link CartService} and {@link ShoppingCart}, catalog reads and
+ * writes through {@link DatabaseHelper}, new products through
+ * {@link ProductFactory}, and checkouts through {@link InventoryService} and a
+ * {@link PaymentStrategy}. The shopper behaviour comes from a
+ * {@link LoadScenario}.
+ *
+ * The load is open-loop: sessions arrive as a Poisson process at a fixed rate
+ * no matter how fast the system responds, and each action is timed from when
+ * it was due, not from when a worker got to it. An overloaded system therefore
+ * shows growing latency rather than quietly receiving less traffic. Within a
+ * session, actions are separated by think times. Products are picked by
+ * Zipfian popularity, so a few products get most of the traffic, as in a real
+ * shop.
+ *
+ * Unless {@code ecommerce.db.url} is set, the simulator runs against a new
+ * scratch database with a catalog generated from the seed, so that runs with
+ * the same settings are comparable. A given database is written to, so point
+ * it at a copy. Only actions due after the warm-up count towards the report,
+ * and sessions still going when the measurement ends are cut off there, so
+ * long sessions such as B2B orders need a correspondingly long run.
+ *
+ * Usage: LoadSimulator [scenario] [sessionsPerSecond] [seconds]
+ * <pre>
+ *   scenario                          browse, flash-sale, b2b or catalog-edits
+ *   -Decommerce.load.products=10000   size of the generated catalog
+ *   -Decommerce.load.zipf=1.0         popularity skew; 0 picks products uniformly
+ *   -Decommerce.load.think=exponential think time model: exponential, uniform, fixed or none
+ *   -Decommerce.load.thinkMillis=...  mean think time; each scenario has a default
+ *   -Decommerce.load.workers=8        threads serving actions, i.e. the capacity under test
+ *   -Decommerce.load.warmupSeconds=5  load applied before measuring
+ *   -Decommerce.load.paymentMillis=50 latency of the stub payment gateway
+ *   -Decommerce.load.seed=42          seed of the catalog, arrivals and sessions
+ *   -Decommerce.cart.persist=true     keeps carts in a {@link CartStore}
+ * </pre>
+ */
+public class LoadSimulator {
+    private static final String[] ADJECTIVES = {"Red", "Blue", "Compact", "Wireless", "Premium", "Classic",
+            "Smart", "Rugged", "Slim", "Organic", "Vintage", "Portable"};
+    private static final String[] NOUNS = {"Laptop", "Phone", "Headphones", "Watch", "Jacket", "Sneakers",
+            "Backpack", "Lamp", "Kettle", "Camera", "Speaker", "Shirt"};
+    private static final String[] CATEGORIES = {ProductFactory.ELECTRONICS, ProductFactory.CLOTHING,
+            ProductFactory.GENERAL};
+    private static final int STOCK = 1_000_000;
+    private static final long DRAIN_TIMEOUT_SECONDS = 60;
+    private static final int MAX_PAYMENT_ATTEMPTS = 3;
+
+    /**
+     * How long a shopper pauses between two actions.
+     */
+    enum ThinkTime {
+        EXPONENTIAL,
+        UNIFORM,
+        FIXED,
+        NONE;
+
+        long sample(Random random, long meanNanos) {
+            switch (this) {
+                case EXPONENTIAL:
+                    return (long) (-Math.log(1 - random.nextDouble()) * meanNanos);
+                case UNIFORM:
+                    return (long) (random.nextDouble() * 2 * meanNanos);
+                case FIXED:
+                    return meanNanos;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+    /**
+     * One action of a session.
+     */
+    interface Action {
+        /**
+         * @return false if the shop turned the action down, e.g. sold out or payment declined
+         */
+        boolean run() throws Exception;
+    }
+
+    private final LoadScenario scenario;
+    private final int products;
+    private final ThinkTime thinkTime;
+    private final long thinkNanos;
+    private final int workerCount;
+    private final long seed;
+    private final double skew;
+    private Zipf popularity;
+    private final CartStore cartStore = CartStore.fromSystemProperties();
+    private final CartService carts = new CartService(60 * 60 * 1000, 1_000_000, Integer.MAX_VALUE, cartStore);
+    private final InventoryService inventory = new InventoryService(15 * 60 * 1000, 1000);
+    private final AsyncPaymentProcessor payments = new AsyncPaymentProcessor(64, 2000, MAX_PAYMENT_ATTEMPTS, 20);
+    private final StubPaymentGateway gateway;
+    private final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "load-timer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ExecutorService workers;
+    private final Recorder recorder = new Recorder();
+    private final AtomicInteger activeSessions = new AtomicInteger();
+    private final CountDownLatch drained = new CountDownLatch(1);
+    private int[] productIdsByRank;
+    private volatile boolean arrivalsDone;
+    private long measureStart;
+    private long measureEnd;
+
+    LoadSimulator(LoadScenario scenario) {
+        this.scenario = scenario;
+        this.products = Integer.getInteger("ecommerce.load.products", 10_000);
+        this.thinkTime = ThinkTime.valueOf(System.getProperty("ecommerce.load.think", "exponential").toUpperCase());
+        this.thinkNanos = TimeUnit.MILLISECONDS.toNanos(
+                Long.getLong("ecommerce.load.thinkMillis", scenario.getDefaultThinkMillis()));
+        this.workerCount = Integer.getInteger("ecommerce.load.workers", 8);
+        this.seed = Long.getLong("ecommerce.load.seed", 42);
+        this.skew = Double.parseDouble(System.getProperty("ecommerce.load.zipf", "1.0"));
+        long paymentMillis = Long.getLong("ecommerce.load.paymentMillis", 50);
+        this.gateway = new StubPaymentGateway(paymentMillis, paymentMillis / 2, 0.01, 0.02);
+        this.workers = Executors.newFixedThreadPool(workerCount, r -> {
+            Thread thread = new Thread(r, "load-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadScenario scenario = LoadScenario.of(args.length > 0 ? args[0] : "browse");
+        double rate = args.length > 1 ? Double.parseDouble(args[1]) : scenario.getDefaultRate();
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+        int warmupSeconds = Integer.getInteger("ecommerce.load.warmupSeconds", 5);
+        if (rate <= 0 || seconds < 1 || warmupSeconds < 0) {
+            throw new IllegalArgumentException("Rate and duration must be positive");
+        }
+        Path scratch = null;
+        if (System.getProperty("ecommerce.db.url") == null) {
+            scratch = Files.createTempDirectory("ecommerce-load");
+            System.setProperty("ecommerce.db.url", "jdbc:sqlite:" + scratch.resolve("load.db"));
+            System.setProperty("ecommerce.db.writeBehind.dir", scratch.resolve("write-behind").toString());
+        }
+        try {
+            LoadSimulator simulator = new LoadSimulator(scenario);
+            try {
+                simulator.prepareCatalog(scratch != null);
+                scenario.prepare(simulator);
+                System.out.printf("Scenario %s: %.1f sessions/s for %d s after %d s warm-up; %d products, "
+                                + "zipf %s, think %s %d ms, %d workers, seed %d%n", scenario.getName(), rate, seconds,
+                        warmupSeconds, simulator.productIdsByRank.length, simulator.skew,
+                        simulator.thinkTime.name().toLowerCase(), TimeUnit.NANOSECONDS.toMillis(simulator.thinkNanos),
+                        simulator.workerCount, simulator.seed);
+                simulator.run(rate, warmupSeconds, seconds);
+                simulator.recorder.report(seconds);
+            } finally {
+                // stops the workers and flushes before the scratch database is deleted
+                simulator.close();
+            }
+        } finally {
+            if (scratch != null) {
+                try (java.util.stream.Stream<Path> files = Files.walk(scratch)) {
+                    for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                        Files.deleteIfExists(file);
+                    }
+                }
+            }
+        }
+    }
+
+    // generates the catalog into a new database, or ranks the products of a given one
+    private void prepareCatalog(boolean generate) throws SQLException {
+        Random random = new Random(seed);
+        int[] ids;
+        if (generate) {
+            ids = DatabaseHelper.addProducts(new Iterator<Product>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < products;
+                }
+
+                @Override
+                public Product next() {
+                    next++;
+                    String adjective = ADJECTIVES[random.nextInt(ADJECTIVES.length)];
+                    String noun = NOUNS[random.nextInt(NOUNS.length)];
+                    Product product = ProductFactory.newProduct(CATEGORIES[random.nextInt(CATEGORIES.length)],
+                            adjective + " " + noun + " " + next, (100 + random.nextInt(100_000)) / 100.0,
+                            adjective.toLowerCase() + " " + noun.toLowerCase() + " for everyday use", STOCK);
+                    if (random.nextInt(5) == 0) {
+                        product.setDiscountPercentage(5 + random.nextInt(30));
+                    }
+                    return product;
+                }
+            }).getIds();
+        } else {
+            List<Integer> existing = new ArrayList<>();
+            List<Product> page = DatabaseHelper.getProductPage(0, 1000, false);
+            while (!page.isEmpty()) {
+                for (Product product : page) {
+                    existing.add(product.getId());
+                }
+                page = DatabaseHelper.getProductPage(page.get(page.size() - 1).getId(), 1000, false);
+            }
+            ids = existing.stream().mapToInt(Integer::intValue).toArray();
+        }
+        if (ids.length == 0) {
+            throw new IllegalStateException("The catalog is empty");
+        }
+        // popularity does not follow the id order
+        for (int i = ids.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int swap = ids[i];
+            ids[i] = ids[j];
+            ids[j] = swap;
+        }
+        productIdsByRank = ids;
+        popularity = new Zipf(ids.length, skew);
+        DatabaseHelper.getSearchIndex();
+    }
+
+    private void run(double rate, int warmupSeconds, int seconds) throws InterruptedException {
+        Random arrivals = new Random(seed);
+        long begin = System.nanoTime();
+        measureStart = begin + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        measureEnd = measureStart + TimeUnit.SECONDS.toNanos(seconds);
+        long due = begin;
+        int sessions = 0;
+        while (true) {
+            due += (long) (-Math.log(1 - arrivals.nextDouble()) / rate * 1e9);
+            if (due >= measureEnd) {
+                break;
+            }
+            long wait = due - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            Shopper shopper = new Shopper(sessions, new Random(seed * 31 + sessions));
+            sessions++;
+            scenario.plan(shopper);
+            if (shopper.steps.isEmpty()) {
+                continue;
+            }
+            activeSessions.incrementAndGet();
+            schedule(shopper, 0, due);
+        }
+        arrivalsDone = true;
+        if (activeSessions.get() == 0) {
+            drained.countDown();
+        }
+        if (!drained.await(DRAIN_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+            System.out.println("Actions of " + activeSessions.get() + " sessions still running after "
+                    + DRAIN_TIMEOUT_SECONDS + " s are not reported");
+        }
+    }
+
+    private void schedule(Shopper shopper, int step, long due) {
+        Runnable submit = () -> workers.execute(() -> runStep(shopper, step, due));
+        long delay = due - System.nanoTime();
+        if (delay <= 0) {
+            submit.run();
+        } else {
+            timer.schedule(submit, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    private void runStep(Shopper shopper, int index, long due) {
+        Step step = shopper.steps.get(index);
+        boolean accepted = false;
+        Exception error = null;
+        try {
+            accepted = step.action.run();
+        } catch (Exception e) {
+            error = e;
+        }
+        long done = System.nanoTime();
+        if (due >= measureStart && due < measureEnd) {
+            recorder.record(step.operation, done - due, accepted, error);
+        }
+        long next = done + thinkTime.sample(shopper.random, thinkNanos);
+        // actions due after the measurement would not be reported, so the session ends there
+        if (index + 1 < shopper.steps.size() && next < measureEnd) {
+            schedule(shopper, index + 1, next);
+        } else {
+            carts.removeCart(shopper.sessionId);
+            if (activeSessions.decrementAndGet() == 0 && arrivalsDone) {
+                drained.countDown();
+            }
+        }
+    }
+
+    private void close() {
+        timer.shutdown();
+        workers.shutdown();
+        payments.close();
+        inventory.close();
+        carts.close();
+        if (cartStore != null) {
+            cartStore.close();
+        }
+    }
+
+    /**
+     * Gets the ids of the products ranked most popular first.
+     */
+    int[] getProductIdsByRank() {
+        return productIdsByRank;
+    }
+
+    /**
+     * Gets the inventory the checkouts sell from; stock is changed through it.
+     */
+    InventoryService getInventory() {
+        return inventory;
+    }
+
+    /**
+     * One session: its random source, its cart, and the actions planned for it.
+     */
+    final class Shopper {
+        private final String sessionId;
+        private final Random random;
+        private final List<Step> steps = new ArrayList<>();
+
+        Shopper(int number, Random random) {
+            this.sessionId = "load-" + number;
+            this.random = random;
+        }
+
+        Random random() {
+            return random;
+        }
+
+        String getSessionId() {
+            return sessionId;
+        }
+
+        /**
+         * Appends an action to the session; it runs a think time after the previous one.
+         * @param operation The name the action is reported under
+         */
+        void then(String operation, Action action) {
+            steps.add(new Step(operation, action));
+        }
+
+        /**
+         * Picks a product id by Zipfian popularity over the whole catalog.
+         */
+        int popularProductId() {
+            return productIdsByRank[popularity.sample(random)];
+        }
+
+        /**
+         * Picks one of the most popular products, by popularity among them.
+         * @param count How many of the most popular products to choose from
+         */
+        int hotProductId(int count) {
+            return productIdsByRank[popularity.sample(random, Math.min(count, productIdsByRank.length))];
+        }
+
+        InventoryService inventory() {
+            return inventory;
+        }
+
+        ShoppingCart cart() {
+            return carts.getCart(sessionId);
+        }
+
+        /**
+         * Adds units of a product to the session's cart.
+         * @return false if the product no longer exists
+         */
+        boolean addToCart(int productId, int quantity) throws SQLException {
+            Product product = DatabaseHelper.getProduct(productId);
+            if (product == null) {
+                return false;
+            }
+            carts.addProduct(sessionId, product, quantity);
+            return true;
+        }
+
+        /**
+         * Reserves the cart's stock, pays for it and commits the sale.
+         * @return false if the cart is empty, stock ran out, the payment was declined or the sale could not be committed
+         * @throws IllegalStateException if the payment failed, e.g. the gateway kept timing out
+         */
+        boolean checkout() throws SQLException {
+            ShoppingCart cart = cart();
+            Collection<CartLine> lines;
+            double total;
+            synchronized (cart) {
+                if (cart.isEmpty()) {
+                    return false;
+                }
+                lines = new ArrayList<>(cart.getLines());
+                total = cart.getTotal();
+            }
+            InventoryService.Reservation reservation;
+            try {
+                reservation = inventory.reserve(lines);
+            } catch (IllegalStateException e) {
+                return false;
+            }
+            // held while paying, so that a successful payment can always be committed
+            if (!inventory.hold(reservation)) {
+                return false;
+            }
+            PaymentResult result = payments.submit(gateway, total).join();
+            if (result.isSuccessful()) {
+                if (!inventory.commit(reservation)) {
+                    // released meanwhile; the sale did not happen
+                    inventory.release(reservation);
+                    return false;
+                }
+                cart.clear();
+                return true;
+            }
+            inventory.release(reservation);
+            if (result.isDeclined()) {
+                // also on the last attempt, after the earlier ones failed
+                return false;
+            }
+            throw new IllegalStateException("Payment failed: " + result.getError());
+        }
+    }
+
+    private static final class Step {
+        final String operation;
+        final Action action;
+
+        Step(String operation, Action action) {
+            this.operation = operation;
+            this.action = action;
+        }
+    }
+
+    /**
+     * Zipfian distribution over ranks 0..n-1: rank r is picked with probability
+     * proportional to 1 / (r + 1)^skew. Sampled by binary search over the
+     * cumulative probabilities.
+     */
+    static final class Zipf {
+        private final double[] cumulative;
+
+        Zipf(int n, double skew) {
+            if (n < 1 || skew < 0) {
+                throw new IllegalArgumentException("Zipf needs at least one rank and a non-negative skew");
+            }
+            cumulative = new double[n];
+            double sum = 0;
+            for (int rank = 0; rank < n; rank++) {
+                sum += 1 / Math.pow(rank + 1, skew);
+                cumulative[rank] = sum;
+            }
+        }
+
+        int sample(Random random) {
+            return sample(random, cumulative.length);
+        }
+
+        /**
+         * Samples among the first {@code n} ranks only.
+         */
+        int sample(Random random, int n) {
+            int rank = Arrays.binarySearch(cumulative, 0, n, random.nextDouble() * cumulative[n - 1]);
+            return Math.min(rank < 0 ? -rank - 1 : rank, n - 1);
+        }
+    }
+
+    /**
+     * Latencies, rejections and errors per operation.
+     */
+    private static final class Recorder {
+        private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+        // every action again, for the totals; histograms do not merge
+        private final Operation all = new Operation("all");
+        private final Map<String, LongAdder> errorMessages = new ConcurrentHashMap<>();
+
+        void record(String operation, long nanos, boolean accepted, Exception error) {
+            operations.computeIfAbsent(operation, Operation::new).record(nanos, accepted, error != null);
+            all.record(nanos, accepted, error != null);
+            if (error != null) {
+                errorMessages.computeIfAbsent(error.getClass().getSimpleName() + ": " + error.getMessage(),
+                        message -> new LongAdder()).increment();
+            }
+        }
+
+        void report(int seconds) {
+            System.out.printf("%-16s %9s %9s %9s %9s %9s %9s %9s %9s%n", "operation", "count", "rejected",
+                    "errors", "p50 ms", "p90 ms", "p99 ms", "p99.9 ms", "max ms");
+            List<String> names = new ArrayList<>(operations.keySet());
+            names.sort(null);
+            for (String name : names) {
+                operations.get(name).print();
+            }
+            all.print();
+            long count = all.count();
+            System.out.printf("throughput: %.1f actions/s, error rate: %.3f%%, rejection rate: %.3f%%%n",
+                    count / (double) seconds, count == 0 ? 0 : 100.0 * all.errors.sum() / count,
+                    count == 0 ? 0 : 100.0 * all.rejected.sum() / count);
+            errorMessages.entrySet().stream()
+                    .sorted((a, b) -> Long.compare(b.getValue().sum(), a.getValue().sum()))
+                    .limit(5)
+                    .forEach(entry -> System.out.println("  " + entry.getValue().sum() + " x " + entry.getKey()));
+        }
+    }
+
+    private static final class Operation {
+        private final LatencyHistogram latencies;
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+
+        Operation(String name) {
+            this.latencies = LatencyHistogram.standalone(name);
+        }
+
+        void record(long nanos, boolean accepted, boolean failed) {
+            latencies.record(nanos);
+            if (failed) {
+                errors.increment();
+            } else if (!accepted) {
+                rejected.increment();
+            }
+        }
+
+        long count() {
+            return latencies.snapshot().getCount();
+        }
+
+        void print() {
+            LatencyHistogram.Snapshot snapshot = latencies.snapshot();
+            System.out.printf("%-16s %9d %9d %9d %9.2f %9.2f %9.2f %9.2f %9.2f%n", latencies.getName(),
+                    snapshot.getCount(), rejected.sum(), errors.sum(), snapshot.getQuantile(0.50) / 1e6,
+                    snapshot.getQuantile(0.90) / 1e6, snapshot.getQuantile(0.99) / 1e6,
+                    snapshot.getQuantile(0.999) / 1e6, snapshot.getMax() / 1e6);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.Collection;
+
+/**
+ * Prints metrics as human-readable lines, one per metric, e.g. for periodic
+ * dumps to the console. Metrics that have not recorded anything are skipped.
+ */
+public class LogMetricsExporter implements MetricsExporter {
+    private final PrintStream out;
+
+    public LogMetricsExporter(PrintStream out) {
+        this.out = out;
+    }
+
+    @Override
+    public void export(Collection<Metric> metrics) {
+        StringBuilder dump = new StringBuilder("Metrics at ").append(Instant.now()).append('\n');
+        for (Metric metric : metrics) {
+            if (metric instanceof LatencyHistogram) {
+                LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).snapshot();
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+                dump.append(String.format("  %s count=%d mean=%s p50=%s p99=%s p99.9=%s max=%s%n", metric,
+                        snapshot.getCount(), duration(snapshot.getMean()), duration(snapshot.getQuantile(0.5)),
+                        duration(snapshot.getQuantile(0.99)), duration(snapshot.getQuantile(0.999)),
+                        duration(snapshot.getMax())));
+            } else if (metric instanceof Counter) {
+                long count = ((Counter) metric).getCount();
+                if (count != 0) {
+                    dump.append("  ").append(metric).append(' ').append(count).append('\n');
+                }
+            } else if (metric instanceof Gauge) {
+                double value = ((Gauge) metric).getValue();
+                dump.append("  ").append(metric).append(' ')
+                        .append(value == (long) value ? Long.toString((long) value) : String.format("%.3f", value))
+                        .append('\n');
+            }
+        }
+        // one write so concurrent output does not end up between the lines
+        out.print(dump);
+        out.flush();
+    }
+
+    private static String duration(long nanos) {
+        if (nanos < 1_000) {
+            return nanos + "ns";
+        }
+        if (nanos < 1_000_000) {
+            return String.format("%.1fus", nanos / 1e3);
+        }
+        return String.format("%.1fms", nanos / 1e6);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * A named measurement kept in the {@link Metrics} registry.
+ * Metrics that share a name and differ only in their labels form one family,
+ * e.g. the latency of each database operation.
+ */
+public abstract class Metric {
+    private final String name;
+    private final String labels;
+    private final String help;
+
+    Metric(String name, String labels, String help) {
+        this.name = name;
+        this.labels = labels;
+        this.help = help;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the labels in Prometheus form without braces, e.g. {@code operation="getProduct"}.
+     * @return The labels, empty if there are none
+     */
+    public String getLabels() {
+        return labels;
+    }
+
+    public String getHelp() {
+        return help;
+    }
+
+    /**
+     * Gets the Prometheus type of this metric: counter, gauge or summary.
+     */
+    public abstract String getType();
+
+    @Override
+    public String toString() {
+        return labels.isEmpty() ? name : name + "{" + labels + "}";
+    }
+}
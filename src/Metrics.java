@@ -0,0 +1,194 @@
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Registry of the application's counters, gauges and latency histograms.
+ *
+ * Metrics are off unless the JVM is started with {@code -Decommerce.metrics=true}.
+ * The switch is a constant, so with metrics off the JIT compiles the recording
+ * calls away entirely; with metrics on, recording never locks or allocates.
+ *
+ * Exporters are started from system properties by {@link #startExporters()}:
+ * - ecommerce.metrics.port serves the Prometheus text format on that port
+ * - ecommerce.metrics.log.seconds prints all metrics at that interval
+ * - JFR events are always registered and emitted while a recording runs
+ *
+ * Design Pattern:
+ * - Registry: Components look up shared metrics by name and labels
+ */
+public final class Metrics {
+    public static final boolean ENABLED = Boolean.getBoolean("ecommerce.metrics");
+
+    // sorted so that the metrics of a family are exported next to each other
+    private static final ConcurrentSkipListMap<String, Metric> registry = new ConcurrentSkipListMap<>();
+    private static final ScheduledExecutorService exportTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "metrics-export");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private Metrics() {
+    }
+
+    /**
+     * Gets or creates a counter.
+     * @param name The metric name, e.g. db_errors_total
+     * @param help A description of the metric
+     * @param labels Label names and values in pairs
+     */
+    public static Counter counter(String name, String help, String... labels) {
+        return register(new Counter(name, formatLabels(labels), help));
+    }
+
+    /**
+     * Gets or creates a histogram that times every call.
+     * @param name The metric name, e.g. db_operation_seconds
+     * @param help A description of the metric
+     * @param labels Label names and values in pairs
+     */
+    public static LatencyHistogram histogram(String name, String help, String... labels) {
+        return sampledHistogram(name, help, 1, labels);
+    }
+
+    /**
+     * Gets or creates a histogram that times about one call in {@code sampleRate},
+     * for operations so short that reading the clock on every call would be noticeable.
+     * @param name The metric name
+     * @param help A description of the metric
+     * @param sampleRate A power of two
+     * @param labels Label names and values in pairs
+     */
+    public static LatencyHistogram sampledHistogram(String name, String help, int sampleRate, String... labels) {
+        return register(new LatencyHistogram(name, formatLabels(labels), help, sampleRate));
+    }
+
+    /**
+     * Registers a gauge whose value is read from a source at export time.
+     * An existing gauge of the same name and labels is kept.
+     */
+    public static Gauge gauge(String name, String help, DoubleSupplier value, String... labels) {
+        return register(new Gauge(name, formatLabels(labels), help, "gauge", value));
+    }
+
+    /**
+     * Registers a counter whose value a component keeps itself and is read at export time.
+     */
+    public static Gauge functionCounter(String name, String help, DoubleSupplier value, String... labels) {
+        return register(new Gauge(name, formatLabels(labels), help, "counter", value));
+    }
+
+    /**
+     * Gets all registered metrics, families grouped together.
+     */
+    public static Collection<Metric> getAll() {
+        return new ArrayList<>(registry.values());
+    }
+
+    /**
+     * Exports all metrics at a fixed rate on a background thread.
+     * @param exporter The exporter
+     * @param periodMillis The interval
+     * @return The schedule; cancel it to stop exporting
+     */
+    public static ScheduledFuture<?> exportEvery(MetricsExporter exporter, long periodMillis) {
+        return exportTimer.scheduleAtFixedRate(() -> {
+            try {
+                exporter.export(getAll());
+            } catch (IOException | RuntimeException e) {
+                e.printStackTrace();
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts the exporters configured by system properties. Does nothing when metrics are off.
+     */
+    public static void startExporters() {
+        if (!ENABLED) {
+            return;
+        }
+        JfrMetricsExporter.register();
+        int port = Integer.getInteger("ecommerce.metrics.port", 0);
+        if (port > 0) {
+            try {
+                PrometheusExporter.serve(port);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        long logSeconds = Long.getLong("ecommerce.metrics.log.seconds", 0);
+        if (logSeconds > 0) {
+            exportEvery(new LogMetricsExporter(System.out), logSeconds * 1000);
+        }
+    }
+
+    /**
+     * Prints all metrics once, e.g. at the end of a benchmark or load test.
+     * @param out Where to print
+     */
+    public static void dump(PrintStream out) {
+        new LogMetricsExporter(out).export(getAll());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Metric> T register(T metric) {
+        checkName(metric.getName());
+        Metric existing = registry.putIfAbsent(metric.toString(), metric);
+        if (existing == null) {
+            return metric;
+        }
+        if (existing.getClass() != metric.getClass() || !existing.getType().equals(metric.getType())) {
+            throw new IllegalArgumentException("Metric " + metric + " is already registered as a "
+                    + existing.getType());
+        }
+        return (T) existing;
+    }
+
+    private static void checkName(String name) {
+        if (name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Metric name must not be empty");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char c = name.charAt(i);
+            boolean letter = (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_' || c == ':';
+            if (!letter && (i == 0 || c < '0' || c > '9')) {
+                throw new IllegalArgumentException("Invalid metric name: " + name);
+            }
+        }
+    }
+
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be given as name and value pairs");
+        }
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            checkName(labels[i]);
+            if (i > 0) {
+                formatted.append(',');
+            }
+            formatted.append(labels[i]).append("=\"");
+            String value = labels[i + 1];
+            for (int j = 0; j < value.length(); j++) {
+                char c = value.charAt(j);
+                if (c == '\\' || c == '"') {
+                    formatted.append('\\').append(c);
+                } else if (c == '\n') {
+                    formatted.append("\\n");
+                } else {
+                    formatted.append(c);
+                }
+            }
+            formatted.append('"');
+        }
+        return formatted.toString();
+    }
+}
@@ -0,0 +1,18 @@
+import java.io.IOException;
+import java.util.Collection;
+
+/**
+ * Publishes the current value of metrics somewhere outside the process.
+ * Exporters can be run on demand, e.g. per scrape, or periodically with
+ * {@link Metrics#exportEvery(MetricsExporter, long)}.
+ *
+ * Design Pattern:
+ * - Strategy: Prometheus, log and JFR exporters are interchangeable
+ */
+public interface MetricsExporter {
+    /**
+     * Exports metrics.
+     * @param metrics The metrics, families grouped together as returned by {@link Metrics#getAll()}
+     */
+    void export(Collection<Metric> metrics) throws IOException;
+}
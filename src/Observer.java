@@ -1,9 +0,0 @@
-public interface Observer {
-    void update(String message);
-}
-
-interface Subject {
-    void registerObserver(Observer observer);
-    void removeObserver(Observer observer);
-    void notifyObservers(String message);
-}
@@ -0,0 +1,104 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A completed checkout as recorded in the {@link OrderLog}.
+ * Orders are immutable; lines keep the name and price the customer paid, so
+ * later product changes do not alter past orders.
+ */
+public class Order {
+    private final long id;
+    private final long createdMillis;
+    private final String paymentReference;
+    private final long totalCents;
+    private final List<Line> lines;
+
+    Order(long id, long createdMillis, String paymentReference, long totalCents, List<Line> lines) {
+        this.id = id;
+        this.createdMillis = createdMillis;
+        this.paymentReference = paymentReference;
+        this.totalCents = totalCents;
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    /**
+     * Captures the lines of a cart as order lines.
+     * @param cartLines The cart lines
+     * @return The order lines, priced as in the cart
+     */
+    public static List<Line> linesOf(Collection<CartLine> cartLines) {
+        List<Line> lines = new ArrayList<>(cartLines.size());
+        for (CartLine cartLine : cartLines) {
+            Product product = cartLine.getProduct();
+            lines.add(new Line(product.getId(), product.getName(), cartLine.getQuantity(),
+                    cartLine.getUnitPriceCents(), cartLine.getLineTotalCents()));
+        }
+        return lines;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    public long getCreatedMillis() {
+        return createdMillis;
+    }
+
+    public String getPaymentReference() {
+        return paymentReference;
+    }
+
+    public long getTotalCents() {
+        return totalCents;
+    }
+
+    public List<Line> getLines() {
+        return lines;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("Order #%d: %d lines, $%.2f", id, lines.size(), totalCents / 100.0);
+    }
+
+    /**
+     * One product of an order.
+     */
+    public static class Line {
+        private final int productId;
+        private final String productName;
+        private final int quantity;
+        private final long unitPriceCents;
+        private final long lineTotalCents;
+
+        public Line(int productId, String productName, int quantity, long unitPriceCents, long lineTotalCents) {
+            this.productId = productId;
+            this.productName = productName;
+            this.quantity = quantity;
+            this.unitPriceCents = unitPriceCents;
+            this.lineTotalCents = lineTotalCents;
+        }
+
+        public int getProductId() {
+            return productId;
+        }
+
+        public String getProductName() {
+            return productName;
+        }
+
+        public int getQuantity() {
+            return quantity;
+        }
+
+        public long getUnitPriceCents() {
+            return unitPriceCents;
+        }
+
+        public long getLineTotalCents() {
+            return lineTotalCents;
+        }
+    }
+}
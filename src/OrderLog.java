@@ -0,0 +1,398 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only, memory-mapped log of completed orders.
+ *
+ * The log is a directory of segment files, each named after the id of its
+ * first order. Records are copied into the mapped active segment under a short
+ * lock; a single sync thread then forces everything appended since its last
+ * sync to disk in one call and completes the waiting appends together (group
+ * commit), so concurrent checkouts share the cost of each disk flush. A full
+ * segment is rolled over to a new file; sealed segments whose orders are no
+ * longer needed can be dropped with {@link #compact(long)}.
+ *
+ * Each record is {@code [payload length][CRC32C][payload]}. On open, the active
+ * segment is scanned to find the next order id; a torn record at the end (from
+ * a crash mid-write) fails its checksum and is discarded.
+ */
+public class OrderLog implements AutoCloseable {
+    private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+    private static final int HEADER_SIZE = 8;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final Object lock = new Object();
+    private final TreeMap<Long, Path> sealed = new TreeMap<>();
+    private final ArrayDeque<Pending> unsynced = new ArrayDeque<>();
+    private final List<Consumer<Order>> listeners = new CopyOnWriteArrayList<>();
+    private final Thread syncThread;
+    private long activeBaseId;
+    private FileChannel activeChannel;
+    private MappedByteBuffer active;
+    private int syncedPosition;
+    private long nextId;
+    private boolean closed;
+
+    private OrderLog(Path directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncThread = new Thread(this::syncLoop, "order-log-sync");
+        syncThread.setDaemon(true);
+    }
+
+    public static OrderLog open(Path directory) throws IOException {
+        return open(directory, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opens a log, creating the directory if needed, and recovers the position
+     * of the last durable order.
+     * @param directory The directory holding the segments
+     * @param segmentSize Size of each segment file in bytes
+     * @return The open log
+     */
+    public static OrderLog open(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < 4096) {
+            throw new IllegalArgumentException("Segment size must be at least 4096 bytes");
+        }
+        Files.createDirectories(directory);
+        OrderLog log = new OrderLog(directory, segmentSize);
+        TreeMap<Long, Path> segments = new TreeMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                segments.put(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())), file);
+            }
+        }
+        if (segments.isEmpty()) {
+            log.openActive(1);
+        } else {
+            Map.Entry<Long, Path> last = segments.pollLastEntry();
+            log.sealed.putAll(segments);
+            log.openActive(last.getKey());
+        }
+        log.syncThread.start();
+        return log;
+    }
+
+    /**
+     * Registers a listener that receives every order once it is durable, in id order,
+     * on the log's sync thread.
+     */
+    public void addListener(Consumer<Order> listener) {
+        listeners.add(listener);
+    }
+
+    public CompletableFuture<Order> append(Collection<CartLine> cartLines, long totalCents, String paymentReference) {
+        return append(Order.linesOf(cartLines), totalCents, paymentReference);
+    }
+
+    /**
+     * Appends an order. The log assigns its id and timestamp.
+     * @param lines The order lines
+     * @param totalCents The amount paid
+     * @param paymentReference The payment's reference
+     * @return A future completed with the order once it is on disk
+     */
+    public CompletableFuture<Order> append(List<Order.Line> lines, long totalCents, String paymentReference) {
+        byte[] reference = utf8(paymentReference);
+        byte[][] names = new byte[lines.size()][];
+        int payloadSize = 8 + 8 + 8 + 2 + reference.length + 4;
+        for (int i = 0; i < names.length; i++) {
+            names[i] = utf8(lines.get(i).getProductName());
+            payloadSize += 4 + 2 + names[i].length + 4 + 8 + 8;
+        }
+        if (HEADER_SIZE + payloadSize > segmentSize) {
+            throw new IllegalArgumentException("Order does not fit in a segment");
+        }
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        record.putInt(payloadSize).putInt(0).putLong(0).putLong(0).putLong(totalCents);
+        record.putShort((short) reference.length).put(reference).putInt(names.length);
+        for (int i = 0; i < names.length; i++) {
+            Order.Line line = lines.get(i);
+            record.putInt(line.getProductId()).putShort((short) names[i].length).put(names[i])
+                    .putInt(line.getQuantity()).putLong(line.getUnitPriceCents()).putLong(line.getLineTotalCents());
+        }
+
+        CompletableFuture<Order> result = new CompletableFuture<>();
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Order log is closed");
+            }
+            try {
+                if (active.remaining() < record.capacity()) {
+                    roll();
+                }
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+                return result;
+            }
+            long id = nextId++;
+            long now = System.currentTimeMillis();
+            record.putLong(HEADER_SIZE, id).putLong(HEADER_SIZE + 8, now);
+            CRC32C crc = new CRC32C();
+            crc.update(record.array(), HEADER_SIZE, payloadSize);
+            record.putInt(4, (int) crc.getValue());
+            active.put(record.array());
+            unsynced.add(new Pending(new Order(id, now, paymentReference, totalCents, new ArrayList<>(lines)), result));
+            if (unsynced.size() == 1) {
+                lock.notify();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Gets the id of the last appended order.
+     * @return The id, or 0 if the log is empty
+     */
+    public long getLastOrderId() {
+        synchronized (lock) {
+            return nextId - 1;
+        }
+    }
+
+    /**
+     * Reads the durable orders in id order, e.g. to rebuild state on startup.
+     * @param fromId The first order id to pass on
+     * @param consumer Receives each order
+     */
+    public void replay(long fromId, Consumer<Order> consumer) throws IOException {
+        List<Path> files = new ArrayList<>();
+        ByteBuffer activeView;
+        synchronized (lock) {
+            Long first = sealed.floorKey(fromId);
+            files.addAll((first == null ? sealed : sealed.tailMap(first, true)).values());
+            activeView = active.duplicate();
+            activeView.position(0).limit(syncedPosition);
+        }
+        for (Path file : files) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                readRecords(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), fromId, consumer);
+            }
+        }
+        readRecords(activeView, fromId, consumer);
+    }
+
+    /**
+     * Deletes sealed segments that only hold orders up to the given id, e.g. orders
+     * already copied to the database. The active segment is never deleted.
+     * @param upToOrderId The last order id that is no longer needed
+     * @return The number of segments deleted
+     */
+    public int compact(long upToOrderId) throws IOException {
+        List<Path> obsolete = new ArrayList<>();
+        synchronized (lock) {
+            while (!sealed.isEmpty()) {
+                Long next = sealed.higherKey(sealed.firstKey());
+                long nextBase = next != null ? next : activeBaseId;
+                if (nextBase - 1 > upToOrderId) {
+                    break;
+                }
+                obsolete.add(sealed.pollFirstEntry().getValue());
+            }
+        }
+        for (Path file : obsolete) {
+            Files.deleteIfExists(file);
+        }
+        return obsolete.size();
+    }
+
+    /**
+     * Waits for pending appends to be synced and closes the active segment.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (lock) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            lock.notify();
+        }
+        try {
+            syncThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (lock) {
+            active.force();
+            activeChannel.close();
+        }
+    }
+
+    private void syncLoop() {
+        while (true) {
+            List<Pending> batch;
+            MappedByteBuffer buffer;
+            int from;
+            int to;
+            synchronized (lock) {
+                while (unsynced.isEmpty() && !closed) {
+                    try {
+                        lock.wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                if (unsynced.isEmpty()) {
+                    return;
+                }
+                batch = new ArrayList<>(unsynced);
+                unsynced.clear();
+                buffer = active;
+                from = syncedPosition;
+                to = active.position();
+            }
+            try {
+                // one flush covers every record appended since the last one
+                buffer.force(from, to - from);
+            } catch (UncheckedIOException e) {
+                for (Pending pending : batch) {
+                    pending.result.completeExceptionally(e.getCause());
+                }
+                continue;
+            }
+            synchronized (lock) {
+                if (buffer == active) {
+                    syncedPosition = Math.max(syncedPosition, to);
+                }
+            }
+            for (Pending pending : batch) {
+                pending.result.complete(pending.order);
+            }
+            for (Pending pending : batch) {
+                for (Consumer<Order> listener : listeners) {
+                    try {
+                        listener.accept(pending.order);
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                }
+            }
+        }
+    }
+
+    // called with the lock held
+    private void roll() throws IOException {
+        // the sealed segment is forced here, so appends still waiting for a sync are durable
+        active.force();
+        activeChannel.close();
+        sealed.put(activeBaseId, segmentPath(activeBaseId));
+        openActive(nextId);
+    }
+
+    private void openActive(long baseId) throws IOException {
+        Path file = segmentPath(baseId);
+        activeChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        active = activeChannel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(segmentSize, activeChannel.size()));
+        activeBaseId = baseId;
+        long[] lastId = {baseId - 1};
+        boolean clean = readRecords(active, 0, order -> lastId[0] = order.getId());
+        if (!clean) {
+            // a torn record was found; clear it so its bytes cannot be mistaken for later records
+            for (int i = active.position(); i < active.limit(); i++) {
+                active.put(i, (byte) 0);
+            }
+        }
+        active.limit(active.capacity());
+        syncedPosition = active.position();
+        nextId = lastId[0] + 1;
+    }
+
+    /**
+     * Decodes records from the buffer's position up to the end marker, leaving the
+     * position after the last valid record.
+     * @return false if decoding stopped at a corrupt record rather than at the end
+     */
+    private static boolean readRecords(ByteBuffer buffer, long fromId, Consumer<Order> consumer) {
+        CRC32C crc = new CRC32C();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length == 0) {
+                return true;
+            }
+            if (length < 0 || length > buffer.remaining() - HEADER_SIZE) {
+                return false;
+            }
+            ByteBuffer payload = buffer.duplicate();
+            payload.position(start + HEADER_SIZE).limit(start + HEADER_SIZE + length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                return false;
+            }
+            Order order = decode(payload);
+            if (order.getId() >= fromId) {
+                consumer.accept(order);
+            }
+            buffer.position(start + HEADER_SIZE + length);
+        }
+        return true;
+    }
+
+    private static Order decode(ByteBuffer payload) {
+        long id = payload.getLong();
+        long created = payload.getLong();
+        long totalCents = payload.getLong();
+        String reference = readString(payload);
+        int count = payload.getInt();
+        List<Order.Line> lines = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int productId = payload.getInt();
+            String name = readString(payload);
+            lines.add(new Order.Line(productId, name, payload.getInt(), payload.getLong(), payload.getLong()));
+        }
+        return new Order(id, created, reference, totalCents, lines);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Text is too long for the order log");
+        }
+        return bytes;
+    }
+
+    private Path segmentPath(long baseId) {
+        return directory.resolve(String.format("%020d%s", baseId, SEGMENT_SUFFIX));
+    }
+
+    private static class Pending {
+        final Order order;
+        final CompletableFuture<Order> result;
+
+        Pending(Order order, CompletableFuture<Order> result) {
+            this.order = order;
+            this.result = result;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Copies orders from the {@link OrderLog} into the SQLite {@code orders} and
+ * {@code order_lines} tables in the background. Durable orders are queued as the
+ * log syncs them and written in batches, one transaction per batch. On start,
+ * orders the tables are missing (e.g. after a crash) are replayed from the log.
+ * Log segments whose orders are all in the tables are deleted by
+ * {@link OrderLog#compact(long)} after a write, at most every
+ * {@code -Decommerce.orders.compactMillis} (one minute by default), and on close.
+ */
+public class OrderProjection implements AutoCloseable {
+    private static final int MAX_BATCH_SIZE = 1000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long COMPACT_INTERVAL_MS = Long.getLong("ecommerce.orders.compactMillis", 60_000);
+    private static final Counter SEGMENTS_COMPACTED = Metrics.counter("order_log_segments_compacted_total",
+            "Order log segments deleted once their orders were projected");
+
+    private final OrderLog log;
+    private final LinkedBlockingQueue<Order> queue = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private List<Order> heldBack = new ArrayList<>();
+    private long lastQueuedId;
+    private volatile long projectedId;
+    private volatile boolean closed;
+    private long nextCompaction;
+
+    private OrderProjection(OrderLog log, long projectedId) {
+        this.log = log;
+        this.projectedId = projectedId;
+        this.lastQueuedId = projectedId;
+        this.writer = new Thread(this::writeLoop, "order-projection");
+        writer.setDaemon(true);
+    }
+
+    /**
+     * Catches the tables up with the log and keeps them in sync with new orders.
+     * @param log The order log
+     * @return The running projection
+     */
+    public static OrderProjection start(OrderLog log) throws IOException, SQLException {
+        OrderProjection projection = new OrderProjection(log, DatabaseHelper.getLastOrderId());
+        // listen before replaying so no order falls in between; orders seen twice are skipped by id
+        log.addListener(projection::onOrder);
+        log.replay(projection.lastQueuedId + 1, projection::enqueue);
+        projection.catchUp();
+        projection.writer.start();
+        return projection;
+    }
+
+    /**
+     * Gets the id of the last order written to the tables. The log is
+     * compacted up to this id.
+     */
+    public long getProjectedOrderId() {
+        return projectedId;
+    }
+
+    /**
+     * Writes the orders still queued, compacts the log and stops.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized void onOrder(Order order) {
+        if (heldBack != null) {
+            heldBack.add(order);
+        } else {
+            enqueue(order);
+        }
+    }
+
+    private synchronized void enqueue(Order order) {
+        if (order.getId() > lastQueuedId) {
+            lastQueuedId = order.getId();
+            queue.add(order);
+        }
+    }
+
+    private synchronized void catchUp() {
+        for (Order order : heldBack) {
+            enqueue(order);
+        }
+        heldBack = null;
+    }
+
+    private void writeLoop() {
+        List<Order> batch = new ArrayList<>();
+        while (!closed || !queue.isEmpty()) {
+            try {
+                if (batch.isEmpty()) {
+                    Order first = queue.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH_SIZE - 1);
+                }
+                DatabaseHelper.addOrders(batch);
+                projectedId = batch.get(batch.size() - 1).getId();
+                batch.clear();
+                if (System.currentTimeMillis() >= nextCompaction) {
+                    compact();
+                }
+            } catch (SQLException e) {
+                // keep the batch and retry; the log still holds every order
+                e.printStackTrace();
+                if (closed) {
+                    return;
+                }
+                sleepQuietly();
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+        compact();
+    }
+
+    // the tables hold every order up to projectedId, so the log no longer needs them
+    private void compact() {
+        nextCompaction = System.currentTimeMillis() + COMPACT_INTERVAL_MS;
+        try {
+            SEGMENTS_COMPACTED.add(log.compact(projectedId));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    private static void sleepQuietly() {
+        try {
+            Thread.sleep(RETRY_DELAY_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Outcome of an asynchronous payment.
+ */
+public class PaymentResult {
+    /**
+     * The error of a payment the gateway declined; declines are final and not retried.
+     */
+    public static final String DECLINED = "Payment declined";
+
+    private final String idempotencyKey;
+    private final boolean successful;
+    private final int attempts;
+    private final String error;
+
+    public PaymentResult(String idempotencyKey, boolean successful, int attempts, String error) {
+        this.idempotencyKey = idempotencyKey;
+        this.successful = successful;
+        this.attempts = attempts;
+        this.error = error;
+    }
+
+    /**
+     * Gets the key the payment was submitted under; it also serves as the payment reference.
+     * @return The idempotency key
+     */
+    public String getIdempotencyKey() {
+        return idempotencyKey;
+    }
+
+    public boolean isSuccessful() {
+        return successful;
+    }
+
+    /**
+     * Tells whether the gateway declined the payment, as opposed to failing to process it.
+     */
+    public boolean isDeclined() {
+        return !successful && DECLINED.equals(error);
+    }
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * Gets the reason of a failed payment.
+     * @return The error message, or null if the payment succeeded
+     */
+    public String getError() {
+        return error;
+    }
+}
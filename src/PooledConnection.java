@@ -0,0 +1,60 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A connection borrowed from a {@link ConnectionPool}, valid for one borrow.
+ * Prepared statements are cached per connection keyed by their SQL, so the
+ * same query is parsed only once. Closing this object returns the connection
+ * to the pool; cached statements stay open until the connection is discarded.
+ * Every borrow gets a new handle, so closing a handle again, or using it,
+ * after the connection went back to the pool cannot touch the connection of
+ * its next borrower.
+ */
+public class PooledConnection implements AutoCloseable {
+    private final ConnectionPool pool;
+    private final ConnectionPool.Entry entry;
+    private final AtomicBoolean closed = new AtomicBoolean();
+
+    PooledConnection(ConnectionPool pool, ConnectionPool.Entry entry) {
+        this.pool = pool;
+        this.entry = entry;
+    }
+
+    /**
+     * Gets the underlying JDBC connection.
+     * @return The raw connection; it must not be closed by the caller
+     * @throws IllegalStateException if this handle was already returned to the pool
+     */
+    public Connection getConnection() {
+        if (closed.get()) {
+            throw new IllegalStateException("Connection was returned to the pool");
+        }
+        return entry.connection;
+    }
+
+    /**
+     * Gets a cached prepared statement for the given SQL, preparing it on first use.
+     * The statement must not be closed by the caller; result sets must be.
+     * @param sql The SQL to prepare
+     * @return A prepared statement with cleared parameters
+     * @throws SQLException if the statement cannot be prepared or this handle was already returned
+     */
+    public PreparedStatement prepare(String sql) throws SQLException {
+        if (closed.get()) {
+            throw new SQLException("Connection was returned to the pool");
+        }
+        return entry.prepare(sql);
+    }
+
+    /**
+     * Returns this connection to its pool. Closing it again does nothing.
+     */
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            pool.release(entry);
+        }
+    }
+}
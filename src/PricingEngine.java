@@ -0,0 +1,212 @@
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Prices products from a list of declarative {@link PricingRule}s.
+ * Matching rules are applied in the order they were added. Results are kept
+ * in a flat per-SKU price table, so a lookup is a single map access; the table
+ * is discarded when a rule is added or removed, or when a rule's time window
+ * opens or closes.
+ *
+ * A product's own discount, as stored with it, is applied as a percent-off
+ * rule for that product before the other rules. Replaces stacking
+ * {@link DiscountedProduct} decorators, whose price is recomputed through the
+ * whole chain on every call.
+ *
+ * Design Pattern:
+ * - Singleton: Provides the shop's engine, which prices the desktop cart and every CartService cart
+ */
+public class PricingEngine {
+    private final List<PricingRule> rules = new CopyOnWriteArrayList<>();
+    private volatile long rulesVersion;
+    private volatile PriceTable table;
+
+    private static class Holder {
+        static final PricingEngine INSTANCE = new PricingEngine();
+    }
+
+    /**
+     * Gets the shop's engine, whose rules apply to every cart.
+     * @return The shared engine
+     */
+    public static PricingEngine getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    public synchronized void addRule(PricingRule rule) {
+        rules.add(rule);
+        rulesVersion++;
+    }
+
+    public synchronized void removeRule(PricingRule rule) {
+        if (rules.remove(rule)) {
+            rulesVersion++;
+        }
+    }
+
+    public List<PricingRule> getRules() {
+        return Collections.unmodifiableList(rules);
+    }
+
+    /**
+     * Gets the current price of a product.
+     * @param product The product
+     * @return The unit price and any quantity offer for the product
+     */
+    public Quote quote(Product product) {
+        PriceTable current = currentTable();
+        Product plain = ProductFactory.undecorated(product);
+        long baseCents = Math.round(plain.getListPrice() * 100);
+        double discount = plain == product ? product.getDiscountPercentage() : ProductFactory.discountOf(product);
+        Quote quote = current.quotes.get(product.getId());
+        // a product edited since it was quoted is compiled again
+        if (quote == null || quote.baseCents != baseCents || quote.discount != discount) {
+            quote = current.compile(product, baseCents, discount);
+            current.quotes.put(product.getId(), quote);
+        }
+        return quote;
+    }
+
+    public long unitPriceCents(Product product) {
+        return quote(product).getUnitPriceCents();
+    }
+
+    public long lineTotalCents(Product product, int quantity) {
+        return quote(product).lineTotalCents(quantity);
+    }
+
+    /**
+     * Prices a whole cart in a single pass over its lines at the current rules.
+     * @param lines The cart lines
+     * @return The cart total in cents
+     */
+    public long totalCents(Collection<CartLine> lines) {
+        long total = 0;
+        for (CartLine line : lines) {
+            total += quote(line.getProduct()).lineTotalCents(line.getQuantity());
+        }
+        return total;
+    }
+
+    private PriceTable currentTable() {
+        PriceTable current = table;
+        long version = rulesVersion;
+        // only read the clock when a time window can expire the table
+        if (current == null || current.version != version || (current.validUntil != Long.MAX_VALUE
+                && System.currentTimeMillis() >= current.validUntil)) {
+            current = new PriceTable(version, new ArrayList<>(rules), System.currentTimeMillis());
+            table = current;
+        }
+        return current;
+    }
+
+    static String categoryOf(Product product) {
+        String category = ProductFactory.categoryOf(product);
+        // rules name a specific category; general products match only rules for any category
+        return ProductFactory.GENERAL.equals(category) ? null : category;
+    }
+
+    /**
+     * The price of one product under the rules in force when it was quoted.
+     */
+    public static class Quote {
+        private final long baseCents;
+        private final double discount;
+        private final long unitCents;
+        private final int buy;
+        private final int free;
+
+        Quote(long baseCents, double discount, long unitCents, int buy, int free) {
+            this.baseCents = baseCents;
+            this.discount = discount;
+            this.unitCents = unitCents;
+            this.buy = buy;
+            this.free = free;
+        }
+
+        /**
+         * Creates a quote without promotions.
+         * @param product The product
+         * @return The product's own price, after its own discount
+         */
+        public static Quote listPrice(Product product) {
+            long cents = Math.round(product.getPrice() * 100);
+            return new Quote(cents, 0, cents, 0, 0);
+        }
+
+        public long getUnitPriceCents() {
+            return unitCents;
+        }
+
+        /**
+         * Prices a number of units, giving away the free units of any buy-X-get-Y offer.
+         * @param quantity The number of units
+         * @return The line total in cents
+         */
+        public long lineTotalCents(int quantity) {
+            long paidUnits = quantity;
+            if (buy > 0) {
+                paidUnits -= (long) (quantity / (buy + free)) * free;
+            }
+            return unitCents * paidUnits;
+        }
+    }
+
+    /**
+     * Rules active at compile time and the quotes computed from them so far.
+     */
+    private static class PriceTable {
+        final List<PricingRule> active = new ArrayList<>();
+        final ConcurrentHashMap<Integer, Quote> quotes = new ConcurrentHashMap<>();
+        final long version;
+        final long validUntil;
+
+        PriceTable(long version, List<PricingRule> rules, long now) {
+            this.version = version;
+            long until = Long.MAX_VALUE;
+            for (PricingRule rule : rules) {
+                if (rule.isActiveAt(now)) {
+                    active.add(rule);
+                }
+                // the table must be rebuilt at the next window boundary
+                if (rule.getStartMillis() > now) {
+                    until = Math.min(until, rule.getStartMillis());
+                } else if (rule.getEndMillis() > now) {
+                    until = Math.min(until, rule.getEndMillis());
+                }
+            }
+            this.validUntil = until;
+        }
+
+        Quote compile(Product product, long baseCents, double discount) {
+            String category = categoryOf(product);
+            long unitCents = baseCents;
+            if (discount > 0) {
+                unitCents = PricingRule.percentOff(product.getId(), null, discount).applyTo(unitCents);
+            }
+            int buy = 0;
+            int free = 0;
+            for (PricingRule rule : active) {
+                if (rule.getProductId() != 0 && rule.getProductId() != product.getId()) {
+                    continue;
+                }
+                if (rule.getCategory() != null && !rule.getCategory().equals(category)) {
+                    continue;
+                }
+                if (rule instanceof PricingRule.BuyXGetY) {
+                    if (buy == 0) {
+                        buy = ((PricingRule.BuyXGetY) rule).buy;
+                        free = ((PricingRule.BuyXGetY) rule).free;
+                    }
+                } else {
+                    unitCents = rule.applyTo(unitCents);
+                }
+            }
+            return new Quote(baseCents, discount, unitCents, buy, free);
+        }
+    }
+}
@@ -0,0 +1,165 @@
+/**
+ * A declarative promotion evaluated by the {@link PricingEngine}.
+ * A rule targets a single product, a whole category ("electronics" or
+ * "clothing", as used by {@link ProductFactory}) or every product, and can be
+ * limited to a time window. Rules are immutable; create them with the static
+ * factory methods.
+ *
+ * Design Pattern:
+ * - Factory: Static factory methods create each kind of rule
+ */
+public abstract class PricingRule {
+    public static final long ALWAYS = 0;
+
+    private final int productId;
+    private final String category;
+    private final long startMillis;
+    private final long endMillis;
+
+    private PricingRule(int productId, String category, long startMillis, long endMillis) {
+        this.productId = productId;
+        this.category = category == null ? null : category.toLowerCase();
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+    }
+
+    /**
+     * Creates a percentage discount.
+     * @param productId The targeted product, or 0 for any product
+     * @param category The targeted category, or null for any category
+     * @param percent The discount, e.g. 15 for 15% off
+     */
+    public static PricingRule percentOff(int productId, String category, double percent) {
+        return percentOff(productId, category, percent, ALWAYS, ALWAYS);
+    }
+
+    /**
+     * Creates a percentage discount active between two instants.
+     * @param startMillis Start of the window in epoch millis, or {@link #ALWAYS}
+     * @param endMillis End of the window (exclusive) in epoch millis, or {@link #ALWAYS}
+     */
+    public static PricingRule percentOff(int productId, String category, double percent,
+                                         long startMillis, long endMillis) {
+        if (percent < 0 || percent > 100) {
+            throw new IllegalArgumentException("Percentage must be between 0 and 100");
+        }
+        return new PercentOff(productId, category, percent, startMillis, endMillis);
+    }
+
+    /**
+     * Creates a fixed amount off the unit price.
+     * @param amountCents The amount taken off each unit, in cents
+     */
+    public static PricingRule fixedOff(int productId, String category, long amountCents) {
+        return fixedOff(productId, category, amountCents, ALWAYS, ALWAYS);
+    }
+
+    public static PricingRule fixedOff(int productId, String category, long amountCents,
+                                       long startMillis, long endMillis) {
+        if (amountCents < 0) {
+            throw new IllegalArgumentException("Amount must not be negative");
+        }
+        return new FixedOff(productId, category, amountCents, startMillis, endMillis);
+    }
+
+    /**
+     * Creates a "buy X get Y free" offer: of every X + Y units of a line, Y are free.
+     * @param buy Units paid for in each group
+     * @param free Units given away in each group
+     */
+    public static PricingRule buyXGetY(int productId, String category, int buy, int free) {
+        return buyXGetY(productId, category, buy, free, ALWAYS, ALWAYS);
+    }
+
+    public static PricingRule buyXGetY(int productId, String category, int buy, int free,
+                                       long startMillis, long endMillis) {
+        if (buy < 1 || free < 1) {
+            throw new IllegalArgumentException("Buy and free quantities must be positive");
+        }
+        return new BuyXGetY(productId, category, buy, free, startMillis, endMillis);
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public String getCategory() {
+        return category;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getEndMillis() {
+        return endMillis;
+    }
+
+    boolean isActiveAt(long nowMillis) {
+        return (startMillis == ALWAYS || nowMillis >= startMillis)
+                && (endMillis == ALWAYS || nowMillis < endMillis);
+    }
+
+    /**
+     * Applies this rule to a unit price.
+     * @param unitCents The unit price so far
+     * @return The new unit price
+     */
+    long applyTo(long unitCents) {
+        return unitCents;
+    }
+
+    private static class PercentOff extends PricingRule {
+        private final double percent;
+
+        PercentOff(int productId, String category, double percent, long startMillis, long endMillis) {
+            super(productId, category, startMillis, endMillis);
+            this.percent = percent;
+        }
+
+        @Override
+        long applyTo(long unitCents) {
+            return Math.round(unitCents * (1 - percent / 100.0));
+        }
+
+        @Override
+        public String toString() {
+            return percent + "% off";
+        }
+    }
+
+    private static class FixedOff extends PricingRule {
+        private final long amountCents;
+
+        FixedOff(int productId, String category, long amountCents, long startMillis, long endMillis) {
+            super(productId, category, startMillis, endMillis);
+            this.amountCents = amountCents;
+        }
+
+        @Override
+        long applyTo(long unitCents) {
+            return Math.max(0, unitCents - amountCents);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("$%.2f off", amountCents / 100.0);
+        }
+    }
+
+    static class BuyXGetY extends PricingRule {
+        final int buy;
+        final int free;
+
+        BuyXGetY(int productId, String category, int buy, int free, long startMillis, long endMillis) {
+            super(productId, category, startMillis, endMillis);
+            this.buy = buy;
+            this.free = free;
+        }
+
+        @Override
+        public String toString() {
+            return "Buy " + buy + " get " + free + " free";
+        }
+    }
+}
@@ -4,6 +4,7 @@ public class Product {
     private double price;
     private String description;
     private int stockQuantity;
+    private double discountPercentage;
 
     public Product(String name, double price, String description, int stockQuantity) {
         this.name = name;
@@ -24,10 +25,39 @@ public class Product {
         return name;
     }
 
+    /**
+     * Gets the price after the product's own discount, as shown in the catalog.
+     * Promotions are applied on top of it by a {@link PricingEngine}.
+     * @return The price
+     */
     public double getPrice() {
+        return discountPercentage == 0 ? price : price * (1 - discountPercentage / 100.0);
+    }
+
+    /**
+     * Gets the price before the product's own discount.
+     * @return The list price
+     */
+    public double getListPrice() {
         return price;
     }
 
+    /**
+     * Gets the discount stored with the product, which a {@link PricingEngine}
+     * applies as a percent-off rule for the product before its other rules.
+     * @return The percentage off, 0 if none
+     */
+    public double getDiscountPercentage() {
+        return discountPercentage;
+    }
+
+    public void setDiscountPercentage(double discountPercentage) {
+        if (!(discountPercentage >= 0 && discountPercentage < 100)) {
+            throw new IllegalArgumentException("Discount must be at least 0% and below 100%");
+        }
+        this.discountPercentage = discountPercentage;
+    }
+
     public String getDescription() {
         return description;
     }
@@ -42,6 +72,6 @@ public class Product {
 
     @Override
     public String toString() {
-        return name + " - $" + String.format("%.2f", price);
+        return name + " - $" + String.format("%.2f", getPrice());
     }
 }
@@ -0,0 +1,195 @@
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded read-through cache of products keyed by id.
+ * Entries are evicted in least-recently-used order once the cache is full and
+ * optionally expire after a fixed time to live. Concurrent misses on the same
+ * id share a single load, so a hot product is read from the database once.
+ *
+ * Cached products are shared instances; callers must not mutate them.
+ */
+public class ProductCache {
+    /**
+     * Loads a product that is not in the cache.
+     */
+    public interface Loader {
+        Product load(int id) throws Exception;
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Integer, Entry> entries;
+    private final ConcurrentHashMap<Integer, CompletableFuture<Product>> loading = new ConcurrentHashMap<>();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Creates a cache.
+     * @param maxSize Maximum number of cached products
+     * @param ttlMillis Time to live of an entry in milliseconds, or 0 for no expiry
+     */
+    public ProductCache(int maxSize, long ttlMillis) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be at least 1");
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttlMillis * 1_000_000L;
+        this.entries = new LinkedHashMap<Integer, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Entry> eldest) {
+                if (size() > ProductCache.this.maxSize) {
+                    evictions.increment();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Gets a product, loading it on a miss. Products that do not exist are not cached.
+     * @param id The product id
+     * @param loader Loads the product on a miss
+     * @return The product, or null if the loader found none
+     * @throws Exception if the load failed
+     */
+    public Product get(int id, Loader loader) throws Exception {
+        Product cached = getIfPresent(id);
+        if (cached != null) {
+            return cached;
+        }
+        misses.increment();
+        CompletableFuture<Product> future = new CompletableFuture<>();
+        CompletableFuture<Product> inFlight = loading.putIfAbsent(id, future);
+        if (inFlight != null) {
+            return await(inFlight);
+        }
+        try {
+            Product product = loader.load(id);
+            if (product != null) {
+                put(product);
+            }
+            future.complete(product);
+            return product;
+        } catch (Exception e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(id, future);
+        }
+    }
+
+    /**
+     * Gets a cached product without loading it.
+     * @param id The product id
+     * @return The cached product, or null on a miss
+     */
+    public Product getIfPresent(int id) {
+        synchronized (entries) {
+            Entry entry = entries.get(id);
+            if (entry != null) {
+                if (ttlNanos == 0 || System.nanoTime() - entry.loadedAt < ttlNanos) {
+                    hits.increment();
+                    return entry.product;
+                }
+                entries.remove(id);
+                evictions.increment();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Stores or replaces a product, e.g. after it was written to the database.
+     * @param product The product to cache
+     */
+    public void put(Product product) {
+        synchronized (entries) {
+            entries.put(product.getId(), new Entry(product, System.nanoTime()));
+        }
+    }
+
+    /**
+     * Removes a product so the next read goes to the database.
+     * A load already in flight for the id is not cached.
+     * @param id The product id
+     */
+    public void invalidate(int id) {
+        CompletableFuture<Product> inFlight = loading.remove(id);
+        synchronized (entries) {
+            entries.remove(id);
+        }
+        if (inFlight != null) {
+            // the in-flight load may have read the old row; drop whatever it cached
+            inFlight.whenComplete((product, error) -> {
+                synchronized (entries) {
+                    Entry entry = entries.get(id);
+                    if (entry != null && entry.product == product) {
+                        entries.remove(id);
+                    }
+                }
+            });
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("ProductCache[size=%d, hits=%d, misses=%d, evictions=%d]",
+                size(), getHitCount(), getMissCount(), getEvictionCount());
+    }
+
+    private static Product await(CompletableFuture<Product> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    private static class Entry {
+        final Product product;
+        final long loadedAt;
+
+        Entry(Product product, long loadedAt) {
+            this.product = product;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
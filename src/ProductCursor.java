@@ -0,0 +1,73 @@
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Forward-only iterator over a products query.
+ * Products are built one row at a time as the cursor advances, so only the
+ * current fetch window is held in memory. Closing the cursor closes the result
+ * set and returns the connection to the pool.
+ */
+public class ProductCursor implements Iterator<Product>, AutoCloseable {
+    private final PooledConnection connection;
+    private final ResultSet resultSet;
+    private final boolean withDescription;
+    private Product next;
+    private boolean closed;
+
+    ProductCursor(PooledConnection connection, ResultSet resultSet, boolean withDescription) {
+        this.connection = connection;
+        this.resultSet = resultSet;
+        this.withDescription = withDescription;
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (closed) {
+            return false;
+        }
+        try {
+            if (resultSet.next()) {
+                next = DatabaseHelper.mapProduct(resultSet, withDescription);
+                return true;
+            }
+        } catch (SQLException e) {
+            close();
+            throw new IllegalStateException("Failed to read the next product", e);
+        }
+        close();
+        return false;
+    }
+
+    @Override
+    public Product next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        Product product = next;
+        next = null;
+        return product;
+    }
+
+    /**
+     * Releases the result set and the pooled connection. Safe to call more than once.
+     */
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            e.printStackTrace();
+        } finally {
+            connection.close();
+        }
+    }
+}
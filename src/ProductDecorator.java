@@ -11,6 +11,11 @@ public abstract class ProductDecorator extends Product {
         return decoratedProduct.getPrice();
     }
 
+    @Override
+    public double getListPrice() {
+        return decoratedProduct.getListPrice();
+    }
+
     @Override
     public String getDescription() {
         return decoratedProduct.getDescription();
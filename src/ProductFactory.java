@@ -1,18 +1,12 @@
 import java.sql.SQLException;
 
 public class ProductFactory {
+    public static final String ELECTRONICS = "electronics";
+    public static final String CLOTHING = "clothing";
+    public static final String GENERAL = "general";
+
     public static Product createProduct(String type, String name, double price, String description, int stockQuantity) {
-        Product product;
-        switch (type.toLowerCase()) {
-            case "electronics":
-                product = new Electronics(name, price, description, stockQuantity);
-                break;
-            case "clothing":
-                product = new Clothing(name, price, description, stockQuantity);
-                break;
-            default:
-                product = new Product(name, price, description, stockQuantity);
-        }
+        Product product = newProduct(type, name, price, description, stockQuantity);
         try {
             DatabaseHelper.addProduct(product);
         } catch (SQLException e) {
@@ -21,8 +15,30 @@ public class ProductFactory {
         return product;
     }
 
+    public static Product newProduct(String type, String name, double price, String description, int stockQuantity) {
+        switch (type.toLowerCase()) {
+            case ELECTRONICS:
+                return new Electronics(name, price, description, stockQuantity);
+            case CLOTHING:
+                return new Clothing(name, price, description, stockQuantity);
+            default:
+                return new Product(name, price, description, stockQuantity);
+        }
+    }
+
+    /**
+     * Stores a copy of a product with a further discount. The discount is kept
+     * with the product and applied by the {@link PricingEngine}.
+     */
     public static Product createDiscountedProduct(Product product, double discountPercentage) {
-        Product discountedProduct = new DiscountedProduct(product, discountPercentage);
+        if (!(discountPercentage >= 0 && discountPercentage < 100)) {
+            throw new IllegalArgumentException("Discount must be at least 0% and below 100%");
+        }
+        Product plain = undecorated(product);
+        Product discountedProduct = newProduct(categoryOf(product), product.getName(), plain.getListPrice(),
+                plain.getDescription(), product.getStockQuantity());
+        double remaining = (1 - discountOf(product) / 100.0) * (1 - discountPercentage / 100.0);
+        discountedProduct.setDiscountPercentage(Math.round((1 - remaining) * 100 * 1e6) / 1e6);
         try {
             DatabaseHelper.addProduct(discountedProduct);
         } catch (SQLException e) {
@@ -30,4 +46,50 @@ public class ProductFactory {
         }
         return discountedProduct;
     }
+
+    /**
+     * Gets the category a product was created for, looking through decorators.
+     * @return "electronics", "clothing" or "general"
+     */
+    public static String categoryOf(Product product) {
+        product = undecorated(product);
+        if (product instanceof Electronics) {
+            return ELECTRONICS;
+        }
+        if (product instanceof Clothing) {
+            return CLOTHING;
+        }
+        return GENERAL;
+    }
+
+    /**
+     * Gets the combined percentage off of a product's own discount and any
+     * discount decorators around it.
+     * @return The percentage, 0 if the product is not discounted
+     */
+    public static double discountOf(Product product) {
+        if (!(product instanceof ProductDecorator)) {
+            return product.getDiscountPercentage();
+        }
+        double remaining = 1;
+        while (product instanceof ProductDecorator) {
+            if (product instanceof DiscountedProduct) {
+                remaining *= 1 - ((DiscountedProduct) product).getDiscountPercentage() / 100.0;
+            }
+            product = ((ProductDecorator) product).decoratedProduct;
+        }
+        remaining *= 1 - product.getDiscountPercentage() / 100.0;
+        // rounded, so that e.g. 10% and 5% off read back as 14.5% rather than 14.500000000000002%
+        return Math.round((1 - remaining) * 100 * 1e6) / 1e6;
+    }
+
+    /**
+     * Gets the product inside any decorators.
+     */
+    public static Product undecorated(Product product) {
+        while (product instanceof ProductDecorator) {
+            product = ((ProductDecorator) product).decoratedProduct;
+        }
+        return product;
+    }
 }
@@ -0,0 +1,221 @@
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Filter, sort order and page size of a catalog query, run in SQL by
+ * {@link DatabaseHelper#findProducts(ProductQuery, boolean)}.
+ *
+ * Every combination is answered from an index: the primary key, or one of the
+ * indexes on (category, price), (category, name), price and name. Filters on
+ * category, price and name narrow the index search. Where the index also has
+ * the sort order the query stops after {@code limit} rows; otherwise only the
+ * rows found are sorted, never the whole table. Stock is checked on the rows
+ * found and has no index of its own.
+ *
+ * Pages are continued with {@link #after(Product)}, which resumes after the
+ * last product of the previous page by its sort key and id, never by offset.
+ *
+ * Design Pattern:
+ * - Builder: Each setter returns the query, so conditions can be chained
+ */
+public class ProductQuery {
+    /**
+     * Orders results by a column. Ties are broken by id.
+     */
+    public enum Sort {
+        ID("id"),
+        PRICE("price"),
+        NAME("name");
+
+        private final String column;
+
+        Sort(String column) {
+            this.column = column;
+        }
+    }
+
+    private String category;
+    private Double minPrice;
+    private Double maxPrice;
+    private String namePrefix;
+    private boolean inStockOnly;
+    private Sort sort = Sort.ID;
+    private boolean descending;
+    private int limit = 50;
+    private Product after;
+    private Integer afterId;
+
+    /**
+     * Only matches products of a category.
+     * @param category "electronics", "clothing" or "general"
+     */
+    public ProductQuery category(String category) {
+        this.category = category == null ? null : category.toLowerCase();
+        return this;
+    }
+
+    /**
+     * Only matches products priced between two amounts, inclusive.
+     * @param min The lowest price, or null for no lower bound
+     * @param max The highest price, or null for no upper bound
+     */
+    public ProductQuery priceBetween(Double min, Double max) {
+        this.minPrice = min;
+        this.maxPrice = max;
+        return this;
+    }
+
+    /**
+     * Only matches products whose name starts with a prefix, case-sensitively.
+     */
+    public ProductQuery nameStartsWith(String prefix) {
+        this.namePrefix = prefix == null || prefix.isEmpty() ? null : prefix;
+        return this;
+    }
+
+    /**
+     * Only matches products with stock left.
+     */
+    public ProductQuery inStock() {
+        this.inStockOnly = true;
+        return this;
+    }
+
+    public ProductQuery orderBy(Sort sort, boolean descending) {
+        if (sort == null) {
+            throw new IllegalArgumentException("Sort must not be null");
+        }
+        this.sort = sort;
+        this.descending = descending;
+        return this;
+    }
+
+    /**
+     * @param limit The maximum number of products returned
+     */
+    public ProductQuery limit(int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive");
+        }
+        this.limit = limit;
+        return this;
+    }
+
+    /**
+     * Continues from the last product of the previous page.
+     * @param last The last product returned, or null for the first page
+     */
+    public ProductQuery after(Product last) {
+        this.after = last;
+        this.afterId = null;
+        return this;
+    }
+
+    /**
+     * Continues a page sorted by id after a product id. The product need not
+     * exist, e.g. if it was deleted since the previous page.
+     */
+    public ProductQuery afterId(int id) {
+        this.afterId = id;
+        this.after = null;
+        return this;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Builds the SELECT statement; the values go in through {@link #bind}.
+     * @param columns The columns to select
+     */
+    String toSql(String columns) {
+        List<String> conditions = new ArrayList<>();
+        if (category != null) {
+            conditions.add("category = ?");
+        }
+        if (minPrice != null) {
+            conditions.add("price >= ?");
+        }
+        if (maxPrice != null) {
+            conditions.add("price <= ?");
+        }
+        if (namePrefix != null) {
+            // a range instead of LIKE, which SQLite can only search with an index on a literal pattern
+            conditions.add(upperBound(namePrefix) == null ? "name >= ?" : "name >= ? AND name < ?");
+        }
+        if (inStockOnly) {
+            conditions.add("stockQuantity > 0");
+        }
+        String direction = descending ? " DESC" : "";
+        if (afterId != null && sort != Sort.ID) {
+            throw new IllegalStateException("afterId only continues pages sorted by id");
+        }
+        if (after != null || afterId != null) {
+            String operator = descending ? " < " : " > ";
+            // a row value comparison matches the index order (column, id), so the index search starts there
+            conditions.add(sort == Sort.ID ? "id" + operator + "?"
+                    : "(" + sort.column + ", id)" + operator + "(?, ?)");
+        }
+        StringBuilder sql = new StringBuilder("SELECT ").append(columns).append(" FROM products");
+        for (int i = 0; i < conditions.size(); i++) {
+            sql.append(i == 0 ? " WHERE " : " AND ").append(conditions.get(i));
+        }
+        sql.append(" ORDER BY ");
+        if (sort != Sort.ID) {
+            sql.append(sort.column).append(direction).append(", ");
+        }
+        return sql.append("id").append(direction).append(" LIMIT ?").toString();
+    }
+
+    /**
+     * Binds the values of the statement built by {@link #toSql}.
+     */
+    void bind(PreparedStatement pstmt) throws SQLException {
+        int index = 1;
+        if (category != null) {
+            pstmt.setString(index++, category);
+        }
+        if (minPrice != null) {
+            pstmt.setDouble(index++, minPrice);
+        }
+        if (maxPrice != null) {
+            pstmt.setDouble(index++, maxPrice);
+        }
+        if (namePrefix != null) {
+            pstmt.setString(index++, namePrefix);
+            String upper = upperBound(namePrefix);
+            if (upper != null) {
+                pstmt.setString(index++, upper);
+            }
+        }
+        if (afterId != null) {
+            pstmt.setInt(index++, afterId);
+        } else if (after != null) {
+            if (sort == Sort.PRICE) {
+                pstmt.setDouble(index++, after.getPrice());
+            } else if (sort == Sort.NAME) {
+                pstmt.setString(index++, after.getName());
+            }
+            pstmt.setInt(index++, after.getId());
+        }
+        pstmt.setInt(index, limit);
+    }
+
+    // The smallest string above every string with the prefix: the prefix with its last code point
+    // incremented. Strings compare as UTF-8 bytes, which is code point order. Null if there is none.
+    static String upperBound(String prefix) {
+        int end = prefix.length();
+        while (end > 0) {
+            int last = prefix.codePointBefore(end);
+            end -= Character.charCount(last);
+            if (last < Character.MAX_CODE_POINT) {
+                int next = last + 1 == Character.MIN_SURROGATE ? Character.MAX_SURROGATE + 1 : last + 1;
+                return prefix.substring(0, end) + new String(Character.toChars(next));
+            }
+        }
+        return null;
+    }
+}
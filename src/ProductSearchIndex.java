@@ -0,0 +1,379 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory inverted index over product names and descriptions.
+ * Terms are lowercased alphanumeric tokens. The last query term matches as a
+ * prefix, so partially typed words find results. Results are ranked by the sum
+ * of term weights (name matches count more than description matches) scaled by
+ * how rare each term is, and can be filtered by price range.
+ *
+ * The index is updated one product at a time; it never needs a full rebuild.
+ * While it is first filled from the products table it already takes changes;
+ * a row read by the initial load is skipped if its product changed after the
+ * load began, since the row may predate the change.
+ */
+public class ProductSearchIndex {
+    private static final int NAME_WEIGHT = 3;
+    private static final int DESCRIPTION_WEIGHT = 1;
+
+    private final TreeMap<String, Posting> postings = new TreeMap<>();
+    private final Map<Integer, Document> documents = new HashMap<>();
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    // ids put or removed since the initial load began; null when no load is running
+    private Set<Integer> changedDuringLoad;
+
+    /**
+     * Adds or replaces a product in the index.
+     * @param product The product; its id must be set
+     */
+    public void put(Product product) {
+        Document document = new Document(toCents(product.getPrice()), weighTerms(product));
+        lock.writeLock().lock();
+        try {
+            if (changedDuringLoad != null) {
+                changedDuringLoad.add(product.getId());
+            }
+            index(product.getId(), document);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes a product from the index.
+     * @param id The product id
+     */
+    public void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            if (changedDuringLoad != null) {
+                changedDuringLoad.add(id);
+            }
+            Document previous = documents.remove(id);
+            if (previous != null) {
+                unindex(id, previous);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Starts the initial load. From now on, puts and removes win over the
+     * rows passed to {@link #load(Product)}.
+     */
+    void beginLoad() {
+        lock.writeLock().lock();
+        try {
+            changedDuringLoad = new HashSet<>();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds a product read by the initial load, unless it was put or removed since the load began.
+     * @param product The product as read from the products table
+     */
+    void load(Product product) {
+        Document document = new Document(toCents(product.getPrice()), weighTerms(product));
+        lock.writeLock().lock();
+        try {
+            if (changedDuringLoad == null || !changedDuringLoad.contains(product.getId())) {
+                index(product.getId(), document);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Ends the initial load.
+     */
+    void endLoad() {
+        lock.writeLock().lock();
+        try {
+            changedDuringLoad = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return documents.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Searches product names and descriptions.
+     * @param query The search text
+     * @param limit Maximum number of results
+     * @return Matching product ids, best match first
+     */
+    public int[] search(String query, int limit) {
+        return search(query, 0.0, Double.MAX_VALUE, limit);
+    }
+
+    /**
+     * Searches product names and descriptions within a price range.
+     * @param query The search text
+     * @param minPrice Lowest price to include
+     * @param maxPrice Highest price to include
+     * @param limit Maximum number of results
+     * @return Matching product ids, best match first
+     */
+    public int[] search(String query, double minPrice, double maxPrice, int limit) {
+        List<String> terms = tokenize(query);
+        if (terms.isEmpty() || limit < 1) {
+            return new int[0];
+        }
+        long minCents = toCents(minPrice);
+        long maxCents = maxPrice >= Long.MAX_VALUE / 100.0 ? Long.MAX_VALUE : toCents(maxPrice);
+        boolean prefix = !Character.isWhitespace(query.charAt(query.length() - 1));
+        lock.readLock().lock();
+        try {
+            ScoreTable scores = new ScoreTable();
+            int total = documents.size();
+            for (int t = 0; t < terms.size(); t++) {
+                String term = terms.get(t);
+                if (prefix && t == terms.size() - 1) {
+                    for (Map.Entry<String, Posting> entry : postings.subMap(term, term + Character.MAX_VALUE).entrySet()) {
+                        accumulate(scores, entry.getValue(), total);
+                    }
+                } else {
+                    Posting posting = postings.get(term);
+                    if (posting != null) {
+                        accumulate(scores, posting, total);
+                    }
+                }
+            }
+            return topMatches(scores, minCents, maxCents, limit);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits text into lowercased alphanumeric terms.
+     * @param text The text to split, may be null
+     * @return The terms in order of appearance
+     */
+    static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null) {
+            return terms;
+        }
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean wordChar = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                terms.add(text.substring(start, i).toLowerCase());
+                start = -1;
+            }
+        }
+        return terms;
+    }
+
+    private static long toCents(double price) {
+        return Math.round(price * 100);
+    }
+
+    private static Map<String, Integer> weighTerms(Product product) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String term : tokenize(product.getName())) {
+            weights.merge(term, NAME_WEIGHT, Integer::sum);
+        }
+        for (String term : tokenize(product.getDescription())) {
+            weights.merge(term, DESCRIPTION_WEIGHT, Integer::sum);
+        }
+        return weights;
+    }
+
+    private void index(int id, Document document) {
+        Document previous = documents.put(id, document);
+        if (previous != null) {
+            unindex(id, previous);
+        }
+        for (int i = 0; i < document.terms.length; i++) {
+            postings.computeIfAbsent(document.terms[i], term -> new Posting()).add(id, document.weights[i]);
+        }
+    }
+
+    private void unindex(int id, Document document) {
+        for (String term : document.terms) {
+            Posting posting = postings.get(term);
+            if (posting != null && posting.remove(id) && posting.size == 0) {
+                postings.remove(term);
+            }
+        }
+    }
+
+    private static void accumulate(ScoreTable scores, Posting posting, int total) {
+        // rarer terms say more about a product than common ones
+        float idf = (float) Math.log(1.0 + (double) total / posting.size);
+        for (int i = 0; i < posting.size; i++) {
+            scores.add(posting.ids[i], posting.weights[i] * idf);
+        }
+    }
+
+    private int[] topMatches(ScoreTable scores, long minCents, long maxCents, int limit) {
+        // min-heap on score (ties: higher id first out) so the weakest match is dropped
+        PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, (a, b) ->
+                a.score != b.score ? Float.compare(a.score, b.score) : Integer.compare(b.id, a.id));
+        for (int slot = 0; slot < scores.keys.length; slot++) {
+            int id = scores.keys[slot];
+            if (id == ScoreTable.EMPTY) {
+                continue;
+            }
+            Document document = documents.get(id);
+            if (document == null || document.priceCents < minCents || document.priceCents > maxCents) {
+                continue;
+            }
+            best.add(new Match(id, scores.values[slot]));
+            if (best.size() > limit) {
+                best.poll();
+            }
+        }
+        int[] ids = new int[best.size()];
+        for (int i = ids.length - 1; i >= 0; i--) {
+            ids[i] = best.poll().id;
+        }
+        return ids;
+    }
+
+    /**
+     * Indexed data kept per product so it can be unindexed on update or delete.
+     */
+    private static class Document {
+        final long priceCents;
+        final String[] terms;
+        final int[] weights;
+
+        Document(long priceCents, Map<String, Integer> weighted) {
+            this.priceCents = priceCents;
+            this.terms = new String[weighted.size()];
+            this.weights = new int[weighted.size()];
+            int i = 0;
+            for (Map.Entry<String, Integer> entry : weighted.entrySet()) {
+                terms[i] = entry.getKey();
+                weights[i++] = entry.getValue();
+            }
+        }
+    }
+
+    private static class Match {
+        final int id;
+        final float score;
+
+        Match(int id, float score) {
+            this.id = id;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Product ids containing a term, kept sorted so updates can binary search.
+     * Ids are usually added in increasing order, which makes appends cheap.
+     */
+    private static class Posting {
+        int[] ids = new int[4];
+        int[] weights = new int[4];
+        int size;
+
+        void add(int id, int weight) {
+            int index = size > 0 && ids[size - 1] < id ? -size - 1 : Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                weights[index] = weight;
+                return;
+            }
+            index = -index - 1;
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                weights = Arrays.copyOf(weights, size * 2);
+            }
+            System.arraycopy(ids, index, ids, index + 1, size - index);
+            System.arraycopy(weights, index, weights, index + 1, size - index);
+            ids[index] = id;
+            weights[index] = weight;
+            size++;
+        }
+
+        boolean remove(int id) {
+            int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+            System.arraycopy(weights, index + 1, weights, index, size - index - 1);
+            size--;
+            return true;
+        }
+    }
+
+    /**
+     * Open-addressing map from product id to accumulated score, avoiding boxing per match.
+     */
+    private static class ScoreTable {
+        static final int EMPTY = Integer.MIN_VALUE;
+
+        int[] keys = newKeys(64);
+        float[] values = new float[64];
+        int size;
+
+        void add(int id, float score) {
+            if (size * 2 >= keys.length) {
+                grow();
+            }
+            int mask = keys.length - 1;
+            int slot = mix(id) & mask;
+            while (keys[slot] != EMPTY && keys[slot] != id) {
+                slot = (slot + 1) & mask;
+            }
+            if (keys[slot] == EMPTY) {
+                keys[slot] = id;
+                size++;
+            }
+            values[slot] += score;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            float[] oldValues = values;
+            keys = newKeys(oldKeys.length * 2);
+            values = new float[oldKeys.length * 2];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] != EMPTY) {
+                    add(oldKeys[i], oldValues[i]);
+                }
+            }
+        }
+
+        private static int[] newKeys(int capacity) {
+            int[] keys = new int[capacity];
+            Arrays.fill(keys, EMPTY);
+            return keys;
+        }
+
+        private static int mix(int id) {
+            int h = id * 0x9E3779B9;
+            return h ^ (h >>> 16);
+        }
+    }
+}
@@ -0,0 +1,182 @@
+import javax.swing.SwingUtilities;
+import javax.swing.table.AbstractTableModel;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Table model that pages products in from the database as rows become visible.
+ * Only a bounded number of pages is kept in memory; a page that scrolls back
+ * into view is loaded again. All database work runs on a background thread and
+ * results are applied on the EDT.
+ *
+ * A non-empty filter switches the model to search results from the
+ * {@link ProductSearchIndex}.
+ */
+public class ProductTableModel extends AbstractTableModel {
+    private static final long serialVersionUID = 1L;
+    private static final String[] COLUMNS = {"Name", "Price", "In Stock"};
+    private static final int MAX_CACHED_PAGES = 64;
+    private static final int SEARCH_LIMIT = 500;
+
+    private final int pageSize;
+    private final ExecutorService loader = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "product-loader");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<Integer, List<Product>> pages = new LinkedHashMap<Integer, List<Product>>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, List<Product>> eldest) {
+            return size() > MAX_CACHED_PAGES;
+        }
+    };
+    // last product id of each page seen so far, so the next page can be read with keyset pagination
+    private final Map<Integer, Integer> pageEndIds = new LinkedHashMap<>();
+    private final Set<Integer> pendingPages = new HashSet<>();
+    private int catalogSize;
+    private List<Product> searchResults;
+    private int generation;
+
+    public ProductTableModel(int pageSize) {
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Counts the catalog in the background and shows the first rows once known.
+     */
+    public void load() {
+        loader.execute(() -> {
+            try {
+                int count = DatabaseHelper.countProducts();
+                SwingUtilities.invokeLater(() -> {
+                    catalogSize = count;
+                    if (searchResults == null) {
+                        fireTableDataChanged();
+                    }
+                });
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    /**
+     * Shows search results for the query, or the whole catalog when it is blank.
+     * The search runs in the background; a newer filter supersedes older ones.
+     * @param query The search text
+     */
+    public void setFilter(String query) {
+        int requested = ++generation;
+        if (query == null || query.isBlank()) {
+            searchResults = null;
+            fireTableDataChanged();
+            return;
+        }
+        loader.execute(() -> {
+            List<Product> results = new ArrayList<>();
+            try {
+                for (int id : DatabaseHelper.getSearchIndex().search(query, SEARCH_LIMIT)) {
+                    Product product = DatabaseHelper.getProduct(id);
+                    if (product != null) {
+                        results.add(product);
+                    }
+                }
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            SwingUtilities.invokeLater(() -> {
+                if (requested == generation) {
+                    searchResults = Collections.unmodifiableList(results);
+                    fireTableDataChanged();
+                }
+            });
+        });
+    }
+
+    /**
+     * Gets the product shown in a row.
+     * @param row The model row
+     * @return The product, or null while its page is still loading
+     */
+    public Product getProductAt(int row) {
+        if (searchResults != null) {
+            return row < searchResults.size() ? searchResults.get(row) : null;
+        }
+        int page = row / pageSize;
+        List<Product> products = pages.get(page);
+        if (products == null) {
+            requestPage(page);
+            return null;
+        }
+        int index = row % pageSize;
+        return index < products.size() ? products.get(index) : null;
+    }
+
+    @Override
+    public int getRowCount() {
+        return searchResults != null ? searchResults.size() : catalogSize;
+    }
+
+    @Override
+    public int getColumnCount() {
+        return COLUMNS.length;
+    }
+
+    @Override
+    public String getColumnName(int column) {
+        return COLUMNS[column];
+    }
+
+    @Override
+    public Object getValueAt(int row, int column) {
+        Product product = getProductAt(row);
+        if (product == null) {
+            return column == 0 ? "Loading..." : "";
+        }
+        switch (column) {
+            case 0:
+                return product.getName();
+            case 1:
+                return String.format("$%.2f", product.getPrice());
+            default:
+                return product.getStockQuantity();
+        }
+    }
+
+    private void requestPage(int page) {
+        if (!pendingPages.add(page)) {
+            return;
+        }
+        Integer knownAfterId = page == 0 ? Integer.valueOf(0) : pageEndIds.get(page - 1);
+        loader.execute(() -> {
+            List<Product> products = Collections.emptyList();
+            try {
+                int afterId = knownAfterId != null ? knownAfterId : DatabaseHelper.getProductIdAt(page * pageSize - 1);
+                products = DatabaseHelper.getProductPage(afterId, pageSize, false);
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+            List<Product> loaded = products;
+            SwingUtilities.invokeLater(() -> {
+                pendingPages.remove(page);
+                pages.put(page, loaded);
+                if (!loaded.isEmpty()) {
+                    pageEndIds.put(page, loaded.get(loaded.size() - 1).getId());
+                }
+                int first = page * pageSize;
+                int last = Math.min(first + pageSize, catalogSize) - 1;
+                if (searchResults == null && last >= first) {
+                    fireTableRowsUpdated(first, last);
+                }
+            });
+        });
+    }
+}
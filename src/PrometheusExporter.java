@@ -0,0 +1,115 @@
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+
+/**
+ * Writes metrics in the Prometheus text exposition format.
+ * Histograms are exported as summaries with the 50th, 90th, 99th and 99.9th
+ * percentiles; latencies are in seconds as Prometheus expects.
+ */
+public class PrometheusExporter implements MetricsExporter {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    private final Writer out;
+
+    public PrometheusExporter(Writer out) {
+        this.out = out;
+    }
+
+    @Override
+    public void export(Collection<Metric> metrics) throws IOException {
+        String family = null;
+        for (Metric metric : metrics) {
+            if (!metric.getName().equals(family)) {
+                family = metric.getName();
+                out.write("# HELP " + family + " " + metric.getHelp().replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+                out.write("# TYPE " + family + " " + metric.getType() + "\n");
+            }
+            if (metric instanceof LatencyHistogram) {
+                LatencyHistogram.Snapshot snapshot = ((LatencyHistogram) metric).snapshot();
+                for (double quantile : QUANTILES) {
+                    sample(metric.getName(), withLabel(metric.getLabels(), "quantile=\"" + quantile + "\""),
+                            seconds(snapshot.getQuantile(quantile)));
+                }
+                sample(metric.getName() + "_sum", metric.getLabels(), seconds(snapshot.getSum()));
+                sample(metric.getName() + "_count", metric.getLabels(), Long.toString(snapshot.getCount()));
+            } else if (metric instanceof Counter) {
+                sample(metric.getName(), metric.getLabels(), Long.toString(((Counter) metric).getCount()));
+            } else if (metric instanceof Gauge) {
+                sample(metric.getName(), metric.getLabels(), number(((Gauge) metric).getValue()));
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Creates a handler that answers every request with the current metrics,
+     * e.g. for a /metrics context of an existing server.
+     */
+    public static HttpHandler handler() {
+        return exchange -> {
+            try {
+                exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+                exchange.sendResponseHeaders(200, 0);
+                try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                        StandardCharsets.UTF_8))) {
+                    new PrometheusExporter(out).export(Metrics.getAll());
+                }
+            } finally {
+                exchange.close();
+            }
+        };
+    }
+
+    /**
+     * Serves the metrics at /metrics on a port of their own, for applications
+     * without an HTTP server such as the desktop GUI.
+     * @param port The port to listen on
+     * @return The started server
+     */
+    public static HttpServer serve(int port) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(port), 0);
+        server.createContext("/metrics", handler());
+        server.start();
+        return server;
+    }
+
+    private void sample(String name, String labels, String value) throws IOException {
+        out.write(name);
+        if (!labels.isEmpty()) {
+            out.write('{');
+            out.write(labels);
+            out.write('}');
+        }
+        out.write(' ');
+        out.write(value);
+        out.write('\n');
+    }
+
+    private static String withLabel(String labels, String label) {
+        return labels.isEmpty() ? label : labels + "," + label;
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+
+    private static String number(double value) {
+        if (Double.isNaN(value)) {
+            return "NaN";
+        }
+        if (Double.isInfinite(value)) {
+            return value > 0 ? "+Inf" : "-Inf";
+        }
+        return value == Math.rint(value) && Math.abs(value) < 1e15
+                ? Long.toString((long) value) : Double.toString(value);
+    }
+}
@@ -0,0 +1,231 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * Versioned changes to the database schema and its seed data.
+ *
+ * Migrations are applied in order, each in its own transaction together with
+ * the new version number, which SQLite keeps in the {@code user_version} field
+ * of the database header. A database is therefore migrated once; later
+ * launches only read the version. Migrations are append-only: a released
+ * migration is never edited, a new one is added instead.
+ *
+ * Databases created before versioning have version 0 and the tables of
+ * migration 1 already, so that migration only creates what is missing.
+ */
+public class SchemaMigrations {
+    private static final Product[] SEED_PRODUCTS = {
+            new Electronics("Laptop", 999.99, "High-performance laptop", 10),
+            new Electronics("Smartphone", 499.99, "Latest model smartphone", 20),
+            new Electronics("Headphones", 199.99, "Noise-cancelling headphones", 15),
+            new Electronics("Smartwatch", 299.99, "Feature-rich smartwatch", 25)
+    };
+
+    private interface Migration {
+        void apply(Connection conn) throws SQLException;
+    }
+
+    // index + 1 is the version a migration brings the database to
+    private static final List<Migration> MIGRATIONS = List.of(
+            SchemaMigrations::createTables,
+            SchemaMigrations::removeDuplicateSeedProducts,
+            SchemaMigrations::seedProducts,
+            SchemaMigrations::addCategoriesAndIndexes,
+            SchemaMigrations::trackProductChanges,
+            SchemaMigrations::addCartLines
+    );
+
+    private SchemaMigrations() {
+    }
+
+    /**
+     * Gets the schema version this application expects.
+     */
+    public static int getLatestVersion() {
+        return MIGRATIONS.size();
+    }
+
+    /**
+     * Brings the database up to the latest version. Safe to run concurrently
+     * from several processes: each migration takes SQLite's write lock and
+     * re-reads the version first.
+     * @param conn A connection in auto-commit mode
+     * @return The version the database was at before
+     * @throws SQLException if a migration fails, which is rolled back, or the
+     *         database was written by a newer version of the application
+     */
+    public static int migrate(Connection conn) throws SQLException {
+        int initial = getVersion(conn);
+        if (initial > getLatestVersion()) {
+            throw new SQLException("Database schema version " + initial
+                    + " is newer than this application supports (" + getLatestVersion() + ")");
+        }
+        try (Statement stmt = conn.createStatement()) {
+            for (int version = initial; version < getLatestVersion(); version++) {
+                stmt.execute("BEGIN IMMEDIATE");
+                try {
+                    // another process may have migrated while this one waited for the lock
+                    if (getVersion(conn) == version) {
+                        MIGRATIONS.get(version).apply(conn);
+                        stmt.execute("PRAGMA user_version = " + (version + 1));
+                    }
+                    stmt.execute("COMMIT");
+                } catch (SQLException | RuntimeException e) {
+                    stmt.execute("ROLLBACK");
+                    throw e;
+                }
+            }
+        }
+        return initial;
+    }
+
+    /**
+     * Inserts each seed product unless a product with its name exists.
+     * @param conn The connection to insert with
+     * @return The number of products inserted
+     */
+    static int addSeedProducts(Connection conn) throws SQLException {
+        String sql = "INSERT INTO products (name, price, description, stockQuantity, category, discountPercent) "
+                + "SELECT ?, ?, ?, ?, ?, 0 WHERE NOT EXISTS (SELECT 1 FROM products WHERE name = ?)";
+        int inserted = 0;
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Product product : SEED_PRODUCTS) {
+                pstmt.setString(1, product.getName());
+                pstmt.setDouble(2, product.getPrice());
+                pstmt.setString(3, product.getDescription());
+                pstmt.setInt(4, product.getStockQuantity());
+                pstmt.setString(5, ProductFactory.categoryOf(product));
+                pstmt.setString(6, product.getName());
+                inserted += pstmt.executeUpdate();
+            }
+        }
+        return inserted;
+    }
+
+    private static int getVersion(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA user_version")) {
+            return rs.next() ? rs.getInt(1) : 0;
+        }
+    }
+
+    private static void createTables(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS products (" +
+                    "id INTEGER PRIMARY KEY AUTOINCREMENT," +
+                    "name TEXT NOT NULL," +
+                    "price REAL NOT NULL," +
+                    "description TEXT," +
+                    "stockQuantity INTEGER NOT NULL" +
+                    ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS orders (" +
+                    "id INTEGER PRIMARY KEY," +
+                    "createdAt INTEGER NOT NULL," +
+                    "paymentReference TEXT NOT NULL," +
+                    "totalCents INTEGER NOT NULL" +
+                    ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS order_lines (" +
+                    "orderId INTEGER NOT NULL REFERENCES orders(id)," +
+                    "productId INTEGER NOT NULL," +
+                    "productName TEXT NOT NULL," +
+                    "quantity INTEGER NOT NULL," +
+                    "unitPriceCents INTEGER NOT NULL," +
+                    "lineTotalCents INTEGER NOT NULL," +
+                    "PRIMARY KEY (orderId, productId)" +
+                    ")");
+        }
+    }
+
+    // Earlier versions inserted the seed products on every launch; keep the oldest copy of each.
+    // Orders keep the product name, so removing the copies does not affect them.
+    private static void removeDuplicateSeedProducts(Connection conn) throws SQLException {
+        String sql = "DELETE FROM products WHERE name = ? AND description = ? "
+                + "AND id > (SELECT MIN(id) FROM products WHERE name = ? AND description = ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Product product : SEED_PRODUCTS) {
+                pstmt.setString(1, product.getName());
+                pstmt.setString(2, product.getDescription());
+                pstmt.setString(3, product.getName());
+                pstmt.setString(4, product.getDescription());
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    private static void seedProducts(Connection conn) throws SQLException {
+        String sql = "INSERT INTO products (name, price, description, stockQuantity) "
+                + "SELECT ?, ?, ?, ? WHERE NOT EXISTS (SELECT 1 FROM products WHERE name = ?)";
+        try (PreparedStatement pstmt = conn.prepareStatement(sql)) {
+            for (Product product : SEED_PRODUCTS) {
+                pstmt.setString(1, product.getName());
+                pstmt.setDouble(2, product.getPrice());
+                pstmt.setString(3, product.getDescription());
+                pstmt.setInt(4, product.getStockQuantity());
+                pstmt.setString(5, product.getName());
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    // Products keep the category they were created for and their discount, so they are loaded as
+    // the same type. Each index serves a filter together with a sort order; see ProductQuery.
+    private static void addCategoriesAndIndexes(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("ALTER TABLE products ADD COLUMN category TEXT NOT NULL DEFAULT 'general'");
+            stmt.execute("ALTER TABLE products ADD COLUMN discountPercent REAL NOT NULL DEFAULT 0");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_category_price ON products (category, price)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_category_name ON products (category, name)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_price ON products (price)");
+            stmt.execute("CREATE INDEX IF NOT EXISTS idx_products_name ON products (name)");
+        }
+        try (PreparedStatement pstmt = conn.prepareStatement(
+                "UPDATE products SET category = ? WHERE name = ? AND description = ?")) {
+            for (Product product : SEED_PRODUCTS) {
+                pstmt.setString(1, ProductFactory.categoryOf(product));
+                pstmt.setString(2, product.getName());
+                pstmt.setString(3, product.getDescription());
+                pstmt.executeUpdate();
+            }
+        }
+    }
+
+    // Keeps the latest change number of every product id, including deleted ones, so that copies of
+    // the catalog such as CatalogSnapshot can read only what changed since they were made. One row
+    // per product rather than per change, so the table never needs pruning.
+    private static void trackProductChanges(Connection conn) throws SQLException {
+        String change = "INSERT OR REPLACE INTO product_changes (productId, seq) "
+                + "VALUES (%s.id, (SELECT IFNULL(MAX(seq), 0) + 1 FROM product_changes))";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE product_changes (" +
+                    "productId INTEGER PRIMARY KEY," +
+                    "seq INTEGER NOT NULL" +
+                    ")");
+            stmt.execute("CREATE INDEX idx_product_changes_seq ON product_changes (seq)");
+            stmt.execute("INSERT INTO product_changes (productId, seq) SELECT id, id FROM products");
+            stmt.execute("CREATE TRIGGER products_inserted AFTER INSERT ON products BEGIN "
+                    + String.format(change, "NEW") + "; END");
+            stmt.execute("CREATE TRIGGER products_updated AFTER UPDATE ON products BEGIN "
+                    + String.format(change, "NEW") + "; END");
+            stmt.execute("CREATE TRIGGER products_deleted AFTER DELETE ON products BEGIN "
+                    + String.format(change, "OLD") + "; END");
+        }
+    }
+
+    // Cart lines of shopper sessions, written by CartStore. Lines are read back in rowid order, which
+    // an upsert keeps, so a recovered cart lists its lines in the order they were added.
+    private static void addCartLines(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("CREATE TABLE cart_lines (" +
+                    "sessionId TEXT NOT NULL," +
+                    "productId INTEGER NOT NULL," +
+                    "quantity INTEGER NOT NULL," +
+                    "updatedAt INTEGER NOT NULL," +
+                    "PRIMARY KEY (sessionId, productId)" +
+                    ")");
+        }
+    }
+}
@@ -1,29 +1,79 @@
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
- * Shopping Cart implementation using the Singleton pattern.
- * This class manages the user's shopping cart and implements the Subject interface
- * to notify observers of any changes to the cart's state.
+ * Shopping Cart implementation.
+ * This class manages a shopper's cart as line items keyed by product id and
+ * keeps the total in exact cents up to date on every change. Every change is
+ * published to the cart's {@link CartEventBus}, which delivers it to
+ * subscribers asynchronously. Mutations lock only this cart, so carts of
+ * different sessions never contend. A cart persisted by a {@link CartStore}
+ * remembers which lines changed since they were last written.
  *
  * Design Patterns:
- * - Singleton: Ensures only one cart instance exists
- * - Observer: Notifies GUI of cart changes
+ * - Singleton: Provides the desktop application's cart; server sessions get theirs from CartService
+ * - Observer: Publishes cart changes to subscribers such as the GUI
  */
-public class ShoppingCart implements Subject {
-    private static ShoppingCart instance;
-    private List<Product> products;
-    private double total;
-    private List<Observer> observers;
+public class ShoppingCart {
+    // a mutation takes tens of nanoseconds, so only every 256th change of a cart is timed
+    private static final LatencyHistogram ADD_TIME = Metrics.sampledHistogram("cart_mutation_seconds",
+            "Time a cart mutation holds the cart lock", 256, "mutation", "add");
+    private static final LatencyHistogram REMOVE_TIME = Metrics.sampledHistogram("cart_mutation_seconds",
+            "Time a cart mutation holds the cart lock", 256, "mutation", "remove");
+
+    private final Map<Integer, CartLine> lines;
+    private final Collection<CartLine> linesView;
+    private final Collection<Product> productsView;
+    private long totalCents;
+    private int itemCount;
+    private long sequence;
+    private PricingEngine pricingEngine;
+    private final CartEventBus eventBus = new CartEventBus();
+    // set while a CartStore persists the cart; ids of the lines changed since the last write
+    private CartStore store;
+    private String sessionId;
+    private final Set<Integer> dirtyLines = new LinkedHashSet<>();
 
     /**
-     * Private constructor to enforce Singleton pattern.
-     * Initializes empty lists for products and observers.
+     * Creates an empty cart. Use {@link #getInstance()} or {@link CartService}.
      */
-    private ShoppingCart() {
-        products = new ArrayList<>();
-        observers = new ArrayList<>();
-        total = 0.0;
+    ShoppingCart() {
+        lines = new LinkedHashMap<>();
+        linesView = Collections.unmodifiableCollection(lines.values());
+        productsView = new AbstractCollection<Product>() {
+            @Override
+            public Iterator<Product> iterator() {
+                Iterator<CartLine> it = linesView.iterator();
+                return new Iterator<Product>() {
+                    @Override
+                    public boolean hasNext() {
+                        return it.hasNext();
+                    }
+
+                    @Override
+                    public Product next() {
+                        return it.next().getProduct();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return lines.size();
+            }
+        };
+    }
+
+    private static class Holder {
+        static final ShoppingCart INSTANCE = new ShoppingCart();
     }
 
     /**
@@ -31,92 +81,304 @@ public class ShoppingCart implements Subject {
      * @return The single instance of ShoppingCart
      */
     public static ShoppingCart getInstance() {
-        if(instance == null) {
-            instance = new ShoppingCart();
-        }
-        return instance;
+        return Holder.INSTANCE;
     }
 
     /**
-     * Registers an observer to receive cart updates.
-     * @param observer The observer to register
+     * Gets the bus that publishes this cart's changes.
+     * @return The cart's event bus
      */
-    @Override
-    public void registerObserver(Observer observer) {
-        observers.add(observer);
+    public CartEventBus getEventBus() {
+        return eventBus;
     }
 
     /**
-     * Removes an observer from the notification list.
-     * @param observer The observer to remove
+     * Adds one unit of a product to the cart and notifies observers.
+     * @param product The product to add
      */
-    @Override
-    public void removeObserver(Observer observer) {
-        observers.remove(observer);
+    public void addProduct(Product product) {
+        addProduct(product, 1);
     }
 
     /**
-     * Notifies all registered observers with a message.
-     * @param message The message to send to observers
+     * Adds units of a product to the cart and notifies observers.
+     * Units of the same product (by id) share one line.
+     * @param product The product to add
+     * @param quantity The number of units to add
      */
-    @Override
-    public void notifyObservers(String message) {
-        for (Observer observer : observers) {
-            observer.update(message);
+    public void addProduct(Product product, int quantity) {
+        if (quantity < 1) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        synchronized (this) {
+            long start = ADD_TIME.start(sequence);
+            CartLine line = lines.get(product.getId());
+            long before = 0;
+            if (line == null) {
+                line = new CartLine(product, quantity, quote(product));
+                lines.put(product.getId(), line);
+            } else {
+                before = line.getLineTotalCents();
+                line.setQuantity(line.getQuantity() + quantity);
+            }
+            itemCount += quantity;
+            totalCents += line.getLineTotalCents() - before;
+            markDirty(product.getId());
+            publish(CartEvent.Type.ADDED, product, quantity, line.getQuantity(), line.getUnitPriceCents(),
+                    line.getLineTotalCents());
+            ADD_TIME.stop(start);
         }
     }
 
     /**
-     * Adds a product to the cart and notifies observers.
-     * @param product The product to add
+     * Removes one unit of a product from the cart and notifies observers.
+     * @param product The product to remove
      */
-    public void addProduct(Product product) {
-        products.add(product);
-        calculateTotal();
-        notifyObservers("Product added: " + product.getName());
+    public void removeProduct(Product product) {
+        removeProduct(product, 1);
     }
 
     /**
-     * Removes a product from the cart and notifies observers.
+     * Removes units of a product from the cart and notifies observers.
+     * The line is dropped once its quantity reaches zero.
      * @param product The product to remove
+     * @param quantity The number of units to remove
      */
-    public void removeProduct(Product product) {
-        products.remove(product);
-        calculateTotal();
-        notifyObservers("Product removed: " + product.getName());
+    public void removeProduct(Product product, int quantity) {
+        synchronized (this) {
+            CartLine line = lines.get(product.getId());
+            if (line == null || quantity < 1) {
+                return;
+            }
+            long start = REMOVE_TIME.start(sequence);
+            int removed = Math.min(quantity, line.getQuantity());
+            int remaining = line.getQuantity() - removed;
+            long before = line.getLineTotalCents();
+            if (remaining == 0) {
+                lines.remove(product.getId());
+                totalCents -= before;
+            } else {
+                line.setQuantity(remaining);
+                totalCents += line.getLineTotalCents() - before;
+            }
+            itemCount -= removed;
+            markDirty(product.getId());
+            publish(CartEvent.Type.REMOVED, product, removed, remaining, line.getUnitPriceCents(),
+                    remaining == 0 ? 0 : line.getLineTotalCents());
+            REMOVE_TIME.stop(start);
+        }
+    }
+
+    /**
+     * Gets a read-only view of the cart lines in the order they were added.
+     * The view is live; callers on other threads should synchronize on the cart while iterating.
+     * @return The cart lines
+     */
+    public Collection<CartLine> getLines() {
+        return linesView;
+    }
+
+    /**
+     * Copies the cart lines as they are now, e.g. to check out exactly the
+     * lines the shopper confirmed while the cart keeps changing.
+     * @return Copies of the lines, in the order they were added
+     */
+    public synchronized List<CartLine> copyLines() {
+        List<CartLine> copies = new ArrayList<>(lines.size());
+        for (CartLine line : lines.values()) {
+            copies.add(line.copy());
+        }
+        return copies;
+    }
+
+    /**
+     * Prices new lines with the given engine instead of the products' list prices,
+     * and reprices the lines already in the cart.
+     * @param engine The pricing engine, or null for list prices
+     */
+    public synchronized void setPricingEngine(PricingEngine engine) {
+        if (engine != pricingEngine) {
+            this.pricingEngine = engine;
+            reprice();
+        }
+    }
+
+    /**
+     * Re-quotes every line at the current rules and recomputes the total in one
+     * pass, and publishes a {@link CartEvent.Type#REPRICED} event for each line
+     * whose total changed. Call after the pricing engine's rules change.
+     */
+    public synchronized void reprice() {
+        long total = 0;
+        List<CartLine> changed = new ArrayList<>();
+        for (Map.Entry<Integer, CartLine> entry : lines.entrySet()) {
+            CartLine line = entry.getValue();
+            CartLine repriced = new CartLine(line.getProduct(), line.getQuantity(), quote(line.getProduct()));
+            entry.setValue(repriced);
+            total += repriced.getLineTotalCents();
+            if (repriced.getLineTotalCents() != line.getLineTotalCents()
+                    || repriced.getUnitPriceCents() != line.getUnitPriceCents()) {
+                changed.add(repriced);
+            }
+        }
+        totalCents = total;
+        // published after the total is known, so every event carries the new cart total
+        for (CartLine line : changed) {
+            publish(CartEvent.Type.REPRICED, line.getProduct(), 0, line.getQuantity(), line.getUnitPriceCents(),
+                    line.getLineTotalCents());
+        }
+    }
+
+    private PricingEngine.Quote quote(Product product) {
+        return pricingEngine != null ? pricingEngine.quote(product) : PricingEngine.Quote.listPrice(product);
+    }
+
+    /**
+     * Gets the line of a product.
+     * @param productId The product id
+     * @return The line, or null if the product is not in the cart
+     */
+    public synchronized CartLine getLine(int productId) {
+        return lines.get(productId);
     }
 
     /**
-     * Calculates the total price of all products in the cart.
+     * Gets the sequence number of the last published change, 0 if none.
+     * Subscribers that read the cart's state under its lock can skip events up to this number.
+     * @return The last sequence number
      */
-    private void calculateTotal() {
-        total = products.stream()
-                .mapToDouble(Product::getPrice)
-                .sum();
+    public synchronized long getSequence() {
+        return sequence;
     }
 
     /**
-     * Gets a copy of the product list.
-     * @return A new ArrayList containing all products
+     * Gets a read-only view of the distinct products in the cart.
+     * The view is live; callers on other threads should synchronize on the cart while iterating.
+     * @return The products, one per cart line
      */
-    public List<Product> getProducts() {
-        return new ArrayList<>(products);
+    public Collection<Product> getProducts() {
+        return productsView;
+    }
+
+    /**
+     * Gets the number of units in the cart.
+     * @return The item count
+     */
+    public synchronized int getItemCount() {
+        return itemCount;
+    }
+
+    public synchronized boolean isEmpty() {
+        return lines.isEmpty();
     }
 
     /**
      * Gets the current total price of the cart.
      * @return The total price
      */
-    public double getTotal() {
-        return total;
+    public synchronized double getTotal() {
+        return totalCents / 100.0;
+    }
+
+    /**
+     * Gets the current total price of the cart in cents.
+     * @return The exact total
+     */
+    public synchronized long getTotalCents() {
+        return totalCents;
     }
 
     /**
      * Clears all products from the cart and notifies observers.
      */
     public void clear() {
-        products.clear();
-        total = 0.0;
-        notifyObservers("Cart cleared");
+        synchronized (this) {
+            int removed = itemCount;
+            for (int productId : lines.keySet()) {
+                markDirty(productId);
+            }
+            lines.clear();
+            itemCount = 0;
+            totalCents = 0;
+            publish(CartEvent.Type.CLEARED, null, removed, 0, 0, 0);
+        }
+    }
+
+    /**
+     * Starts or stops recording which lines change, for a store to write.
+     * Stopping forgets the changes not yet taken.
+     * @param store The store, or null to stop
+     * @param sessionId The session the cart belongs to
+     */
+    synchronized void persistTo(CartStore store, String sessionId) {
+        this.store = store;
+        this.sessionId = sessionId;
+        if (store == null) {
+            dirtyLines.clear();
+        }
+    }
+
+    /**
+     * Stops recording which lines change, keeping the changes not yet taken
+     * for the store to write.
+     */
+    synchronized void stopRecording() {
+        store = null;
+    }
+
+    /**
+     * Records again lines whose write failed. The store still holds the cart.
+     * @param productIds The product ids of the lines
+     */
+    synchronized void restoreDirtyLines(Collection<Integer> productIds) {
+        dirtyLines.addAll(productIds);
+    }
+
+    /**
+     * Records that lines changed, e.g. lines already in the cart when it is
+     * first persisted. Ignored unless the cart is persisted.
+     * @param productIds The product ids of the lines
+     */
+    synchronized void markDirty(Collection<Integer> productIds) {
+        for (int productId : productIds) {
+            markDirty(productId);
+        }
+    }
+
+    /**
+     * Takes the lines changed since the last call.
+     * @return Current quantities keyed by product id, 0 for lines no longer in the cart
+     */
+    synchronized Map<Integer, Integer> takeDirtyLines() {
+        Map<Integer, Integer> changed = new LinkedHashMap<>();
+        for (int productId : dirtyLines) {
+            CartLine line = lines.get(productId);
+            changed.put(productId, line == null ? 0 : line.getQuantity());
+        }
+        dirtyLines.clear();
+        return changed;
+    }
+
+    synchronized boolean hasDirtyLines() {
+        return !dirtyLines.isEmpty();
+    }
+
+    // called with the cart lock held; the first change since the last write hands the cart to the store
+    private void markDirty(int productId) {
+        if (store != null && dirtyLines.add(productId) && dirtyLines.size() == 1) {
+            store.markDirty(sessionId, this);
+        }
+    }
+
+    // called with the cart lock held so events are queued in mutation order
+    private void publish(CartEvent.Type type, Product product, int quantity, int lineQuantity, long unitPriceCents,
+                         long lineTotalCents) {
+        sequence++;
+        if (eventBus.hasSubscribers()) {
+            eventBus.publish(new CartEvent(type, sequence,
+                    product == null ? 0 : product.getId(),
+                    product == null ? null : product.getName(),
+                    quantity, lineQuantity, unitPriceCents, lineTotalCents, itemCount, totalCents));
+        }
     }
 }
@@ -0,0 +1,68 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Timeline of application startup. Each phase is recorded as the time since
+ * the JVM was launched, so the report includes JVM boot and class loading,
+ * which are the part that Class Data Sharing speeds up.
+ *
+ * Started with {@code -Decommerce.startup.exit=true}, the application exits as
+ * soon as it is usable. This makes startup scriptable: to time it, and to
+ * record the classes it loads into an AppCDS archive with
+ * {@code -XX:ArchiveClassesAtExit}.
+ */
+public final class Startup {
+    private static final boolean EXIT_WHEN_READY = Boolean.getBoolean("ecommerce.startup.exit");
+    private static final long CLASS_INIT_NANOS = System.nanoTime();
+    private static final long CLASS_INIT_MILLIS = System.currentTimeMillis();
+
+    private static final List<String> phases = new ArrayList<>();
+    private static final List<Long> times = new ArrayList<>();
+    private static boolean ready;
+
+    private Startup() {
+    }
+
+    /**
+     * Records that a phase of startup has completed.
+     * @param phase The phase, e.g. "database ready"
+     */
+    public static synchronized void mark(String phase) {
+        phases.add(phase);
+        times.add(System.nanoTime() - CLASS_INIT_NANOS);
+    }
+
+    /**
+     * Records that the application is usable, prints the timeline, and exits
+     * if {@code ecommerce.startup.exit} is set. Only the first call counts.
+     * @param phase What made the application usable, e.g. "products shown"
+     */
+    public static void ready(String phase) {
+        synchronized (Startup.class) {
+            if (ready) {
+                return;
+            }
+            ready = true;
+            mark(phase);
+        }
+        System.out.println(report());
+        if (EXIT_WHEN_READY) {
+            System.exit(0);
+        }
+    }
+
+    /**
+     * Gets the phases recorded so far with their time since JVM launch.
+     */
+    public static synchronized String report() {
+        // read only now, as loading the management classes would itself slow startup
+        long launchMillis = CLASS_INIT_MILLIS - ManagementFactory.getRuntimeMXBean().getStartTime();
+        StringBuilder report = new StringBuilder("Startup:");
+        for (int i = 0; i < phases.size(); i++) {
+            report.append(i == 0 ? " " : ", ").append(phases.get(i)).append(' ')
+                    .append(launchMillis + times.get(i) / 1_000_000).append(" ms");
+        }
+        return report.toString();
+    }
+}
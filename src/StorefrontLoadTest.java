@@ -0,0 +1,148 @@
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Closed-loop load generator for {@link StorefrontServer}.
+ * Each simulated shopper sends a request, waits for the response and sends the
+ * next: 50% catalog pages, 20% searches, 20% product lookups and 10% cart
+ * additions. Reports throughput and latency percentiles at the end.
+ *
+ * Usage: StorefrontLoadTest [baseUrl] [shoppers] [seconds]
+ */
+public class StorefrontLoadTest {
+    private static final String[] SEARCH_TERMS = {"laptop", "phone", "head", "watch", "smart"};
+
+    public static void main(String[] args) throws Exception {
+        String baseUrl = args.length > 0 ? args[0] : "http://localhost:8080";
+        int shoppers = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+
+        HttpClient client = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(Duration.ofSeconds(5))
+                .build();
+        int maxProductId = findMaxProductId(client, baseUrl);
+        long deadline = System.nanoTime() + seconds * 1_000_000_000L;
+
+        ExecutorService executor = VirtualThreads.newPerTaskExecutor("load");
+        List<Future<Recorder>> results = new ArrayList<>();
+        for (int i = 0; i < shoppers; i++) {
+            String session = "load-" + i;
+            results.add(executor.submit(() -> shop(client, baseUrl, session, maxProductId, deadline)));
+        }
+        Recorder total = new Recorder();
+        for (Future<Recorder> result : results) {
+            total.merge(result.get());
+        }
+        executor.shutdown();
+        total.report(seconds);
+    }
+
+    private static Recorder shop(HttpClient client, String baseUrl, String session, int maxProductId,
+                                 long deadline) {
+        Recorder recorder = new Recorder();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        while (System.nanoTime() < deadline) {
+            int dice = random.nextInt(100);
+            int productId = 1 + random.nextInt(maxProductId);
+            HttpRequest.Builder request;
+            if (dice < 50) {
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/products?limit=50&after="
+                        + random.nextInt(maxProductId)));
+            } else if (dice < 70) {
+                String term = SEARCH_TERMS[random.nextInt(SEARCH_TERMS.length)];
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/products?limit=20&q="
+                        + URLEncoder.encode(term, StandardCharsets.UTF_8)));
+            } else if (dice < 90) {
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/products/" + productId));
+            } else {
+                request = HttpRequest.newBuilder(URI.create(baseUrl + "/cart/items"))
+                        .header("X-Session-Id", session)
+                        .header("Content-Type", "application/x-www-form-urlencoded")
+                        .POST(HttpRequest.BodyPublishers.ofString("productId=" + productId));
+            }
+            long start = System.nanoTime();
+            try {
+                HttpResponse<Void> response = client.send(request.build(), HttpResponse.BodyHandlers.discarding());
+                recorder.record(System.nanoTime() - start, response.statusCode() < 400);
+            } catch (Exception e) {
+                recorder.record(System.nanoTime() - start, false);
+            }
+        }
+        return recorder;
+    }
+
+    private static int findMaxProductId(HttpClient client, String baseUrl) throws Exception {
+        // walk the catalog pages to find the id range to draw from
+        int after = 0;
+        while (true) {
+            HttpResponse<String> response = client.send(HttpRequest.newBuilder(
+                    URI.create(baseUrl + "/products?limit=500&after=" + after)).build(),
+                    HttpResponse.BodyHandlers.ofString());
+            String body = response.body();
+            int next = body.indexOf("\"next\":");
+            if (next < 0) {
+                int lastId = body.lastIndexOf("\"id\":");
+                if (lastId < 0) {
+                    return Math.max(after, 1);
+                }
+                int end = body.indexOf(',', lastId);
+                return Integer.parseInt(body.substring(lastId + 5, end));
+            }
+            after = Integer.parseInt(body.substring(next + 7, body.indexOf('}', next)));
+        }
+    }
+
+    /**
+     * Latencies and error count of one or more shoppers.
+     */
+    private static class Recorder {
+        long[] latencies = new long[1024];
+        int count;
+        int errors;
+
+        void record(long nanos, boolean ok) {
+            if (count == latencies.length) {
+                latencies = Arrays.copyOf(latencies, count * 2);
+            }
+            latencies[count++] = nanos;
+            if (!ok) {
+                errors++;
+            }
+        }
+
+        void merge(Recorder other) {
+            latencies = Arrays.copyOf(latencies, count + other.count);
+            System.arraycopy(other.latencies, 0, latencies, count, other.count);
+            count += other.count;
+            errors += other.errors;
+        }
+
+        void report(int seconds) {
+            Arrays.sort(latencies, 0, count);
+            System.out.printf("requests: %d (%d errors), throughput: %.0f req/s%n",
+                    count, errors, count / (double) seconds);
+            System.out.printf("latency p50: %.2f ms, p99: %.2f ms, p99.9: %.2f ms, max: %.2f ms%n",
+                    percentile(0.50), percentile(0.99), percentile(0.999),
+                    count == 0 ? 0 : latencies[count - 1] / 1e6);
+        }
+
+        double percentile(double p) {
+            if (count == 0) {
+                return 0;
+            }
+            return latencies[Math.min(count - 1, (int) (count * p))] / 1e6;
+        }
+    }
+}
@@ -0,0 +1,546 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Headless HTTP/JSON storefront built on the JDK's HTTP server.
+ * Each request runs on its own virtual thread where the JDK supports them,
+ * so blocking database and payment calls do not tie up a small worker pool.
+ * Responses are written with {@link JsonWriter} straight to the connection.
+ * Carts are kept per session, identified by the {@code X-Session-Id} header,
+ * and survive restarts when started with {@code -Decommerce.cart.persist=true}.
+ *
+ * Endpoints:
+ * - GET /products?q=&amp;minPrice=&amp;maxPrice=&amp;limit= searches the catalog
+ * - GET /products?category=&amp;name=&amp;minPrice=&amp;maxPrice=&amp;inStock=&amp;sort=id|price|name&amp;order=asc|desc&amp;after=&amp;limit=
+ *   lists the catalog; {@code after} is the {@code next} id of the previous page
+ * - GET /products/{id} gets one product
+ * - GET /cart shows the session's cart
+ * - POST /cart/items?productId=&amp;quantity= adds to the cart
+ * - DELETE /cart/items/{productId}?quantity= removes from the cart
+ * - POST /checkout with form fields cardNumber, cvv and expiryDate pays for the cart's lines, which
+ *   then leave the cart; a retry from the same session with the same {@code Idempotency-Key} header
+ *   gets the first answer instead of checking out again
+ * - GET /metrics exports the application's metrics in the Prometheus text format
+ *
+ * Connections are kept alive between requests. Requests beyond the in-flight
+ * limit are answered immediately with 503 instead of queueing.
+ */
+public class StorefrontServer implements AutoCloseable {
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_MAX_IN_FLIGHT = 1024;
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int BACKLOG = 1024;
+    private static final String SESSION_HEADER = "X-Session-Id";
+    private static final String IDEMPOTENCY_HEADER = "Idempotency-Key";
+    private static final long CART_IDLE_TIMEOUT_MS = 30 * 60 * 1000;
+    private static final int MAX_CARTS = 100_000;
+    private static final int MAX_ITEMS_PER_CART = 1000;
+    private static final int MAX_REMEMBERED_CHECKOUTS = 100_000;
+    private static final Counter REJECTED = Metrics.counter("http_requests_rejected_total",
+            "Requests answered with 503 because too many were in flight");
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Semaphore inFlight;
+    private final CartStore cartStore = CartStore.fromSystemProperties();
+    private final CartService carts = new CartService(CART_IDLE_TIMEOUT_MS, MAX_CARTS, MAX_ITEMS_PER_CART, cartStore);
+    private final AsyncPaymentProcessor payments = new AsyncPaymentProcessor(256, 10_000, 3, 200);
+    private final OrderLog orderLog;
+    // checkouts by session and idempotency key; completed with null if one failed before paying
+    private final Map<String, CompletableFuture<CheckoutResult>> checkouts =
+            new LinkedHashMap<String, CompletableFuture<CheckoutResult>>() {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CompletableFuture<CheckoutResult>> eldest) {
+                    return size() > MAX_REMEMBERED_CHECKOUTS && eldest.getValue().isDone();
+                }
+            };
+
+    /**
+     * Creates a server; call {@link #start()} to accept requests.
+     * @param port The port to listen on, or 0 for any free port
+     * @param maxInFlight Maximum number of requests handled at once
+     * @param orderLog The log completed orders are written to, or null to not record orders
+     */
+    public StorefrontServer(int port, int maxInFlight, OrderLog orderLog) throws IOException {
+        // read once by the JDK's HTTP server, so they must be set before the first server is created
+        setDefault("sun.net.httpserver.idleInterval", "30");
+        setDefault("sun.net.httpserver.maxIdleConnections", "256");
+        setDefault("jdk.httpserver.maxConnections", Integer.toString(maxInFlight * 2));
+        this.inFlight = new Semaphore(maxInFlight);
+        this.orderLog = orderLog;
+        this.server = HttpServer.create(new InetSocketAddress(port), BACKLOG);
+        this.executor = VirtualThreads.newPerTaskExecutor("http");
+        server.setExecutor(executor);
+        server.createContext("/products", limited("products", this::handleProducts));
+        server.createContext("/cart", limited("cart", this::handleCart));
+        server.createContext("/checkout", limited("checkout", this::handleCheckout));
+        // outside the in-flight limit so the server can still be observed while it sheds load
+        server.createContext("/metrics", PrometheusExporter.handler());
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * Stops accepting requests, waiting up to a second for running ones.
+     */
+    @Override
+    public void close() {
+        server.stop(1);
+        executor.shutdown();
+        payments.close();
+        carts.close();
+        if (cartStore != null) {
+            cartStore.close();
+        }
+    }
+
+    private HttpHandler limited(String name, Route route) {
+        LatencyHistogram latency = Metrics.histogram("http_request_seconds",
+                "Time to handle a request, including writing the response", "route", name);
+        return exchange -> {
+            if (!inFlight.tryAcquire()) {
+                REJECTED.increment();
+                exchange.getResponseHeaders().set("Retry-After", "1");
+                sendError(exchange, 503, "Server busy");
+                return;
+            }
+            long start = latency.start();
+            try {
+                route.handle(exchange);
+            } catch (IllegalArgumentException e) {
+                sendError(exchange, 400, e.getMessage());
+            } catch (IllegalStateException e) {
+                sendError(exchange, 409, e.getMessage());
+            } catch (SQLException e) {
+                e.printStackTrace();
+                sendError(exchange, 500, "Database error");
+            } finally {
+                inFlight.release();
+                exchange.close();
+                latency.stop(start);
+            }
+        };
+    }
+
+    private void handleProducts(HttpExchange exchange) throws IOException, SQLException {
+        requireMethod(exchange, "GET");
+        String path = exchange.getRequestURI().getPath();
+        if (path.length() > "/products/".length()) {
+            Product product = DatabaseHelper.getProduct(parseInt(path.substring("/products/".length()), "id"));
+            if (product == null) {
+                sendError(exchange, 404, "Product not found");
+                return;
+            }
+            sendJson(exchange, 200, json -> writeProduct(json, product, true));
+            return;
+        }
+        Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+        int limit = Math.min(MAX_PAGE_SIZE, params.containsKey("limit")
+                ? parseInt(params.get("limit"), "limit") : DEFAULT_PAGE_SIZE);
+        if (limit < 1) {
+            throw new IllegalArgumentException("Invalid limit: " + limit);
+        }
+        List<Product> products;
+        String query = params.get("q");
+        boolean search = query != null && !query.trim().isEmpty();
+        if (search) {
+            double min = params.containsKey("minPrice") ? parseDouble(params.get("minPrice"), "minPrice") : 0;
+            double max = params.containsKey("maxPrice")
+                    ? parseDouble(params.get("maxPrice"), "maxPrice") : Double.MAX_VALUE;
+            products = new ArrayList<>();
+            for (int id : DatabaseHelper.getSearchIndex().search(query, min, max, limit)) {
+                Product product = DatabaseHelper.getProduct(id);
+                if (product != null) {
+                    products.add(product);
+                }
+            }
+        } else {
+            products = DatabaseHelper.findProducts(toQuery(params, limit), false);
+        }
+        sendJson(exchange, 200, json -> {
+            json.beginObject().name("products").beginArray();
+            for (Product product : products) {
+                writeProduct(json, product, false);
+            }
+            json.endArray();
+            if (!search && products.size() == limit) {
+                json.name("next").value(products.get(products.size() - 1).getId());
+            }
+            json.endObject();
+        });
+    }
+
+    // filters, sorting and paging of the catalog listing, all applied by the database
+    private static ProductQuery toQuery(Map<String, String> params, int limit) throws SQLException {
+        ProductQuery query = new ProductQuery().limit(limit)
+                .category(params.get("category"))
+                .nameStartsWith(params.get("name"))
+                .priceBetween(params.containsKey("minPrice") ? parseDouble(params.get("minPrice"), "minPrice") : null,
+                        params.containsKey("maxPrice") ? parseDouble(params.get("maxPrice"), "maxPrice") : null);
+        if (Boolean.parseBoolean(params.get("inStock"))) {
+            query.inStock();
+        }
+        String sort = params.getOrDefault("sort", "id");
+        String order = params.getOrDefault("order", "asc");
+        if (!order.equals("asc") && !order.equals("desc")) {
+            throw new IllegalArgumentException("Invalid order: " + order);
+        }
+        try {
+            query.orderBy(ProductQuery.Sort.valueOf(sort.toUpperCase()), order.equals("desc"));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid sort: " + sort);
+        }
+        if (params.containsKey("after") && sort.equalsIgnoreCase("id")) {
+            query.afterId(parseInt(params.get("after"), "after"));
+        } else if (params.containsKey("after")) {
+            // the next page starts after this product's sort key
+            Product last = DatabaseHelper.getProduct(parseInt(params.get("after"), "after"));
+            if (last == null) {
+                throw new IllegalArgumentException("Invalid after: no product " + params.get("after"));
+            }
+            query.after(last);
+        }
+        return query;
+    }
+
+    private void handleCart(HttpExchange exchange) throws IOException, SQLException {
+        String session = requireSession(exchange);
+        String path = exchange.getRequestURI().getPath();
+        String method = exchange.getRequestMethod();
+        Map<String, String> params = parseParams(exchange.getRequestURI().getRawQuery());
+        if (path.equals("/cart/items") && method.equals("POST")) {
+            params.putAll(parseParams(readBody(exchange)));
+            Product product = findProduct(exchange, parseInt(params.get("productId"), "productId"));
+            if (product == null) {
+                return;
+            }
+            int quantity = params.containsKey("quantity") ? parseInt(params.get("quantity"), "quantity") : 1;
+            carts.addProduct(session, product, quantity);
+        } else if (path.startsWith("/cart/items/") && method.equals("DELETE")) {
+            Product product = findProduct(exchange, parseInt(path.substring("/cart/items/".length()), "productId"));
+            if (product == null) {
+                return;
+            }
+            int quantity = params.containsKey("quantity") ? parseInt(params.get("quantity"), "quantity") : 1;
+            carts.removeProduct(session, product, quantity);
+        } else if (!path.equals("/cart") || !method.equals("GET")) {
+            sendError(exchange, 404, "Not found");
+            return;
+        }
+        ShoppingCart cart = carts.getCart(session);
+        List<CartLine> lines;
+        long totalCents;
+        synchronized (cart) {
+            lines = new ArrayList<>(cart.getLines());
+            totalCents = cart.getTotalCents();
+        }
+        sendJson(exchange, 200, json -> {
+            json.beginObject().name("lines").beginArray();
+            for (CartLine line : lines) {
+                json.beginObject()
+                        .name("productId").value(line.getProduct().getId())
+                        .name("name").value(line.getProduct().getName())
+                        .name("quantity").value(line.getQuantity())
+                        .name("unitPrice").cents(line.getUnitPriceCents())
+                        .name("lineTotal").cents(line.getLineTotalCents())
+                        .endObject();
+            }
+            json.endArray().name("total").cents(totalCents).endObject();
+        });
+    }
+
+    private void handleCheckout(HttpExchange exchange) throws IOException, SQLException {
+        requireMethod(exchange, "POST");
+        String session = requireSession(exchange);
+        Map<String, String> form = parseParams(readBody(exchange));
+        PaymentStrategy strategy = new CreditCardPayment(
+                form.getOrDefault("cardNumber", ""), form.getOrDefault("cvv", ""), form.getOrDefault("expiryDate", ""));
+        String clientKey = exchange.getRequestHeaders().getFirst(IDEMPOTENCY_HEADER);
+        if (clientKey == null) {
+            sendCheckout(exchange, checkout(session, strategy, null));
+            return;
+        }
+        // scoped to the session, so that another session reusing the key neither gets this checkout's
+        // answer nor this payment; derived by hashing, so the session id is not part of the payment reference
+        String key = UUID.nameUUIDFromBytes((session + "\n" + clientKey).getBytes(StandardCharsets.UTF_8))
+                .toString();
+        while (true) {
+            CompletableFuture<CheckoutResult> result = new CompletableFuture<>();
+            CompletableFuture<CheckoutResult> existing;
+            synchronized (checkouts) {
+                existing = checkouts.putIfAbsent(key, result);
+            }
+            if (existing == null) {
+                try {
+                    CheckoutResult done = checkout(session, strategy, key);
+                    result.complete(done);
+                    sendCheckout(exchange, done);
+                    return;
+                } finally {
+                    if (!result.isDone()) {
+                        // failed before paying; a retry with the key starts over
+                        synchronized (checkouts) {
+                            checkouts.remove(key, result);
+                        }
+                        result.complete(null);
+                    }
+                }
+            }
+            // a retry, possibly while the first request is still running: it gets the first request's
+            // answer, without reserving stock or recording the order again
+            CheckoutResult original = existing.join();
+            if (original != null) {
+                sendCheckout(exchange, original);
+                return;
+            }
+        }
+    }
+
+    // reserves the cart's stock, pays, and records the order; the reservation is released unless committed
+    private CheckoutResult checkout(String session, PaymentStrategy strategy, String key) throws SQLException {
+        ShoppingCart cart = carts.getCart(session);
+        InventoryService inventory = InventoryService.getInstance();
+        InventoryService.Reservation reservation;
+        List<CartLine> lines;
+        long totalCents = 0;
+        synchronized (cart) {
+            if (cart.isEmpty()) {
+                throw new IllegalStateException("Cart is empty");
+            }
+            // the lines paid for; the cart may change while the payment runs
+            lines = cart.copyLines();
+            reservation = inventory.reserve(lines);
+        }
+        for (CartLine line : lines) {
+            totalCents += line.getLineTotalCents();
+        }
+        PaymentResult payment;
+        boolean committed = false;
+        try {
+            // held while paying, so that a successful payment can always be committed
+            if (!inventory.hold(reservation)) {
+                throw new IllegalStateException("Reservation expired");
+            }
+            payment = key != null
+                    ? payments.submit(strategy, totalCents / 100.0, key).join()
+                    : payments.submit(strategy, totalCents / 100.0).join();
+            committed = payment.isSuccessful() && inventory.commit(reservation);
+        } finally {
+            if (!committed) {
+                inventory.release(reservation);
+            }
+        }
+        if (payment.isSuccessful() && !committed) {
+            // only if the held reservation was released by someone else; the reference lets the payment be refunded
+            System.err.println("Payment " + payment.getIdempotencyKey() + " was taken but its stock was released");
+            return new CheckoutResult(500, "Payment " + payment.getIdempotencyKey()
+                    + " was taken but the stock was released", null, payment.getIdempotencyKey(), totalCents);
+        }
+        if (!committed) {
+            return new CheckoutResult(402, payment.getError(), null, payment.getIdempotencyKey(), totalCents);
+        }
+        Order order = null;
+        if (orderLog != null) {
+            try {
+                order = orderLog.append(lines, totalCents, payment.getIdempotencyKey()).join();
+            } catch (CompletionException e) {
+                // the payment went through; report it even though the order could not be recorded
+                e.getCause().printStackTrace();
+            }
+        }
+        // lines added while the payment ran stay in the cart
+        carts.removeLines(session, lines);
+        return new CheckoutResult(200, null, order == null ? null : order.getId(), payment.getIdempotencyKey(),
+                totalCents);
+    }
+
+    private static void sendCheckout(HttpExchange exchange, CheckoutResult result) throws IOException {
+        if (result.status != 200) {
+            sendError(exchange, result.status, result.error);
+            return;
+        }
+        sendJson(exchange, 200, json -> {
+            json.beginObject();
+            if (result.orderId != null) {
+                json.name("orderId").value(result.orderId);
+            }
+            json.name("paymentReference").value(result.paymentReference)
+                    .name("total").cents(result.totalCents)
+                    .endObject();
+        });
+    }
+
+    private static void writeProduct(JsonWriter json, Product product, boolean withDescription) throws IOException {
+        json.beginObject()
+                .name("id").value(product.getId())
+                .name("name").value(product.getName())
+                .name("category").value(ProductFactory.categoryOf(product))
+                .name("price").cents(Math.round(product.getPrice() * 100))
+                .name("stock").value(product.getStockQuantity());
+        if (withDescription) {
+            json.name("description").value(product.getDescription());
+        }
+        json.endObject();
+    }
+
+    private static Product findProduct(HttpExchange exchange, int id) throws IOException, SQLException {
+        Product product = DatabaseHelper.getProduct(id);
+        if (product == null) {
+            sendError(exchange, 404, "Product not found");
+        }
+        return product;
+    }
+
+    private static String requireSession(HttpExchange exchange) {
+        String session = exchange.getRequestHeaders().getFirst(SESSION_HEADER);
+        if (session == null || session.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + SESSION_HEADER + " header");
+        }
+        return session;
+    }
+
+    private static void requireMethod(HttpExchange exchange, String method) {
+        if (!exchange.getRequestMethod().equals(method)) {
+            throw new IllegalArgumentException("Use " + method);
+        }
+    }
+
+    private static void sendError(HttpExchange exchange, int status, String message) throws IOException {
+        sendJson(exchange, status, json -> json.beginObject().name("error").value(message).endObject());
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, JsonBody body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        // length 0 selects chunked encoding, so the body is streamed as it is written
+        exchange.sendResponseHeaders(status, 0);
+        try (Writer out = new BufferedWriter(new OutputStreamWriter(exchange.getResponseBody(),
+                StandardCharsets.UTF_8))) {
+            body.write(new JsonWriter(out));
+        }
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static Map<String, String> parseParams(String raw) {
+        Map<String, String> params = new HashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return params;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String name = eq < 0 ? pair : pair.substring(0, eq);
+            String value = eq < 0 ? "" : pair.substring(eq + 1);
+            params.put(URLDecoder.decode(name, StandardCharsets.UTF_8), URLDecoder.decode(value, StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static int parseInt(String value, String name) {
+        if (value == null) {
+            throw new IllegalArgumentException("Missing " + name);
+        }
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static double parseDouble(String value, String name) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + ": " + value);
+        }
+    }
+
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+
+    public static void main(String[] args) throws IOException, SQLException {
+        Startup.mark("main");
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        // Migrations and the first connection are prepared in the background while the log is opened
+        DatabaseHelper.initialize().thenRun(() -> Startup.mark("database ready"));
+        Metrics.startExporters();
+        OrderLog orderLog = OrderLog.open(Paths.get("orders"));
+        OrderProjection projection = OrderProjection.start(orderLog);
+        StorefrontServer server = new StorefrontServer(port, DEFAULT_MAX_IN_FLIGHT, orderLog);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.close();
+            projection.close();
+            try {
+                orderLog.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }));
+        server.start();
+        System.out.println("Storefront listening on port " + server.getPort()
+                + (VirtualThreads.isAvailable() ? " (virtual threads)" : " (platform threads)"));
+        Startup.ready("listening");
+    }
+
+    private interface Route {
+        void handle(HttpExchange exchange) throws IOException, SQLException;
+    }
+
+    private interface JsonBody {
+        void write(JsonWriter json) throws IOException;
+    }
+
+    /**
+     * The answer to a checkout, kept so that a retry with the same idempotency key gets it again.
+     */
+    private static final class CheckoutResult {
+        final int status;
+        final String error;
+        final Long orderId;
+        final String paymentReference;
+        final long totalCents;
+
+        CheckoutResult(int status, String error, Long orderId, String paymentReference, long totalCents) {
+            this.status = status;
+            this.error = error;
+            this.orderId = orderId;
+            this.paymentReference = paymentReference;
+            this.totalCents = totalCents;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Append-only table of deduplicated strings, stored back to back as UTF-8 in
+ * one byte array. A string is referred to by an int, so a column of strings
+ * costs four bytes per row plus the bytes of each distinct value, instead of a
+ * String object and its array per row. Strings are decoded on every
+ * {@link #get(int)}.
+ */
+public class StringTable {
+    private static final int NULL_REF = -1;
+
+    private byte[] bytes = new byte[1024];
+    private int[] offsets = new int[64];
+    private int count;
+    private int length;
+    // open addressing: reference + 1 per slot, 0 for empty
+    private int[] slots = new int[128];
+
+    /**
+     * Adds a string unless an equal one is present.
+     * @param value The string, or null
+     * @return The reference of the string, -1 for null
+     */
+    public int intern(String value) {
+        if (value == null) {
+            return NULL_REF;
+        }
+        if (slots == null) {
+            throw new IllegalStateException("String table has been trimmed");
+        }
+        byte[] encoded = value.getBytes(StandardCharsets.UTF_8);
+        int mask = slots.length - 1;
+        int slot = hash(encoded, 0, encoded.length) & mask;
+        while (slots[slot] != 0) {
+            int ref = slots[slot] - 1;
+            int start = offsets[ref];
+            if (Arrays.equals(bytes, start, end(ref), encoded, 0, encoded.length)) {
+                return ref;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int ref = append(encoded);
+        slots[slot] = ref + 1;
+        if (count * 2 > slots.length) {
+            rehash();
+        }
+        return ref;
+    }
+
+    /**
+     * Decodes a string.
+     * @param ref A reference returned by {@link #intern(String)}
+     * @return The string, or null for -1
+     */
+    public String get(int ref) {
+        if (ref == NULL_REF) {
+            return null;
+        }
+        if (ref < 0 || ref >= count) {
+            throw new IndexOutOfBoundsException("No string " + ref);
+        }
+        return new String(bytes, offsets[ref], end(ref) - offsets[ref], StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Gets the number of distinct strings.
+     */
+    public int size() {
+        return count;
+    }
+
+    /**
+     * Drops the spare capacity of the arrays and the lookup table, after which
+     * the table can no longer be added to.
+     */
+    public void trim() {
+        bytes = Arrays.copyOf(bytes, length);
+        offsets = Arrays.copyOf(offsets, count);
+        slots = null;
+    }
+
+    /**
+     * Gets the memory used by the stored strings and their offsets, in bytes.
+     */
+    public long getDataBytes() {
+        return (long) bytes.length + 4L * offsets.length + (slots == null ? 0 : 4L * slots.length);
+    }
+
+    private int end(int ref) {
+        return ref + 1 < count ? offsets[ref + 1] : length;
+    }
+
+    private int append(byte[] encoded) {
+        if (length + encoded.length > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + encoded.length));
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        System.arraycopy(encoded, 0, bytes, length, encoded.length);
+        offsets[count] = length;
+        length += encoded.length;
+        return count++;
+    }
+
+    private void rehash() {
+        int[] grown = new int[slots.length * 2];
+        int mask = grown.length - 1;
+        for (int ref = 0; ref < count; ref++) {
+            int slot = hash(bytes, offsets[ref], end(ref)) & mask;
+            while (grown[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            grown[slot] = ref + 1;
+        }
+        slots = grown;
+    }
+
+    private static int hash(byte[] data, int from, int to) {
+        int h = 1;
+        for (int i = from; i < to; i++) {
+            h = 31 * h + data[i];
+        }
+        // spread the high bits, as the table size is a power of two
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,73 @@
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for a payment gateway, used to measure the payment pipeline
+ * without a network. Each call waits for a simulated round trip; a fraction of
+ * calls fail with an exception (a transient gateway error, which
+ * {@link AsyncPaymentProcessor} retries) and a fraction of payments are declined.
+ * A batch of payments costs a single round trip.
+ */
+public class StubPaymentGateway implements BatchPaymentStrategy {
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double failureRate;
+    private final double declineRate;
+    private final LongAdder calls = new LongAdder();
+
+    /**
+     * Creates a stub gateway.
+     * @param latencyMillis Minimum duration of a call
+     * @param jitterMillis Maximum random time added to each call
+     * @param failureRate Probability, from 0 to 1, that a call throws
+     * @param declineRate Probability, from 0 to 1, that a payment is declined
+     */
+    public StubPaymentGateway(long latencyMillis, long jitterMillis, double failureRate, double declineRate) {
+        if (failureRate < 0 || failureRate > 1 || declineRate < 0 || declineRate > 1) {
+            throw new IllegalArgumentException("Rates must be between 0 and 1");
+        }
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.failureRate = failureRate;
+        this.declineRate = declineRate;
+    }
+
+    @Override
+    public boolean pay(double amount) {
+        roundTrip();
+        return ThreadLocalRandom.current().nextDouble() >= declineRate;
+    }
+
+    @Override
+    public boolean[] payAll(double[] amounts) {
+        roundTrip();
+        boolean[] paid = new boolean[amounts.length];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = 0; i < amounts.length; i++) {
+            paid[i] = random.nextDouble() >= declineRate;
+        }
+        return paid;
+    }
+
+    /**
+     * Gets the number of gateway calls made so far, counting each batch once.
+     */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    private void roundTrip() {
+        calls.increment();
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0);
+        try {
+            Thread.sleep(delay);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Payment interrupted", e);
+        }
+        if (random.nextDouble() < failureRate) {
+            throw new IllegalStateException("Payment gateway unavailable");
+        }
+    }
+}
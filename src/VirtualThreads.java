@@ -0,0 +1,42 @@
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Creates thread-per-task executors backed by virtual threads when the running
+ * JDK provides them (JDK 21 and later). On older JDKs the executors fall back
+ * to cached pools of daemon platform threads.
+ */
+public final class VirtualThreads {
+    private VirtualThreads() {
+    }
+
+    /**
+     * Creates an executor that starts a new thread for each task.
+     * @param name Name of the fallback platform threads
+     * @return A virtual-thread-per-task executor, or a cached daemon pool
+     */
+    public static ExecutorService newPerTaskExecutor(String name) {
+        try {
+            // looked up reflectively so the code still compiles and runs on older JDKs
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, name);
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * Tells whether {@link #newPerTaskExecutor} uses virtual threads on this JDK.
+     */
+    public static boolean isAvailable() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+}
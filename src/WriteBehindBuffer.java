@@ -0,0 +1,418 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Holds product updates in memory and writes them to the database later, in
+ * batches. Only the latest version of each product is kept, so a product
+ * updated a thousand times between flushes costs one UPDATE. A flush runs when
+ * {@code maxPending} products are waiting or every {@code flushIntervalMillis},
+ * whichever comes first, and writes everything waiting in one transaction.
+ *
+ * Every update is appended to a journal before it is accepted, so updates not
+ * yet flushed survive the process crashing and are replayed by the next
+ * {@link #open}. The journal is written to the operating system without an
+ * fsync per update, which matches the database itself (WAL with
+ * synchronous=NORMAL): a power failure may lose the last moments of updates.
+ * Each flush starts a new journal file and deletes the previous ones once
+ * their updates are in the database.
+ *
+ * Each record is {@code [payload length][CRC32C][payload]}; a torn record at
+ * the end of a journal fails its checksum and is discarded.
+ *
+ * Design Pattern:
+ * - Write-Behind: Writes are acknowledged from memory and stored asynchronously
+ */
+public class WriteBehindBuffer implements AutoCloseable {
+    private static final int HEADER_SIZE = 8;
+    private static final String JOURNAL_SUFFIX = ".journal";
+
+    /**
+     * Writes a batch of updates in one transaction.
+     */
+    public interface Sink {
+        void write(Collection<Update> updates) throws SQLException;
+    }
+
+    private final Path directory;
+    private final int maxPending;
+    private final Sink sink;
+    private final ConcurrentHashMap<Integer, Update> pending = new ConcurrentHashMap<>();
+    // guards the active journal and its rotation; held briefly by every update
+    private final Object lock = new Object();
+    // one flush at a time
+    private final Object flushLock = new Object();
+    private final TreeMap<Long, Path> sealed = new TreeMap<>();
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+    private final ScheduledExecutorService flusher;
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder rowsWritten = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LatencyHistogram flushTime;
+    private long generation;
+    private FileChannel journal;
+    private boolean closed;
+
+    private WriteBehindBuffer(Path directory, int maxPending, Sink sink) {
+        this.directory = directory;
+        this.maxPending = maxPending;
+        this.sink = sink;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "write-behind");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.flushTime = Metrics.histogram("write_behind_flush_seconds", "Latency of write-behind flushes");
+        Metrics.gauge("write_behind_pending", "Products with updates not yet written", pending::size);
+        Metrics.functionCounter("write_behind_updates_total", "Product updates accepted by the write-behind buffer",
+                updates::sum);
+        Metrics.functionCounter("write_behind_rows_written_total", "Rows written by write-behind flushes",
+                rowsWritten::sum);
+        Metrics.gauge("write_behind_coalescing_ratio", "Updates accepted per row written", this::getCoalescingRatio);
+    }
+
+    /**
+     * Opens a buffer, replays the updates left in its journal by a previous
+     * process and writes them to the database.
+     * @param directory The directory holding the journal files
+     * @param maxPending The number of waiting products that triggers a flush
+     * @param flushIntervalMillis The longest an update waits before it is flushed
+     * @param sink Writes flushed updates to the database
+     * @return The open buffer
+     * @throws SQLException if the journal cannot be read or written; a failure to
+     *         write the replayed updates is only reported, and retried by the next flush
+     */
+    public static WriteBehindBuffer open(Path directory, int maxPending, long flushIntervalMillis, Sink sink)
+            throws SQLException {
+        if (maxPending < 1 || flushIntervalMillis < 1) {
+            throw new IllegalArgumentException("Flush triggers must be positive");
+        }
+        WriteBehindBuffer buffer = new WriteBehindBuffer(directory, maxPending, sink);
+        try {
+            Files.createDirectories(directory);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + JOURNAL_SUFFIX)) {
+                for (Path file : files) {
+                    String name = file.getFileName().toString();
+                    buffer.sealed.put(Long.parseLong(name.substring(0, name.length() - JOURNAL_SUFFIX.length())), file);
+                }
+            }
+            // later journals hold later updates, so replaying in order leaves the latest of each product
+            for (Path file : buffer.sealed.values()) {
+                readJournal(file, update -> buffer.pending.put(update.id, update));
+            }
+            synchronized (buffer.lock) {
+                buffer.generation = buffer.sealed.isEmpty() ? 1 : buffer.sealed.lastKey() + 1;
+                buffer.journal = buffer.openJournal(buffer.generation);
+            }
+        } catch (IOException e) {
+            buffer.flusher.shutdown();
+            throw new SQLException("Failed to open write-behind journal in " + directory, e);
+        }
+        buffer.flushQuietly();
+        buffer.flusher.scheduleWithFixedDelay(buffer::flushQuietly, flushIntervalMillis, flushIntervalMillis,
+                TimeUnit.MILLISECONDS);
+        return buffer;
+    }
+
+    /**
+     * Accepts an update of a product's row. It replaces any update of the same
+     * product still waiting, and is visible through {@link #get} at once.
+     * @param product The product as it should be stored; its current values are copied
+     * @throws SQLException if the update could not be journaled, in which case it is not accepted
+     */
+    public void put(Product product) throws SQLException {
+        Update update = Update.of(product);
+        ByteBuffer record = encode(update);
+        synchronized (lock) {
+            if (closed) {
+                throw new IllegalStateException("Write-behind buffer is closed");
+            }
+            try {
+                while (record.hasRemaining()) {
+                    journal.write(record);
+                }
+            } catch (IOException e) {
+                throw new SQLException("Failed to journal update of product " + update.id, e);
+            }
+            pending.put(update.id, update);
+        }
+        updates.increment();
+        if (pending.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // closing; the update is journaled and written by the final flush or the next open
+            }
+        }
+    }
+
+    /**
+     * Applies the waiting update of a product, if any. Stock is not part of an
+     * update, so it is kept from the stored product.
+     * @param stored The product as stored in the database
+     * @return A new product with the values of the update, or the stored product if none is waiting
+     */
+    public Product get(Product stored) {
+        Update update = pending.get(stored.getId());
+        return update == null ? stored : update.toProduct(stored.getStockQuantity());
+    }
+
+    /**
+     * Replaces the products of a list that have updates waiting with their updated version.
+     * @param products The products, e.g. read from the database; changed in place
+     */
+    public void overlay(List<Product> products) {
+        if (pending.isEmpty()) {
+            return;
+        }
+        for (int i = 0; i < products.size(); i++) {
+            Update update = pending.get(products.get(i).getId());
+            if (update != null) {
+                products.set(i, update.toProduct(products.get(i).getStockQuantity()));
+            }
+        }
+    }
+
+    /**
+     * Drops the waiting update of a product, e.g. because it was deleted.
+     * Its journal record stays until the next flush; replaying it updates no row.
+     */
+    public void discard(int id) {
+        pending.remove(id);
+    }
+
+    /**
+     * Writes every waiting update to the database in one transaction.
+     * Updates accepted while the flush runs wait for the next one.
+     * @throws SQLException if the write failed; the updates stay waiting and journaled
+     */
+    public void flush() throws SQLException {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            Map<Integer, Update> batch;
+            synchronized (lock) {
+                if (pending.isEmpty() || closed) {
+                    return;
+                }
+                batch = new HashMap<>(pending);
+                // later updates go to a new journal, so the sealed ones can be deleted after the write
+                try {
+                    FileChannel next = openJournal(generation + 1);
+                    FileChannel previous = journal;
+                    sealed.put(generation, journalPath(generation));
+                    journal = next;
+                    generation++;
+                    previous.close();
+                } catch (IOException e) {
+                    throw new SQLException("Failed to start a new write-behind journal", e);
+                }
+            }
+            long start = flushTime.start();
+            try {
+                sink.write(batch.values());
+            } finally {
+                flushTime.stop(start);
+            }
+            for (Update update : batch.values()) {
+                // only if not replaced by a newer update meanwhile
+                pending.remove(update.id, update);
+            }
+            rowsWritten.add(batch.size());
+            flushes.increment();
+            // an earlier failed flush left its journal; its updates were still waiting and are written now
+            while (!sealed.isEmpty()) {
+                try {
+                    Files.deleteIfExists(sealed.firstEntry().getValue());
+                } catch (IOException e) {
+                    // replaying it again later is harmless, as the same or newer values are in the database
+                    e.printStackTrace();
+                }
+                sealed.pollFirstEntry();
+            }
+        }
+    }
+
+    /**
+     * Gets the number of products with updates waiting.
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    public long getUpdateCount() {
+        return updates.sum();
+    }
+
+    public long getRowsWritten() {
+        return rowsWritten.sum();
+    }
+
+    public long getFlushCount() {
+        return flushes.sum();
+    }
+
+    /**
+     * Gets the number of updates accepted per row written, e.g. 100 if each
+     * product was updated a hundred times between flushes.
+     */
+    public double getCoalescingRatio() {
+        long written = rowsWritten.sum();
+        return written == 0 ? 0 : (double) updates.sum() / written;
+    }
+
+    /**
+     * Stops the background flushes after a final flush. If the final flush
+     * fails, the updates stay in the journal for the next {@link #open}.
+     */
+    @Override
+    public void close() {
+        flusher.shutdown();
+        flushQuietly();
+        synchronized (lock) {
+            closed = true;
+            try {
+                journal.close();
+                if (pending.isEmpty()) {
+                    Files.deleteIfExists(journalPath(generation));
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            Metrics.counter("write_behind_flush_failures_total", "Failed write-behind flushes").increment();
+            e.printStackTrace();
+        }
+    }
+
+    private FileChannel openJournal(long generation) throws IOException {
+        return FileChannel.open(journalPath(generation), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+    }
+
+    private Path journalPath(long generation) {
+        return directory.resolve(String.format("%020d%s", generation, JOURNAL_SUFFIX));
+    }
+
+    private static ByteBuffer encode(Update update) {
+        byte[] name = utf8(update.name);
+        byte[] description = update.description == null ? null : utf8(update.description);
+        byte[] category = utf8(update.category);
+        int payloadSize = 4 + 4 + 8 + 8 + 4 + name.length + 4 + (description == null ? 0 : description.length)
+                + 4 + category.length;
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payloadSize);
+        record.putInt(payloadSize).putInt(0);
+        // the second field once held the stock; it is kept so that older journals still replay
+        record.putInt(update.id).putInt(0).putDouble(update.price).putDouble(update.discountPercent);
+        record.putInt(name.length).put(name);
+        record.putInt(description == null ? -1 : description.length);
+        if (description != null) {
+            record.put(description);
+        }
+        record.putInt(category.length).put(category);
+        CRC32C crc = new CRC32C();
+        crc.update(record.array(), HEADER_SIZE, payloadSize);
+        record.putInt(4, (int) crc.getValue());
+        return record.flip();
+    }
+
+    // reads records up to the end of the file or the first torn one
+    private static void readJournal(Path file, Consumer<Update> consumer) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file));
+        CRC32C crc = new CRC32C();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length <= 0 || length > buffer.remaining() - HEADER_SIZE) {
+                return;
+            }
+            crc.reset();
+            crc.update(buffer.array(), start + HEADER_SIZE, length);
+            if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+                return;
+            }
+            buffer.position(start + HEADER_SIZE);
+            int id = buffer.getInt();
+            buffer.getInt();
+            double price = buffer.getDouble();
+            double discountPercent = buffer.getDouble();
+            String name = readString(buffer);
+            String description = readString(buffer);
+            String category = readString(buffer);
+            consumer.accept(new Update(id, name, price, description, category, discountPercent));
+            buffer.position(start + HEADER_SIZE + length);
+        }
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] utf8(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The values of a product row as they are stored: the price after
+     * discounts, the description without the discount note, the category and
+     * the discount. Immutable, so later changes to the Product do not leak in.
+     */
+    public static final class Update {
+        final int id;
+        final String name;
+        final double price;
+        final String description;
+        final String category;
+        final double discountPercent;
+
+        Update(int id, String name, double price, String description, String category, double discountPercent) {
+            this.id = id;
+            this.name = name;
+            this.price = price;
+            this.description = description;
+            this.category = category;
+            this.discountPercent = discountPercent;
+        }
+
+        static Update of(Product product) {
+            return new Update(product.getId(), product.getName(), product.getPrice(),
+                    ProductFactory.undecorated(product).getDescription(), ProductFactory.categoryOf(product),
+                    ProductFactory.discountOf(product));
+        }
+
+        Product toProduct(int stockQuantity) {
+            return DatabaseHelper.newProduct(id, name, price, description, stockQuantity, category, discountPercent);
+        }
+    }
+}